@@ -0,0 +1,280 @@
+package io.schlosser.firekeep;
+
+import android.app.Instrumentation;
+import android.content.Context;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v7.widget.CardView;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+import android.util.TypedValue;
+import android.view.ContextThemeWrapper;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Scrolls a list of long notes a frame at a time, once with rows that are
+ * TextViews as before and once with {@link NoteCardView} rows whose layouts
+ * are prefetched, and reports the time the main thread spent per frame. Also
+ * compares the first fling of a new list with and without rows inflated ahead
+ * by the {@link NoteRowPool}.
+ *
+ * Run with ./gradlew connectedAndroidTest on a device; the frame times are
+ * logged under ScrollJankBenchmark and sent as instrumentation status.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ScrollJankBenchmark {
+
+    private static final String TAG = "ScrollJankBenchmark";
+    private static final int NOTES = 2000;
+    private static final int FRAMES = 600;
+    private static final int FRAME_MS = 16;
+    private static final int PREFETCH_ROWS = 10;
+    /** About a fling on a phone. */
+    private static final int FLING_FRAMES = 40;
+
+    @Test
+    public void prefetchedLayoutsShortenFrames() throws Exception {
+        Context context = new ContextThemeWrapper(InstrumentationRegistry.getTargetContext(), R.style.AppTheme);
+        List<Note> notes = longNotes(new Random(1));
+        NoteLayoutCache cache = FireKeepApplication.getLayoutCache(context);
+
+        long[] before = scroll(show(newList(), new TextViewAdapter(notes)), FRAMES);
+        cache.clear();
+        int hits = cache.getHits();
+        int misses = cache.getMisses();
+        RecyclerView list = newList();
+        long[] after = scroll(show(list, new CachedAdapter(notes, cache, newRows(list))), FRAMES);
+        hits = cache.getHits() - hits;
+        misses = cache.getMisses() - misses;
+
+        Bundle results = new Bundle();
+        report(results, "textView", before);
+        report(results, "prefetched", after);
+        results.putInt("prefetched_hits", hits);
+        results.putInt("prefetched_misses", misses);
+        Log.i(TAG, results.toString());
+        InstrumentationRegistry.getInstrumentation().sendStatus(0, results);
+
+        // Only the rows of the first screen are laid out during a frame
+        assertTrue("hits " + hits + ", misses " + misses, hits > misses);
+    }
+
+    @Test
+    public void prewarmedRowsAreNotInflatedDuringTheFirstFling() throws Exception {
+        Context context = new ContextThemeWrapper(InstrumentationRegistry.getTargetContext(), R.style.AppTheme);
+        List<Note> notes = longNotes(new Random(2));
+        NoteLayoutCache cache = FireKeepApplication.getLayoutCache(context);
+
+        cache.clear();
+        RecyclerView list = newList();
+        NoteRowPool cold = newRows(list);
+        long[] before = scroll(show(list, new CachedAdapter(notes, cache, cold)), FLING_FRAMES);
+
+        cache.clear();
+        list = newList();
+        final NoteRowPool warm = newRows(list);
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                warm.prewarm(FireKeepApplication.PREWARM_ROWS);
+            }
+        });
+        while (warm.getInflatedAhead() < FireKeepApplication.PREWARM_ROWS) {
+            SystemClock.sleep(FRAME_MS);
+        }
+        long[] after = scroll(show(list, new CachedAdapter(notes, cache, warm)), FLING_FRAMES);
+
+        Bundle results = new Bundle();
+        report(results, "cold", before);
+        report(results, "prewarmed", after);
+        results.putInt("cold_inflated", cold.getInflatedOnDemand());
+        results.putInt("cold_bound", cold.getBound());
+        results.putInt("prewarmed_inflated", warm.getInflatedOnDemand());
+        results.putInt("prewarmed_bound", warm.getBound());
+        Log.i(TAG, results.toString());
+        InstrumentationRegistry.getInstrumentation().sendStatus(0, results);
+
+        assertTrue(cold + " / " + warm, warm.getInflatedOnDemand() < cold.getInflatedOnDemand());
+    }
+
+    private static RecyclerView newList() {
+        final Context context = new ContextThemeWrapper(InstrumentationRegistry.getTargetContext(), R.style.AppTheme);
+        final RecyclerView[] list = new RecyclerView[1];
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                list[0] = new RecyclerView(context);
+                list[0].setLayoutManager(new LinearLayoutManager(context));
+            }
+        });
+        return list[0];
+    }
+
+    private static NoteRowPool newRows(final RecyclerView list) {
+        final NoteRowPool[] rows = new NoteRowPool[1];
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                rows[0] = new NoteRowPool(list);
+            }
+        });
+        return rows[0];
+    }
+
+    /** Lays out {@code list} the size of the screen. */
+    private static RecyclerView show(final RecyclerView list, final RecyclerView.Adapter<?> adapter) {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                int width = list.getResources().getDisplayMetrics().widthPixels;
+                int height = list.getResources().getDisplayMetrics().heightPixels;
+                list.setAdapter(adapter);
+                list.measure(View.MeasureSpec.makeMeasureSpec(width, View.MeasureSpec.EXACTLY),
+                        View.MeasureSpec.makeMeasureSpec(height, View.MeasureSpec.EXACTLY));
+                list.layout(0, 0, width, height);
+            }
+        });
+        return list;
+    }
+
+    /** @return main thread time of every frame in nanoseconds, sorted */
+    private static long[] scroll(final RecyclerView list, int count) {
+        Instrumentation instrumentation = InstrumentationRegistry.getInstrumentation();
+        final int step = (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, 40,
+                list.getResources().getDisplayMetrics());
+        final long[] frames = new long[count];
+        for (int i = 0; i < count; i++) {
+            final int frame = i;
+            instrumentation.runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    long start = System.nanoTime();
+                    list.scrollBy(0, step);
+                    frames[frame] = System.nanoTime() - start;
+                }
+            });
+            // The rest of the frame, when the prefetch thread gets to run
+            SystemClock.sleep(Math.max(0, FRAME_MS - frames[frame] / 1000000));
+        }
+        Arrays.sort(frames);
+        return frames;
+    }
+
+    private static void report(Bundle results, String name, long[] sorted) {
+        int janky = 0;
+        for (long frame : sorted) {
+            if (frame > FRAME_MS * 1000000L) {
+                janky++;
+            }
+        }
+        results.putDouble(name + "_p50_ms", sorted[sorted.length / 2] / 1e6);
+        results.putDouble(name + "_p90_ms", sorted[sorted.length * 9 / 10] / 1e6);
+        results.putDouble(name + "_p99_ms", sorted[sorted.length * 99 / 100] / 1e6);
+        results.putDouble(name + "_max_ms", sorted[sorted.length - 1] / 1e6);
+        results.putInt(name + "_janky_frames", janky);
+    }
+
+    /** Long paragraphs, and lists of many short lines. */
+    private static List<Note> longNotes(Random random) {
+        String[] words = {"note", "groceries", "meeting", "tomorrow", "remember", "call", "the", "and",
+                "appointment", "before", "project", "ideas", "for", "weekend", "a", "list"};
+        List<Note> notes = new ArrayList<>(NOTES);
+        for (int i = 0; i < NOTES; i++) {
+            StringBuilder text = new StringBuilder();
+            boolean list = random.nextInt(3) == 0;
+            int length = 1000 + random.nextInt(4000);
+            while (text.length() < length) {
+                text.append(words[random.nextInt(words.length)]);
+                text.append(list && random.nextInt(3) == 0 ? '\n' : ' ');
+            }
+            notes.add(new Note(text.toString(), i, "White"));
+        }
+        return notes;
+    }
+
+    /** Rows as they were, a TextView that lays out the preview when bound. */
+    private static class TextViewAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
+        private final List<Note> notes;
+
+        TextViewAdapter(List<Note> notes) {
+            this.notes = notes;
+        }
+
+        @Override
+        public RecyclerView.ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+            Context context = parent.getContext();
+            float density = context.getResources().getDisplayMetrics().density;
+            CardView card = new CardView(context);
+            RecyclerView.LayoutParams params = new RecyclerView.LayoutParams(
+                    ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.WRAP_CONTENT);
+            params.setMargins((int) (16 * density), (int) (8 * density), (int) (16 * density), (int) (8 * density));
+            card.setLayoutParams(params);
+            TextView text = new TextView(context);
+            text.setTextSize(TypedValue.COMPLEX_UNIT_DIP, 20);
+            int padding = (int) (16 * density);
+            text.setPadding(padding, padding, padding, padding);
+            card.addView(text, ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.WRAP_CONTENT);
+            return new RecyclerView.ViewHolder(card) {
+            };
+        }
+
+        @Override
+        public void onBindViewHolder(RecyclerView.ViewHolder holder, int position) {
+            TextView text = (TextView) ((ViewGroup) holder.itemView).getChildAt(0);
+            text.setText(NoteSummaries.preview(notes.get(position).getText()));
+        }
+
+        @Override
+        public int getItemCount() {
+            return notes.size();
+        }
+    }
+
+    /** Rows as {@link PagedNoteAdapter} binds them, prefetching the rows ahead. */
+    private static class CachedAdapter extends RecyclerView.Adapter<MainActivity.NoteHolder> {
+        private final List<Note> notes;
+        private final NoteLayoutCache cache;
+        private final NoteRowPool rows;
+
+        CachedAdapter(List<Note> notes, NoteLayoutCache cache, NoteRowPool rows) {
+            this.notes = notes;
+            this.cache = cache;
+            this.rows = rows;
+        }
+
+        @Override
+        public MainActivity.NoteHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+            return new MainActivity.NoteHolder(rows.create(parent));
+        }
+
+        @Override
+        public void onBindViewHolder(MainActivity.NoteHolder holder, int position) {
+            NoteBinder.bind(holder, String.valueOf(position), notes.get(position), false, false);
+            rows.onBind();
+            int ahead = position + PREFETCH_ROWS;
+            if (ahead < notes.size()) {
+                cache.prefetch(String.valueOf(ahead), notes.get(ahead).getText(), holder.getTextWidth());
+            }
+        }
+
+        @Override
+        public int getItemCount() {
+            return notes.size();
+        }
+    }
+}
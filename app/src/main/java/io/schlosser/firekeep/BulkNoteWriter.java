@@ -0,0 +1,169 @@
+package io.schlosser.firekeep;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Bulk delete, recolor and archive for selected notes. Each operation is one
+ * {@link NoteBatch}, written with a single multi-path update however many notes
+ * it touches.
+ *
+ * Batches stay pending until the database answers, and the list shows notes as
+ * if every pending batch had already been written. A failed batch is dropped,
+ * which rolls the list back to what the database holds. Once a batch is
+ * written, the {@link NoteTags} counts it changed are updated.
+ *
+ * Notes are only deleted with their tags known. Selected notes whose page was
+ * let go are read again first, and are hidden while that read runs.
+ */
+public class BulkNoteWriter {
+
+    public interface Listener {
+        /** A batch was sent, written or rolled back; the list should be refreshed. */
+        void onPendingChanged();
+
+        void onBatchFailed(int noteCount, String error);
+    }
+
+    /** Reads a stored note, see {@link NoteBackend#readNote}. */
+    public interface NoteReader {
+        void readNote(String noteId, NoteBackend.NoteCallback callback);
+    }
+
+    private final String uid;
+    private final NoteBatchSink sink;
+    private final NoteReader reader;
+    private final List<NoteBatch> pending = new ArrayList<>();
+    /** Notes to delete that are read for their tags first. */
+    private final Set<String> reading = new HashSet<>();
+    private Listener listener;
+
+    public BulkNoteWriter(String uid, NoteBatchSink sink, NoteReader reader) {
+        this.uid = uid;
+        this.sink = sink;
+        this.reader = reader;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /** @param notes each note as listed, or null if it is not loaded, when it is read first */
+    public void delete(final Map<NoteCursor, Note> notes) {
+        final NoteBatch batch = new NoteBatch(uid);
+        final List<NoteCursor> unknown = new ArrayList<>();
+        for (Map.Entry<NoteCursor, Note> note : notes.entrySet()) {
+            if (note.getValue() == null) {
+                unknown.add(note.getKey());
+            } else {
+                batch.delete(note.getKey(), note.getValue());
+            }
+        }
+        if (unknown.isEmpty()) {
+            submit(batch);
+            return;
+        }
+
+        for (NoteCursor cursor : unknown) {
+            reading.add(cursor.key);
+        }
+        listener.onPendingChanged();
+        final int[] left = {unknown.size()};
+        final boolean[] failed = {false};
+        for (final NoteCursor cursor : unknown) {
+            reader.readNote(cursor.key, new NoteBackend.NoteCallback() {
+                @Override
+                public void onNote(Note note) {
+                    // Already gone, with its tags
+                    batch.delete(cursor, note != null ? note : new Note(null, cursor.dateCreated, null));
+                    done();
+                }
+
+                @Override
+                public void onError(String message) {
+                    if (!failed[0]) {
+                        failed[0] = true;
+                        listener.onBatchFailed(notes.size(), message);
+                    }
+                    done();
+                }
+
+                private void done() {
+                    if (--left[0] > 0) {
+                        return;
+                    }
+                    for (NoteCursor read : unknown) {
+                        reading.remove(read.key);
+                    }
+                    if (failed[0]) {
+                        listener.onPendingChanged();
+                    } else {
+                        submit(batch);
+                    }
+                }
+            });
+        }
+    }
+
+    public void recolor(Collection<NoteCursor> notes, String color) {
+        submit(new NoteBatch(uid).setColor(notes, color));
+    }
+
+    public void archive(Collection<NoteCursor> notes) {
+        List<String> noteIds = new ArrayList<>(notes.size());
+        for (NoteCursor cursor : notes) {
+            noteIds.add(cursor.key);
+        }
+        submit(new NoteBatch(uid).setArchived(noteIds, true));
+    }
+
+    public boolean hasPending() {
+        return !pending.isEmpty() || !reading.isEmpty();
+    }
+
+    /** True if a pending batch deletes or archives the note. */
+    public boolean isHidden(String noteId) {
+        if (reading.contains(noteId)) {
+            return true;
+        }
+        for (NoteBatch batch : pending) {
+            if (batch.hides(noteId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** The note with every pending batch applied, in the order they were sent. */
+    public Note apply(String noteId, Note note) {
+        for (NoteBatch batch : pending) {
+            note = batch.apply(noteId, note);
+        }
+        return note;
+    }
+
+    private void submit(final NoteBatch batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        pending.add(batch);
+        listener.onPendingChanged();
+
+        sink.updateChildren(batch.toUpdate(), new NoteBatchSink.Callback() {
+            @Override
+            public void onComplete(String error) {
+                pending.remove(batch);
+                if (error != null) {
+                    listener.onBatchFailed(batch.size(), error);
+                } else if (!batch.tagCountChanges().isEmpty()) {
+                    sink.addToCounts(NoteTags.countsPath(uid), batch.tagCountChanges());
+                }
+                listener.onPendingChanged();
+            }
+        });
+    }
+}
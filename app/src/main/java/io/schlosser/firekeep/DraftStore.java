@@ -0,0 +1,156 @@
+package io.schlosser.firekeep;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Unsaved note edits, kept in app storage so they survive the process dying.
+ * One file per note, with the color on the first line and the text after it.
+ * Disk access happens on a single background thread, in submission order.
+ */
+public class DraftStore {
+
+    private static final String TAG = "DraftStore";
+    private static final String DRAFTS_DIR = "drafts";
+    private static final String NEW_NOTE = "new";
+    private static final String CHARSET = "UTF-8";
+
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final File dir;
+
+    public interface Callback {
+        /** Called on the main thread, with null when there is no draft. */
+        void onDraftLoaded(Draft draft);
+    }
+
+    public static class Draft {
+        public final String text;
+        public final String color;
+
+        public Draft(String text, String color) {
+            this.text = text;
+            this.color = color;
+        }
+    }
+
+    public DraftStore(Context context) {
+        dir = new File(context.getFilesDir(), DRAFTS_DIR);
+    }
+
+    /** @param noteId the note being edited, or null for a new note */
+    public void write(String noteId, final String text, final String color) {
+        final File file = fileFor(noteId);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!dir.isDirectory() && !dir.mkdirs()) {
+                    Log.w(TAG, "Could not create " + dir);
+                    return;
+                }
+                // Write next to the draft and rename, so a crash never leaves half a draft
+                File tmp = new File(dir, file.getName() + ".tmp");
+                Writer writer = null;
+                try {
+                    writer = new OutputStreamWriter(new FileOutputStream(tmp), CHARSET);
+                    writer.write(color == null ? "" : color);
+                    writer.write('\n');
+                    writer.write(text);
+                    writer.close();
+                    writer = null;
+                    if (!tmp.renameTo(file)) {
+                        Log.w(TAG, "Could not save draft " + file);
+                    }
+                } catch (IOException e) {
+                    Log.w(TAG, "Could not save draft " + file, e);
+                } finally {
+                    closeQuietly(writer);
+                }
+            }
+        });
+    }
+
+    public void read(String noteId, final Callback callback) {
+        final File file = fileFor(noteId);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Draft draft = readNow(file);
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onDraftLoaded(draft);
+                    }
+                });
+            }
+        });
+    }
+
+    public void delete(String noteId) {
+        final File file = fileFor(noteId);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (file.exists() && !file.delete()) {
+                    Log.w(TAG, "Could not delete draft " + file);
+                }
+            }
+        });
+    }
+
+    private File fileFor(String noteId) {
+        return new File(dir, (noteId == null ? NEW_NOTE : noteId) + ".txt");
+    }
+
+    private static Draft readNow(File file) {
+        if (!file.exists()) {
+            return null;
+        }
+        Reader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), CHARSET));
+            StringBuilder color = new StringBuilder();
+            int c;
+            while ((c = reader.read()) != -1 && c != '\n') {
+                color.append((char) c);
+            }
+            StringBuilder text = new StringBuilder((int) file.length());
+            char[] buffer = new char[8192];
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                text.append(buffer, 0, read);
+            }
+            return new Draft(text.toString(), color.length() == 0 ? null : color.toString());
+        } catch (IOException e) {
+            Log.w(TAG, "Could not read draft " + file, e);
+            return null;
+        } finally {
+            closeQuietly(reader);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // Nothing left to do
+            }
+        }
+    }
+}
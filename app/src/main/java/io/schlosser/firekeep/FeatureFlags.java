@@ -0,0 +1,186 @@
+package io.schlosser.firekeep;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
+import com.google.firebase.remoteconfig.FirebaseRemoteConfig;
+import com.google.firebase.remoteconfig.FirebaseRemoteConfigFetchThrottledException;
+import com.google.firebase.remoteconfig.FirebaseRemoteConfigSettings;
+import com.google.firebase.remoteconfig.FirebaseRemoteConfigValue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Process-wide feature flags on top of FirebaseRemoteConfig.
+ *
+ * Flags are read from an immutable {@link FlagSnapshot}, so a lookup is a
+ * field read. The last activated snapshot is kept in preferences, and is what
+ * a cold start begins with, without waiting for Remote Config. Fetches are
+ * shared: asking while one is running waits for that one, and a fetch younger
+ * than the cache expiry is not repeated. Listeners hear about activations that
+ * change a value.
+ *
+ * Listeners and fetch callbacks are called on the main thread.
+ */
+public class FeatureFlags {
+
+    private static final String TAG = "FeatureFlags";
+    private static final String PREFS = "feature_flags";
+    private static final String KEY_LAST_FETCH = "last_fetch";
+    private static final long DEFAULT_CACHE_EXPIRY_S = 60 * 12; // 5 requests / hr
+
+    public interface Listener {
+        void onFlagsChanged(FlagSnapshot old, FlagSnapshot current);
+    }
+
+    public interface FetchCallback {
+        void onFetched();
+
+        void onThrottled(long throttleEndTimeMillis);
+
+        void onFailed(Exception e);
+    }
+
+    private static FeatureFlags instance;
+
+    private final SharedPreferences prefs;
+    private final FirebaseRemoteConfig config;
+    private final long cacheExpiry;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final List<Listener> listeners = new ArrayList<>();
+    private final List<FetchCallback> waiting = new ArrayList<>();
+    private volatile FlagSnapshot snapshot;
+    private boolean fetching;
+    private long fetchStartNanos;
+
+    public static synchronized FeatureFlags getInstance(Context context) {
+        if (instance == null) {
+            instance = new FeatureFlags(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private FeatureFlags(Context context) {
+        prefs = context.getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+        snapshot = FlagSnapshot.read(new FlagSnapshot.Values() {
+            @Override
+            public Boolean getBoolean(String key) {
+                return prefs.contains(key) ? prefs.getBoolean(key, false) : null;
+            }
+        }, FlagSnapshot.DEFAULTS);
+
+        config = FirebaseRemoteConfig.getInstance();
+        FirebaseRemoteConfigSettings configSettings = new FirebaseRemoteConfigSettings.Builder()
+                .setDeveloperModeEnabled(BuildConfig.DEBUG)
+                .build();
+        config.setConfigSettings(configSettings);
+        cacheExpiry = configSettings.isDeveloperModeEnabled() ? 0 : DEFAULT_CACHE_EXPIRY_S;
+    }
+
+    /** The current flags. Cheap enough for every bind. */
+    public FlagSnapshot get() {
+        return snapshot;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /** Fetches unless the last fetch is younger than the cache expiry. */
+    public void fetchIfStale() {
+        long age = System.currentTimeMillis() - prefs.getLong(KEY_LAST_FETCH, 0);
+        if (age >= cacheExpiry * 1000) {
+            fetch(null);
+        }
+    }
+
+    /**
+     * Fetches and activates new values, or joins the fetch already running.
+     * May be called from any thread.
+     */
+    public void fetch(final FetchCallback callback) {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (callback != null) {
+                    waiting.add(callback);
+                }
+                if (!fetching) {
+                    fetching = true;
+                    fetchStartNanos = System.nanoTime();
+                    config.fetch(cacheExpiry).addOnCompleteListener(onFetchComplete);
+                }
+            }
+        });
+    }
+
+    private final OnCompleteListener<Void> onFetchComplete = new OnCompleteListener<Void>() {
+        @Override
+        public void onComplete(@NonNull Task<Void> task) {
+            fetching = false;
+            Metrics.CONFIG_FETCH.recordSince(fetchStartNanos);
+            List<FetchCallback> callbacks = new ArrayList<>(waiting);
+            waiting.clear();
+
+            Exception e = task.getException();
+            if (task.isSuccessful()) {
+                Log.d(TAG, "fetchConfig:SUCCESS");
+                prefs.edit().putLong(KEY_LAST_FETCH, System.currentTimeMillis()).apply();
+                config.activateFetched();
+                activate();
+                for (FetchCallback callback : callbacks) {
+                    callback.onFetched();
+                }
+            } else if (e instanceof FirebaseRemoteConfigFetchThrottledException) {
+                long until = ((FirebaseRemoteConfigFetchThrottledException) e).getThrottleEndTimeMillis();
+                Log.w(TAG, "fetchConfig:THROTTLED until " + until);
+                for (FetchCallback callback : callbacks) {
+                    callback.onThrottled(until);
+                }
+            } else {
+                Log.w(TAG, "fetchConfig:UNEXPECTED_ERROR", e);
+                for (FetchCallback callback : callbacks) {
+                    callback.onFailed(e);
+                }
+            }
+        }
+    };
+
+    private void activate() {
+        FlagSnapshot old = snapshot;
+        FlagSnapshot current = FlagSnapshot.read(new FlagSnapshot.Values() {
+            @Override
+            public Boolean getBoolean(String key) {
+                FirebaseRemoteConfigValue value = config.getValue(key);
+                return value.getSource() == FirebaseRemoteConfig.VALUE_SOURCE_STATIC ? null : value.asBoolean();
+            }
+        }, FlagSnapshot.DEFAULTS);
+        if (current.equals(old)) {
+            return;
+        }
+
+        snapshot = current;
+        final SharedPreferences.Editor editor = prefs.edit();
+        current.write(new FlagSnapshot.Editor() {
+            @Override
+            public void putBoolean(String key, boolean value) {
+                editor.putBoolean(key, value);
+            }
+        });
+        editor.apply();
+        for (Listener listener : new ArrayList<>(listeners)) {
+            listener.onFlagsChanged(old, current);
+        }
+    }
+}
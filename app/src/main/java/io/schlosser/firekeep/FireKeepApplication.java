@@ -0,0 +1,94 @@
+package io.schlosser.firekeep;
+
+import android.app.Application;
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.FirebaseDatabase;
+
+/**
+ * Sets up the database and holds what lives as long as the process rather
+ * than a screen.
+ */
+public class FireKeepApplication extends Application {
+
+    static final int PAGE_SIZE = 50;
+    static final int PREFETCH_DISTANCE = 15;
+    static final int RESIDENT_PAGES = 2;
+    /** List rows inflated in the background after startup, see {@link NoteRowPool}. */
+    static final int PREWARM_ROWS = 12;
+
+    private NoteBackend backend;
+    private NoteStore noteStore;
+    private NoteLayoutCache layoutCache;
+    /** One per process, as there is one index file per user. */
+    private NoteSearchIndexer searchIndexer;
+
+    public static NoteStore getNoteStore(Context context) {
+        return ((FireKeepApplication) context.getApplicationContext()).noteStore;
+    }
+
+    public static NoteLayoutCache getLayoutCache(Context context) {
+        return ((FireKeepApplication) context.getApplicationContext()).layoutCache;
+    }
+
+    /** The search index of {@code uid}'s notes, shared by the screens and {@link NoteSyncJob}. Any thread. */
+    public static NoteSearchIndexer getSearchIndexer(Context context, String uid) {
+        FireKeepApplication app = (FireKeepApplication) context.getApplicationContext();
+        synchronized (app) {
+            if (app.searchIndexer == null || !app.searchIndexer.getUid().equals(uid)) {
+                if (app.searchIndexer != null) {
+                    // Another account signed in
+                    app.searchIndexer.release();
+                }
+                DatabaseReference notes = FirebaseDatabase.getInstance().getReference("notes").child(uid);
+                app.searchIndexer = new NoteSearchIndexer(app, notes);
+            }
+            return app.searchIndexer;
+        }
+    }
+
+    public static NoteBackend getBackend(Context context) {
+        return ((FireKeepApplication) context.getApplicationContext()).backend;
+    }
+
+    /** Replaces the backend, e.g. with a fake in instrumented tests. Call before any screen uses it. */
+    public static void setBackend(Context context, NoteBackend backend) {
+        ((FireKeepApplication) context.getApplicationContext()).backend = backend;
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        // Before any other use of the database. Lets a cold start show notes from disk
+        FirebaseDatabase database = FirebaseDatabase.getInstance();
+        database.setPersistenceEnabled(true);
+        backend = new FirebaseNoteBackend(database);
+        NoteSyncJob.schedule(this);
+        layoutCache = new NoteLayoutCache(this);
+
+        final Handler mainHandler = new Handler(Looper.getMainLooper());
+        noteStore = new NoteStore(new NoteStore.Scheduler() {
+            @Override
+            public void postDelayed(Runnable task, long delayMillis) {
+                mainHandler.postDelayed(task, delayMillis);
+            }
+
+            @Override
+            public void cancel(Runnable task) {
+                mainHandler.removeCallbacks(task);
+            }
+        }, PAGE_SIZE, PREFETCH_DISTANCE, RESIDENT_PAGES);
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        // Rows are laid out again when the list is shown next
+        if (level >= TRIM_MEMORY_UI_HIDDEN) {
+            layoutCache.clear();
+        }
+    }
+}
@@ -0,0 +1,284 @@
+package io.schlosser.firekeep;
+
+import com.google.firebase.database.ChildEventListener;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.Query;
+import com.google.firebase.database.ValueEventListener;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link NotePageSource} over one {@link NoteIndex} node, e.g. only red notes.
+ * Pages are read from the index, ordered by its values which are the notes'
+ * dateCreated, and then only the notes on the page are read from {@code notes},
+ * which holds {@link NoteSummaries} or full notes.
+ */
+public class FirebaseIndexedNotePageSource implements NotePageSource {
+
+    private final DatabaseReference index;
+    private final DatabaseReference notes;
+
+    public FirebaseIndexedNotePageSource(DatabaseReference index, DatabaseReference notes) {
+        this.index = index;
+        this.notes = notes;
+    }
+
+    @Override
+    public Registration loadWindow(final NoteCursor before, int limit, final WindowCallback callback) {
+        Query query = index.orderByValue();
+        if (before != null) {
+            // endAt is inclusive, ask for one more and drop the cursor itself
+            query = query.endAt(before.dateCreated, before.key).limitToLast(limit + 1);
+        } else {
+            query = query.limitToLast(limit);
+        }
+        final Query windowQuery = query;
+        final WindowLoad load = new WindowLoad(before, callback);
+        windowQuery.addListenerForSingleValueEvent(load);
+
+        return new Registration() {
+            @Override
+            public void remove() {
+                load.removed = true;
+                windowQuery.removeEventListener(load);
+            }
+        };
+    }
+
+    /** Reads the page from the index, then each of its notes once. */
+    private class WindowLoad implements ValueEventListener {
+        private final NoteCursor before;
+        private final WindowCallback callback;
+        private final List<NotePager.Entry> entries = new ArrayList<>();
+        private final List<NoteCursor> cursors = new ArrayList<>();
+        private int pending;
+        private boolean removed;
+
+        WindowLoad(NoteCursor before, WindowCallback callback) {
+            this.before = before;
+            this.callback = callback;
+        }
+
+        @Override
+        public void onDataChange(DataSnapshot dataSnapshot) {
+            for (DataSnapshot child : dataSnapshot.getChildren()) {
+                NoteCursor cursor = cursorOf(child);
+                if (before == null || cursor.compareTo(before) < 0) {
+                    cursors.add(cursor);
+                    entries.add(null);
+                }
+            }
+            pending = cursors.size();
+            if (pending == 0) {
+                callback.onWindowLoaded(entries);
+                return;
+            }
+            for (int i = 0; i < cursors.size(); i++) {
+                final int position = i;
+                notes.child(cursors.get(i).key).addListenerForSingleValueEvent(new ValueEventListener() {
+                    @Override
+                    public void onDataChange(DataSnapshot dataSnapshot) {
+                        entries.set(position, new NotePager.Entry(cursors.get(position),
+                                NoteSummaries.fromValue(dataSnapshot.getValue())));
+                        noteLoaded();
+                    }
+
+                    @Override
+                    public void onCancelled(DatabaseError databaseError) {
+                        noteLoaded();
+                    }
+                });
+            }
+        }
+
+        private void noteLoaded() {
+            if (--pending > 0 || removed) {
+                return;
+            }
+            List<NotePager.Entry> loaded = new ArrayList<>(entries.size());
+            for (NotePager.Entry entry : entries) {
+                // Left out if it could not be read, or was deleted after the index was read
+                if (entry != null && entry.getNote() != null) {
+                    loaded.add(entry);
+                }
+            }
+            callback.onWindowLoaded(loaded);
+        }
+
+        @Override
+        public void onCancelled(DatabaseError databaseError) {
+            callback.onError(databaseError.getMessage());
+        }
+    }
+
+    @Override
+    public Registration watchRange(NoteCursor from, NoteCursor before, RangeListener listener) {
+        Query query = index.orderByValue();
+        if (from != null) {
+            query = query.startAt(from.dateCreated, from.key);
+        }
+        if (before != null) {
+            query = query.endAt(before.dateCreated, before.key);
+        }
+        final RangeWatch watch = new RangeWatch(query, before, listener);
+        query.addChildEventListener(watch);
+        // Value events fire after the child events for the same data
+        query.addListenerForSingleValueEvent(watch.indexLoaded);
+
+        return new Registration() {
+            @Override
+            public void remove() {
+                watch.remove();
+            }
+        };
+    }
+
+    /**
+     * Follows the index range and keeps a listener on every note in it, so
+     * edits to those notes come through as well.
+     */
+    private class RangeWatch implements ChildEventListener {
+        private final Query query;
+        private final NoteCursor before;
+        private final RangeListener listener;
+        private final Map<String, NoteWatch> watches = new HashMap<>();
+        private boolean loaded;
+        private boolean loadedReported;
+        private int pending;
+
+        final ValueEventListener indexLoaded = new ValueEventListener() {
+            @Override
+            public void onDataChange(DataSnapshot dataSnapshot) {
+                loaded = true;
+                reportLoaded();
+            }
+
+            @Override
+            public void onCancelled(DatabaseError databaseError) {
+                // Reported by the child listener
+            }
+        };
+
+        RangeWatch(Query query, NoteCursor before, RangeListener listener) {
+            this.query = query;
+            this.before = before;
+            this.listener = listener;
+        }
+
+        @Override
+        public void onChildAdded(DataSnapshot dataSnapshot, String previousChildName) {
+            if (isBound(dataSnapshot) || watches.containsKey(dataSnapshot.getKey())) {
+                return;
+            }
+            NoteWatch watch = new NoteWatch(this, cursorOf(dataSnapshot));
+            watches.put(watch.cursor.key, watch);
+            pending++;
+            notes.child(watch.cursor.key).addValueEventListener(watch);
+        }
+
+        @Override
+        public void onChildChanged(DataSnapshot dataSnapshot, String previousChildName) {
+            // Values are dateCreated, which never changes
+        }
+
+        @Override
+        public void onChildRemoved(DataSnapshot dataSnapshot) {
+            NoteWatch watch = watches.remove(dataSnapshot.getKey());
+            if (watch == null) {
+                return;
+            }
+            notes.child(watch.cursor.key).removeEventListener(watch);
+            if (!watch.loaded) {
+                noteLoaded();
+            } else if (watch.added) {
+                listener.onNoteRemoved(watch.cursor);
+            }
+        }
+
+        @Override
+        public void onChildMoved(DataSnapshot dataSnapshot, String previousChildName) {
+            // Values never change, so children never move
+        }
+
+        @Override
+        public void onCancelled(DatabaseError databaseError) {
+            listener.onError(databaseError.getMessage());
+        }
+
+        void noteLoaded() {
+            pending--;
+            reportLoaded();
+        }
+
+        private void reportLoaded() {
+            if (loaded && pending == 0 && !loadedReported) {
+                loadedReported = true;
+                listener.onRangeLoaded();
+            }
+        }
+
+        private boolean isBound(DataSnapshot dataSnapshot) {
+            return before != null && before.key.equals(dataSnapshot.getKey());
+        }
+
+        void remove() {
+            query.removeEventListener(this);
+            query.removeEventListener(indexLoaded);
+            for (NoteWatch watch : watches.values()) {
+                notes.child(watch.cursor.key).removeEventListener(watch);
+            }
+            watches.clear();
+        }
+    }
+
+    private static class NoteWatch implements ValueEventListener {
+        private final RangeWatch range;
+        final NoteCursor cursor;
+        /** Whether the range listener currently has the note. */
+        boolean added;
+        boolean loaded;
+
+        NoteWatch(RangeWatch range, NoteCursor cursor) {
+            this.range = range;
+            this.cursor = cursor;
+        }
+
+        @Override
+        public void onDataChange(DataSnapshot dataSnapshot) {
+            Note note = NoteSummaries.fromValue(dataSnapshot.getValue());
+            if (note == null) {
+                if (added) {
+                    added = false;
+                    range.listener.onNoteRemoved(cursor);
+                }
+            } else if (added) {
+                range.listener.onNoteChanged(cursor, note);
+            } else {
+                added = true;
+                range.listener.onNoteAdded(cursor, note);
+            }
+            if (!loaded) {
+                loaded = true;
+                range.noteLoaded();
+            }
+        }
+
+        @Override
+        public void onCancelled(DatabaseError databaseError) {
+            if (!loaded) {
+                loaded = true;
+                range.noteLoaded();
+            }
+        }
+    }
+
+    private static NoteCursor cursorOf(DataSnapshot dataSnapshot) {
+        Long dateCreated = dataSnapshot.getValue(Long.class);
+        return new NoteCursor(dateCreated == null ? 0 : dateCreated, dataSnapshot.getKey());
+    }
+}
@@ -0,0 +1,84 @@
+package io.schlosser.firekeep;
+
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.auth.FirebaseUser;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.FirebaseDatabase;
+import com.google.firebase.database.ValueEventListener;
+
+/** {@link NoteBackend} on the realtime database, for the signed in Firebase user. */
+public class FirebaseNoteBackend implements NoteBackend {
+
+    private final FirebaseDatabase database;
+
+    public FirebaseNoteBackend(FirebaseDatabase database) {
+        this.database = database;
+    }
+
+    @Override
+    public String getUid() {
+        FirebaseUser user = FirebaseAuth.getInstance().getCurrentUser();
+        return user == null ? null : user.getUid();
+    }
+
+    @Override
+    public NotePageSource pageSource(String listPath) {
+        return new FirebaseNotePageSource(database.getReference(listPath));
+    }
+
+    @Override
+    public NotePageSource indexedPageSource(String indexPath, String listPath) {
+        return new FirebaseIndexedNotePageSource(database.getReference(indexPath), database.getReference(listPath));
+    }
+
+    @Override
+    public NoteBatchSink batchSink() {
+        return new FirebaseNoteBatchSink(database.getReference());
+    }
+
+    @Override
+    public void readNote(String uid, String noteId, final NoteCallback callback) {
+        database.getReference("notes").child(uid).child(noteId).addListenerForSingleValueEvent(new ValueEventListener() {
+            @Override
+            public void onDataChange(DataSnapshot dataSnapshot) {
+                callback.onNote(NoteMapper.fromValue(dataSnapshot.getValue()));
+            }
+
+            @Override
+            public void onCancelled(DatabaseError databaseError) {
+                callback.onError(databaseError.getMessage());
+            }
+        });
+    }
+
+    @Override
+    public void readTagCounts(String uid, final TagCountsCallback callback) {
+        database.getReference(NoteTags.countsPath(uid)).addListenerForSingleValueEvent(new ValueEventListener() {
+            @Override
+            public void onDataChange(DataSnapshot dataSnapshot) {
+                callback.onTagCounts(NoteTags.countsFromValue(dataSnapshot.getValue()));
+            }
+
+            @Override
+            public void onCancelled(DatabaseError databaseError) {
+                callback.onError(databaseError.getMessage());
+            }
+        });
+    }
+
+    @Override
+    public void watchConnection(final ConnectionListener listener) {
+        database.getReference(".info/connected").addValueEventListener(new ValueEventListener() {
+            @Override
+            public void onDataChange(DataSnapshot dataSnapshot) {
+                listener.onConnectionChanged(Boolean.TRUE.equals(dataSnapshot.getValue(Boolean.class)));
+            }
+
+            @Override
+            public void onCancelled(DatabaseError databaseError) {
+                // .info/connected is local and never cancelled
+            }
+        });
+    }
+}
@@ -0,0 +1,53 @@
+package io.schlosser.firekeep;
+
+import android.util.Log;
+
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.MutableData;
+import com.google.firebase.database.Transaction;
+
+import java.util.Map;
+
+public class FirebaseNoteBatchSink implements NoteBatchSink {
+
+    private static final String TAG = "FirebaseNoteBatchSink";
+
+    private final DatabaseReference root;
+
+    public FirebaseNoteBatchSink(DatabaseReference root) {
+        this.root = root;
+    }
+
+    @Override
+    public void updateChildren(Map<String, Object> update, final Callback callback) {
+        root.updateChildren(update, new DatabaseReference.CompletionListener() {
+            @Override
+            public void onComplete(DatabaseError databaseError, DatabaseReference databaseReference) {
+                callback.onComplete(databaseError == null ? null : databaseError.getMessage());
+            }
+        });
+    }
+
+    @Override
+    public void addToCounts(final String path, final Map<String, Long> changes) {
+        root.child(path).runTransaction(new Transaction.Handler() {
+            @Override
+            public Transaction.Result doTransaction(MutableData data) {
+                // Runs again with the server's value if another device changed it meanwhile
+                Map<String, Long> counts = NoteTags.countsFromValue(data.getValue());
+                NoteTags.addTo(counts, changes);
+                data.setValue(counts.isEmpty() ? null : counts);
+                return Transaction.success(data);
+            }
+
+            @Override
+            public void onComplete(DatabaseError databaseError, boolean committed, DataSnapshot dataSnapshot) {
+                if (databaseError != null) {
+                    Log.w(TAG, "Could not change counts at " + path + ": " + databaseError.getMessage());
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,84 @@
+package io.schlosser.firekeep;
+
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.FirebaseDatabase;
+import com.google.firebase.database.Query;
+import com.google.firebase.database.ValueEventListener;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * {@link NoteExporter.Source} reading pages of /notes/&lt;uid&gt; ordered by
+ * dateModified. Blocks the calling thread until each page arrives, so it is
+ * only used from a worker thread.
+ */
+public class FirebaseNoteExportSource implements NoteExporter.Source {
+
+    private static final String ORDER_BY = "dateModified";
+    private final DatabaseReference notes;
+
+    public FirebaseNoteExportSource(DatabaseReference notes) {
+        this.notes = notes;
+    }
+
+    @Override
+    public Map<String, Note> loadPage(NoteExporter.Watermark after, int limit)
+            throws IOException, InterruptedException {
+        Query query = notes.orderByChild(ORDER_BY);
+        if (after != null && after.dateModified == 0) {
+            // Notes never edited have no dateModified, and sort first by key
+            query = query.startAt(null, after.key).limitToFirst(limit + 1);
+        } else if (after != null) {
+            // startAt is inclusive, ask for one more and drop the watermark itself
+            query = query.startAt(after.dateModified, after.key).limitToFirst(limit + 1);
+        } else {
+            query = query.limitToFirst(limit);
+        }
+
+        final Map<String, Note> page = new LinkedHashMap<>();
+        DataSnapshot snapshot = await(query);
+        for (DataSnapshot child : snapshot.getChildren()) {
+            if (after == null || !child.getKey().equals(after.key)) {
+                page.put(child.getKey(), NoteMapper.fromValue(child.getValue()));
+            }
+        }
+        return page;
+    }
+
+    /** The server's clock, as estimated from this device's. */
+    public long serverTime() throws IOException, InterruptedException {
+        DataSnapshot offset = await(FirebaseDatabase.getInstance().getReference(".info/serverTimeOffset"));
+        Long offsetMs = offset.getValue(Long.class);
+        return System.currentTimeMillis() + (offsetMs == null ? 0 : offsetMs);
+    }
+
+    /** Reads {@code query} once, blocking until it arrives. */
+    static DataSnapshot await(Query query) throws IOException, InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        final DataSnapshot[] result = new DataSnapshot[1];
+        final String[] error = new String[1];
+        query.addListenerForSingleValueEvent(new ValueEventListener() {
+            @Override
+            public void onDataChange(DataSnapshot dataSnapshot) {
+                result[0] = dataSnapshot;
+                done.countDown();
+            }
+
+            @Override
+            public void onCancelled(DatabaseError databaseError) {
+                error[0] = databaseError.getMessage();
+                done.countDown();
+            }
+        });
+        done.await();
+        if (error[0] != null) {
+            throw new IOException(error[0]);
+        }
+        return result[0];
+    }
+}
@@ -0,0 +1,38 @@
+package io.schlosser.firekeep;
+
+import android.content.Context;
+
+import java.io.File;
+import java.util.concurrent.Executors;
+
+/**
+ * The process wide {@link NoteOutbox}, kept in app storage and flushed
+ * whenever the {@link NoteBackend} connects.
+ */
+public final class FirebaseNoteOutbox {
+
+    private static final String FILE_NAME = "outbox";
+
+    private static NoteOutbox instance;
+
+    private FirebaseNoteOutbox() {
+    }
+
+    /** Call on the main thread. The first call reads the queue left by the last process. */
+    public static NoteOutbox getInstance(Context context) {
+        if (instance == null) {
+            NoteBackend backend = FireKeepApplication.getBackend(context);
+            final NoteOutbox outbox = new NoteOutbox(backend.batchSink(),
+                    new NoteOutboxFile(new File(context.getApplicationContext().getFilesDir(), FILE_NAME),
+                            Executors.newSingleThreadExecutor()), Metrics.NOTE_SAVE);
+            backend.watchConnection(new NoteBackend.ConnectionListener() {
+                @Override
+                public void onConnectionChanged(boolean connected) {
+                    outbox.setOnline(connected);
+                }
+            });
+            instance = outbox;
+        }
+        return instance;
+    }
+}
@@ -0,0 +1,147 @@
+package io.schlosser.firekeep;
+
+import com.google.firebase.database.ChildEventListener;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.Query;
+import com.google.firebase.database.ValueEventListener;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link NotePageSource} backed by the /noteSummaries/&lt;uid&gt; node, or the
+ * /notes/&lt;uid&gt; node before every note had a summary, ordered by dateCreated.
+ * Database cursors are inclusive, so the exclusive bound is requested and then
+ * filtered out here.
+ */
+public class FirebaseNotePageSource implements NotePageSource {
+
+    private static final String ORDER_BY = "dateCreated";
+    private final DatabaseReference notes;
+
+    public FirebaseNotePageSource(DatabaseReference notes) {
+        this.notes = notes;
+    }
+
+    /** The query of the newest window, the one a list loads first. */
+    static Query firstWindow(DatabaseReference notes, int limit) {
+        return notes.orderByChild(ORDER_BY).limitToLast(limit);
+    }
+
+    @Override
+    public Registration loadWindow(final NoteCursor before, int limit, final WindowCallback callback) {
+        Query query;
+        if (before != null) {
+            // endAt is inclusive, ask for one more and drop the cursor itself
+            query = notes.orderByChild(ORDER_BY).endAt(before.dateCreated, before.key).limitToLast(limit + 1);
+        } else {
+            query = firstWindow(notes, limit);
+        }
+
+        final Query windowQuery = query;
+        final ValueEventListener listener = new ValueEventListener() {
+            @Override
+            public void onDataChange(DataSnapshot dataSnapshot) {
+                List<NotePager.Entry> entries = new ArrayList<>();
+                for (DataSnapshot child : dataSnapshot.getChildren()) {
+                    NoteCursor cursor = cursorOf(child);
+                    if (before == null || cursor.compareTo(before) < 0) {
+                        entries.add(new NotePager.Entry(cursor, NoteSummaries.fromValue(child.getValue())));
+                    }
+                }
+                callback.onWindowLoaded(entries);
+            }
+
+            @Override
+            public void onCancelled(DatabaseError databaseError) {
+                callback.onError(databaseError.getMessage());
+            }
+        };
+        windowQuery.addListenerForSingleValueEvent(listener);
+
+        return new Registration() {
+            @Override
+            public void remove() {
+                windowQuery.removeEventListener(listener);
+            }
+        };
+    }
+
+    @Override
+    public Registration watchRange(NoteCursor from, final NoteCursor before, final RangeListener listener) {
+        Query query = notes.orderByChild(ORDER_BY);
+        if (from != null) {
+            query = query.startAt(from.dateCreated, from.key);
+        }
+        if (before != null) {
+            query = query.endAt(before.dateCreated, before.key);
+        }
+
+        final Query rangeQuery = query;
+        final ChildEventListener childListener = new ChildEventListener() {
+            @Override
+            public void onChildAdded(DataSnapshot dataSnapshot, String previousChildName) {
+                if (!isBound(dataSnapshot)) {
+                    listener.onNoteAdded(cursorOf(dataSnapshot), NoteSummaries.fromValue(dataSnapshot.getValue()));
+                }
+            }
+
+            @Override
+            public void onChildChanged(DataSnapshot dataSnapshot, String previousChildName) {
+                if (!isBound(dataSnapshot)) {
+                    listener.onNoteChanged(cursorOf(dataSnapshot), NoteSummaries.fromValue(dataSnapshot.getValue()));
+                }
+            }
+
+            @Override
+            public void onChildRemoved(DataSnapshot dataSnapshot) {
+                if (!isBound(dataSnapshot)) {
+                    listener.onNoteRemoved(cursorOf(dataSnapshot));
+                }
+            }
+
+            @Override
+            public void onChildMoved(DataSnapshot dataSnapshot, String previousChildName) {
+                // dateCreated never changes, so children never move
+            }
+
+            @Override
+            public void onCancelled(DatabaseError databaseError) {
+                listener.onError(databaseError.getMessage());
+            }
+
+            private boolean isBound(DataSnapshot dataSnapshot) {
+                return before != null && before.key.equals(dataSnapshot.getKey());
+            }
+        };
+        // Value events fire after the child events for the same data
+        final ValueEventListener loadedListener = new ValueEventListener() {
+            @Override
+            public void onDataChange(DataSnapshot dataSnapshot) {
+                listener.onRangeLoaded();
+            }
+
+            @Override
+            public void onCancelled(DatabaseError databaseError) {
+                // Reported by the child listener
+            }
+        };
+        rangeQuery.addChildEventListener(childListener);
+        rangeQuery.addListenerForSingleValueEvent(loadedListener);
+
+        return new Registration() {
+            @Override
+            public void remove() {
+                rangeQuery.removeEventListener(childListener);
+                rangeQuery.removeEventListener(loadedListener);
+            }
+        };
+    }
+
+    private static NoteCursor cursorOf(DataSnapshot dataSnapshot) {
+        Long dateCreated = dataSnapshot.child(ORDER_BY).getValue(Long.class);
+        return new NoteCursor(dateCreated == null ? 0 : dateCreated, dataSnapshot.getKey());
+    }
+}
@@ -0,0 +1,74 @@
+package io.schlosser.firekeep;
+
+/**
+ * The value of every feature flag at one point in time. Immutable, so hot
+ * paths can keep a reference and read fields without any lookup.
+ *
+ * To add a flag, add a field, its key and default, and read and write it below.
+ */
+public final class FlagSnapshot {
+
+    static final String COLOR_PICKER_ENABLED = "color_picker_enabled";
+    static final String COMPRESS_LONG_NOTES = "compress_long_notes";
+
+    /** Used until a snapshot was ever activated. */
+    public static final FlagSnapshot DEFAULTS = new FlagSnapshot(true, false);
+
+    /** Where flag values are read from. */
+    public interface Values {
+        /** @return null if the key has no value */
+        Boolean getBoolean(String key);
+    }
+
+    public interface Editor {
+        void putBoolean(String key, boolean value);
+    }
+
+    public final boolean colorPickerEnabled;
+    /**
+     * Store long notes with {@link NoteCompression#DEFLATE}. Off until every
+     * client in use can read it, as older ones show the encoded chunks.
+     */
+    public final boolean compressLongNotes;
+
+    FlagSnapshot(boolean colorPickerEnabled, boolean compressLongNotes) {
+        this.colorPickerEnabled = colorPickerEnabled;
+        this.compressLongNotes = compressLongNotes;
+    }
+
+    /** Reads every flag, falling back to {@code fallback} for flags without a value. */
+    public static FlagSnapshot read(Values values, FlagSnapshot fallback) {
+        Boolean colorPicker = values.getBoolean(COLOR_PICKER_ENABLED);
+        Boolean compress = values.getBoolean(COMPRESS_LONG_NOTES);
+        return new FlagSnapshot(colorPicker == null ? fallback.colorPickerEnabled : colorPicker,
+                compress == null ? fallback.compressLongNotes : compress);
+    }
+
+    public void write(Editor editor) {
+        editor.putBoolean(COLOR_PICKER_ENABLED, colorPickerEnabled);
+        editor.putBoolean(COMPRESS_LONG_NOTES, compressLongNotes);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof FlagSnapshot)) {
+            return false;
+        }
+        FlagSnapshot other = (FlagSnapshot) o;
+        return colorPickerEnabled == other.colorPickerEnabled && compressLongNotes == other.compressLongNotes;
+    }
+
+    @Override
+    public int hashCode() {
+        return (colorPickerEnabled ? 1 : 0) + (compressLongNotes ? 2 : 0);
+    }
+
+    @Override
+    public String toString() {
+        return "FlagSnapshot{colorPickerEnabled=" + colorPickerEnabled
+                + ", compressLongNotes=" + compressLongNotes + "}";
+    }
+}
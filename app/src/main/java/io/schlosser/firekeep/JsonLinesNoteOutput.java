@@ -0,0 +1,77 @@
+package io.schlosser.firekeep;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes each note as one JSON object per line, with the same field names
+ * {@link JsonNoteSource} reads, so an export can be imported again.
+ */
+public class JsonLinesNoteOutput implements NoteExporter.Output {
+
+    private final Writer writer;
+
+    public JsonLinesNoteOutput(Writer writer) {
+        this.writer = writer;
+    }
+
+    @Override
+    public void write(String noteId, Note note) throws IOException {
+        writer.write("{\"id\":");
+        writeString(noteId);
+        writer.write(",\"text\":");
+        writeString(note.getText() == null ? "" : note.getText());
+        writer.write(",\"color\":");
+        writeString(note.getColor() == null ? NoteImporter.DEFAULT_COLOR : note.getColor());
+        writer.write(",\"dateCreated\":");
+        writer.write(Long.toString(note.dateCreated));
+        writer.write(",\"dateModified\":");
+        writer.write(Long.toString(note.dateModified));
+        writer.write(",\"archived\":");
+        writer.write(note.archived ? "true" : "false");
+        if (!note.getTags().isEmpty()) {
+            writer.write(",\"tags\":[");
+            boolean first = true;
+            for (String tag : note.getTags()) {
+                if (!first) {
+                    writer.write(',');
+                }
+                first = false;
+                writeString(tag);
+            }
+            writer.write(']');
+        }
+        writer.write("}\n");
+    }
+
+    private void writeString(String value) throws IOException {
+        writer.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    writer.write("\\\"");
+                    break;
+                case '\\':
+                    writer.write("\\\\");
+                    break;
+                case '\n':
+                    writer.write("\\n");
+                    break;
+                case '\r':
+                    writer.write("\\r");
+                    break;
+                case '\t':
+                    writer.write("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        writer.write(String.format("\\u%04x", (int) c));
+                    } else {
+                        writer.write(c);
+                    }
+            }
+        }
+        writer.write('"');
+    }
+}
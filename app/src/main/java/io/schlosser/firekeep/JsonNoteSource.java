@@ -0,0 +1,154 @@
+package io.schlosser.firekeep;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Reads notes from a JSON export with a pull parser, one note at a time. The
+ * file is either an array of notes or an object of notes by key, like a
+ * database export, or JSON Lines with one note per line, like
+ * {@link JsonLinesNoteOutput} writes. Besides our own field names, those of
+ * Google Keep's export are understood, so its notes can be concatenated into
+ * one array. Keep's labels become {@link NoteTags tags}.
+ */
+public class JsonNoteSource implements NoteImporter.Source {
+
+    private final JsonReader reader;
+    private final long defaultDateCreated;
+    private final boolean lines;
+    private boolean started;
+    private boolean keyed;
+    private boolean done;
+
+    /**
+     * @param defaultDateCreated for notes that have no date
+     * @param lines true for JSON Lines
+     */
+    public JsonNoteSource(Reader reader, long defaultDateCreated, boolean lines) {
+        this.reader = new JsonReader(reader);
+        // Lenient mode reads several top level values, one per line
+        this.reader.setLenient(true);
+        this.defaultDateCreated = defaultDateCreated;
+        this.lines = lines;
+    }
+
+    @Override
+    public Note next() throws IOException {
+        if (done) {
+            return null;
+        }
+        if (lines) {
+            while (reader.peek() != JsonToken.END_DOCUMENT) {
+                if (reader.peek() == JsonToken.BEGIN_OBJECT) {
+                    return readNote();
+                }
+                reader.skipValue();
+            }
+            done = true;
+            return null;
+        }
+        if (!started) {
+            started = true;
+            keyed = reader.peek() == JsonToken.BEGIN_OBJECT;
+            if (keyed) {
+                reader.beginObject();
+            } else {
+                reader.beginArray();
+            }
+        }
+        while (reader.hasNext()) {
+            if (keyed) {
+                reader.nextName();
+            }
+            if (reader.peek() == JsonToken.BEGIN_OBJECT) {
+                return readNote();
+            }
+            reader.skipValue();
+        }
+        done = true;
+        return null;
+    }
+
+    private Note readNote() throws IOException {
+        Note note = new Note(null, defaultDateCreated, NoteImporter.DEFAULT_COLOR);
+        String title = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.skipValue();
+            } else if (name.equals("text") || name.equals("textContent")) {
+                note.text = reader.nextString();
+            } else if (name.equals("title")) {
+                title = reader.nextString();
+            } else if (name.equals("dateCreated")) {
+                note.dateCreated = reader.nextLong();
+            } else if (name.equals("createdTimestampUsec")) {
+                note.dateCreated = reader.nextLong() / 1000;
+            } else if (name.equals("color")) {
+                note.color = colorName(reader.nextString());
+            } else if (name.equals("archived") || name.equals("isArchived")) {
+                note.archived = reader.nextBoolean();
+            } else if (name.equals("tags") || name.equals("labels")) {
+                note.tags = readTags();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (title != null && !title.isEmpty()) {
+            note.text = note.text == null || note.text.isEmpty() ? title : title + "\n\n" + note.text;
+        }
+        if (note.text == null) {
+            note.text = "";
+        }
+        return note;
+    }
+
+    /** Our tags are strings, Keep's labels objects with a name. Null for none. */
+    private Set<String> readTags() throws IOException {
+        Set<String> tags = new TreeSet<>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            String label = null;
+            if (reader.peek() == JsonToken.STRING) {
+                label = reader.nextString();
+            } else if (reader.peek() == JsonToken.BEGIN_OBJECT) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    if (reader.nextName().equals("name") && reader.peek() == JsonToken.STRING) {
+                        label = reader.nextString();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+            String tag = NoteTags.key(label);
+            if (tag != null) {
+                tags.add(tag);
+            }
+        }
+        reader.endArray();
+        return tags.isEmpty() ? null : tags;
+    }
+
+    /** Keep's colors are upper case, the color picker's are capitalized. */
+    private static String colorName(String color) {
+        NoteColor known = NoteColor.fromName(color);
+        if (known == NoteColor.DEFAULT) {
+            return NoteImporter.DEFAULT_COLOR;
+        }
+        String name = known.name();
+        return name.charAt(0) + name.substring(1).toLowerCase(Locale.US);
+    }
+}
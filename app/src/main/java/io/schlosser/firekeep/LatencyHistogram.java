@@ -0,0 +1,142 @@
+package io.schlosser.firekeep;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of durations in microseconds, cheap enough to record on every bind.
+ *
+ * Buckets are log-linear: each power of two is split into 8 buckets, so any
+ * value is off by at most 1/8 of itself. Recording is one atomic increment and
+ * never blocks or allocates. Reading walks the buckets, values recorded while
+ * reading land in this read or the next.
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    /** Up to 2^40 us, about 12 days. */
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BITS + 2) * SUB_BUCKETS;
+
+    public static final class Summary {
+        public final long count;
+        public final long p50Micros;
+        public final long p90Micros;
+        public final long p99Micros;
+        public final long maxMicros;
+
+        Summary(long count, long p50Micros, long p90Micros, long p99Micros, long maxMicros) {
+            this.count = count;
+            this.p50Micros = p50Micros;
+            this.p90Micros = p90Micros;
+            this.p99Micros = p99Micros;
+            this.maxMicros = maxMicros;
+        }
+    }
+
+    private final String name;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong max = new AtomicLong();
+    /** Counts as of the last {@link #drain}, only touched while draining. */
+    private final long[] drained = new long[BUCKETS];
+    private long drainedMax;
+
+    public LatencyHistogram(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /** Records the time since {@code startNanos}, a System.nanoTime() value. */
+    public void recordSince(long startNanos) {
+        record((System.nanoTime() - startNanos) / 1000);
+    }
+
+    public void record(long micros) {
+        if (micros < 0) {
+            micros = 0;
+        }
+        counts.incrementAndGet(bucketOf(micros));
+        long seen = max.get();
+        while (micros > seen && !max.compareAndSet(seen, micros)) {
+            seen = max.get();
+        }
+    }
+
+    /** Everything recorded so far. */
+    public Summary summarize() {
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+        }
+        return summarize(snapshot, max.get());
+    }
+
+    /** What was recorded since the last drain. */
+    public synchronized Summary drain() {
+        long[] delta = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            long count = counts.get(i);
+            delta[i] = count - drained[i];
+            drained[i] = count;
+        }
+        // The max is not windowed, report the highest value of the window's top bucket instead
+        long currentMax = max.get();
+        long windowMax = currentMax != drainedMax ? currentMax : -1;
+        drainedMax = currentMax;
+        return summarize(delta, windowMax);
+    }
+
+    private static Summary summarize(long[] buckets, long max) {
+        long total = 0;
+        for (long count : buckets) {
+            total += count;
+        }
+        if (total == 0) {
+            return new Summary(0, 0, 0, 0, 0);
+        }
+        long p50 = percentile(buckets, total, 0.50);
+        long p90 = percentile(buckets, total, 0.90);
+        long p99 = percentile(buckets, total, 0.99);
+        long top = percentile(buckets, total, 1.0);
+        return new Summary(total, p50, p90, p99, max >= 0 ? Math.min(max, top) : top);
+    }
+
+    private static long percentile(long[] buckets, long total, double fraction) {
+        long rank = Math.max(1, (long) Math.ceil(total * fraction));
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= rank) {
+                return upperBoundOf(i);
+            }
+        }
+        return upperBoundOf(buckets.length - 1);
+    }
+
+    static int bucketOf(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        int sub = (int) (micros >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /** Largest value that falls in the bucket. */
+    static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+        int sub = bucket % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BITS);
+        return ((SUB_BUCKETS + sub) * width) + width - 1;
+    }
+}
@@ -1,60 +1,92 @@
 package io.schlosser.firekeep;
 
+import android.app.DatePickerDialog;
 import android.content.Context;
+import android.content.DialogInterface;
 import android.content.Intent;
+import android.content.SharedPreferences;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
-import android.graphics.Color;
+import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
 import android.support.annotation.MainThread;
 import android.support.annotation.NonNull;
 import android.support.annotation.StringRes;
+import android.support.v4.view.MenuItemCompat;
 import android.support.design.widget.FloatingActionButton;
 import android.support.design.widget.Snackbar;
+import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
-import android.support.v7.widget.CardView;
+import android.support.v7.view.ActionMode;
 import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SearchView;
 import android.support.v7.widget.Toolbar;
 import android.util.Log;
 import android.view.View;
 import android.view.Menu;
 import android.view.MenuItem;
-import android.widget.TextView;
+import android.view.ViewTreeObserver;
+import android.widget.DatePicker;
 
 import com.firebase.ui.auth.AuthUI;
 import com.firebase.ui.auth.ErrorCodes;
 import com.firebase.ui.auth.IdpResponse;
 import com.firebase.ui.auth.ResultCodes;
-import com.firebase.ui.database.FirebaseRecyclerAdapter;
-import com.google.android.gms.tasks.OnCompleteListener;
-import com.google.android.gms.tasks.OnFailureListener;
-import com.google.android.gms.tasks.OnSuccessListener;
-import com.google.android.gms.tasks.Task;
 import com.google.firebase.analytics.FirebaseAnalytics;
 import com.google.firebase.auth.FirebaseAuth;
-import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
 import com.google.firebase.database.FirebaseDatabase;
-import com.google.firebase.remoteconfig.FirebaseRemoteConfig;
-import com.google.firebase.remoteconfig.FirebaseRemoteConfigFetchThrottledException;
-import com.google.firebase.remoteconfig.FirebaseRemoteConfigSettings;
+import com.google.firebase.database.ValueEventListener;
 
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
 import java.util.Arrays;
-import java.util.HashSet;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
 import java.util.Locale;
-import java.util.Set;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.Executor;
 
 public class MainActivity extends AppCompatActivity {
 
     private static final String TAG = "MainActivity";
-    private static final long DEFAULT_CACHE_EXPIRY_S = 60 * 12; // 5 requests / hr
+    private static final int RC_IMPORT = 124;
+    /** Plus the index of the choice in R.array.export_choices. */
+    private static final int RC_EXPORT = 125;
+    private static final int EXPORT_MARKDOWN = 1;
+    private static final int EXPORT_CHANGES = 2;
+    /**
+     * The colors in R.array.colors, in the same order. Notes store these names
+     * rather than the labels, which are translated.
+     */
+    static final NoteColor[] COLORS = {NoteColor.WHITE, NoteColor.BLUE, NoteColor.GRAY,
+            NoteColor.GREEN, NoteColor.YELLOW, NoteColor.RED, NoteColor.ORANGE};
     private FirebaseAnalytics analytics;
     private FirebaseAuth auth;
-    private FirebaseRecyclerAdapter mAdapter;
-    private FirebaseRemoteConfig config;
+    private NoteBackend backend;
+    private PagedNoteAdapter mAdapter;
+    private NoteStore noteStore;
+    private BulkNoteWriter bulkWriter;
+    private ActionMode actionMode;
+    private RecyclerView recyclerView;
+    private NoteRowPool rows;
+    private NoteIdListAdapter searchAdapter;
+    private NoteSearchIndexer searchIndexer;
+    private String searchQuery = "";
+    private FeatureFlags flags;
     private View rootView;
-    private long configCacheExpiry;
-    private static final String COLOR_PICKER_ENABLED = "color_picker_enabled";
+    private MetricsOverlay metricsOverlay;
+    private static final String STARTUP_FIRST_DRAW = "first_draw";
+    private static final String STARTUP_FIRST_NOTE = "first_note";
+    /** The last {@link NoteIndex#VERSION} seen, by uid. */
+    private static final String INDEX_PREFS = "note_index";
 
     /** User properties **/
     private static final String BUILD_DEBUG = "BUILD_DEBUG";
@@ -66,22 +98,29 @@ public class MainActivity extends AppCompatActivity {
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        // Startup times include inflating the layout and setting up the list
+        long createdAt = System.nanoTime();
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
         rootView = findViewById(R.id.content_main);
 
         analytics = FirebaseAnalytics.getInstance(this);
         auth = FirebaseAuth.getInstance();
-        if (auth.getCurrentUser() == null) {
+        backend = FireKeepApplication.getBackend(this);
+        if (backend.getUid() == null) {
             startActivity(new Intent(this, MainActivity.class));
         }
 
         Toolbar toolbar = (Toolbar) findViewById(R.id.toolbar);
         setSupportActionBar(toolbar);
 
-        View recyclerView = findViewById(R.id.note_list);
+        flags = FeatureFlags.getInstance(this);
+        noteStore = FireKeepApplication.getNoteStore(this);
+
+        recyclerView = (RecyclerView) findViewById(R.id.note_list);
         assert recyclerView != null;
-        setupRecyclerView((RecyclerView) recyclerView);
+        rows = new NoteRowPool(recyclerView);
+        setupRecyclerView(recyclerView);
 
         FloatingActionButton fab = (FloatingActionButton) findViewById(R.id.fab);
         fab.setOnClickListener(new View.OnClickListener() {
@@ -92,28 +131,269 @@ public class MainActivity extends AppCompatActivity {
             }
         });
 
-        setUserProperties();
+        flags.addListener(flagsListener);
+        scheduleStartup(createdAt);
+        Metrics.startFlushing(this);
+        if (BuildConfig.DEBUG) {
+            metricsOverlay = new MetricsOverlay(this);
+            metricsOverlay.setRows(rows);
+        }
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        noteStore.onScreenStarted();
+        // A note opened from the results may have been edited
+        searchAdapter.refresh();
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        if (metricsOverlay != null) {
+            metricsOverlay.show();
+        }
+        // Also loads saves queued by an earlier process, which are then sent once online
+        FirebaseNoteOutbox.getInstance(this).setListener(outboxListener);
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        if (metricsOverlay != null) {
+            metricsOverlay.hide();
+        }
+        FirebaseNoteOutbox.getInstance(this).setListener(null);
+    }
+
+    private final NoteOutbox.Listener outboxListener = new NoteOutbox.Listener() {
+        @Override
+        public void onRejected(String noteId, String error) {
+            Log.w(TAG, "outbox:REJECTED " + noteId + ": " + error);
+            showSnackbar(R.string.save_rejected);
+        }
+    };
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        noteStore.onScreenStopped();
+        // The process may not come back from the background
+        Metrics.flush();
+    }
+
+    /**
+     * Only the list is set up before the first frame. The rest runs after,
+     * mostly in the background, see {@link StartupScheduler}.
+     */
+    private void scheduleStartup(long createdAt) {
+        final Handler mainHandler = new Handler();
+        StartupScheduler startup = new StartupScheduler(new Executor() {
+            @Override
+            public void execute(@NonNull Runnable command) {
+                mainHandler.post(command);
+            }
+        }, AsyncTask.THREAD_POOL_EXECUTOR, createdAt);
+        startup.setListener(new StartupScheduler.Listener() {
+            @Override
+            public void onTaskFinished(StartupScheduler.Timing timing) {
+                Log.d(TAG, "startup: " + timing);
+                if (timing.name.equals(STARTUP_FIRST_NOTE)) {
+                    // Sent with the other latencies, see Metrics
+                    Metrics.FIRST_NOTE.record(timing.endMs * 1000);
+                }
+            }
+        });
+
+        startup.addMilestone(STARTUP_FIRST_DRAW)
+                .addMilestone(STARTUP_FIRST_NOTE)
+                .add("prewarm_rows", true, StartupScheduler.PRIORITY_HIGH, new Runnable() {
+                    @Override
+                    public void run() {
+                        // Inflated in the background, ready for the first fling
+                        rows.prewarm(FireKeepApplication.PREWARM_ROWS);
+                    }
+                }, STARTUP_FIRST_DRAW)
+                .add("config_fetch", false, StartupScheduler.PRIORITY_NORMAL, new Runnable() {
+                    @Override
+                    public void run() {
+                        // Shared with other activities, and skipped if recent
+                        flags.fetchIfStale();
+                    }
+                }, STARTUP_FIRST_DRAW)
+                .add("user_properties", false, StartupScheduler.PRIORITY_LOW, new Runnable() {
+                    @Override
+                    public void run() {
+                        setUserProperties();
+                    }
+                }, STARTUP_FIRST_DRAW)
+                .add("resume_import", false, StartupScheduler.PRIORITY_LOW, new Runnable() {
+                    @Override
+                    public void run() {
+                        NoteImportService.resumeIfInterrupted(MainActivity.this);
+                    }
+                }, STARTUP_FIRST_DRAW)
+                .add("index_backfill", true, StartupScheduler.PRIORITY_LOW, new Runnable() {
+                    @Override
+                    public void run() {
+                        backfillIndexIfNeeded();
+                    }
+                }, STARTUP_FIRST_DRAW);
+        startup.start();
+        watchFirstFrames(startup);
+    }
+
+    /** Notes saved before {@link NoteIndex} existed are added to it once per account. */
+    private void backfillIndexIfNeeded() {
+        final String uid = backend.getUid();
+        final FirebaseDatabase database = FirebaseDatabase.getInstance();
+        database.getReference(NoteIndex.versionPath(uid)).addListenerForSingleValueEvent(new ValueEventListener() {
+            @Override
+            public void onDataChange(DataSnapshot dataSnapshot) {
+                Long version = dataSnapshot.getValue(Long.class);
+                if (version != null && version >= NoteIndex.CURRENT_VERSION) {
+                    indexVersionReached(uid, version.intValue());
+                    return;
+                }
+                AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            int count = new NoteIndexBackfill(uid, new FirebaseNoteBatchSink(database.getReference()))
+                                    .run(new FirebaseNoteExportSource(database.getReference("notes").child(uid)));
+                            Log.d(TAG, "indexBackfill: " + count + " notes");
+                            runOnUiThread(new Runnable() {
+                                @Override
+                                public void run() {
+                                    indexVersionReached(uid, NoteIndex.CURRENT_VERSION);
+                                }
+                            });
+                        } catch (IOException | InterruptedException e) {
+                            Log.w(TAG, "indexBackfill:FAILED", e);
+                        }
+                    }
+                });
+            }
+
+            @Override
+            public void onCancelled(DatabaseError databaseError) {
+                Log.w(TAG, "indexBackfill:CANCELLED " + databaseError.getMessage());
+            }
+        });
+    }
+
+    private void indexVersionReached(String uid, int version) {
+        SharedPreferences prefs = getSharedPreferences(INDEX_PREFS, MODE_PRIVATE);
+        int seen = prefs.getInt(uid, 0);
+        if (seen >= version) {
+            return;
+        }
+        prefs.edit().putInt(uid, version).apply();
+        // Move the unfiltered list and search over to the summaries
+        if (seen < NoteSummaries.SINCE_VERSION && version >= NoteSummaries.SINCE_VERSION && !isFinishing()) {
+            setupSearchAdapter();
+            if (getSupportActionBar().getSubtitle() == null) {
+                filter(null, null);
+            }
+        }
+    }
+
+    /**
+     * Where list rows are read from: {@link NoteSummaries} once every note has
+     * one, the full notes before that.
+     */
+    private String listPath() {
+        return listPath(this, backend.getUid());
+    }
 
-        config = FirebaseRemoteConfig.getInstance();
-        FirebaseRemoteConfigSettings configSettings = new FirebaseRemoteConfigSettings.Builder()
-                .setDeveloperModeEnabled(BuildConfig.DEBUG)
-                .build();
-        configCacheExpiry = configSettings.isDeveloperModeEnabled() ? 0 : DEFAULT_CACHE_EXPIRY_S;
-        config.setConfigSettings(configSettings);
-        config.setDefaults(R.xml.remote_config_defaults);
-        refreshConfig();
+    static String listPath(Context context, String uid) {
+        if (context.getSharedPreferences(INDEX_PREFS, MODE_PRIVATE).getInt(uid, 0) >= NoteSummaries.SINCE_VERSION) {
+            return NoteSummaries.path(uid);
+        }
+        return "notes/" + uid;
     }
 
+    private void watchFirstFrames(final StartupScheduler startup) {
+        rootView.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                rootView.getViewTreeObserver().removeOnPreDrawListener(this);
+                // Runs once the frame that is about to be drawn is done
+                rootView.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        startup.reach(STARTUP_FIRST_DRAW);
+                    }
+                });
+                return true;
+            }
+        });
+        mAdapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                mAdapter.unregisterAdapterDataObserver(this);
+                startup.reach(STARTUP_FIRST_NOTE);
+            }
+        });
+    }
+
+    private final FeatureFlags.Listener flagsListener = new FeatureFlags.Listener() {
+        @Override
+        public void onFlagsChanged(FlagSnapshot old, FlagSnapshot current) {
+            if (old.colorPickerEnabled != current.colorPickerEnabled) {
+                mAdapter.setShowColors(current.colorPickerEnabled);
+                searchAdapter.setShowColors(current.colorPickerEnabled);
+            }
+        }
+    };
+
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        flags.removeListener(flagsListener);
         mAdapter.cleanup();
+        // Shared with the other screens and the sync job
+        searchIndexer.detach();
     }
 
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         // Inflate the menu; this adds items to the action bar if it is present.
         getMenuInflater().inflate(R.menu.menu_main, menu);
+
+        MenuItem searchItem = menu.findItem(R.id.action_search);
+        SearchView searchView = (SearchView) MenuItemCompat.getActionView(searchItem);
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String query) {
+                search(query);
+                return true;
+            }
+        });
+        MenuItemCompat.setOnActionExpandListener(searchItem, new MenuItemCompat.OnActionExpandListener() {
+            @Override
+            public boolean onMenuItemActionExpand(MenuItem item) {
+                analytics.logEvent("open_search", new Bundle());
+                searchIndexer.attach();
+                // Keeps the rows, see NoteRowPool
+                recyclerView.swapAdapter(searchAdapter, false);
+                return true;
+            }
+
+            @Override
+            public boolean onMenuItemActionCollapse(MenuItem item) {
+                searchIndexer.detach();
+                search("");
+                recyclerView.swapAdapter(mAdapter, false);
+                return true;
+            }
+        });
         return true;
     }
 
@@ -135,60 +415,387 @@ public class MainActivity extends AppCompatActivity {
             return true;
         }
 
+        if (id == R.id.action_import) {
+            pickImportFile();
+            return true;
+        }
+
+        if (id == R.id.action_export) {
+            chooseExport();
+            return true;
+        }
+
+        if (id == R.id.action_filter) {
+            chooseFilter();
+            return true;
+        }
+
+        if (id == R.id.action_sync) {
+            chooseSyncInterval();
+            return true;
+        }
+
         return super.onOptionsItemSelected(item);
     }
 
+    private void chooseSyncInterval() {
+        int current = Arrays.binarySearch(NoteSyncJob.INTERVAL_HOURS, NoteSyncJob.getIntervalHours(this));
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.action_sync)
+                .setSingleChoiceItems(R.array.sync_choices, current, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        NoteSyncJob.setIntervalHours(MainActivity.this, NoteSyncJob.INTERVAL_HOURS[which]);
+                        dialog.dismiss();
+                    }
+                })
+                .show();
+    }
+
+    private void pickImportFile() {
+        Intent intent;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            // Lets the import keep reading the file if it is resumed after a restart
+            intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+        } else {
+            intent = new Intent(Intent.ACTION_GET_CONTENT);
+        }
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        intent.setType("*/*");
+        intent.putExtra(Intent.EXTRA_MIME_TYPES, new String[] {"application/json", "text/*"});
+        startActivityForResult(intent, RC_IMPORT);
+    }
+
+    private void chooseExport() {
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.action_export)
+                .setItems(R.array.export_choices, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        pickExportFile(which);
+                    }
+                })
+                .show();
+    }
+
+    private void pickExportFile(int choice) {
+        boolean markdown = choice == EXPORT_MARKDOWN;
+        String name = "firekeep-" + new SimpleDateFormat("yyyyMMdd-HHmm", Locale.US).format(new Date())
+                + (markdown ? ".zip" : ".jsonl");
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            Intent intent = new Intent(Intent.ACTION_CREATE_DOCUMENT);
+            intent.addCategory(Intent.CATEGORY_OPENABLE);
+            intent.setType(markdown ? "application/zip" : "application/json");
+            intent.putExtra(Intent.EXTRA_TITLE, name);
+            startActivityForResult(intent, RC_EXPORT + choice);
+        } else {
+            File target = new File(getExternalFilesDir(null), name);
+            startExport(Uri.fromFile(target), choice);
+        }
+    }
+
+    private void startExport(Uri target, int choice) {
+        analytics.logEvent("export_notes", new Bundle());
+        NoteExportService.start(this, target, choice == EXPORT_MARKDOWN, choice == EXPORT_CHANGES);
+    }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+        if (requestCode >= RC_EXPORT && requestCode <= RC_EXPORT + EXPORT_CHANGES
+                && resultCode == RESULT_OK && data != null && data.getData() != null) {
+            startExport(data.getData(), requestCode - RC_EXPORT);
+        }
+        if (requestCode == RC_IMPORT && resultCode == RESULT_OK && data != null && data.getData() != null) {
+            Uri uri = data.getData();
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+                getContentResolver().takePersistableUriPermission(uri, Intent.FLAG_GRANT_READ_URI_PERMISSION);
+            }
+            analytics.logEvent("import_notes", new Bundle());
+            NoteImportService.start(this, uri);
+        }
+    }
+
     private void setupRecyclerView(@NonNull RecyclerView recyclerView) {
-        Log.e(TAG, auth.getCurrentUser().getUid());
-        FirebaseDatabase mFirebaseDatabase = FirebaseDatabase.getInstance();
-        DatabaseReference database = mFirebaseDatabase.getReference("notes").child(auth.getCurrentUser().getUid());
+        final String uid = backend.getUid();
+        Log.e(TAG, uid);
+        bulkWriter = new BulkNoteWriter(uid, backend.batchSink(), new BulkNoteWriter.NoteReader() {
+            @Override
+            public void readNote(String noteId, NoteBackend.NoteCallback callback) {
+                backend.readNote(uid, noteId, callback);
+            }
+        });
+        bulkWriter.setListener(new BulkNoteWriter.Listener() {
+            @Override
+            public void onPendingChanged() {
+                mAdapter.refresh();
+            }
 
-        mAdapter = new FirebaseRecyclerAdapter<Note, NoteHolder>(Note.class, R.layout.note_item, NoteHolder.class, database) {
             @Override
-            protected void populateViewHolder(NoteHolder noteHolder, Note note, int position) {
+            public void onBatchFailed(int noteCount, String error) {
+                Log.w(TAG, "bulkWrite:FAILED for " + noteCount + " notes: " + error);
+                showSnackbar(R.string.bulk_failed);
+            }
+        });
+        filter(null, null);
 
-                final String text = note.getText();
-                final String color = note.getColor();
-                final String id = note.getId();
+        searchIndexer = FireKeepApplication.getSearchIndexer(this, uid);
+        setupSearchAdapter();
+    }
 
-                noteHolder.setText(text);
-                if (config.getBoolean(COLOR_PICKER_ENABLED)) {
-                    noteHolder.setColor(color);
-                }
+    /** Search rows read from {@link #listPath}, made again when it changes. */
+    private void setupSearchAdapter() {
+        NoteIdListAdapter previous = searchAdapter;
+        // Search reads the database itself, it is not part of the backend yet
+        FirebaseDatabase database = FirebaseDatabase.getInstance();
+        searchAdapter = new NoteIdListAdapter(database.getReference(listPath()), rows);
+        searchAdapter.setShowColors(flags.get().colorPickerEnabled);
+        searchAdapter.setListener(missingNoteListener);
+        if (previous != null && recyclerView.getAdapter() == previous) {
+            recyclerView.swapAdapter(searchAdapter, false);
+            search(searchQuery);
+        }
+    }
 
-                noteHolder.mView.setOnClickListener(new View.OnClickListener() {
-                    @Override
-                    public void onClick(View v) {
-                        Context context = v.getContext();
-                        Intent intent = new Intent(context, NewNoteActivity.class);
-                        intent.putExtra(NewNoteActivity.ARG_NOTE_ID, id);
+    private final NoteIdListAdapter.Listener missingNoteListener = new NoteIdListAdapter.Listener() {
+        @Override
+        public void onNoteMissing(String noteId) {
+            searchIndexer.remove(noteId);
+        }
+    };
+
+    /**
+     * Replaces the list with the {@link NoteStore} list named {@code key},
+     * which reads from {@code source} unless the store already has it.
+     */
+    private void showNotes(String key, NotePageSource source) {
+        if (mAdapter != null) {
+            mAdapter.cleanup();
+        }
+        mAdapter = new PagedNoteAdapter(noteStore.list(key, source), rows);
+        mAdapter.setSelectionListener(selectionListener);
+        mAdapter.setWriter(bulkWriter);
+        mAdapter.setShowColors(flags.get().colorPickerEnabled);
+        recyclerView.swapAdapter(mAdapter, false);
+    }
 
-                        context.startActivity(intent);
+    private void chooseFilter() {
+        CharSequence[] colors = getResources().getTextArray(R.array.colors);
+        final CharSequence[] choices = new CharSequence[colors.length + 3];
+        choices[0] = getString(R.string.filter_all);
+        System.arraycopy(colors, 0, choices, 1, colors.length);
+        choices[choices.length - 2] = getString(R.string.filter_tag);
+        choices[choices.length - 1] = getString(R.string.filter_month);
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.action_filter)
+                .setItems(choices, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        if (which == 0) {
+                            filter(null, null);
+                        } else if (which < choices.length - 2) {
+                            String colorKey = COLORS[which - 1].name();
+                            filter(NoteIndex.colorPath(backend.getUid(), colorKey), choices[which]);
+                        } else if (which == choices.length - 2) {
+                            pickFilterTag();
+                        } else {
+                            pickFilterMonth();
+                        }
                     }
-                });
+                })
+                .show();
+    }
+
+    private void pickFilterTag() {
+        final String uid = backend.getUid();
+        backend.readTagCounts(uid, new NoteBackend.TagCountsCallback() {
+            @Override
+            public void onTagCounts(Map<String, Long> counts) {
+                if (isFinishing()) {
+                    return;
+                }
+                if (counts.isEmpty()) {
+                    showSnackbar(R.string.tags_empty);
+                    return;
+                }
+                final String[] tags = new TreeSet<>(counts.keySet()).toArray(new String[counts.size()]);
+                CharSequence[] choices = new CharSequence[tags.length];
+                for (int i = 0; i < tags.length; i++) {
+                    choices[i] = getString(R.string.filter_tag_count, tags[i], counts.get(tags[i]));
+                }
+                new AlertDialog.Builder(MainActivity.this)
+                        .setTitle(R.string.filter_tag)
+                        .setItems(choices, new DialogInterface.OnClickListener() {
+                            @Override
+                            public void onClick(DialogInterface dialog, int which) {
+                                filter(NoteTags.indexPath(uid, tags[which]), tags[which]);
+                            }
+                        })
+                        .show();
             }
-        };
 
-        recyclerView.setAdapter(mAdapter);
+            @Override
+            public void onError(String message) {
+                Log.w(TAG, message);
+            }
+        });
     }
 
-    public static class NoteHolder extends RecyclerView.ViewHolder {
-        View mView;
+    private void pickFilterMonth() {
+        Calendar today = Calendar.getInstance();
+        new DatePickerDialog(this, new DatePickerDialog.OnDateSetListener() {
+            @Override
+            public void onDateSet(DatePicker view, int year, int month, int dayOfMonth) {
+                Calendar picked = Calendar.getInstance();
+                picked.set(year, month, 1);
+                String title = new SimpleDateFormat("MMMM yyyy", Locale.getDefault()).format(picked.getTime());
+                filter(NoteIndex.monthPath(backend.getUid(), NoteIndex.monthKey(year, month)), title);
+            }
+        }, today.get(Calendar.YEAR), today.get(Calendar.MONTH), today.get(Calendar.DAY_OF_MONTH)).show();
+    }
+
+    /**
+     * Shows only the notes in one {@link NoteIndex} or {@link NoteTags} node,
+     * reading just those notes, or every note if {@code indexPath} is null.
+     */
+    private void filter(String indexPath, CharSequence title) {
+        String listPath = listPath();
+        if (indexPath == null) {
+            showNotes(listPath, backend.pageSource(listPath));
+        } else {
+            analytics.logEvent("filter_notes", new Bundle());
+            showNotes(indexPath + " " + listPath, backend.indexedPageSource(indexPath, listPath));
+        }
+        getSupportActionBar().setSubtitle(title);
+    }
+
+    /** Results replace the list as they come in; answers to older queries are dropped. */
+    private void search(String query) {
+        searchQuery = query;
+        searchIndexer.search(query, new NoteSearchIndexer.Callback() {
+            @Override
+            public void onResults(String query, List<String> noteIds) {
+                if (query.equals(searchQuery)) {
+                    searchAdapter.setNoteIds(noteIds);
+                }
+            }
+        });
+    }
+
+    private final PagedNoteAdapter.SelectionListener selectionListener = new PagedNoteAdapter.SelectionListener() {
+        @Override
+        public void onSelectionChanged(int count) {
+            if (count == 0) {
+                if (actionMode != null) {
+                    actionMode.finish();
+                }
+                return;
+            }
+            if (actionMode == null) {
+                actionMode = startSupportActionMode(selectionActions);
+            }
+            actionMode.setTitle(String.valueOf(count));
+        }
+    };
+
+    private final ActionMode.Callback selectionActions = new ActionMode.Callback() {
+        @Override
+        public boolean onCreateActionMode(ActionMode mode, Menu menu) {
+            mode.getMenuInflater().inflate(R.menu.menu_selection, menu);
+            return true;
+        }
+
+        @Override
+        public boolean onPrepareActionMode(ActionMode mode, Menu menu) {
+            return false;
+        }
+
+        @Override
+        public boolean onActionItemClicked(ActionMode mode, MenuItem item) {
+            final Map<NoteCursor, Note> selected = mAdapter.getSelection();
+            switch (item.getItemId()) {
+                case R.id.action_delete:
+                    analytics.logEvent("bulk_delete", new Bundle());
+                    bulkWriter.delete(selected);
+                    mode.finish();
+                    return true;
+
+                case R.id.action_archive:
+                    analytics.logEvent("bulk_archive", new Bundle());
+                    bulkWriter.archive(selected.keySet());
+                    mode.finish();
+                    return true;
+
+                case R.id.action_recolor:
+                    final CharSequence[] colors = getResources().getTextArray(R.array.colors);
+                    new AlertDialog.Builder(MainActivity.this)
+                            .setTitle(R.string.action_recolor)
+                            .setItems(colors, new DialogInterface.OnClickListener() {
+                                @Override
+                                public void onClick(DialogInterface dialog, int which) {
+                                    analytics.logEvent("bulk_recolor", new Bundle());
+                                    bulkWriter.recolor(selected.keySet(), COLORS[which].name());
+                                    if (actionMode != null) {
+                                        actionMode.finish();
+                                    }
+                                }
+                            })
+                            .show();
+                    return true;
+
+                default:
+                    return false;
+            }
+        }
+
+        @Override
+        public void onDestroyActionMode(ActionMode mode) {
+            actionMode = null;
+            mAdapter.clearSelection();
+        }
+    };
+
+    /**
+     * A row of note_item. The rows of the list are shared by its adapters,
+     * which set everything they depend on when binding, see {@link NoteRowPool}.
+     */
+    public static class NoteHolder extends RecyclerView.ViewHolder implements NoteBinder.Row {
+        private final NoteCardView card;
+        private String noteId;
 
         public NoteHolder(View itemView) {
             super(itemView);
-            mView = itemView;
+            card = (NoteCardView) itemView;
+        }
+
+        public String getNoteId() {
+            return noteId;
+        }
 
+        @Override
+        public void setNoteId(String noteId) {
+            this.noteId = noteId;
         }
 
+        @Override
         public void setText(String text) {
-            TextView textView = (TextView) mView.findViewById(R.id.text);
-            textView.setText(text);
+            // NoteBinder sets the id first
+            card.setText(noteId, text);
+        }
+
+        /** Width of the row's text, 0 until the row was laid out. */
+        public int getTextWidth() {
+            return card.getTextWidth();
+        }
+
+        @Override
+        public void setCardColor(int color) {
+            card.setCardColor(color);
         }
 
-        public void setColor(String color) {
-            CardView noteCard = (CardView) mView.findViewById(R.id.card_view);
-            noteCard.setCardBackgroundColor(NoteColor.getColor(color));
+        @Override
+        public void setChecked(boolean checked) {
+            card.setChecked(checked);
         }
     }
 
@@ -210,70 +817,25 @@ public class MainActivity extends AppCompatActivity {
     }
 
     private void refreshConfig() {
-        config.fetch(configCacheExpiry)
-                .addOnSuccessListener(new OnSuccessListener<Void>() {
-                    @Override
-                    public void onSuccess(Void aVoid) {
-                        Log.d(TAG, "fetchConfig:SUCCESS");
-                        showSnackbar(R.string.config_success);
+        flags.fetch(new FeatureFlags.FetchCallback() {
+            @Override
+            public void onFetched() {
+                showSnackbar(R.string.config_success);
+            }
 
-                        // Activate config
-                        config.activateFetched();
-                    }
-                })
-                .addOnFailureListener(new OnFailureListener() {
-                    @Override
-                    public void onFailure(@NonNull Exception e) {
-                        if (e instanceof FirebaseRemoteConfigFetchThrottledException) {
-                            // Store throttle end time
-                            FirebaseRemoteConfigFetchThrottledException ex =
-                                    (FirebaseRemoteConfigFetchThrottledException) e;
-                            Log.w(TAG, "fetchConfig:THROTTLED until " + ex.getThrottleEndTimeMillis());
-                            showSnackbar(R.string.config_throttled);
-                        } else {
-                            Log.w(TAG, "fetchConfig:UNEXPECTED_ERROR", e);
-                        }
-                    }
-                });
+            @Override
+            public void onThrottled(long throttleEndTimeMillis) {
+                showSnackbar(R.string.config_throttled);
+            }
+
+            @Override
+            public void onFailed(Exception e) {
+            }
+        });
     }
 
     @MainThread
     private void showSnackbar(@StringRes int errorMessageRes) {
         Snackbar.make(rootView, errorMessageRes, Snackbar.LENGTH_LONG).show();
     }
-
-    public enum NoteColor {
-        BLUE("BLUE", "#03A9F4"),
-        ORANGE("ORANGE", "#FFC107"),
-        GREEN("GREEN", "#CDDC39"),
-        WHITE("WHITE", "#FFFFFF"),
-        DEFAULT("DEFAULT", "#FFFFFF"),
-        RED("RED", "#EF5350"),
-        GRAY("GRAY", "#E0E0E0"),
-        YELLOW("YELLOW", "#FFEB3B");
-
-        private final String name;
-        private final String hex;
-
-        NoteColor(String name, String hex) {
-            this.name = name;
-            this.hex = hex;
-        }
-
-        public static int getColor(String color) {
-            String colorKey = "";
-            if (color == null || color.trim() == "") {
-                colorKey = "DEFAULT";
-            } else {
-                colorKey = color.toUpperCase();
-            }
-//            if (Arrays.asList(NoteColor.values()).contains(color.toUpperCase())) {
-//            }
-//            else {
-//                throw new IllegalArgumentException("Unknown color value.");
-//            }
-
-            return Color.parseColor(NoteColor.valueOf(colorKey).hex);
-        }
-    }
 }
@@ -0,0 +1,35 @@
+package io.schlosser.firekeep;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes each note as a Markdown file in a zip, named by the note's key.
+ * Archived notes go in an archive folder. Call {@link #finish} once all notes
+ * are written.
+ */
+public class MarkdownZipNoteOutput implements NoteExporter.Output {
+
+    private final ZipOutputStream zip;
+
+    public MarkdownZipNoteOutput(OutputStream out) {
+        this.zip = new ZipOutputStream(out);
+    }
+
+    @Override
+    public void write(String noteId, Note note) throws IOException {
+        ZipEntry entry = new ZipEntry((note.archived ? "archive/" : "") + noteId + ".md");
+        entry.setTime(note.dateModified != 0 ? note.dateModified : note.dateCreated);
+        zip.putNextEntry(entry);
+        String text = note.getText() == null ? "" : note.getText();
+        zip.write(text.getBytes("UTF-8"));
+        zip.closeEntry();
+    }
+
+    /** Writes the zip's directory. Does not close the stream. */
+    public void finish() throws IOException {
+        zip.finish();
+    }
+}
@@ -0,0 +1,86 @@
+package io.schlosser.firekeep;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.google.firebase.analytics.FirebaseAnalytics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Latency histograms for note operations. Record into the static histograms
+ * from any thread; summaries are sent to Analytics every few minutes, one
+ * event per histogram with its count and percentiles in milliseconds.
+ */
+public final class Metrics {
+
+    private static final long FLUSH_INTERVAL_MS = 5 * 60 * 1000;
+    private static final List<LatencyHistogram> all = new ArrayList<>();
+
+    /** From sending queued note saves to the database acknowledging them, see {@link NoteOutbox}. */
+    public static final LatencyHistogram NOTE_SAVE = register("note_save");
+    /** From MainActivity starting to the first row of notes arriving. */
+    public static final LatencyHistogram FIRST_NOTE = register("first_note");
+    public static final LatencyHistogram ROW_BIND = register("row_bind");
+    public static final LatencyHistogram CONFIG_FETCH = register("config_fetch");
+    /** Only recorded while the debug overlay is shown. */
+    public static final LatencyHistogram FRAME = register("frame");
+
+    private static Handler handler;
+    private static FirebaseAnalytics analytics;
+
+    private Metrics() {
+    }
+
+    private static LatencyHistogram register(String name) {
+        LatencyHistogram histogram = new LatencyHistogram(name);
+        all.add(histogram);
+        return histogram;
+    }
+
+    public static List<LatencyHistogram> getAll() {
+        return Collections.unmodifiableList(all);
+    }
+
+    /** Starts the periodic flush. Later calls do nothing. */
+    public static synchronized void startFlushing(Context context) {
+        if (handler != null) {
+            return;
+        }
+        analytics = FirebaseAnalytics.getInstance(context.getApplicationContext());
+        handler = new Handler(Looper.getMainLooper());
+        handler.postDelayed(periodicFlush, FLUSH_INTERVAL_MS);
+    }
+
+    private static final Runnable periodicFlush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+            handler.postDelayed(this, FLUSH_INTERVAL_MS);
+        }
+    };
+
+    /** Sends what was recorded since the last flush, e.g. before the app goes to the background. */
+    public static synchronized void flush() {
+        if (analytics == null) {
+            return;
+        }
+        for (LatencyHistogram histogram : all) {
+            LatencyHistogram.Summary summary = histogram.drain();
+            if (summary.count == 0) {
+                continue;
+            }
+            Bundle params = new Bundle();
+            params.putLong("count", summary.count);
+            params.putDouble("p50_ms", summary.p50Micros / 1000.0);
+            params.putDouble("p90_ms", summary.p90Micros / 1000.0);
+            params.putDouble("p99_ms", summary.p99Micros / 1000.0);
+            params.putDouble("max_ms", summary.maxMicros / 1000.0);
+            analytics.logEvent("latency_" + histogram.getName(), params);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package io.schlosser.firekeep;
+
+import android.app.Activity;
+import android.graphics.Color;
+import android.graphics.Typeface;
+import android.os.Handler;
+import android.view.Choreographer;
+import android.view.Gravity;
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
+import android.widget.TextView;
+
+import java.util.Locale;
+
+/**
+ * Debug overlay showing live p50 and p99 of every histogram in {@link Metrics},
+ * frame times while it is shown, and the row counts of the list. Only meant
+ * for debug builds.
+ */
+public class MetricsOverlay implements Choreographer.FrameCallback {
+
+    private static final long REFRESH_MS = 500;
+
+    private final TextView view;
+    private final Handler handler = new Handler();
+    private final StringBuilder text = new StringBuilder();
+    private NoteRowPool rows;
+    private long lastFrameNanos;
+    private boolean shown;
+
+    private final Runnable refresh = new Runnable() {
+        @Override
+        public void run() {
+            text.setLength(0);
+            for (LatencyHistogram histogram : Metrics.getAll()) {
+                LatencyHistogram.Summary summary = histogram.summarize();
+                if (summary.count == 0) {
+                    continue;
+                }
+                if (text.length() > 0) {
+                    text.append('\n');
+                }
+                text.append(String.format(Locale.US, "%-12s p50 %7.2f  p99 %7.2f ms  n=%d",
+                        histogram.getName(), summary.p50Micros / 1000.0, summary.p99Micros / 1000.0, summary.count));
+            }
+            if (rows != null) {
+                text.append(text.length() > 0 ? "\n" : "").append("rows         ").append(rows);
+            }
+            view.setText(text);
+            handler.postDelayed(this, REFRESH_MS);
+        }
+    };
+
+    public MetricsOverlay(Activity activity) {
+        view = new TextView(activity);
+        view.setTypeface(Typeface.MONOSPACE);
+        view.setTextSize(10);
+        view.setTextColor(Color.WHITE);
+        view.setBackgroundColor(0xA0000000);
+        view.setClickable(false);
+        FrameLayout.LayoutParams params = new FrameLayout.LayoutParams(
+                ViewGroup.LayoutParams.WRAP_CONTENT, ViewGroup.LayoutParams.WRAP_CONTENT,
+                Gravity.BOTTOM | Gravity.START);
+        ((FrameLayout) activity.findViewById(android.R.id.content)).addView(view, params);
+    }
+
+    /** Also shows how many rows were inflated and bound. */
+    public void setRows(NoteRowPool rows) {
+        this.rows = rows;
+    }
+
+    /** Call from onResume. */
+    public void show() {
+        shown = true;
+        lastFrameNanos = 0;
+        handler.post(refresh);
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    /** Call from onPause, frame callbacks keep the display busy. */
+    public void hide() {
+        shown = false;
+        handler.removeCallbacks(refresh);
+        Choreographer.getInstance().removeFrameCallback(this);
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if (lastFrameNanos != 0) {
+            Metrics.FRAME.record((frameTimeNanos - lastFrameNanos) / 1000);
+        }
+        lastFrameNanos = frameTimeNanos;
+        if (shown) {
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    }
+}
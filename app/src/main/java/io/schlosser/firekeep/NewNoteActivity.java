@@ -1,9 +1,13 @@
 package io.schlosser.firekeep;
 
-import android.content.Intent;
+import android.content.DialogInterface;
+import android.os.Handler;
+import android.support.design.widget.Snackbar;
+import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
 import android.os.Bundle;
 import android.text.Editable;
+import android.text.TextUtils;
 import android.text.TextWatcher;
 import android.util.Log;
 import android.view.Menu;
@@ -14,31 +18,61 @@ import android.widget.AdapterView;
 import android.widget.ArrayAdapter;
 import android.widget.EditText;
 import android.widget.Spinner;
-
-import com.google.firebase.auth.FirebaseAuth;
-import com.google.firebase.auth.FirebaseUser;
-import com.google.firebase.database.DataSnapshot;
-import com.google.firebase.database.DatabaseError;
-import com.google.firebase.database.DatabaseReference;
-import com.google.firebase.database.FirebaseDatabase;
-import com.google.firebase.database.ValueEventListener;
-import com.google.firebase.remoteconfig.FirebaseRemoteConfig;
+import android.widget.TextView;
 
 import java.util.Date;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 
 public class NewNoteActivity extends AppCompatActivity implements TextWatcher, AdapterView.OnItemSelectedListener {
 
     private static final String TAG = "NewNoteActivity";
     public static final String ARG_NOTE_ID = "note_id";
-    private static final String COLOR_PICKER_ENABLED = "color_picker_enabled";
-    private DatabaseReference database;
-    private FirebaseRemoteConfig config;
+    private static final long DRAFT_SAVE_DELAY_MS = 1000;
+    private NoteBackend backend;
+    private NoteOutbox outbox;
+    private NoteStore noteStore;
+    private String uid;
+    private FeatureFlags flags;
     private EditText textField;
     private Spinner colorSpinner;
     private ArrayAdapter<CharSequence> colorSpinnerAdapter;
+    private TextView tagsView;
+    /** Tags of the note as shown, see {@link NoteTags}. */
+    private final Set<String> tags = new TreeSet<>();
+    /** Every tag of the user, offered in the chooser. */
+    private final Set<String> knownTags = new TreeSet<>();
     private MenuItem saveButton;
     private Note note = null;
+    private String noteId = null;
+
+    private final TextValidity validity = new TextValidity();
+    private final Handler handler = new Handler();
+    private DraftStore drafts;
+    /** True while text is set from the database or a draft rather than typed. */
+    private boolean loading = false;
+    private boolean edited = false;
+    private boolean draftPending = false;
+    private String shownColor = null;
 
+    private final Runnable saveDraft = new Runnable() {
+        @Override
+        public void run() {
+            draftPending = false;
+            String text = textField.getText().toString();
+            String color = colorAt(colorSpinner.getSelectedItemPosition());
+            boolean unchanged = note == null
+                    ? text.isEmpty()
+                    : TextUtils.equals(text, note.getText()) && TextUtils.equals(color, note.getColor());
+            if (unchanged) {
+                // Edited back to what is saved
+                drafts.delete(noteId);
+            } else {
+                drafts.write(noteId, text, color);
+            }
+        }
+    };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -46,12 +80,13 @@ public class NewNoteActivity extends AppCompatActivity implements TextWatcher, A
         setContentView(R.layout.activity_new_note);
         getSupportActionBar().setDisplayHomeAsUpEnabled(true);
 
-        // Get the database node at /notes/<uid>/
-        FirebaseUser user = FirebaseAuth.getInstance().getCurrentUser();
-        String uid = user.getUid();
-        database = FirebaseDatabase.getInstance().getReference("notes").child(uid);
+        backend = FireKeepApplication.getBackend(this);
+        uid = backend.getUid();
+        outbox = FirebaseNoteOutbox.getInstance(this);
+        noteStore = FireKeepApplication.getNoteStore(this);
 
-        config = FirebaseRemoteConfig.getInstance();
+        flags = FeatureFlags.getInstance(this);
+        drafts = new DraftStore(this);
 
         // Get Input Fields
         textField = (EditText) findViewById(R.id.text);
@@ -63,48 +98,237 @@ public class NewNoteActivity extends AppCompatActivity implements TextWatcher, A
         colorSpinnerAdapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
         colorSpinner.setAdapter(colorSpinnerAdapter);
         colorSpinner.setOnItemSelectedListener(this);
+        shownColor = MainActivity.COLORS[0].name();
+
+        tagsView = (TextView) findViewById(R.id.tags);
+        tagsView.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                chooseTags();
+            }
+        });
+        backend.readTagCounts(uid, new NoteBackend.TagCountsCallback() {
+            @Override
+            public void onTagCounts(Map<String, Long> counts) {
+                knownTags.addAll(counts.keySet());
+            }
+
+            @Override
+            public void onError(String message) {
+                Log.w(TAG, message);
+            }
+        });
 
         Bundle extras = getIntent().getExtras();
         if (extras == null) {
             setTitle("New Note");
+            restoreDraft();
         } else {
             setTitle("Edit Note");
-            String noteId = extras.getString(ARG_NOTE_ID);
-            database.child(noteId).addListenerForSingleValueEvent(new ValueEventListener() {
+            noteId = extras.getString(ARG_NOTE_ID);
+            // Shown from the list right away, but only editable and saved once the full
+            // note is read: the list holds a preview of the text, see NoteSummaries
+            Note listed = noteStore.find(noteId);
+            if (listed != null) {
+                showNote(listed.getText(), listed.getColor());
+                showTags(listed.getTags());
+            }
+            textField.setEnabled(false);
+            backend.readNote(uid, noteId, new NoteBackend.NoteCallback() {
                 @Override
-                public void onDataChange(DataSnapshot dataSnapshot) {
-                    note = dataSnapshot.getValue(Note.class);
-                    textField.setText(note.getText());
-                    colorSpinner.setSelection(colorSpinnerAdapter.getPosition(note.getColor()));
-                    setBackgroundColor(note.getColor());
+                public void onNote(Note read) {
+                    note = read;
+                    // A save that is still queued is newer than the database. Once sent
+                    // it holds the chunks it was stored with, see NoteBatch#save
+                    Note pending = outbox.pending(noteId);
+                    if (pending != null) {
+                        note = pending;
+                    }
+                    showNote(note.getText(), note.getColor());
+                    showTags(note.getTags());
+                    if (!note.isTextIntact()) {
+                        // Saving it would store only the part that was read
+                        Log.w(TAG, "Text of " + noteId + " does not match its hash");
+                        Snackbar.make(findViewById(R.id.activity_new_note), R.string.note_incomplete,
+                                Snackbar.LENGTH_INDEFINITE).show();
+                        setMenuEnabledDisabled();
+                        return;
+                    }
+                    textField.setEnabled(true);
+                    setMenuEnabledDisabled();
+                    restoreDraft();
                 }
 
                 @Override
-                public void onCancelled(DatabaseError databaseError) {
-                    Log.e(TAG, databaseError.getMessage());
+                public void onError(String message) {
+                    Log.e(TAG, message);
                 }
             });
         }
 
-        if (config.getBoolean(COLOR_PICKER_ENABLED)) {
+        if (flags.get().colorPickerEnabled) {
             View colorWrapper = findViewById(R.id.color_input_layout);
             colorWrapper.setVisibility(View.VISIBLE);
         };
     }
 
+    @Override
+    protected void onStart() {
+        super.onStart();
+        noteStore.onScreenStarted();
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        noteStore.onScreenStopped();
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        // Don't wait for the debounce, the process may not come back
+        if (draftPending) {
+            handler.removeCallbacks(saveDraft);
+            saveDraft.run();
+        }
+    }
+
+    private void restoreDraft() {
+        drafts.read(noteId, new DraftStore.Callback() {
+            @Override
+            public void onDraftLoaded(DraftStore.Draft draft) {
+                // Anything typed meanwhile is newer than the draft
+                if (draft != null && !edited) {
+                    showNote(draft.text, draft.color);
+                }
+            }
+        });
+    }
+
+    private void showNote(String text, String color) {
+        loading = true;
+        shownColor = color;
+        textField.setText(text);
+        colorSpinner.setSelection(positionOf(color));
+        setBackgroundColor(color);
+        loading = false;
+    }
+
+    private void showTags(Set<String> shown) {
+        tags.clear();
+        tags.addAll(shown);
+        tagsView.setText(tags.isEmpty()
+                ? getString(R.string.tags_none)
+                : getString(R.string.tags_shown, TextUtils.join(", ", tags)));
+    }
+
+    /** Checks the note's tags among every known tag, or adds a new one. */
+    private void chooseTags() {
+        Set<String> all = new TreeSet<>(knownTags);
+        all.addAll(tags);
+        final String[] choices = all.toArray(new String[all.size()]);
+        final boolean[] checked = new boolean[choices.length];
+        for (int i = 0; i < choices.length; i++) {
+            checked[i] = tags.contains(choices[i]);
+        }
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.action_tags)
+                .setMultiChoiceItems(choices, checked, new DialogInterface.OnMultiChoiceClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which, boolean isChecked) {
+                        checked[which] = isChecked;
+                    }
+                })
+                .setPositiveButton(android.R.string.ok, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        showTags(checkedTags(choices, checked));
+                    }
+                })
+                .setNeutralButton(R.string.tag_new, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        showTags(checkedTags(choices, checked));
+                        addTag();
+                    }
+                })
+                .show();
+    }
+
+    private static Set<String> checkedTags(String[] choices, boolean[] checked) {
+        Set<String> chosen = new TreeSet<>();
+        for (int i = 0; i < choices.length; i++) {
+            if (checked[i]) {
+                chosen.add(choices[i]);
+            }
+        }
+        return chosen;
+    }
+
+    private void addTag() {
+        final EditText input = new EditText(this);
+        input.setHint(R.string.tag_hint);
+        input.setSingleLine();
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.tag_new)
+                .setView(input)
+                .setPositiveButton(android.R.string.ok, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        String tag = NoteTags.key(input.getText().toString());
+                        if (tag != null) {
+                            knownTags.add(tag);
+                            Set<String> chosen = new TreeSet<>(tags);
+                            chosen.add(tag);
+                            showTags(chosen);
+                        }
+                        chooseTags();
+                    }
+                })
+                .setNegativeButton(android.R.string.cancel, null)
+                .show();
+    }
+
     public void onItemSelected(AdapterView<?> parent, View view,
                                int pos, long id) {
-        setBackgroundColor(colorSpinnerAdapter.getItem(pos).toString());
+        String color = colorAt(pos);
+        setBackgroundColor(color);
+        // The spinner also reports selections made by showNote, after layout
+        if (pos != positionOf(shownColor)) {
+            shownColor = color;
+            onEdited();
+        }
     }
 
     public void onNothingSelected(AdapterView<?> parent) {
         setBackgroundColor("White");
     }
 
+    /** The color stored for spinner position {@code pos}, as the note spells it if it has that color. */
+    private String colorAt(int pos) {
+        NoteColor chosen = MainActivity.COLORS[pos];
+        if (note != null && NoteColor.fromName(note.getColor()) == chosen) {
+            return note.getColor();
+        }
+        return chosen.name();
+    }
+
+    /** Spinner position of a stored color, White for unknown ones as they are shown white. */
+    private static int positionOf(String color) {
+        NoteColor known = NoteColor.fromName(color);
+        for (int i = 0; i < MainActivity.COLORS.length; i++) {
+            if (MainActivity.COLORS[i] == known) {
+                return i;
+            }
+        }
+        return 0;
+    }
+
     private void setBackgroundColor(String color) {
-        if (config.getBoolean(COLOR_PICKER_ENABLED)) {
+        if (flags.get().colorPickerEnabled) {
             View wrapper = findViewById(R.id.activity_new_note);
-            wrapper.setBackgroundColor(MainActivity.NoteColor.getColor(color));
+            wrapper.setBackgroundColor(NoteColor.getColor(color));
         }
     }
 
@@ -122,17 +346,32 @@ public class NewNoteActivity extends AppCompatActivity implements TextWatcher, A
         switch (item.getItemId()) {
 
             case R.id.action_save:
+                if (!canSave()) {
+                    // The note was not read yet, saving the preview would cut it short
+                    return true;
+                }
+                handler.removeCallbacks(saveDraft);
+                draftPending = false;
+
                 String text = textField.getText().toString();
-                String color = colorSpinner.getSelectedItem().toString();
-                if (note == null) {
-                    long dateCreated = new Date().getTime();
-                    note = new Note(text, dateCreated, color);
-                } else {
-                    note.text = text;
-                    note.color = color;
+                String color = colorAt(colorSpinner.getSelectedItemPosition());
+                long dateCreated = note == null ? new Date().getTime() : note.dateCreated;
+                Note saved = new Note(text, dateCreated, color);
+                saved.tags = tags.isEmpty() ? null : new TreeSet<>(tags);
+                if (flags.get().compressLongNotes) {
+                    // Only chunked text is encoded, short notes stay plain
+                    saved.encoding = NoteCompression.DEFLATE;
+                }
+                // A new note's draft is kept under no id
+                drafts.delete(noteId);
+                if (noteId == null) {
+                    noteId = NoteIds.next();
                 }
-                database.child(String.valueOf(note.getId())).setValue(note);
-                startActivity(new Intent(NewNoteActivity.this, MainActivity.class));
+                // Sent when online, as only the fields and chunks that changed
+                outbox.save(uid, noteId, note, saved);
+                note = saved;
+                // Back to the list that opened this screen, rather than a new one on top
+                finish();
                 return true;
 
             default:
@@ -143,18 +382,30 @@ public class NewNoteActivity extends AppCompatActivity implements TextWatcher, A
     }
 
     @Override
-    public void beforeTextChanged(CharSequence charSequence, int i, int i1, int i2) {
-        // Pass
+    public void beforeTextChanged(CharSequence charSequence, int start, int count, int after) {
+        validity.beforeChange(charSequence, start, count);
     }
 
     @Override
-    public void onTextChanged(CharSequence charSequence, int i, int i1, int i2) {
-        // Pass
+    public void onTextChanged(CharSequence charSequence, int start, int before, int count) {
+        validity.afterChange(charSequence, start, count);
     }
 
     @Override
     public void afterTextChanged(Editable s) {
         setMenuEnabledDisabled();
+        onEdited();
+    }
+
+    /** Coalesces edits into one draft write once typing pauses. */
+    private void onEdited() {
+        if (loading) {
+            return;
+        }
+        edited = true;
+        draftPending = true;
+        handler.removeCallbacks(saveDraft);
+        handler.postDelayed(saveDraft, DRAFT_SAVE_DELAY_MS);
     }
 
     private void setMenuEnabledDisabled() {
@@ -162,16 +413,11 @@ public class NewNoteActivity extends AppCompatActivity implements TextWatcher, A
             return;
         }
 
-        Log.i(TAG, "Validity: " + textIsValid());
-        if (textIsValid()) {
-            saveButton.setEnabled(true);
-        } else {
-            saveButton.setEnabled(false);
-        }
+        saveButton.setEnabled(canSave());
     }
 
-    private boolean textIsValid() {
-        String slug = textField.getText().toString();
-        return slug.matches(".+");
+    /** An existing note is only saved over once it was read in full. */
+    private boolean canSave() {
+        return validity.isValid() && textField.isEnabled() && (noteId == null || note != null);
     }
 }
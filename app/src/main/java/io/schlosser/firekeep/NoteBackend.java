@@ -0,0 +1,54 @@
+package io.schlosser.firekeep;
+
+import java.util.Map;
+
+/**
+ * Where the screens read and write notes. The app runs on
+ * {@link FirebaseNoteBackend}; kept as an interface so the list and the edit
+ * screen can run against an in-process fake, e.g. to replay a heavy user's
+ * workload without a network.
+ *
+ * Like {@link NotePageSource}, callbacks are delivered on the thread the
+ * backend is used from, never from inside the call that registered them.
+ */
+public interface NoteBackend {
+
+    interface NoteCallback {
+        /** @param note null if there is no such note */
+        void onNote(Note note);
+
+        void onError(String message);
+    }
+
+    interface TagCountsCallback {
+        /** @param counts notes by tag, see {@link NoteTags} */
+        void onTagCounts(Map<String, Long> counts);
+
+        void onError(String message);
+    }
+
+    interface ConnectionListener {
+        void onConnectionChanged(boolean connected);
+    }
+
+    /** The signed in user, or null when signed out. */
+    String getUid();
+
+    /** Every note at {@code listPath}, see {@link MainActivity#listPath(android.content.Context, String)}. */
+    NotePageSource pageSource(String listPath);
+
+    /** The notes at {@code listPath} that are in the {@link NoteIndex} or {@link NoteTags} node at {@code indexPath}. */
+    NotePageSource indexedPageSource(String indexPath, String listPath);
+
+    /** Takes multi-path updates relative to the database root, as built by {@link NoteBatch}. */
+    NoteBatchSink batchSink();
+
+    /** Reads the full note once. */
+    void readNote(String uid, String noteId, NoteCallback callback);
+
+    /** Reads the user's tags and how many notes have each, once. */
+    void readTagCounts(String uid, TagCountsCallback callback);
+
+    /** Called with the current state and then on every change, for the life of the process. */
+    void watchConnection(ConnectionListener listener);
+}
@@ -0,0 +1,24 @@
+package io.schlosser.firekeep;
+
+import java.util.Map;
+
+/**
+ * Where multi-path updates are sent. {@link FirebaseNoteBatchSink} sends them to
+ * the database root; tests use a local fake.
+ */
+public interface NoteBatchSink {
+
+    interface Callback {
+        /** @param error null when the write was accepted */
+        void onComplete(String error);
+    }
+
+    void updateChildren(Map<String, Object> update, Callback callback);
+
+    /**
+     * Adds {@code changes} to the counts under {@code path} by key, in a
+     * transaction so concurrent changes add up, e.g. {@link NoteTags#countsPath}.
+     * Counts that drop to 0 are removed. Failures are only logged.
+     */
+    void addToCounts(String path, Map<String, Long> changes);
+}
@@ -0,0 +1,37 @@
+package io.schlosser.firekeep;
+
+/**
+ * Fills a list row from a note. This runs for every row that scrolls into view,
+ * so nothing in here may allocate.
+ */
+public final class NoteBinder {
+
+    /** What a row needs to show a note, implemented by {@link MainActivity.NoteHolder}. */
+    public interface Row {
+        void setNoteId(String noteId);
+
+        void setText(String text);
+
+        void setCardColor(int color);
+
+        void setChecked(boolean checked);
+    }
+
+    private NoteBinder() {
+    }
+
+    public static void bind(Row row, String noteId, Note note, boolean showColor, boolean checked) {
+        row.setNoteId(noteId);
+        row.setText(note.getText());
+        row.setCardColor(showColor ? NoteColor.getColor(note.getColor()) : NoteColor.DEFAULT.getColor());
+        row.setChecked(checked);
+    }
+
+    /** Row for a note whose page is being loaded again. */
+    public static void bindPlaceholder(Row row, String noteId, boolean checked) {
+        row.setNoteId(noteId);
+        row.setText("");
+        row.setCardColor(NoteColor.DEFAULT.getColor());
+        row.setChecked(checked);
+    }
+}
@@ -0,0 +1,137 @@
+package io.schlosser.firekeep;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Outline;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.os.Build;
+import android.support.v4.content.ContextCompat;
+import android.text.Layout;
+import android.util.AttributeSet;
+import android.view.View;
+import android.view.ViewOutlineProvider;
+
+/**
+ * A list row as one view: draws the card and the text of a note, the text
+ * from the {@link NoteLayoutCache} instead of laying it out like a TextView
+ * would, so a bind is a lookup. Replaces a CardView around a TextView, which
+ * took two more views to inflate, measure and draw for every row.
+ *
+ * The text is not selectable and uses the size and color of the cache. The
+ * card has a shadow from Lollipop on, and is flat before.
+ */
+public class NoteCardView extends View {
+
+    private final NoteLayoutCache cache;
+    private final Paint cardPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint checkedPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final RectF card = new RectF();
+    private final float radius;
+    private String noteId = "";
+    private String text = "";
+    private Layout layout;
+    private boolean checked;
+
+    public NoteCardView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        cache = FireKeepApplication.getLayoutCache(context);
+        float density = context.getResources().getDisplayMetrics().density;
+        // What CardView had in note_item
+        radius = 3 * density;
+        cardPaint.setColor(NoteColor.DEFAULT.getColor());
+        checkedPaint.setColor(ContextCompat.getColor(context, R.color.colorSelection));
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            setOutlineProvider(new CardOutline(card, radius));
+            setElevation(2 * density);
+        }
+    }
+
+    public void setText(String noteId, String text) {
+        if (text == null) {
+            text = "";
+        }
+        if (noteId.equals(this.noteId) && text.equals(this.text)) {
+            return;
+        }
+        this.noteId = noteId;
+        this.text = text;
+        setContentDescription(text);
+        int width = getTextWidth();
+        Layout previous = layout;
+        layout = width > 0 ? cache.get(noteId, text, width) : null;
+        if (layout == null || previous == null || layout.getHeight() != previous.getHeight()) {
+            requestLayout();
+        }
+        invalidate();
+    }
+
+    public void setCardColor(int color) {
+        if (color != cardPaint.getColor()) {
+            cardPaint.setColor(color);
+            invalidate();
+        }
+    }
+
+    /** Shows the row as selected. */
+    public void setChecked(boolean checked) {
+        if (checked != this.checked) {
+            this.checked = checked;
+            invalidate();
+        }
+    }
+
+    /** Width available to the text once the row was laid out, 0 before. */
+    public int getTextWidth() {
+        return Math.max(0, getWidth() - getPaddingLeft() - getPaddingRight());
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        int width = MeasureSpec.getSize(widthMeasureSpec);
+        int textWidth = Math.max(1, width - getPaddingLeft() - getPaddingRight());
+        if (layout == null || layout.getWidth() != textWidth) {
+            layout = cache.get(noteId, text, textWidth);
+        }
+        int height = layout.getHeight() + getPaddingTop() + getPaddingBottom();
+        setMeasuredDimension(width, resolveSize(height, heightMeasureSpec));
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        card.set(0, 0, w, h);
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        canvas.drawRoundRect(card, radius, radius, cardPaint);
+        if (layout != null) {
+            canvas.save();
+            canvas.translate(getPaddingLeft(), getPaddingTop());
+            layout.draw(canvas);
+            canvas.restore();
+        }
+        if (checked) {
+            canvas.drawRoundRect(card, radius, radius, checkedPaint);
+        }
+    }
+
+    /** The shadow of the card, which has no background drawable to take it from. */
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private static final class CardOutline extends ViewOutlineProvider {
+        private final RectF card;
+        private final float radius;
+
+        CardOutline(RectF card, float radius) {
+            this.card = card;
+            this.radius = radius;
+        }
+
+        @Override
+        public void getOutline(View view, Outline outline) {
+            outline.setRoundRect(0, 0, (int) card.width(), (int) card.height(), radius);
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package io.schlosser.firekeep;
+
+import android.app.IntentService;
+import android.app.NotificationManager;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.net.Uri;
+import android.support.v4.app.NotificationCompat;
+import android.util.Log;
+
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.auth.FirebaseUser;
+import com.google.firebase.database.FirebaseDatabase;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Exports notes to a file in the background, see {@link NoteExporter}. The
+ * watermark of the last complete export is kept in preferences for the next
+ * incremental one.
+ */
+public class NoteExportService extends IntentService {
+
+    private static final String TAG = "NoteExportService";
+    private static final String EXTRA_MARKDOWN = "markdown";
+    private static final String EXTRA_INCREMENTAL = "incremental";
+    private static final String PREFS = "export";
+    private static final String KEY_MODIFIED = "watermark_modified";
+    private static final String KEY_KEY = "watermark_key";
+    private static final int NOTIFICATION_ID = 2;
+
+    public NoteExportService() {
+        super(TAG);
+    }
+
+    /**
+     * @param markdown a zip of Markdown files rather than JSON Lines
+     * @param incremental only notes changed since the last export
+     */
+    public static void start(Context context, Uri target, boolean markdown, boolean incremental) {
+        Intent intent = new Intent(context, NoteExportService.class);
+        intent.setData(target);
+        intent.putExtra(EXTRA_MARKDOWN, markdown);
+        intent.putExtra(EXTRA_INCREMENTAL, incremental);
+        intent.addFlags(Intent.FLAG_GRANT_WRITE_URI_PERMISSION);
+        context.startService(intent);
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        FirebaseUser user = FirebaseAuth.getInstance().getCurrentUser();
+        if (user == null || intent.getData() == null) {
+            return;
+        }
+        boolean markdown = intent.getBooleanExtra(EXTRA_MARKDOWN, false);
+        SharedPreferences prefs = getSharedPreferences(PREFS, MODE_PRIVATE);
+        NoteExporter.Watermark after = null;
+        if (intent.getBooleanExtra(EXTRA_INCREMENTAL, false) && prefs.contains(KEY_KEY)) {
+            after = new NoteExporter.Watermark(prefs.getLong(KEY_MODIFIED, 0), prefs.getString(KEY_KEY, null));
+        }
+
+        NotificationManager notifications =
+                (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+        notifications.notify(NOTIFICATION_ID, new NotificationCompat.Builder(this)
+                .setSmallIcon(android.R.drawable.stat_sys_upload)
+                .setContentTitle(getString(R.string.export_running))
+                .setOngoing(true)
+                .setProgress(0, 0, true)
+                .build());
+
+        FirebaseNoteExportSource source = new FirebaseNoteExportSource(
+                FirebaseDatabase.getInstance().getReference("notes").child(user.getUid()));
+        NoteExporter exporter = new NoteExporter(source);
+        OutputStream out = null;
+        String message;
+        try {
+            out = getContentResolver().openOutputStream(intent.getData());
+            if (out == null) {
+                throw new IOException("Could not open " + intent.getData());
+            }
+            out = new BufferedOutputStream(out);
+            long upTo = source.serverTime();
+            NoteExporter.Watermark last;
+            if (markdown) {
+                MarkdownZipNoteOutput zip = new MarkdownZipNoteOutput(out);
+                last = exporter.run(after, upTo, zip);
+                zip.finish();
+            } else {
+                Writer writer = new OutputStreamWriter(out, "UTF-8");
+                last = exporter.run(after, upTo, new JsonLinesNoteOutput(writer));
+                writer.flush();
+            }
+            out.close();
+            out = null;
+
+            if (last != null) {
+                prefs.edit()
+                        .putLong(KEY_MODIFIED, last.dateModified)
+                        .putString(KEY_KEY, last.key)
+                        .apply();
+            }
+            message = getString(R.string.export_done, exporter.getWritten());
+        } catch (IOException e) {
+            Log.w(TAG, "export:FAILED", e);
+            message = getString(R.string.export_failed);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            notifications.cancel(NOTIFICATION_ID);
+            return;
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+
+        notifications.notify(NOTIFICATION_ID, new NotificationCompat.Builder(this)
+                .setSmallIcon(android.R.drawable.stat_sys_upload_done)
+                .setContentTitle(getString(R.string.app_name))
+                .setContentText(message)
+                .setAutoCancel(true)
+                .build());
+    }
+}
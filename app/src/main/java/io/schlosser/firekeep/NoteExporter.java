@@ -0,0 +1,89 @@
+package io.schlosser.firekeep;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Writes a user's notes out page by page, ordered by dateModified, so only one
+ * page is ever in memory.
+ *
+ * Each export ends at a {@link Watermark}, the position of the last note it
+ * wrote. An incremental export starts after the previous watermark, and so
+ * only writes notes added or edited since. Deletions are not recorded.
+ *
+ * {@link #run} blocks and must not be called on the main thread.
+ */
+public class NoteExporter {
+
+    static final int PAGE_SIZE = 200;
+
+    public interface Source {
+        /**
+         * Up to {@code limit} notes by key, in ascending (dateModified, key)
+         * order, strictly after the watermark, or from the start if it is null.
+         */
+        Map<String, Note> loadPage(Watermark after, int limit) throws IOException, InterruptedException;
+    }
+
+    public interface Output {
+        void write(String noteId, Note note) throws IOException;
+    }
+
+    public static final class Watermark {
+        public final long dateModified;
+        public final String key;
+
+        public Watermark(long dateModified, String key) {
+            this.dateModified = dateModified;
+            this.key = key;
+        }
+
+        boolean isBefore(long dateModified, String key) {
+            return this.dateModified != dateModified
+                    ? this.dateModified < dateModified
+                    : this.key.compareTo(key) < 0;
+        }
+    }
+
+    private final Source source;
+    private int written;
+
+    public NoteExporter(Source source) {
+        this.source = source;
+    }
+
+    /**
+     * Writes every note after {@code after} that was last modified no later
+     * than {@code upTo}. Notes edited while the export runs move past that
+     * bound and are left for the next export, instead of being written twice.
+     *
+     * @param after watermark of the previous export, or null for everything
+     * @param upTo server time the export started at
+     * @return the watermark for the next incremental export
+     */
+    public Watermark run(Watermark after, long upTo, Output output) throws IOException, InterruptedException {
+        Watermark last = after;
+        while (true) {
+            Map<String, Note> page = source.loadPage(last, PAGE_SIZE);
+            for (Map.Entry<String, Note> entry : page.entrySet()) {
+                Note note = entry.getValue();
+                if (note.dateModified > upTo) {
+                    return last;
+                }
+                if (last != null && !last.isBefore(note.dateModified, entry.getKey())) {
+                    throw new IOException("Export page out of order at " + entry.getKey());
+                }
+                output.write(entry.getKey(), note);
+                last = new Watermark(note.dateModified, entry.getKey());
+                written++;
+            }
+            if (page.size() < PAGE_SIZE) {
+                return last;
+            }
+        }
+    }
+
+    public int getWritten() {
+        return written;
+    }
+}
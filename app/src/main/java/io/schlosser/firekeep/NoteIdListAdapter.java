@@ -0,0 +1,171 @@
+package io.schlosser.firekeep;
+
+import android.content.Context;
+import android.content.Intent;
+import android.support.v4.util.LruCache;
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+import android.view.View;
+import android.view.ViewGroup;
+
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.ValueEventListener;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Shows a given list of note ids, such as search results. Only the notes that
+ * are bound are read from the database, one at a time, and kept in a small cache.
+ * After {@link #refresh} cached notes are shown until they are read again.
+ */
+public class NoteIdListAdapter extends RecyclerView.Adapter<MainActivity.NoteHolder> {
+
+    private static final String TAG = "NoteIdListAdapter";
+    private static final int CACHE_SIZE = 200;
+
+    private final DatabaseReference notes;
+    private final NoteRowPool rows;
+    private final LruCache<String, Note> cache = new LruCache<>(CACHE_SIZE);
+    private final Set<String> loading = new HashSet<>();
+    /** Cached notes to read again when next bound, they may have been edited. */
+    private final Set<String> stale = new HashSet<>();
+    /** Stable ids, one per note id shown so far. */
+    private final Map<String, Long> ids = new HashMap<>();
+    private long nextId;
+    private List<String> noteIds = Collections.emptyList();
+    private boolean showColors;
+    private Listener listener;
+
+    public interface Listener {
+        /** A listed note no longer exists, its row was removed. */
+        void onNoteMissing(String noteId);
+    }
+
+    private final View.OnClickListener openNoteListener = new View.OnClickListener() {
+        @Override
+        public void onClick(View v) {
+            MainActivity.NoteHolder holder = (MainActivity.NoteHolder) v.getTag();
+            Context context = v.getContext();
+            Intent intent = new Intent(context, NewNoteActivity.class);
+            intent.putExtra(NewNoteActivity.ARG_NOTE_ID, holder.getNoteId());
+
+            context.startActivity(intent);
+        }
+    };
+
+    public NoteIdListAdapter(DatabaseReference notes, NoteRowPool rows) {
+        this.notes = notes;
+        this.rows = rows;
+        setHasStableIds(true);
+    }
+
+    public void setNoteIds(List<String> noteIds) {
+        this.noteIds = new ArrayList<>(noteIds);
+        notifyDataSetChanged();
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /** Reads the shown notes again as they are bound, e.g. when back from editing one. */
+    public void refresh() {
+        stale.addAll(cache.snapshot().keySet());
+        notifyItemRangeChanged(0, noteIds.size());
+    }
+
+    public void setShowColors(boolean showColors) {
+        if (this.showColors != showColors) {
+            this.showColors = showColors;
+            notifyItemRangeChanged(0, noteIds.size());
+        }
+    }
+
+    @Override
+    public int getItemCount() {
+        return noteIds.size();
+    }
+
+    @Override
+    public long getItemId(int position) {
+        // Hashes of ids can collide, counters do not
+        String noteId = noteIds.get(position);
+        Long id = ids.get(noteId);
+        if (id == null) {
+            id = nextId++;
+            ids.put(noteId, id);
+        }
+        return id;
+    }
+
+    @Override
+    public MainActivity.NoteHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        View view = rows.create(parent);
+        MainActivity.NoteHolder holder = new MainActivity.NoteHolder(view);
+        view.setTag(holder);
+        return holder;
+    }
+
+    @Override
+    public void onBindViewHolder(MainActivity.NoteHolder holder, int position) {
+        // The row may have been made for another adapter of the list
+        holder.itemView.setOnClickListener(openNoteListener);
+        holder.itemView.setOnLongClickListener(null);
+        holder.itemView.setLongClickable(false);
+        String noteId = noteIds.get(position);
+        Note note = cache.get(noteId);
+        if (note == null) {
+            NoteBinder.bindPlaceholder(holder, noteId, false);
+            load(noteId);
+        } else {
+            NoteBinder.bind(holder, noteId, note, showColors, false);
+            if (stale.remove(noteId)) {
+                load(noteId);
+            }
+        }
+        rows.onBind();
+    }
+
+    private void load(final String noteId) {
+        if (!loading.add(noteId)) {
+            return;
+        }
+        notes.child(noteId).addListenerForSingleValueEvent(new ValueEventListener() {
+            @Override
+            public void onDataChange(DataSnapshot dataSnapshot) {
+                loading.remove(noteId);
+                Note note = NoteSummaries.fromValue(dataSnapshot.getValue());
+                int position = noteIds.indexOf(noteId);
+                if (position < 0) {
+                    return;
+                }
+                if (note == null) {
+                    // Deleted since it was listed, rather than a row that stays blank
+                    cache.remove(noteId);
+                    noteIds.remove(position);
+                    notifyItemRemoved(position);
+                    if (listener != null) {
+                        listener.onNoteMissing(noteId);
+                    }
+                    return;
+                }
+                cache.put(noteId, note);
+                notifyItemChanged(position);
+            }
+
+            @Override
+            public void onCancelled(DatabaseError databaseError) {
+                loading.remove(noteId);
+                Log.w(TAG, databaseError.getMessage());
+            }
+        });
+    }
+}
@@ -0,0 +1,156 @@
+package io.schlosser.firekeep;
+
+import android.app.IntentService;
+import android.app.NotificationManager;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.net.Uri;
+import android.support.v4.app.NotificationCompat;
+import android.util.Log;
+
+import com.google.firebase.auth.FirebaseUser;
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.database.FirebaseDatabase;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.security.SecureRandom;
+import java.util.Locale;
+
+/**
+ * Imports notes from a JSON, Markdown or plain text file in the background,
+ * see {@link NoteImporter}. The session is kept in preferences until the
+ * import finishes, so an import cut short by the process being killed picks
+ * up where it stopped, either when the intent is redelivered or the next time
+ * the app starts.
+ */
+public class NoteImportService extends IntentService {
+
+    private static final String TAG = "NoteImportService";
+    private static final String PREFS = "import";
+    private static final String KEY_SOURCE = "source";
+    private static final String KEY_STARTED_AT = "started_at";
+    private static final String KEY_SEED = "seed";
+    private static final String KEY_COMMITTED = "committed";
+    private static final int NOTIFICATION_ID = 1;
+
+    public NoteImportService() {
+        super(TAG);
+        // Run the import again if the process dies while it is running
+        setIntentRedelivery(true);
+    }
+
+    /** Starts importing a file, unless another import has not finished yet. */
+    public static void start(Context context, Uri source) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS, MODE_PRIVATE);
+        if (!prefs.contains(KEY_SOURCE)) {
+            prefs.edit()
+                    .putString(KEY_SOURCE, source.toString())
+                    .putLong(KEY_STARTED_AT, System.currentTimeMillis())
+                    .putLong(KEY_SEED, new SecureRandom().nextLong())
+                    .putInt(KEY_COMMITTED, 0)
+                    .commit();
+        }
+        context.startService(new Intent(context, NoteImportService.class));
+    }
+
+    /** Continues an import that did not finish. */
+    public static void resumeIfInterrupted(Context context) {
+        if (context.getSharedPreferences(PREFS, MODE_PRIVATE).contains(KEY_SOURCE)) {
+            context.startService(new Intent(context, NoteImportService.class));
+        }
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        final SharedPreferences prefs = getSharedPreferences(PREFS, MODE_PRIVATE);
+        if (!prefs.contains(KEY_SOURCE)) {
+            // Already finished by an earlier intent
+            return;
+        }
+        NoteImporter.Session session = new NoteImporter.Session(
+                prefs.getString(KEY_SOURCE, null),
+                prefs.getLong(KEY_STARTED_AT, 0),
+                prefs.getLong(KEY_SEED, 0),
+                prefs.getInt(KEY_COMMITTED, 0));
+        FirebaseUser user = FirebaseAuth.getInstance().getCurrentUser();
+        if (user == null) {
+            // Resumed once signed in again
+            return;
+        }
+
+        final NotificationManager notifications =
+                (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+        final NotificationCompat.Builder notification = new NotificationCompat.Builder(this)
+                .setSmallIcon(android.R.drawable.stat_sys_download)
+                .setContentTitle(getString(R.string.import_running))
+                .setOngoing(true)
+                .setProgress(0, 0, true);
+        notifications.notify(NOTIFICATION_ID, notification.build());
+
+        NoteImporter importer = new NoteImporter(user.getUid(),
+                new FirebaseNoteBatchSink(FirebaseDatabase.getInstance().getReference()), session);
+        importer.setListener(new NoteImporter.Listener() {
+            @Override
+            public void onCommitted(NoteImporter.Session session) {
+                prefs.edit().putInt(KEY_COMMITTED, session.committed).apply();
+                notification.setContentText(getString(R.string.import_progress, session.committed));
+                notifications.notify(NOTIFICATION_ID, notification.build());
+            }
+        });
+
+        Uri uri = Uri.parse(session.source);
+        InputStream in = null;
+        try {
+            in = getContentResolver().openInputStream(uri);
+            if (in == null) {
+                throw new IOException("Could not open " + uri);
+            }
+            int count = importer.run(openSource(uri, new InputStreamReader(in, "UTF-8"), session.startedAt));
+            prefs.edit().clear().commit();
+            finish(notifications, getString(R.string.import_done, count));
+        } catch (SecurityException e) {
+            // Permission to read the file did not survive a restart, nothing to resume
+            Log.w(TAG, "import:FAILED", e);
+            prefs.edit().clear().commit();
+            finish(notifications, getString(R.string.import_failed));
+        } catch (IOException e) {
+            // The session is kept, the next start continues after the last written batch
+            Log.w(TAG, "import:FAILED", e);
+            finish(notifications, getString(R.string.import_failed));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    private NoteImporter.Source openSource(Uri uri, Reader reader, long startedAt) {
+        String type = getContentResolver().getType(uri);
+        String path = uri.getLastPathSegment() == null ? "" : uri.getLastPathSegment().toLowerCase(Locale.US);
+        if (path.endsWith(".jsonl")) {
+            return new JsonNoteSource(reader, startedAt, true);
+        }
+        if ("application/json".equals(type) || path.endsWith(".json")) {
+            return new JsonNoteSource(reader, startedAt, false);
+        }
+        return new TextNoteSource(reader, startedAt);
+    }
+
+    private void finish(NotificationManager notifications, String message) {
+        notifications.notify(NOTIFICATION_ID, new NotificationCompat.Builder(this)
+                .setSmallIcon(android.R.drawable.stat_sys_download_done)
+                .setContentTitle(getString(R.string.app_name))
+                .setContentText(message)
+                .setAutoCancel(true)
+                .build());
+    }
+}
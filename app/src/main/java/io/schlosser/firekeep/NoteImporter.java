@@ -0,0 +1,150 @@
+package io.schlosser.firekeep;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Writes notes read from a {@link Source} in batches of multi-path updates.
+ *
+ * At most {@link #MAX_IN_FLIGHT} batches are unacknowledged at a time; reading
+ * waits for the oldest one to complete, so a slow or offline connection holds
+ * back the file instead of queueing all of it in memory.
+ *
+ * Progress is kept in a {@link Session}: the count of notes whose batch was
+ * acknowledged. Keys are derived from the session and the note's position in
+ * the file, so running the same session again skips what was written and
+ * rewrites, under the same keys, anything that may have been half written.
+ * The {@link NoteTags} counts of a batch are updated once it is acknowledged.
+ *
+ * {@link #run} blocks and must not be called on the main thread.
+ */
+public class NoteImporter {
+
+    static final int MAX_BATCH_NOTES = 500;
+    /** Keeps a batch well under the database's size limit for one write. */
+    static final int MAX_BATCH_CHARS = 1 << 20;
+    static final int MAX_IN_FLIGHT = 2;
+    /** For notes whose source has no color, as named in the color picker. */
+    static final String DEFAULT_COLOR = "White";
+
+    public interface Source {
+        /** The next note, or null at the end of the file. */
+        Note next() throws IOException;
+    }
+
+    public interface Listener {
+        /** Called from the sink's callback thread after each acknowledged batch. */
+        void onCommitted(Session session);
+    }
+
+    public static final class Session {
+        public final String source;
+        public final long startedAt;
+        public final long seed;
+        /** Notes at the start of the source that were written. */
+        public int committed;
+
+        public Session(String source, long startedAt, long seed, int committed) {
+            this.source = source;
+            this.startedAt = startedAt;
+            this.seed = seed;
+            this.committed = committed;
+        }
+
+        public String noteId(int index) {
+            return NoteIds.forImport(startedAt, seed, index);
+        }
+    }
+
+    private final String uid;
+    private final NoteBatchSink sink;
+    private final Session session;
+    private final Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+    private Listener listener;
+    private volatile String failure;
+
+    public NoteImporter(String uid, NoteBatchSink sink, Session session) {
+        this.uid = uid;
+        this.sink = sink;
+        this.session = session;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Imports the rest of the source.
+     *
+     * @return how many notes the source held
+     * @throws IOException if the source could not be read or a batch was rejected
+     */
+    public int run(Source source) throws IOException, InterruptedException {
+        int index = 0;
+        // Written by an earlier run of this session
+        while (index < session.committed && source.next() != null) {
+            index++;
+        }
+
+        NoteBatch batch = new NoteBatch(uid);
+        int batchChars = 0;
+        Note note;
+        while ((note = source.next()) != null) {
+            String noteId = session.noteId(index++);
+            batch.save(noteId, null, note);
+            if (note.archived) {
+                batch.setArchived(Collections.singleton(noteId), true);
+            }
+            batchChars += note.getText() == null ? 0 : note.getText().length();
+            if (batch.size() >= MAX_BATCH_NOTES || batchChars >= MAX_BATCH_CHARS) {
+                send(batch, index);
+                batch = new NoteBatch(uid);
+                batchChars = 0;
+            }
+        }
+        if (!batch.isEmpty()) {
+            send(batch, index);
+        }
+
+        // Wait for everything sent to be acknowledged
+        inFlight.acquire(MAX_IN_FLIGHT);
+        inFlight.release(MAX_IN_FLIGHT);
+        checkFailure();
+        return index;
+    }
+
+    private void send(final NoteBatch batch, final int end) throws IOException, InterruptedException {
+        inFlight.acquire();
+        if (failure != null) {
+            inFlight.release();
+            checkFailure();
+        }
+        sink.updateChildren(batch.toUpdate(), new NoteBatchSink.Callback() {
+            @Override
+            public void onComplete(String error) {
+                // Writes are acknowledged in the order they were sent
+                synchronized (session) {
+                    if (error != null) {
+                        failure = error;
+                    } else if (failure == null) {
+                        if (!batch.tagCountChanges().isEmpty()) {
+                            sink.addToCounts(NoteTags.countsPath(uid), batch.tagCountChanges());
+                        }
+                        session.committed = end;
+                        if (listener != null) {
+                            listener.onCommitted(session);
+                        }
+                    }
+                }
+                inFlight.release();
+            }
+        });
+    }
+
+    private void checkFailure() throws IOException {
+        if (failure != null) {
+            throw new IOException("Import batch failed: " + failure);
+        }
+    }
+}
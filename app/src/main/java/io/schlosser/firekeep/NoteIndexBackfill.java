@@ -0,0 +1,75 @@
+package io.schlosser.firekeep;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Adds notes saved before {@link NoteIndex} existed to the index, once per
+ * account. Every note is read once, page by page like an export, and index
+ * entries are written in batches. The version marker is written last, so a
+ * backfill that was interrupted runs again from the start.
+ *
+ * {@link #run} blocks and must not be called on the main thread.
+ */
+public class NoteIndexBackfill implements NoteExporter.Output {
+
+    static final int BATCH_NOTES = 500;
+
+    private final String uid;
+    private final NoteBatchSink sink;
+    private NoteBatch batch;
+
+    public NoteIndexBackfill(String uid, NoteBatchSink sink) {
+        this.uid = uid;
+        this.sink = sink;
+        this.batch = new NoteBatch(uid);
+    }
+
+    /** @return the number of notes indexed */
+    public int run(NoteExporter.Source source) throws IOException, InterruptedException {
+        NoteExporter reader = new NoteExporter(source);
+        reader.run(null, Long.MAX_VALUE, this);
+        flush();
+        send(Collections.<String, Object>singletonMap(NoteIndex.versionPath(uid), NoteIndex.CURRENT_VERSION));
+        return reader.getWritten();
+    }
+
+    @Override
+    public void write(String noteId, Note note) throws IOException {
+        batch.reindex(noteId, note);
+        if (batch.size() >= BATCH_NOTES) {
+            flush();
+        }
+    }
+
+    private void flush() throws IOException {
+        if (!batch.isEmpty()) {
+            send(batch.toUpdate());
+            batch = new NoteBatch(uid);
+        }
+    }
+
+    private void send(Map<String, Object> update) throws IOException {
+        final CountDownLatch done = new CountDownLatch(1);
+        final String[] error = new String[1];
+        sink.updateChildren(update, new NoteBatchSink.Callback() {
+            @Override
+            public void onComplete(String message) {
+                error[0] = message;
+                done.countDown();
+            }
+        });
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+        if (error[0] != null) {
+            throw new IOException(error[0]);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package io.schlosser.firekeep;
+
+import android.content.Context;
+import android.graphics.Paint;
+import android.os.Process;
+import android.support.v4.content.ContextCompat;
+import android.text.Layout;
+import android.text.StaticLayout;
+import android.text.TextPaint;
+import android.util.LruCache;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Laid out text of list rows, so binding a long note does not measure and
+ * break its lines during the scroll frame. Adapters {@link #prefetch} the
+ * rows about to scroll into view, which are laid out on a background thread;
+ * {@link NoteCardView} then only looks them up.
+ *
+ * Layouts are kept by note id, text and width, and the cache is bounded by
+ * the lines of all its layouts. Rows show {@link NoteSummaries#rowText}.
+ * There is one cache per process, see {@link FireKeepApplication}.
+ */
+public final class NoteLayoutCache {
+
+    /** About 10 screens of rows. */
+    private static final int MAX_LINES = 2000;
+
+    private static final class Key {
+        String noteId;
+        int textHash;
+        int width;
+
+        Key(String noteId, int textHash, int width) {
+            this.noteId = noteId;
+            this.textHash = textHash;
+            this.width = width;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return textHash == other.textHash && width == other.width && noteId.equals(other.noteId);
+        }
+
+        @Override
+        public int hashCode() {
+            return (noteId.hashCode() * 31 + textHash) * 31 + width;
+        }
+    }
+
+    /** Never changed after the constructor, so both threads can lay out with it. */
+    private final TextPaint paint;
+    private final LruCache<Key, Layout> layouts = new LruCache<Key, Layout>(MAX_LINES) {
+        @Override
+        protected int sizeOf(Key key, Layout layout) {
+            return layout.getLineCount();
+        }
+    };
+    /** Reused for lookups on the main thread. */
+    private final Key probe = new Key("", 0, 0);
+    private final Set<Key> pending = new HashSet<>();
+    private final ExecutorService prefetcher = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(final Runnable task) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    task.run();
+                }
+            }, "NoteLayoutCache");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    private int hits;
+    private int misses;
+
+    public NoteLayoutCache(Context context) {
+        paint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+        paint.density = context.getResources().getDisplayMetrics().density;
+        paint.setTextSize(context.getResources().getDimension(R.dimen.note_text_size));
+        paint.setColor(ContextCompat.getColor(context, R.color.noteText));
+    }
+
+    /**
+     * The layout of a row, laid out now if it was not prefetched. Main thread only.
+     *
+     * @param width of the text, without padding
+     */
+    public Layout get(String noteId, String text, int width) {
+        probe.noteId = noteId;
+        probe.textHash = text.hashCode();
+        probe.width = width;
+        Layout layout = layouts.get(probe);
+        if (layout != null) {
+            hits++;
+            return layout;
+        }
+        misses++;
+        layout = layOut(text, width);
+        layouts.put(new Key(noteId, probe.textHash, width), layout);
+        return layout;
+    }
+
+    /** Lays out a row in the background unless it already is. Call from the main thread. */
+    public void prefetch(String noteId, final String text, final int width) {
+        if (width <= 0) {
+            return;
+        }
+        final Key key = new Key(noteId, text.hashCode(), width);
+        synchronized (pending) {
+            if (!pending.add(key)) {
+                return;
+            }
+        }
+        prefetcher.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (layouts.get(key) == null) {
+                    layouts.put(key, layOut(text, width));
+                }
+                synchronized (pending) {
+                    pending.remove(key);
+                }
+            }
+        });
+    }
+
+    /** Lookups that found a layout, for benchmarks and the debug overlay. */
+    public int getHits() {
+        return hits;
+    }
+
+    /** Lookups that had to lay out on the main thread. */
+    public int getMisses() {
+        return misses;
+    }
+
+    /** Drops every layout, e.g. when the system is low on memory. */
+    public void clear() {
+        layouts.evictAll();
+    }
+
+    private Layout layOut(String text, int width) {
+        // The defaults of TextView, so rows look as before
+        return new StaticLayout(NoteSummaries.rowText(text), paint, width, Layout.Alignment.ALIGN_NORMAL,
+                1f, 0f, true);
+    }
+}
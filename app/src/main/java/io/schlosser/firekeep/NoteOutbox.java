@@ -0,0 +1,246 @@
+package io.schlosser.firekeep;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Note saves waiting to be written, so edits made offline are not each
+ * replayed when the connection comes back. Only the latest save of a note is
+ * kept, together with the note as the database last had it, and everything
+ * pending goes out as one multi-path update once online.
+ *
+ * Every save gets a {@link Note#version} above the one it was based on. The
+ * database rules reject a save whose version is not above the stored one, so
+ * an edit made offline does not overwrite a later edit from another device.
+ * If a batch fails, its notes are sent one by one and the rejected ones are
+ * dropped. The {@link NoteTags} counts are updated for the saves that were
+ * written.
+ *
+ * The queue is written to a {@link Store} after every change. Not thread
+ * safe, used from the main thread.
+ */
+public class NoteOutbox {
+
+    public interface Store {
+        List<Entry> load();
+
+        void save(List<Entry> entries);
+    }
+
+    public interface Listener {
+        /** The save was refused, most likely because the note was changed elsewhere since. */
+        void onRejected(String noteId, String error);
+    }
+
+    public static class Entry {
+        public final String uid;
+        public final String noteId;
+        /** The note as the database has it, null for a new note. */
+        public Note base;
+        public Note note;
+
+        public Entry(String uid, String noteId, Note base, Note note) {
+            this.uid = uid;
+            this.noteId = noteId;
+            this.base = base;
+            this.note = note;
+        }
+    }
+
+    private final NoteBatchSink sink;
+    private final Store store;
+    private final LatencyHistogram latency;
+    private final Map<String, Entry> pending = new LinkedHashMap<>();
+    private Listener listener;
+    private boolean online;
+    private int inFlight;
+    private long lastVersion;
+
+    /** @param latency records how long each accepted send took */
+    public NoteOutbox(NoteBatchSink sink, Store store, LatencyHistogram latency) {
+        this.sink = sink;
+        this.store = store;
+        this.latency = latency;
+        for (Entry entry : store.load()) {
+            pending.put(entry.noteId, entry);
+            lastVersion = Math.max(lastVersion, entry.note.version);
+        }
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Queues a save, replacing any save of the same note still waiting, and
+     * sets the note's version.
+     *
+     * @param previous the note as last read, or null for a new note
+     */
+    public void save(String uid, String noteId, Note previous, Note note) {
+        long since = previous == null ? 0 : previous.version;
+        Entry entry = pending.get(noteId);
+        if (entry != null) {
+            since = Math.max(since, entry.note.version);
+            entry.note = note;
+        } else {
+            pending.put(noteId, new Entry(uid, noteId, previous, note));
+        }
+        note.version = nextVersion(since);
+        store.save(new ArrayList<>(pending.values()));
+        flush();
+    }
+
+    /** The latest save of the note that was not written yet, or null. */
+    public Note pending(String noteId) {
+        Entry entry = pending.get(noteId);
+        return entry == null ? null : entry.note;
+    }
+
+    public int size() {
+        return pending.size();
+    }
+
+    /** Sends what is pending when {@code online} turns true, e.g. from .info/connected. */
+    public void setOnline(boolean online) {
+        this.online = online;
+        flush();
+    }
+
+    /** Sends everything pending as one update, unless offline or a send is still unanswered. */
+    public void flush() {
+        if (!online || inFlight > 0 || pending.isEmpty()) {
+            return;
+        }
+        send(new ArrayList<>(pending.values()));
+    }
+
+    private void send(final List<Entry> entries) {
+        // What each entry held when it was sent, as it may be saved again meanwhile
+        final Map<Entry, Note> sent = new HashMap<>();
+        final Map<Entry, NoteBatch> batches = new HashMap<>();
+        Map<String, Object> update = new HashMap<>();
+        for (Entry entry : entries) {
+            NoteBatch batch = new NoteBatch(entry.uid).save(entry.noteId, entry.base, entry.note);
+            sent.put(entry, entry.note);
+            batches.put(entry, batch);
+            update.putAll(batch.toUpdate());
+        }
+        if (update.isEmpty()) {
+            // Edited back to what the database has
+            written(sent);
+            return;
+        }
+        inFlight++;
+        final long start = System.nanoTime();
+        sink.updateChildren(update, new NoteBatchSink.Callback() {
+            @Override
+            public void onComplete(String error) {
+                inFlight--;
+                if (error == null) {
+                    latency.recordSince(start);
+                    countTags(batches.values());
+                    written(sent);
+                } else if (entries.size() > 1) {
+                    // Find out which notes were refused
+                    for (Entry entry : entries) {
+                        inFlight++;
+                        send(entry);
+                    }
+                    return;
+                } else {
+                    rejected(entries.get(0), sent.get(entries.get(0)), error);
+                }
+                flush();
+            }
+        });
+    }
+
+    private void send(final Entry entry) {
+        final Note note = entry.note;
+        final NoteBatch batch = new NoteBatch(entry.uid).save(entry.noteId, entry.base, note);
+        final long start = System.nanoTime();
+        sink.updateChildren(batch.toUpdate(),
+                new NoteBatchSink.Callback() {
+                    @Override
+                    public void onComplete(String error) {
+                        inFlight--;
+                        if (error == null) {
+                            latency.recordSince(start);
+                            countTags(Collections.singleton(batch));
+                            written(entry, note);
+                        } else {
+                            rejected(entry, note, error);
+                        }
+                        flush();
+                    }
+                });
+    }
+
+    /** One transaction per user for the tag counts of written batches. */
+    private void countTags(Collection<NoteBatch> written) {
+        Map<String, Map<String, Long>> changes = new HashMap<>();
+        for (NoteBatch batch : written) {
+            Map<String, Long> batchChanges = batch.tagCountChanges();
+            if (batchChanges.isEmpty()) {
+                continue;
+            }
+            Map<String, Long> uidChanges = changes.get(batch.getUid());
+            if (uidChanges == null) {
+                uidChanges = new HashMap<>();
+                changes.put(batch.getUid(), uidChanges);
+            }
+            for (Map.Entry<String, Long> change : batchChanges.entrySet()) {
+                Long sum = uidChanges.get(change.getKey());
+                uidChanges.put(change.getKey(), (sum == null ? 0 : sum) + change.getValue());
+            }
+        }
+        for (Map.Entry<String, Map<String, Long>> uidChanges : changes.entrySet()) {
+            sink.addToCounts(NoteTags.countsPath(uidChanges.getKey()), uidChanges.getValue());
+        }
+    }
+
+    private void written(Map<Entry, Note> sent) {
+        for (Map.Entry<Entry, Note> entry : sent.entrySet()) {
+            forget(entry.getKey(), entry.getValue());
+        }
+        store.save(new ArrayList<>(pending.values()));
+    }
+
+    private void written(Entry entry, Note note) {
+        forget(entry, note);
+        store.save(new ArrayList<>(pending.values()));
+    }
+
+    private void forget(Entry entry, Note note) {
+        if (entry.note == note) {
+            pending.remove(entry.noteId);
+        } else {
+            // Saved again while this was sent, the next send starts from what was written
+            entry.base = note;
+        }
+    }
+
+    private void rejected(Entry entry, Note note, String error) {
+        if (entry.note != note) {
+            // Saved again since, with a newer version that may still be accepted
+            return;
+        }
+        pending.remove(entry.noteId);
+        store.save(new ArrayList<>(pending.values()));
+        if (listener != null) {
+            listener.onRejected(entry.noteId, error);
+        }
+    }
+
+    /** Wall clock time, but always above every version handed out so far and {@code since}. */
+    private long nextVersion(long since) {
+        lastVersion = Math.max(System.currentTimeMillis(), Math.max(lastVersion, since) + 1);
+        return lastVersion;
+    }
+}
@@ -0,0 +1,211 @@
+package io.schlosser.firekeep;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.Executor;
+
+/**
+ * Keeps the {@link NoteOutbox} in one binary file, rewritten as a whole on
+ * every change. Writes happen on {@code executor}, in submission order when it
+ * is a single thread; reads happen on the caller's thread.
+ */
+public class NoteOutboxFile implements NoteOutbox.Store {
+
+    private static final String TAG = "NoteOutboxFile";
+    /** 2 added {@link Note#encoding}, 3 {@link Note#tags}; older files are still read. */
+    private static final int FORMAT = 3;
+    private static final String CHARSET = "UTF-8";
+
+    private final File file;
+    private final Executor executor;
+
+    public NoteOutboxFile(File file, Executor executor) {
+        this.file = file;
+        this.executor = executor;
+    }
+
+    @Override
+    public List<NoteOutbox.Entry> load() {
+        if (!file.exists()) {
+            return Collections.emptyList();
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            int format = in.readInt();
+            if (format < 1 || format > FORMAT) {
+                return Collections.emptyList();
+            }
+            int count = in.readInt();
+            List<NoteOutbox.Entry> entries = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String uid = readString(in);
+                String noteId = readString(in);
+                Note base = in.readBoolean() ? readNote(in, format) : null;
+                entries.add(new NoteOutbox.Entry(uid, noteId, base, readNote(in, format)));
+            }
+            return entries;
+        } catch (IOException e) {
+            Log.w(TAG, "Could not read " + file, e);
+            return Collections.emptyList();
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    @Override
+    public void save(List<NoteOutbox.Entry> entries) {
+        // Entries change after this returns, the notes they point to do not
+        final List<NoteOutbox.Entry> copy = new ArrayList<>(entries.size());
+        for (NoteOutbox.Entry entry : entries) {
+            copy.add(new NoteOutbox.Entry(entry.uid, entry.noteId, entry.base, entry.note));
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                write(copy);
+            }
+        });
+    }
+
+    private void write(List<NoteOutbox.Entry> entries) {
+        if (entries.isEmpty()) {
+            if (file.exists() && !file.delete()) {
+                Log.w(TAG, "Could not delete " + file);
+            }
+            return;
+        }
+        File dir = file.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            Log.w(TAG, "Could not create " + dir);
+            return;
+        }
+        // Write next to the file and rename, so a crash never leaves half a queue
+        File tmp = new File(dir, file.getName() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            out.writeInt(FORMAT);
+            out.writeInt(entries.size());
+            for (NoteOutbox.Entry entry : entries) {
+                writeString(out, entry.uid);
+                writeString(out, entry.noteId);
+                out.writeBoolean(entry.base != null);
+                if (entry.base != null) {
+                    writeNote(out, entry.base);
+                }
+                writeNote(out, entry.note);
+            }
+            out.close();
+            out = null;
+            if (!tmp.renameTo(file)) {
+                Log.w(TAG, "Could not save " + file);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Could not save " + file, e);
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    private static void writeNote(DataOutputStream out, Note note) throws IOException {
+        writeString(out, note.text);
+        out.writeLong(note.dateCreated);
+        writeString(out, note.color);
+        out.writeBoolean(note.archived);
+        out.writeLong(note.dateModified);
+        out.writeLong(note.version);
+        writeString(out, note.chunkOrder);
+        writeString(out, note.textHash);
+        writeString(out, note.encoding);
+        out.writeInt(note.chunks == null ? -1 : note.chunks.size());
+        if (note.chunks != null) {
+            for (Map.Entry<String, String> chunk : note.chunks.entrySet()) {
+                writeString(out, chunk.getKey());
+                writeString(out, chunk.getValue());
+            }
+        }
+        out.writeInt(note.tags == null ? -1 : note.tags.size());
+        if (note.tags != null) {
+            for (String tag : note.tags) {
+                writeString(out, tag);
+            }
+        }
+    }
+
+    private static Note readNote(DataInputStream in, int format) throws IOException {
+        Note note = new Note();
+        note.text = readString(in);
+        note.dateCreated = in.readLong();
+        note.color = readString(in);
+        note.archived = in.readBoolean();
+        note.dateModified = in.readLong();
+        note.version = in.readLong();
+        note.chunkOrder = readString(in);
+        note.textHash = readString(in);
+        if (format >= 2) {
+            note.encoding = readString(in);
+        }
+        int chunks = in.readInt();
+        if (chunks >= 0) {
+            note.chunks = new HashMap<>(chunks * 4 / 3 + 1);
+            for (int i = 0; i < chunks; i++) {
+                note.chunks.put(readString(in), readString(in));
+            }
+        }
+        int tags = format >= 3 ? in.readInt() : -1;
+        if (tags >= 0) {
+            note.tags = new TreeSet<>();
+            for (int i = 0; i < tags; i++) {
+                note.tags.add(readString(in));
+            }
+        }
+        return note;
+    }
+
+    /** Length prefixed UTF-8, as writeUTF is limited to 64KB. */
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(CHARSET);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, CHARSET);
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // Nothing left to do
+            }
+        }
+    }
+}
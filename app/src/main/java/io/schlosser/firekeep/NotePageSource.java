@@ -0,0 +1,51 @@
+package io.schlosser.firekeep;
+
+import java.util.List;
+
+/**
+ * Ordered, range-based access to a user's notes. Implemented on top of the
+ * realtime database by {@link FirebaseNotePageSource}; kept as an interface so
+ * the paging logic in {@link NotePager} can run against a local fake.
+ *
+ * All callbacks are delivered on the thread the source was used from, and never
+ * from inside the call that registered them.
+ */
+public interface NotePageSource {
+
+    /** Handle returned for every request, used to stop callbacks. */
+    interface Registration {
+        void remove();
+    }
+
+    interface WindowCallback {
+        /** Entries in ascending order. */
+        void onWindowLoaded(List<NotePager.Entry> entries);
+
+        void onError(String message);
+    }
+
+    interface RangeListener {
+        void onNoteAdded(NoteCursor cursor, Note note);
+
+        void onNoteChanged(NoteCursor cursor, Note note);
+
+        void onNoteRemoved(NoteCursor cursor);
+
+        /** Called once every note that was in the range when it was attached has been added. */
+        void onRangeLoaded();
+
+        void onError(String message);
+    }
+
+    /**
+     * One-shot load of the newest {@code limit} notes strictly before {@code before}
+     * (or the newest notes overall when {@code before} is null).
+     */
+    Registration loadWindow(NoteCursor before, int limit, WindowCallback callback);
+
+    /**
+     * Live listener for every note in {@code [from, before)}. A null bound leaves
+     * that end of the range open.
+     */
+    Registration watchRange(NoteCursor from, NoteCursor before, RangeListener listener);
+}
@@ -0,0 +1,375 @@
+package io.schlosser.firekeep;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Keyset pagination over a {@link NotePageSource}, newest note first.
+ *
+ * Each page is loaded once with a limited window query to find its lower
+ * boundary and is then pinned to the fixed range {@code [lower, upper)} with a
+ * live listener. Because the ranges never move, a note inserted anywhere lands
+ * in exactly one page and never pushes other notes across a page boundary.
+ *
+ * Only pages near the last bound position keep their listener and note bodies.
+ * Pages further away are evicted: their listener is removed and their notes are
+ * dropped, but their keys are kept so positions stay stable. Binding into an
+ * evicted page attaches it again.
+ *
+ * {@link #stop} removes every listener but keeps the notes, so a stopped pager
+ * can still be shown and {@link #start} brings the same pages back to life.
+ *
+ * Not thread safe; use it from the thread the source delivers callbacks on.
+ */
+public class NotePager {
+
+    public interface Listener {
+        void onItemRangeInserted(int position, int count);
+
+        void onItemRangeRemoved(int position, int count);
+
+        void onItemRangeChanged(int position, int count);
+
+        void onError(String message);
+    }
+
+    public static final class Entry {
+        public final NoteCursor cursor;
+        Note note;
+
+        public Entry(NoteCursor cursor, Note note) {
+            this.cursor = cursor;
+            this.note = note;
+        }
+
+        /** The note, or null while the page holding it is evicted. */
+        public Note getNote() {
+            return note;
+        }
+    }
+
+    private static final class Page {
+        /** Inclusive lower bound, null when the page reaches the oldest note. */
+        NoteCursor lower;
+        /** Exclusive upper bound, null for the newest page. */
+        NoteCursor upper;
+        /** Newest first. */
+        final ArrayList<Entry> entries = new ArrayList<>();
+        NotePageSource.Registration registration;
+        /** Cursors delivered since the page was last attached, null once the range has loaded. */
+        Set<NoteCursor> seen;
+        /** Detached by {@link #stop} rather than evicted, so its notes are still there. */
+        boolean stopped;
+
+        boolean contains(NoteCursor cursor) {
+            return (lower == null || cursor.compareTo(lower) >= 0)
+                    && (upper == null || cursor.compareTo(upper) < 0);
+        }
+
+        boolean isResident() {
+            return registration != null;
+        }
+    }
+
+    private final NotePageSource source;
+    private final int pageSize;
+    private final int prefetchDistance;
+    private final int residentPages;
+    private final List<Page> pages = new ArrayList<>();
+    private NotePageSource.Registration pendingLoad;
+    private boolean reachedEnd;
+    private final List<Listener> listeners = new ArrayList<>();
+    /** Forwards to every listener. */
+    private final Listener listener = new Listener() {
+        @Override
+        public void onItemRangeInserted(int position, int count) {
+            for (Listener listener : new ArrayList<>(listeners)) {
+                listener.onItemRangeInserted(position, count);
+            }
+        }
+
+        @Override
+        public void onItemRangeRemoved(int position, int count) {
+            for (Listener listener : new ArrayList<>(listeners)) {
+                listener.onItemRangeRemoved(position, count);
+            }
+        }
+
+        @Override
+        public void onItemRangeChanged(int position, int count) {
+            for (Listener listener : new ArrayList<>(listeners)) {
+                listener.onItemRangeChanged(position, count);
+            }
+        }
+
+        @Override
+        public void onError(String message) {
+            for (Listener listener : new ArrayList<>(listeners)) {
+                listener.onError(message);
+            }
+        }
+    };
+
+    /**
+     * @param pageSize         notes requested per window query
+     * @param prefetchDistance load the next page once a bound position is this close to the end
+     * @param residentPages    pages kept live on either side of the page being bound
+     */
+    public NotePager(NotePageSource source, int pageSize, int prefetchDistance, int residentPages) {
+        this.source = source;
+        this.pageSize = pageSize;
+        this.prefetchDistance = prefetchDistance;
+        this.residentPages = residentPages;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /** Loads the first page if nothing has been loaded yet, or attaches the pages {@link #stop} detached. */
+    public void start() {
+        if (pages.isEmpty() && pendingLoad == null) {
+            loadNextPage();
+        }
+        for (Page page : pages) {
+            if (page.stopped) {
+                page.stopped = false;
+                attach(page);
+            }
+        }
+    }
+
+    /** Removes every database listener, keeping the notes. The pager can be started again afterwards. */
+    public void stop() {
+        if (pendingLoad != null) {
+            pendingLoad.remove();
+            pendingLoad = null;
+        }
+        for (Page page : pages) {
+            if (page.isResident()) {
+                page.stopped = true;
+                detach(page);
+            }
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Page page : pages) {
+            size += page.entries.size();
+        }
+        return size;
+    }
+
+    public Entry get(int position) {
+        for (Page page : pages) {
+            if (position < page.entries.size()) {
+                return page.entries.get(position);
+            }
+            position -= page.entries.size();
+        }
+        throw new IndexOutOfBoundsException("No note at position " + position);
+    }
+
+    public int getPageCount() {
+        return pages.size();
+    }
+
+    public boolean isPageResident(int pageIndex) {
+        return pages.get(pageIndex).isResident();
+    }
+
+    public boolean hasMore() {
+        return !reachedEnd;
+    }
+
+    /**
+     * Tells the pager which position is being shown. Loads the next page when
+     * close to the end, re-attaches the surrounding pages and evicts far ones.
+     */
+    public void onBind(int position) {
+        int current = pageOf(position);
+        for (int i = 0; i < pages.size(); i++) {
+            Page page = pages.get(i);
+            int distance = Math.abs(i - current);
+            if (distance <= 1 && !page.isResident() && !page.stopped) {
+                attach(page);
+            } else if (distance > residentPages && (page.isResident() || page.stopped)) {
+                evict(i);
+            }
+        }
+
+        if (position >= size() - prefetchDistance && !reachedEnd && pendingLoad == null) {
+            loadNextPage();
+        }
+    }
+
+    private void loadNextPage() {
+        final NoteCursor before = pages.isEmpty() ? null : pages.get(pages.size() - 1).lower;
+        pendingLoad = source.loadWindow(before, pageSize, new NotePageSource.WindowCallback() {
+            @Override
+            public void onWindowLoaded(List<Entry> window) {
+                pendingLoad = null;
+
+                Page page = new Page();
+                page.upper = before;
+                if (window.size() < pageSize) {
+                    reachedEnd = true;
+                } else {
+                    page.lower = window.get(0).cursor;
+                }
+                for (int i = window.size() - 1; i >= 0; i--) {
+                    page.entries.add(window.get(i));
+                }
+
+                int start = size();
+                pages.add(page);
+                attach(page);
+                if (!page.entries.isEmpty()) {
+                    listener.onItemRangeInserted(start, page.entries.size());
+                }
+            }
+
+            @Override
+            public void onError(String message) {
+                pendingLoad = null;
+                listener.onError(message);
+            }
+        });
+    }
+
+    private void attach(final Page page) {
+        page.seen = new HashSet<>();
+        page.registration = source.watchRange(page.lower, page.upper, new NotePageSource.RangeListener() {
+            @Override
+            public void onNoteAdded(NoteCursor cursor, Note note) {
+                put(page, cursor, note);
+            }
+
+            @Override
+            public void onNoteChanged(NoteCursor cursor, Note note) {
+                put(page, cursor, note);
+            }
+
+            @Override
+            public void onNoteRemoved(NoteCursor cursor) {
+                int index = indexOf(page, cursor);
+                if (index >= 0) {
+                    page.entries.remove(index);
+                    listener.onItemRangeRemoved(offsetOf(page) + index, 1);
+                }
+            }
+
+            @Override
+            public void onRangeLoaded() {
+                pruneUnseen(page);
+            }
+
+            @Override
+            public void onError(String message) {
+                listener.onError(message);
+            }
+        });
+    }
+
+    private void detach(Page page) {
+        if (page.registration != null) {
+            page.registration.remove();
+            page.registration = null;
+        }
+        page.seen = null;
+    }
+
+    /**
+     * Evicted rows are off screen, so no change is reported. If they are bound
+     * again before the page is re-attached they show as placeholders.
+     */
+    private void evict(int pageIndex) {
+        Page page = pages.get(pageIndex);
+        page.stopped = false;
+        detach(page);
+        for (Entry entry : page.entries) {
+            entry.note = null;
+        }
+    }
+
+    private void put(Page page, NoteCursor cursor, Note note) {
+        if (!page.contains(cursor)) {
+            return;
+        }
+        if (page.seen != null) {
+            page.seen.add(cursor);
+        }
+
+        int index = indexOf(page, cursor);
+        if (index >= 0) {
+            page.entries.get(index).note = note;
+            listener.onItemRangeChanged(offsetOf(page) + index, 1);
+        } else {
+            index = -index - 1;
+            page.entries.add(index, new Entry(cursor, note));
+            listener.onItemRangeInserted(offsetOf(page) + index, 1);
+        }
+    }
+
+    /** Drops entries that were known before the page was attached but are gone now. */
+    private void pruneUnseen(Page page) {
+        if (page.seen == null) {
+            return;
+        }
+        int offset = offsetOf(page);
+        for (int i = page.entries.size() - 1; i >= 0; i--) {
+            if (!page.seen.contains(page.entries.get(i).cursor)) {
+                page.entries.remove(i);
+                listener.onItemRangeRemoved(offset + i, 1);
+            }
+        }
+        page.seen = null;
+    }
+
+    private int pageOf(int position) {
+        for (int i = 0; i < pages.size(); i++) {
+            int count = pages.get(i).entries.size();
+            if (position < count) {
+                return i;
+            }
+            position -= count;
+        }
+        return pages.size() - 1;
+    }
+
+    private int offsetOf(Page target) {
+        int offset = 0;
+        for (Page page : pages) {
+            if (page == target) {
+                return offset;
+            }
+            offset += page.entries.size();
+        }
+        throw new IllegalStateException("Page is not part of this pager");
+    }
+
+    /** Binary search over a newest-first page, same contract as {@link java.util.Collections#binarySearch}. */
+    private static int indexOf(Page page, NoteCursor cursor) {
+        int low = 0;
+        int high = page.entries.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = cursor.compareTo(page.entries.get(mid).cursor);
+            if (cmp == 0) {
+                return mid;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return -(low + 1);
+    }
+}
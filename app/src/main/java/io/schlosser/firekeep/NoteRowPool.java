@@ -0,0 +1,113 @@
+package io.schlosser.firekeep;
+
+import android.support.annotation.NonNull;
+import android.support.v4.view.AsyncLayoutInflater;
+import android.support.v7.widget.RecyclerView;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+
+import java.util.ArrayDeque;
+import java.util.Locale;
+
+/**
+ * The rows of one note list, shared by every adapter the list shows, see
+ * {@link MainActivity.NoteHolder}.
+ *
+ * Recycled rows go to one {@link RecyclerView.RecycledViewPool} that holds a
+ * screen of rows, kept when the list swaps adapters. {@link #prewarm} inflates
+ * rows on a background thread while the app is idle after startup, and
+ * adapters {@link #create} rows from those before inflating any on the main
+ * thread, so the first fling only binds. The list also builds the rows about
+ * to scroll into view between frames.
+ *
+ * Counts rows inflated ahead, inflated when needed and bound, for benchmarks
+ * and the debug overlay. Main thread only.
+ */
+public class NoteRowPool {
+
+    private final RecyclerView list;
+    private final RecyclerView.RecycledViewPool pool = new RecyclerView.RecycledViewPool();
+    private final ArrayDeque<View> spare = new ArrayDeque<>();
+    private final int screenRows;
+    private AsyncLayoutInflater asyncInflater;
+    /** Rows still to inflate ahead, one at a time so the inflater's queue never blocks. */
+    private int toPrewarm;
+    private int inflatedAhead;
+    private int inflatedOnDemand;
+    private int bound;
+
+    private final AsyncLayoutInflater.OnInflateFinishedListener onPrewarmed =
+            new AsyncLayoutInflater.OnInflateFinishedListener() {
+                @Override
+                public void onInflateFinished(@NonNull View view, int resid, ViewGroup parent) {
+                    spare.push(view);
+                    inflatedAhead++;
+                    if (--toPrewarm > 0) {
+                        asyncInflater.inflate(R.layout.note_item, list, this);
+                    }
+                }
+            };
+
+    /** Sets up {@code list}, which must have a LinearLayoutManager, to use the pool. */
+    public NoteRowPool(RecyclerView list) {
+        this.list = list;
+        int height = list.getResources().getDisplayMetrics().heightPixels;
+        screenRows = height / list.getResources().getDimensionPixelSize(R.dimen.note_row_min_height) + 1;
+        pool.setMaxRecycledViews(0, screenRows);
+        list.setRecycledViewPool(pool);
+        list.getLayoutManager().setItemPrefetchEnabled(true);
+    }
+
+    /** Rows of a screen with notes of one line, what the list holds at most. */
+    public int getScreenRows() {
+        return screenRows;
+    }
+
+    /** Inflates up to {@code count} rows in the background, less the ones not used yet. */
+    public void prewarm(int count) {
+        boolean idle = toPrewarm == 0;
+        toPrewarm = Math.max(toPrewarm, count - spare.size());
+        if (!idle || toPrewarm <= 0) {
+            return;
+        }
+        if (asyncInflater == null) {
+            asyncInflater = new AsyncLayoutInflater(list.getContext());
+        }
+        asyncInflater.inflate(R.layout.note_item, list, onPrewarmed);
+    }
+
+    /** A row for {@code parent}, one inflated ahead if there is any. */
+    public View create(ViewGroup parent) {
+        View row = spare.poll();
+        if (row != null) {
+            return row;
+        }
+        inflatedOnDemand++;
+        return LayoutInflater.from(parent.getContext()).inflate(R.layout.note_item, parent, false);
+    }
+
+    /** Call from onBindViewHolder. */
+    public void onBind() {
+        bound++;
+    }
+
+    public int getInflatedAhead() {
+        return inflatedAhead;
+    }
+
+    /** Rows inflated on the main thread because none was left from {@link #prewarm}. */
+    public int getInflatedOnDemand() {
+        return inflatedOnDemand;
+    }
+
+    public int getBound() {
+        return bound;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "inflated ahead %d, on demand %d, bound %d",
+                inflatedAhead, inflatedOnDemand, bound);
+    }
+}
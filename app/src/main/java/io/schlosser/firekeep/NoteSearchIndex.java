@@ -0,0 +1,324 @@
+package io.schlosser.firekeep;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * In-memory inverted index from words to note ids. Words are runs of letters
+ * and digits, lower cased. The last word of a query matches as a prefix, so
+ * results can be shown while the user is still typing.
+ *
+ * Notes are indexed one at a time as they change. Each note remembers the hash
+ * of the text it was indexed with, so re-adding an unchanged note, e.g. when a
+ * listener is attached after the index was loaded from disk, costs a lookup.
+ *
+ * Notes are numbered internally so each word's postings are a plain int array,
+ * and queries intersect bit sets. Each note keeps its dateCreated so results
+ * can be listed like the notes list, as ids say nothing about it.
+ *
+ * Not thread safe.
+ */
+public class NoteSearchIndex {
+
+    /** 2 added dateCreated; older indexes are rebuilt. */
+    private static final int FORMAT_VERSION = 2;
+
+    private static final class Doc {
+        final String noteId;
+        final long dateCreated;
+        final int textHash;
+        final String[] words;
+
+        Doc(String noteId, long dateCreated, int textHash, String[] words) {
+            this.noteId = noteId;
+            this.dateCreated = dateCreated;
+            this.textHash = textHash;
+            this.words = words;
+        }
+    }
+
+    /** Unordered set of doc numbers, small and cheap to scan. */
+    private static final class Postings {
+        int[] docs = new int[4];
+        int size;
+
+        void add(int doc) {
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size * 2);
+            }
+            docs[size++] = doc;
+        }
+
+        void remove(int doc) {
+            for (int i = 0; i < size; i++) {
+                if (docs[i] == doc) {
+                    docs[i] = docs[--size];
+                    return;
+                }
+            }
+        }
+
+        void addTo(BitSet bits) {
+            for (int i = 0; i < size; i++) {
+                bits.set(docs[i]);
+            }
+        }
+    }
+
+    /** Notes are numbered so postings can hold ints instead of ids. */
+    private final ArrayList<Doc> docs = new ArrayList<>();
+    private final Map<String, Integer> docNumbers = new HashMap<>();
+    private final ArrayList<Integer> freeNumbers = new ArrayList<>();
+    private final TreeMap<String, Postings> postings = new TreeMap<>();
+    private boolean dirty;
+
+    public int size() {
+        return docNumbers.size();
+    }
+
+    /** True if the index changed since it was last written or read. */
+    public boolean isDirty() {
+        return dirty;
+    }
+
+    public void put(String noteId, long dateCreated, String text) {
+        if (text == null) {
+            text = "";
+        }
+        int hash = text.hashCode();
+        Integer number = docNumbers.get(noteId);
+        if (number != null && docs.get(number).textHash == hash && docs.get(number).dateCreated == dateCreated) {
+            return;
+        }
+        if (number != null) {
+            unlink(number);
+        } else {
+            number = freeNumbers.isEmpty() ? docs.size() : freeNumbers.remove(freeNumbers.size() - 1);
+            docNumbers.put(noteId, number);
+        }
+
+        List<String> words = tokenize(text);
+        link(number, new Doc(noteId, dateCreated, hash, words.toArray(new String[words.size()])));
+        dirty = true;
+    }
+
+    public void remove(String noteId) {
+        Integer number = docNumbers.remove(noteId);
+        if (number != null) {
+            unlink(number);
+            docs.set(number, null);
+            freeNumbers.add(number);
+            dirty = true;
+        }
+    }
+
+    /** Removes every note not in {@code noteIds}, e.g. ones deleted while nothing followed the notes. */
+    public void retainAll(Set<String> noteIds) {
+        for (String noteId : new ArrayList<>(docNumbers.keySet())) {
+            if (!noteIds.contains(noteId)) {
+                remove(noteId);
+            }
+        }
+    }
+
+    public void clear() {
+        docs.clear();
+        docNumbers.clear();
+        freeNumbers.clear();
+        postings.clear();
+        dirty = false;
+    }
+
+    /**
+     * Ids of notes containing every word of the query, the last one as a prefix.
+     * An empty query matches nothing.
+     */
+    public Set<String> search(String query) {
+        List<String> words = tokenize(query == null ? "" : query);
+        if (words.isEmpty()) {
+            return Collections.emptySet();
+        }
+
+        BitSet result = null;
+        for (int i = 0; i < words.size(); i++) {
+            BitSet matches = new BitSet(docs.size());
+            if (i == words.size() - 1) {
+                String prefix = words.get(i);
+                for (Postings ids : postings.subMap(prefix, prefix + Character.MAX_VALUE).values()) {
+                    ids.addTo(matches);
+                }
+            } else {
+                Postings ids = postings.get(words.get(i));
+                if (ids != null) {
+                    ids.addTo(matches);
+                }
+            }
+            if (result == null) {
+                result = matches;
+            } else {
+                result.and(matches);
+            }
+            if (result.isEmpty()) {
+                return Collections.emptySet();
+            }
+        }
+
+        Set<String> noteIds = new HashSet<>();
+        for (int number = result.nextSetBit(0); number >= 0; number = result.nextSetBit(number + 1)) {
+            noteIds.add(docs.get(number).noteId);
+        }
+        return noteIds;
+    }
+
+    /** Like {@link #search}, newest note first, as the notes list is ordered. */
+    public List<String> searchNewestFirst(String query) {
+        List<String> noteIds = new ArrayList<>(search(query));
+        Collections.sort(noteIds, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                long dateA = docs.get(docNumbers.get(a)).dateCreated;
+                long dateB = docs.get(docNumbers.get(b)).dateCreated;
+                if (dateA != dateB) {
+                    return dateA < dateB ? 1 : -1;
+                }
+                return b.compareTo(a);
+            }
+        });
+        return noteIds;
+    }
+
+    /**
+     * Writes the index as a word table followed by each note's word numbers,
+     * so every word is stored once.
+     */
+    public void writeTo(DataOutputStream out) throws IOException {
+        Map<String, Integer> wordIds = new HashMap<>(postings.size() * 2);
+        out.writeInt(FORMAT_VERSION);
+        out.writeInt(postings.size());
+        for (String word : postings.keySet()) {
+            wordIds.put(word, wordIds.size());
+            out.writeUTF(word);
+        }
+        out.writeInt(docNumbers.size());
+        for (Doc doc : docs) {
+            if (doc == null) {
+                continue;
+            }
+            out.writeUTF(doc.noteId);
+            out.writeLong(doc.dateCreated);
+            out.writeInt(doc.textHash);
+            writeVarInt(out, doc.words.length);
+            for (String word : doc.words) {
+                writeVarInt(out, wordIds.get(word));
+            }
+        }
+        dirty = false;
+    }
+
+    /** Replaces the contents of this index with what {@link #writeTo} wrote. */
+    public void readFrom(DataInputStream in) throws IOException {
+        int version = in.readInt();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unknown search index format " + version);
+        }
+        clear();
+
+        String[] words = new String[in.readInt()];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = in.readUTF();
+        }
+        int docCount = in.readInt();
+        for (int i = 0; i < docCount; i++) {
+            String noteId = in.readUTF();
+            long dateCreated = in.readLong();
+            int hash = in.readInt();
+            String[] docWords = new String[readVarInt(in)];
+            for (int j = 0; j < docWords.length; j++) {
+                docWords[j] = words[readVarInt(in)];
+            }
+            docNumbers.put(noteId, i);
+            link(i, new Doc(noteId, dateCreated, hash, docWords));
+        }
+        dirty = false;
+    }
+
+    /** Distinct words of the text, in order of first appearance. */
+    static List<String> tokenize(String text) {
+        List<String> words = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i <= text.length(); i++) {
+            char c = i < text.length() ? text.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                word.append(Character.toLowerCase(c));
+            } else if (word.length() > 0) {
+                String w = word.toString();
+                if (seen.add(w)) {
+                    words.add(w);
+                }
+                word.setLength(0);
+            }
+        }
+        return words;
+    }
+
+    private void link(int number, Doc doc) {
+        if (number == docs.size()) {
+            docs.add(doc);
+        } else {
+            docs.set(number, doc);
+        }
+        for (String word : doc.words) {
+            Postings ids = postings.get(word);
+            if (ids == null) {
+                ids = new Postings();
+                postings.put(word, ids);
+            }
+            ids.add(number);
+        }
+    }
+
+    private void unlink(int number) {
+        for (String word : docs.get(number).words) {
+            Postings ids = postings.get(word);
+            if (ids != null) {
+                ids.remove(number);
+                if (ids.size == 0) {
+                    postings.remove(word);
+                }
+            }
+        }
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
@@ -0,0 +1,263 @@
+package io.schlosser.firekeep;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.google.firebase.database.ChildEventListener;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.ValueEventListener;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps a {@link NoteSearchIndex} of /notes/&lt;uid&gt; up to date and on disk.
+ *
+ * The index is loaded from disk when created, so search works right away. The
+ * child listener that keeps it in sync is only attached while search is in use;
+ * notes that did not change since the index was saved are skipped cheaply, and
+ * notes deleted while it was detached are pruned once it is attached again.
+ * The index lives on one background thread, which also runs queries.
+ *
+ * There is one indexer per process, see {@link FireKeepApplication#getSearchIndexer}.
+ */
+public class NoteSearchIndexer implements ChildEventListener {
+
+    private static final String TAG = "NoteSearchIndexer";
+    private static final long SAVE_DELAY_S = 10;
+
+    private final NoteSearchIndex index = new NoteSearchIndex();
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final DatabaseReference notes;
+    private final File file;
+    private boolean attached;
+    private boolean saveScheduled;
+
+    public interface Callback {
+        /** Matching note ids, newest first, on the main thread. */
+        void onResults(String query, List<String> noteIds);
+    }
+
+    public NoteSearchIndexer(Context context, DatabaseReference notes) {
+        this.notes = notes;
+        this.file = new File(context.getFilesDir(), "search-" + notes.getKey() + ".idx");
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                load();
+            }
+        });
+    }
+
+    /** Starts following note changes. */
+    public void attach() {
+        if (!attached) {
+            attached = true;
+            notes.addChildEventListener(this);
+            // Answered from what the child listener loads, after its first children
+            notes.addListenerForSingleValueEvent(pruneListener);
+        }
+    }
+
+    /** Drops a note found to be gone some other way than the listener, e.g. by a search result. */
+    public void remove(final String noteId) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                index.remove(noteId);
+                scheduleSave();
+            }
+        });
+    }
+
+    /** Stops following note changes and saves what was indexed so far. */
+    public void detach() {
+        if (attached) {
+            attached = false;
+            notes.removeEventListener(this);
+            executor.execute(saveTask);
+        }
+    }
+
+    public String getUid() {
+        return notes.getKey();
+    }
+
+    /** Detaches and stops the background thread, once another user's index is used. */
+    public void release() {
+        detach();
+        executor.shutdown();
+    }
+
+    /** Blocks until everything indexed so far is on disk, so not on the main thread. */
+    public void saveNow() throws InterruptedException {
+        try {
+            executor.submit(saveTask).get();
+        } catch (ExecutionException e) {
+            Log.w(TAG, "Could not save search index", e.getCause());
+        }
+    }
+
+    public void search(final String query, final Callback callback) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final List<String> noteIds = index.searchNewestFirst(query);
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onResults(query, noteIds);
+                    }
+                });
+            }
+        });
+    }
+
+    @Override
+    public void onChildAdded(DataSnapshot dataSnapshot, String previousChildName) {
+        put(dataSnapshot);
+    }
+
+    @Override
+    public void onChildChanged(DataSnapshot dataSnapshot, String previousChildName) {
+        put(dataSnapshot);
+    }
+
+    @Override
+    public void onChildRemoved(DataSnapshot dataSnapshot) {
+        remove(dataSnapshot.getKey());
+    }
+
+    @Override
+    public void onChildMoved(DataSnapshot dataSnapshot, String previousChildName) {
+        // Order does not matter to the index
+    }
+
+    @Override
+    public void onCancelled(DatabaseError databaseError) {
+        Log.w(TAG, databaseError.getMessage());
+    }
+
+    /** Removes the notes deleted while no listener saw them go. */
+    private final ValueEventListener pruneListener = new ValueEventListener() {
+        @Override
+        public void onDataChange(DataSnapshot dataSnapshot) {
+            final Set<String> noteIds = new HashSet<>();
+            for (DataSnapshot child : dataSnapshot.getChildren()) {
+                noteIds.add(child.getKey());
+            }
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    index.retainAll(noteIds);
+                    scheduleSave();
+                }
+            });
+        }
+
+        @Override
+        public void onCancelled(DatabaseError databaseError) {
+            Log.w(TAG, databaseError.getMessage());
+        }
+    };
+
+    private void put(DataSnapshot dataSnapshot) {
+        put(dataSnapshot.getKey(), NoteMapper.fromValue(dataSnapshot.getValue()));
+    }
+
+    /** Indexes a note read some other way than the listener, e.g. by {@link NoteSyncJob}. */
+    public void put(final String noteId, final Note note) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                // Putting chunks together and inflating them is left to this thread
+                String text = note == null ? null : note.getText();
+                long dateCreated = note == null ? 0 : note.dateCreated;
+                index.put(noteId, dateCreated, text);
+                scheduleSave();
+            }
+        });
+    }
+
+    /** Runs on the executor. Saves at most once per delay, however many notes change. */
+    private void scheduleSave() {
+        if (!saveScheduled && index.isDirty()) {
+            saveScheduled = true;
+            executor.schedule(saveTask, SAVE_DELAY_S, TimeUnit.SECONDS);
+        }
+    }
+
+    private final Runnable saveTask = new Runnable() {
+        @Override
+        public void run() {
+            saveScheduled = false;
+            if (index.isDirty()) {
+                save();
+            }
+        }
+    };
+
+    private void load() {
+        if (!file.exists()) {
+            return;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            index.readFrom(in);
+        } catch (IOException e) {
+            // Start over, the listener fills the index again
+            Log.w(TAG, "Could not read search index", e);
+            index.clear();
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    private void save() {
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            index.writeTo(out);
+            out.close();
+            out = null;
+            if (!tmp.renameTo(file)) {
+                Log.w(TAG, "Could not save search index");
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Could not save search index", e);
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // Nothing left to do
+            }
+        }
+    }
+}
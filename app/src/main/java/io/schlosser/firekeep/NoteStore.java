@@ -0,0 +1,102 @@
+package io.schlosser.firekeep;
+
+/**
+ * The notes list of the process, shared by every screen so there is only
+ * ever one set of database listeners for it, however many activities exist.
+ * The edit screen reads from it too, to show a note before its full text
+ * arrives.
+ *
+ * Screens report when they are started and stopped. Once none has been
+ * visible for {@link #RELEASE_DELAY_MS} the listeners are removed; the notes
+ * are kept, and the listeners come back when a screen starts again.
+ *
+ * Not thread safe, used from the main thread.
+ */
+public class NoteStore {
+
+    /** Long enough to outlive a rotation or a quick switch to another app. */
+    static final long RELEASE_DELAY_MS = 60 * 1000;
+
+    public interface Scheduler {
+        void postDelayed(Runnable task, long delayMillis);
+
+        void cancel(Runnable task);
+    }
+
+    private final Scheduler scheduler;
+    private final int pageSize;
+    private final int prefetchDistance;
+    private final int residentPages;
+    private String key;
+    private NotePager pager;
+    private int startedScreens;
+
+    private final Runnable release = new Runnable() {
+        @Override
+        public void run() {
+            if (pager != null) {
+                pager.stop();
+            }
+        }
+    };
+
+    /** Pager settings are those of {@link NotePager}. */
+    public NoteStore(Scheduler scheduler, int pageSize, int prefetchDistance, int residentPages) {
+        this.scheduler = scheduler;
+        this.pageSize = pageSize;
+        this.prefetchDistance = prefetchDistance;
+        this.residentPages = residentPages;
+    }
+
+    /**
+     * The pager for the list named {@code key}, e.g. its database path. The
+     * pager of another list is stopped and forgotten, so only one list is
+     * live at a time.
+     *
+     * @param source used only if there is no pager for {@code key} yet
+     */
+    public NotePager list(String key, NotePageSource source) {
+        if (!key.equals(this.key)) {
+            if (pager != null) {
+                pager.stop();
+            }
+            this.key = key;
+            pager = new NotePager(source, pageSize, prefetchDistance, residentPages);
+        }
+        return pager;
+    }
+
+    /** Call from onStart of every screen that shows notes. */
+    public void onScreenStarted() {
+        startedScreens++;
+        scheduler.cancel(release);
+        if (pager != null) {
+            pager.start();
+        }
+    }
+
+    /** Call from onStop of every screen that called {@link #onScreenStarted}. */
+    public void onScreenStopped() {
+        if (--startedScreens == 0) {
+            scheduler.postDelayed(release, RELEASE_DELAY_MS);
+        }
+    }
+
+    /**
+     * The note as the list last had it, or null if it is not in the loaded
+     * part of the list. Its text may only be the start of the note, see
+     * {@link NoteSummaries}.
+     */
+    public Note find(String noteId) {
+        if (pager == null) {
+            return null;
+        }
+        for (int i = 0; i < pager.size(); i++) {
+            NotePager.Entry entry = pager.get(i);
+            if (entry.cursor.key.equals(noteId)) {
+                return entry.getNote();
+            }
+        }
+        return null;
+    }
+}
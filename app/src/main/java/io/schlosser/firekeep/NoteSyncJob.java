@@ -0,0 +1,151 @@
+package io.schlosser.firekeep;
+
+import android.annotation.TargetApi;
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.AsyncTask;
+import android.os.Build;
+import android.util.Log;
+
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.auth.FirebaseUser;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.FirebaseDatabase;
+
+import java.io.IOException;
+
+/**
+ * Syncs notes in the background while the device charges on an unmetered
+ * network, so a cold start finds them in the database's disk cache.
+ *
+ * Notes modified since the last run are read, which puts them in the cache,
+ * and added to the search index. Only if there were any is the first window
+ * of the list read as well, with the list's own query, so it is served from
+ * disk. A run that
+ * finds nothing changed costs one small query.
+ *
+ * JobScheduler needs Lollipop; older devices are not synced in the background.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class NoteSyncJob extends JobService {
+
+    private static final String TAG = "NoteSyncJob";
+    private static final int JOB_ID = 19;
+    private static final String PREFS = "sync";
+    private static final String KEY_INTERVAL_HOURS = "interval_hours";
+    private static final String KEY_MODIFIED = "watermark_modified";
+    private static final String KEY_KEY = "watermark_key";
+    /** Choices offered in the menu, in R.array.sync_choices order. 0 turns sync off. */
+    static final int[] INTERVAL_HOURS = {0, 6, 24, 24 * 7};
+    private static final int DEFAULT_INTERVAL_HOURS = 24;
+
+    private AsyncTask<JobParameters, Void, Void> task;
+
+    public static int getIntervalHours(Context context) {
+        return context.getSharedPreferences(PREFS, MODE_PRIVATE).getInt(KEY_INTERVAL_HOURS, DEFAULT_INTERVAL_HOURS);
+    }
+
+    public static void setIntervalHours(Context context, int hours) {
+        context.getSharedPreferences(PREFS, MODE_PRIVATE).edit().putInt(KEY_INTERVAL_HOURS, hours).apply();
+        schedule(context);
+    }
+
+    /** Schedules the job at the chosen interval, or cancels it. Cheap enough for every start. */
+    public static void schedule(Context context) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            return;
+        }
+        JobScheduler scheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        int hours = getIntervalHours(context);
+        if (hours == 0) {
+            scheduler.cancel(JOB_ID);
+            return;
+        }
+        long intervalMs = hours * 60L * 60 * 1000;
+        for (JobInfo pending : scheduler.getAllPendingJobs()) {
+            if (pending.getId() == JOB_ID && pending.getIntervalMillis() == intervalMs) {
+                return;
+            }
+        }
+        scheduler.schedule(new JobInfo.Builder(JOB_ID, new ComponentName(context, NoteSyncJob.class))
+                .setRequiredNetworkType(JobInfo.NETWORK_TYPE_UNMETERED)
+                .setRequiresCharging(true)
+                .setPeriodic(intervalMs)
+                .setPersisted(true)
+                .build());
+    }
+
+    @Override
+    public boolean onStartJob(JobParameters params) {
+        final FirebaseUser user = FirebaseAuth.getInstance().getCurrentUser();
+        if (user == null) {
+            return false;
+        }
+        task = new AsyncTask<JobParameters, Void, Void>() {
+            @Override
+            protected Void doInBackground(JobParameters... params) {
+                boolean retry = false;
+                try {
+                    sync(user.getUid());
+                } catch (IOException e) {
+                    Log.w(TAG, "sync:FAILED", e);
+                    retry = true;
+                } catch (InterruptedException e) {
+                    // Stopped by the system, which reschedules on its own
+                    return null;
+                }
+                jobFinished(params[0], retry);
+                return null;
+            }
+        };
+        task.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, params);
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        // Constraints no longer hold, e.g. unplugged
+        task.cancel(true);
+        return true;
+    }
+
+    private void sync(String uid) throws IOException, InterruptedException {
+        SharedPreferences prefs = getSharedPreferences(PREFS, MODE_PRIVATE);
+        NoteExporter.Watermark after = null;
+        if (prefs.contains(KEY_KEY)) {
+            after = new NoteExporter.Watermark(prefs.getLong(KEY_MODIFIED, 0), prefs.getString(KEY_KEY, null));
+        }
+
+        FirebaseDatabase database = FirebaseDatabase.getInstance();
+        DatabaseReference notes = database.getReference("notes").child(uid);
+        FirebaseNoteExportSource source = new FirebaseNoteExportSource(notes);
+        // The one the list uses, so neither overwrites the other's file
+        final NoteSearchIndexer indexer = FireKeepApplication.getSearchIndexer(this, uid);
+        NoteExporter exporter = new NoteExporter(source);
+        NoteExporter.Watermark last = exporter.run(after, source.serverTime(), new NoteExporter.Output() {
+            @Override
+            public void write(String noteId, Note note) {
+                indexer.put(noteId, note);
+            }
+        });
+        if (exporter.getWritten() == 0) {
+            Log.d(TAG, "sync: nothing changed");
+            return;
+        }
+        // The same query the list starts with, so its answer is what the cache holds
+        FirebaseNoteExportSource.await(FirebaseNotePageSource.firstWindow(
+                database.getReference(MainActivity.listPath(this, uid)), FireKeepApplication.PAGE_SIZE));
+        indexer.saveNow();
+
+        prefs.edit()
+                .putLong(KEY_MODIFIED, last.dateModified)
+                .putString(KEY_KEY, last.key)
+                .apply();
+        Log.d(TAG, "sync: " + exporter.getWritten() + " notes");
+    }
+}
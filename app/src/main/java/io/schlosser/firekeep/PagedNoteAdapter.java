@@ -0,0 +1,347 @@
+package io.schlosser.firekeep;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+import android.view.View;
+import android.view.ViewGroup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * RecyclerView adapter over a {@link NotePager}. Works like FirebaseRecyclerAdapter
+ * but only keeps a few pages of notes in memory and live. The pager belongs to
+ * the {@link NoteStore} and outlives the adapter.
+ *
+ * The adapter binds from an immutable snapshot of the pager. When the pager
+ * changes, a new snapshot is taken and diffed against the shown one on a
+ * background thread, and only the rows that actually changed are notified.
+ * Changes that arrive while a diff is running are folded into one more diff.
+ *
+ * The text of the rows a few positions ahead of the scroll is laid out in the
+ * background by the {@link NoteLayoutCache}, so binding them is a lookup. Rows
+ * come from the list's {@link NoteRowPool}.
+ *
+ * Rows can be selected with a long press for bulk actions. Archived notes and
+ * notes hidden by a pending {@link BulkNoteWriter} batch are left out.
+ */
+public class PagedNoteAdapter extends RecyclerView.Adapter<MainActivity.NoteHolder>
+        implements NotePager.Listener {
+
+    private static final String TAG = "PagedNoteAdapter";
+    /** Rows laid out ahead, about a screen of short notes. */
+    private static final int PREFETCH_ROWS = 10;
+    private final NotePager pager;
+    private final NoteRowPool rows;
+    private final ExecutorService diffExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private List<Item> items = Collections.emptyList();
+    private boolean diffRunning;
+    private boolean diffPending;
+    private boolean released;
+    private boolean showColors;
+    private final Set<String> selection = new HashSet<>();
+    private SelectionListener selectionListener;
+    private BulkNoteWriter writer;
+    private NoteLayoutCache layoutCache;
+    private int lastBound = -1;
+    /** Stable ids, one per note key shown so far. */
+    private final Map<String, Long> ids = new HashMap<>();
+    private long nextId;
+
+    public interface SelectionListener {
+        void onSelectionChanged(int count);
+    }
+
+    /** Shared by every row, the note id is read from the row's holder. */
+    private final View.OnClickListener openNoteListener = new View.OnClickListener() {
+        @Override
+        public void onClick(View v) {
+            MainActivity.NoteHolder holder = (MainActivity.NoteHolder) v.getTag();
+            if (!selection.isEmpty()) {
+                toggleSelection(holder);
+                return;
+            }
+            Context context = v.getContext();
+            Intent intent = new Intent(context, NewNoteActivity.class);
+            intent.putExtra(NewNoteActivity.ARG_NOTE_ID, holder.getNoteId());
+
+            context.startActivity(intent);
+        }
+    };
+
+    private final View.OnLongClickListener selectListener = new View.OnLongClickListener() {
+        @Override
+        public boolean onLongClick(View v) {
+            toggleSelection((MainActivity.NoteHolder) v.getTag());
+            return true;
+        }
+    };
+
+    private static final class Item implements NoteListDiff.Row {
+        final NoteCursor cursor;
+        final Note note;
+        /** Position in the pager, which also holds the rows left out of the list. */
+        final int pagerPosition;
+
+        Item(NoteCursor cursor, Note note, int pagerPosition) {
+            this.cursor = cursor;
+            this.note = note;
+            this.pagerPosition = pagerPosition;
+        }
+
+        @Override
+        public NoteCursor getCursor() {
+            return cursor;
+        }
+
+        @Override
+        public Note getNote() {
+            return note;
+        }
+    }
+
+    public PagedNoteAdapter(NotePager pager, NoteRowPool rows) {
+        this.pager = pager;
+        this.rows = rows;
+        setHasStableIds(true);
+        pager.addListener(this);
+        pager.start();
+        // The pager may already hold notes shown by an earlier screen
+        scheduleDiff();
+    }
+
+    /** Stops listening to the pager, which keeps running for the other screens. */
+    public void cleanup() {
+        released = true;
+        pager.removeListener(this);
+        diffExecutor.shutdownNow();
+    }
+
+    public void setSelectionListener(SelectionListener selectionListener) {
+        this.selectionListener = selectionListener;
+    }
+
+    /** Pending bulk edits are shown as if they were already written. */
+    public void setWriter(BulkNoteWriter writer) {
+        this.writer = writer;
+    }
+
+    /** Takes a new snapshot, e.g. after pending bulk edits changed. */
+    public void refresh() {
+        scheduleDiff();
+    }
+
+    /** The selected notes in list order, each with the note as listed or null while it is loaded again. */
+    public Map<NoteCursor, Note> getSelection() {
+        Map<NoteCursor, Note> selected = new LinkedHashMap<>();
+        for (Item item : items) {
+            if (selection.contains(item.cursor.key)) {
+                selected.put(item.cursor, item.note);
+            }
+        }
+        return selected;
+    }
+
+    public void clearSelection() {
+        if (!selection.isEmpty()) {
+            selection.clear();
+            notifyItemRangeChanged(0, items.size());
+            selectionListener.onSelectionChanged(0);
+        }
+    }
+
+    private void toggleSelection(MainActivity.NoteHolder holder) {
+        int position = holder.getAdapterPosition();
+        if (position == RecyclerView.NO_POSITION) {
+            return;
+        }
+        String noteId = holder.getNoteId();
+        if (!selection.remove(noteId)) {
+            selection.add(noteId);
+        }
+        notifyItemChanged(position);
+        selectionListener.onSelectionChanged(selection.size());
+    }
+
+    /** Rebinds every row when the color picker flag changes. */
+    public void setShowColors(boolean showColors) {
+        if (this.showColors != showColors) {
+            this.showColors = showColors;
+            notifyItemRangeChanged(0, items.size());
+        }
+    }
+
+    @Override
+    public int getItemCount() {
+        return items.size();
+    }
+
+    @Override
+    public long getItemId(int position) {
+        // Hashes of keys can collide, counters do not
+        String key = items.get(position).cursor.key;
+        Long id = ids.get(key);
+        if (id == null) {
+            id = nextId++;
+            ids.put(key, id);
+        }
+        return id;
+    }
+
+    @Override
+    public MainActivity.NoteHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        View view = rows.create(parent);
+        MainActivity.NoteHolder holder = new MainActivity.NoteHolder(view);
+        view.setTag(holder);
+        return holder;
+    }
+
+    @Override
+    public void onBindViewHolder(MainActivity.NoteHolder holder, int position) {
+        long start = System.nanoTime();
+        if (layoutCache == null) {
+            layoutCache = FireKeepApplication.getLayoutCache(holder.itemView.getContext());
+        }
+        // The row may have been made for another adapter of the list
+        holder.itemView.setOnClickListener(openNoteListener);
+        holder.itemView.setOnLongClickListener(selectListener);
+        Item item = items.get(position);
+        pager.onBind(item.pagerPosition);
+        boolean checked = selection.contains(item.cursor.key);
+        if (item.note == null) {
+            // Page is being attached again, the row is filled in when it arrives
+            NoteBinder.bindPlaceholder(holder, item.cursor.key, checked);
+        } else {
+            NoteBinder.bind(holder, item.cursor.key, item.note, showColors, checked);
+        }
+        prefetchLayouts(position, holder.getTextWidth());
+        rows.onBind();
+        Metrics.ROW_BIND.recordSince(start);
+    }
+
+    /** Lays out the rows after {@code position} in the direction of the scroll. */
+    private void prefetchLayouts(int position, int width) {
+        int step = position >= lastBound ? 1 : -1;
+        boolean jumped = Math.abs(position - lastBound) != 1;
+        lastBound = position;
+        if (width == 0) {
+            // Nothing was laid out yet
+            return;
+        }
+        // While scrolling a row at a time only the farthest row is new
+        int first = jumped ? position + step : position + step * PREFETCH_ROWS;
+        int end = position + step * (PREFETCH_ROWS + 1);
+        for (int i = first; i != end && i >= 0 && i < items.size(); i += step) {
+            Note note = items.get(i).note;
+            if (note != null && note.getText() != null) {
+                layoutCache.prefetch(items.get(i).cursor.key, note.getText(), width);
+            }
+        }
+    }
+
+    @Override
+    public void onItemRangeInserted(int position, int count) {
+        scheduleDiff();
+    }
+
+    @Override
+    public void onItemRangeRemoved(int position, int count) {
+        scheduleDiff();
+    }
+
+    @Override
+    public void onItemRangeChanged(int position, int count) {
+        scheduleDiff();
+    }
+
+    @Override
+    public void onError(String message) {
+        Log.w(TAG, message);
+    }
+
+    private void scheduleDiff() {
+        if (released) {
+            return;
+        }
+        if (diffRunning) {
+            diffPending = true;
+            return;
+        }
+        diffRunning = true;
+
+        final List<Item> oldItems = items;
+        final List<Item> newItems = snapshot();
+        diffExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final NoteListDiff diff = NoteListDiff.calculate(oldItems, newItems);
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (released) {
+                            return;
+                        }
+                        items = newItems;
+                        diff.dispatchUpdatesTo(notifier);
+                        diffRunning = false;
+                        if (diffPending) {
+                            diffPending = false;
+                            scheduleDiff();
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private List<Item> snapshot() {
+        int size = pager.size();
+        List<Item> snapshot = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            NotePager.Entry entry = pager.get(i);
+            String noteId = entry.cursor.key;
+            Note note = entry.getNote();
+            if (note != null && note.archived) {
+                continue;
+            }
+            if (writer != null) {
+                if (writer.isHidden(noteId)) {
+                    continue;
+                }
+                note = writer.apply(noteId, note);
+            }
+            snapshot.add(new Item(entry.cursor, note, i));
+        }
+        return Collections.unmodifiableList(snapshot);
+    }
+
+    private final NoteListDiff.Callback notifier = new NoteListDiff.Callback() {
+        @Override
+        public void onInserted(int position, int count) {
+            notifyItemRangeInserted(position, count);
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            notifyItemRangeRemoved(position, count);
+        }
+
+        @Override
+        public void onChanged(int position, int count) {
+            notifyItemRangeChanged(position, count);
+        }
+    };
+}
@@ -0,0 +1,261 @@
+package io.schlosser.firekeep;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs startup work as named tasks, each once the tasks it depends on are done.
+ *
+ * A task runs either on the main thread or in the background. Among tasks that
+ * are ready, higher priority ones run first. Main thread tasks are run one per
+ * message, so a frame can be drawn between them. Milestones are tasks without
+ * work, completed from outside with {@link #reach}, e.g. once the first frame
+ * is drawn, so work can be held back until then.
+ *
+ * When and how long every task ran is recorded, see {@link Timing}.
+ */
+public class StartupScheduler {
+
+    public static final int PRIORITY_HIGH = 10;
+    public static final int PRIORITY_NORMAL = 5;
+    public static final int PRIORITY_LOW = 0;
+
+    public interface Listener {
+        /** Called as each task finishes or milestone is reached, on that task's thread. */
+        void onTaskFinished(Timing timing);
+    }
+
+    /** Times in ms since startup began, see the constructors. */
+    public static final class Timing {
+        public final String name;
+        public final boolean mainThread;
+        public final long readyMs;
+        public final long startMs;
+        public final long endMs;
+
+        Timing(String name, boolean mainThread, long readyMs, long startMs, long endMs) {
+            this.name = name;
+            this.mainThread = mainThread;
+            this.readyMs = readyMs;
+            this.startMs = startMs;
+            this.endMs = endMs;
+        }
+
+        @Override
+        public String toString() {
+            return name + (mainThread ? " [main]" : " [background]")
+                    + " waited " + (startMs - readyMs) + " ms, ran " + (endMs - startMs)
+                    + " ms, done at " + endMs + " ms";
+        }
+    }
+
+    private static final class Task implements Comparable<Task> {
+        final String name;
+        final boolean mainThread;
+        final int priority;
+        final Runnable work;
+        final String[] after;
+        final List<Task> dependents = new ArrayList<>();
+        int waitingFor;
+        long readyMs;
+
+        Task(String name, boolean mainThread, int priority, Runnable work, String[] after) {
+            this.name = name;
+            this.mainThread = mainThread;
+            this.priority = priority;
+            this.work = work;
+            this.after = after;
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            return other.priority - priority;
+        }
+    }
+
+    private final Executor mainExecutor;
+    private final Executor backgroundExecutor;
+    private final long startedAt;
+    private final Map<String, Task> tasks = new LinkedHashMap<>();
+    private final PriorityQueue<Task> readyMain = new PriorityQueue<>();
+    private final PriorityQueue<Task> readyBackground = new PriorityQueue<>();
+    private final List<Timing> timings = new ArrayList<>();
+    private final Set<String> done = new HashSet<>();
+    private Listener listener;
+    private boolean started;
+
+    private final Runnable runMain = new Runnable() {
+        @Override
+        public void run() {
+            Task task;
+            synchronized (StartupScheduler.this) {
+                task = readyMain.poll();
+            }
+            execute(task);
+        }
+    };
+
+    private final Runnable runBackground = new Runnable() {
+        @Override
+        public void run() {
+            Task task;
+            synchronized (StartupScheduler.this) {
+                task = readyBackground.poll();
+            }
+            execute(task);
+        }
+    };
+
+    /** Times tasks from now. */
+    public StartupScheduler(Executor mainExecutor, Executor backgroundExecutor) {
+        this(mainExecutor, backgroundExecutor, System.nanoTime());
+    }
+
+    /** Times tasks from {@code startedAt}, a {@link System#nanoTime} taken earlier, e.g. in onCreate. */
+    public StartupScheduler(Executor mainExecutor, Executor backgroundExecutor, long startedAt) {
+        this.mainExecutor = mainExecutor;
+        this.backgroundExecutor = backgroundExecutor;
+        this.startedAt = startedAt;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public synchronized StartupScheduler add(String name, boolean mainThread, int priority,
+                                             Runnable work, String... after) {
+        if (started) {
+            throw new IllegalStateException("Tasks must be added before start");
+        }
+        if (tasks.containsKey(name)) {
+            throw new IllegalArgumentException("Duplicate startup task " + name);
+        }
+        tasks.put(name, new Task(name, mainThread, priority, work, after));
+        return this;
+    }
+
+    public StartupScheduler addMilestone(String name) {
+        return add(name, true, PRIORITY_NORMAL, null);
+    }
+
+    /** Runs the tasks that depend on nothing, and the rest as they become ready. */
+    public synchronized void start() {
+        for (Task task : tasks.values()) {
+            for (String name : task.after) {
+                Task dependency = tasks.get(name);
+                if (dependency == null) {
+                    throw new IllegalStateException(task.name + " depends on unknown task " + name);
+                }
+                if (!done.contains(name)) {
+                    // A milestone may be reached before start
+                    dependency.dependents.add(task);
+                    task.waitingFor++;
+                }
+            }
+        }
+        checkAcyclic();
+        started = true;
+        for (Task task : tasks.values()) {
+            if (task.waitingFor == 0 && task.work != null) {
+                schedule(task);
+            }
+        }
+    }
+
+    /** Marks a milestone reached. Later calls are ignored. */
+    public void reach(String name) {
+        Task task;
+        synchronized (this) {
+            task = tasks.get(name);
+            if (task == null || task.work != null) {
+                throw new IllegalArgumentException("Not a milestone: " + name);
+            }
+            if (done.contains(name)) {
+                return;
+            }
+        }
+        long now = elapsedMs();
+        finish(task, now, now);
+    }
+
+    public synchronized boolean isDone(String name) {
+        return done.contains(name);
+    }
+
+    public synchronized List<Timing> getTimings() {
+        return Collections.unmodifiableList(new ArrayList<>(timings));
+    }
+
+    private void schedule(Task task) {
+        task.readyMs = elapsedMs();
+        if (task.mainThread) {
+            readyMain.add(task);
+            mainExecutor.execute(runMain);
+        } else {
+            readyBackground.add(task);
+            backgroundExecutor.execute(runBackground);
+        }
+    }
+
+    private void execute(Task task) {
+        long start = elapsedMs();
+        try {
+            task.work.run();
+        } finally {
+            finish(task, start, elapsedMs());
+        }
+    }
+
+    private void finish(Task task, long start, long end) {
+        Timing timing = new Timing(task.name, task.mainThread, task.readyMs, start, end);
+        synchronized (this) {
+            timings.add(timing);
+            done.add(task.name);
+            for (Task dependent : task.dependents) {
+                if (--dependent.waitingFor == 0 && dependent.work != null) {
+                    schedule(dependent);
+                }
+            }
+        }
+        if (listener != null) {
+            listener.onTaskFinished(timing);
+        }
+    }
+
+    private void checkAcyclic() {
+        Map<String, Integer> waiting = new LinkedHashMap<>();
+        List<Task> free = new ArrayList<>();
+        for (Task task : tasks.values()) {
+            waiting.put(task.name, task.waitingFor);
+            if (task.waitingFor == 0) {
+                free.add(task);
+            }
+        }
+        int ordered = 0;
+        while (!free.isEmpty()) {
+            Task task = free.remove(free.size() - 1);
+            ordered++;
+            for (Task dependent : task.dependents) {
+                int left = waiting.get(dependent.name) - 1;
+                waiting.put(dependent.name, left);
+                if (left == 0) {
+                    free.add(dependent);
+                }
+            }
+        }
+        if (ordered != tasks.size()) {
+            throw new IllegalStateException("Startup tasks depend on each other in a cycle");
+        }
+    }
+
+    private long elapsedMs() {
+        return (System.nanoTime() - startedAt) / 1000000;
+    }
+}
@@ -0,0 +1,48 @@
+package io.schlosser.firekeep;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reads notes from a plain text or Markdown file, one line at a time. Notes
+ * are separated by lines holding only "---", a Markdown horizontal rule; a
+ * file without separators is a single note. Blank notes are skipped.
+ */
+public class TextNoteSource implements NoteImporter.Source {
+
+    private static final String SEPARATOR = "---";
+    private final BufferedReader reader;
+    private final long dateCreated;
+    private final StringBuilder text = new StringBuilder();
+    private boolean done;
+
+    /** @param dateCreated given to every note, the files carry no dates */
+    public TextNoteSource(Reader reader, long dateCreated) {
+        this.reader = new BufferedReader(reader);
+        this.dateCreated = dateCreated;
+    }
+
+    @Override
+    public Note next() throws IOException {
+        while (!done) {
+            String line = reader.readLine();
+            if (line == null) {
+                done = true;
+            } else if (!line.trim().equals(SEPARATOR)) {
+                if (text.length() > 0) {
+                    text.append('\n');
+                }
+                text.append(line);
+                continue;
+            }
+
+            String noteText = text.toString().trim();
+            text.setLength(0);
+            if (!noteText.isEmpty()) {
+                return new Note(noteText, dateCreated, NoteImporter.DEFAULT_COLOR);
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,168 @@
+package io.schlosser.firekeep;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class BulkNoteWriterTest {
+
+    private FakeBatchSink sink;
+    private final Map<String, NoteBackend.NoteCallback> reads = new LinkedHashMap<>();
+    private BulkNoteWriter writer;
+    private int refreshes;
+    private String lastError;
+
+    @Before
+    public void setUp() {
+        sink = new FakeBatchSink();
+        writer = new BulkNoteWriter("uid", sink, new BulkNoteWriter.NoteReader() {
+            @Override
+            public void readNote(String noteId, NoteBackend.NoteCallback callback) {
+                reads.put(noteId, callback);
+            }
+        });
+        writer.setListener(new BulkNoteWriter.Listener() {
+            @Override
+            public void onPendingChanged() {
+                refreshes++;
+            }
+
+            @Override
+            public void onBatchFailed(int noteCount, String error) {
+                lastError = error;
+            }
+        });
+    }
+
+    @Test
+    public void thousandRecolorsGoOutAsOneBatch() throws Exception {
+        List<NoteCursor> notes = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            notes.add(new NoteCursor(i, "note" + i));
+        }
+
+        writer.recolor(notes, "Red");
+
+        assertEquals(1, sink.updates.size());
+        Map<String, Object> update = sink.updates.get(0);
+        // Color, dateModified and the summary's color, plus the note taken out of every other color index
+        assertEquals(1000 * (3 + NoteColor.values().length), update.size());
+        assertEquals("Red", update.get("notes/uid/note0/color"));
+        assertEquals("Red", update.get("noteSummaries/uid/note0/color"));
+        assertEquals(999L, update.get("noteIndex/uid/color/RED/note999"));
+        assertTrue(update.containsKey("noteIndex/uid/color/BLUE/note999"));
+        assertNull(update.get("noteIndex/uid/color/BLUE/note999"));
+        assertEquals(NoteBatch.SERVER_TIMESTAMP, update.get("notes/uid/note0/dateModified"));
+        assertEquals("Red", update.get("notes/uid/note999/color"));
+    }
+
+    @Test
+    public void pendingRecolorIsShownUntilItFails() throws Exception {
+        Note note = new Note("text", 1, "White");
+        writer.recolor(Collections.singletonList(new NoteCursor(1, "1")), "Blue");
+        assertEquals("Blue", writer.apply("1", note).getColor());
+        assertEquals("White", writer.apply("2", note).getColor());
+
+        sink.complete(0, "Permission denied");
+        assertEquals("Permission denied", lastError);
+        assertEquals("White", writer.apply("1", note).getColor());
+        assertFalse(writer.hasPending());
+        assertEquals(2, refreshes);
+    }
+
+    @Test
+    public void deletedAndArchivedNotesAreHiddenWhilePending() throws Exception {
+        Note tagged = new Note("tagged", 2, "White");
+        tagged.tags = Collections.singleton("home");
+        Map<NoteCursor, Note> deleted = new LinkedHashMap<>();
+        deleted.put(new NoteCursor(1, "1"), null);
+        deleted.put(new NoteCursor(2, "2"), tagged);
+        sink.counts.put("home", 3L);
+        sink.counts.put("work", 1L);
+        writer.delete(deleted);
+        writer.archive(Collections.singletonList(new NoteCursor(3, "3")));
+        assertTrue(writer.isHidden("1"));
+        assertTrue(writer.isHidden("3"));
+        assertFalse(writer.isHidden("4"));
+
+        // Note 1 was not loaded, its tags are read before it is deleted
+        assertEquals(1, sink.updates.size());
+        Note stored = new Note("stored", 1, "White");
+        stored.tags = Collections.singleton("work");
+        reads.get("1").onNote(stored);
+        Map<String, Object> deletes = sink.updates.get(1);
+        assertTrue(deletes.containsKey("notes/uid/1"));
+        assertNull(deletes.get("notes/uid/1"));
+        assertTrue(deletes.containsKey("noteSummaries/uid/1"));
+        assertTrue(deletes.containsKey("noteIndex/uid/month/1970-01/1"));
+        assertTrue(deletes.containsKey("tagIndex/uid/work/1"));
+        assertTrue(deletes.containsKey("tagIndex/uid/home/2"));
+        assertEquals(true, sink.updates.get(0).get("notes/uid/3/archived"));
+        assertEquals(3L, (long) sink.counts.get("home"));
+
+        sink.complete(1, null);
+        assertEquals(2L, (long) sink.counts.get("home"));
+        assertFalse(sink.counts.containsKey("work"));
+        assertFalse(writer.isHidden("1"));
+        assertTrue(writer.isHidden("3"));
+        assertNull(lastError);
+    }
+
+    @Test
+    public void deleteIsDroppedWhenTagsCannotBeRead() throws Exception {
+        Map<NoteCursor, Note> deleted = new LinkedHashMap<>();
+        deleted.put(new NoteCursor(1, "1"), null);
+        deleted.put(new NoteCursor(2, "2"), new Note("listed", 2, "White"));
+        writer.delete(deleted);
+        assertTrue(writer.isHidden("1"));
+
+        reads.get("1").onError("offline");
+        assertEquals("offline", lastError);
+        assertTrue(sink.updates.isEmpty());
+        assertFalse(writer.isHidden("1"));
+        assertFalse(writer.hasPending());
+    }
+
+    @Test
+    public void deleteWinsOverOtherEditsInTheSameBatch() throws Exception {
+        Map<String, Object> update = new NoteBatch("uid")
+                .setColor(Collections.singletonList(new NoteCursor(1, "1")), "Red")
+                .delete(new NoteCursor(1, "1"), new Note("text", 1, "White"))
+                .setArchived(Collections.singletonList("1"), true)
+                .toUpdate();
+        assertTrue(update.containsKey("notes/uid/1"));
+        for (Map.Entry<String, Object> entry : update.entrySet()) {
+            assertNull(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /** Stand-in for the database root that holds on to each update until completed. */
+    private static class FakeBatchSink implements NoteBatchSink {
+        final List<Map<String, Object>> updates = new ArrayList<>();
+        final List<Callback> callbacks = new ArrayList<>();
+        final Map<String, Long> counts = new HashMap<>();
+
+        @Override
+        public void updateChildren(Map<String, Object> update, Callback callback) {
+            updates.add(update);
+            callbacks.add(callback);
+        }
+
+        @Override
+        public void addToCounts(String path, Map<String, Long> changes) {
+            NoteTags.addTo(counts, changes);
+        }
+
+        void complete(int index, String error) {
+            callbacks.get(index).onComplete(error);
+        }
+    }
+}
@@ -0,0 +1,640 @@
+package io.schlosser.firekeep;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * In-process {@link NoteBackend} on a {@link SimulatedLoop}: a tree of maps
+ * standing in for the database, behind a network with latency and jitter.
+ *
+ * Requests travel up and answers and events travel down one ordered channel
+ * each, every message taking the one way latency plus an exponentially
+ * distributed jitter, so the tail is long like on a real network. Writes are
+ * applied on arrival and checked against the version rule of
+ * database.rules.json; listeners hear about them one trip later. Unlike the
+ * real client, local writes are not shown before the server has them.
+ *
+ * {@link #remoteEdit} changes a note the way another device would.
+ */
+final class FakeNoteBackend implements NoteBackend {
+
+    /** Server time of the start of every run, for dateModified. */
+    static final long EPOCH_MILLIS = 1490000000000L;
+    static final String PERMISSION_DENIED = "Permission denied";
+
+    private final SimulatedLoop loop;
+    private final String uid;
+    private final long oneWayMicros;
+    private final long jitterMicros;
+    private final Random random;
+    private final Map<String, Object> root = new HashMap<>();
+    private final Map<String, Ordering> orderings = new HashMap<>();
+    private final List<Watch> watches = new ArrayList<>();
+    private long upAt;
+    private long downAt;
+    private int writes;
+    private int rejectedWrites;
+    private int reads;
+    private long downloadedBytes;
+
+    /** Children of a queried node in query order, kept up to date on every write. */
+    private static final class Ordering {
+        final boolean byValue;
+        final TreeMap<NoteCursor, String> keys = new TreeMap<>();
+        final Map<String, NoteCursor> cursors = new HashMap<>();
+
+        Ordering(boolean byValue) {
+            this.byValue = byValue;
+        }
+    }
+
+    private static final class Watch {
+        final String orderPath;
+        final String notesPath;
+        final NoteCursor from;
+        final NoteCursor before;
+        final NotePageSource.RangeListener listener;
+        boolean removed;
+
+        Watch(String orderPath, String notesPath, NoteCursor from, NoteCursor before,
+              NotePageSource.RangeListener listener) {
+            this.orderPath = orderPath;
+            this.notesPath = notesPath;
+            this.from = from;
+            this.before = before;
+            this.listener = listener;
+        }
+
+        boolean contains(NoteCursor cursor) {
+            return cursor != null
+                    && (from == null || cursor.compareTo(from) >= 0)
+                    && (before == null || cursor.compareTo(before) < 0);
+        }
+    }
+
+    /** A child of a queried node whose position may have changed. */
+    private static final class Change {
+        final String orderPath;
+        final String key;
+        final NoteCursor old;
+        final NoteCursor current;
+
+        Change(String orderPath, String key, NoteCursor old, NoteCursor current) {
+            this.orderPath = orderPath;
+            this.key = key;
+            this.old = old;
+            this.current = current;
+        }
+    }
+
+    /**
+     * @param oneWayMicros least time a message takes in either direction
+     * @param jitterMicros mean of the random time added to each message
+     */
+    FakeNoteBackend(SimulatedLoop loop, String uid, long oneWayMicros, long jitterMicros, long seed) {
+        this.loop = loop;
+        this.uid = uid;
+        this.oneWayMicros = oneWayMicros;
+        this.jitterMicros = jitterMicros;
+        this.random = new Random(seed);
+    }
+
+    @Override
+    public String getUid() {
+        return uid;
+    }
+
+    @Override
+    public NotePageSource pageSource(String listPath) {
+        return new Source(listPath, listPath, false);
+    }
+
+    @Override
+    public NotePageSource indexedPageSource(String indexPath, String listPath) {
+        return new Source(indexPath, listPath, true);
+    }
+
+    @Override
+    public NoteBatchSink batchSink() {
+        return new NoteBatchSink() {
+            @Override
+            public void updateChildren(Map<String, Object> update, final Callback callback) {
+                final Map<String, Object> sent = new HashMap<>(update);
+                up(new Runnable() {
+                    @Override
+                    public void run() {
+                        final String error = apply(sent);
+                        down(new Runnable() {
+                            @Override
+                            public void run() {
+                                callback.onComplete(error);
+                            }
+                        });
+                    }
+                });
+            }
+
+            @Override
+            public void addToCounts(final String path, final Map<String, Long> changes) {
+                up(new Runnable() {
+                    @Override
+                    public void run() {
+                        Map<String, Long> counts = NoteTags.countsFromValue(get(path));
+                        NoteTags.addTo(counts, changes);
+                        apply(Collections.<String, Object>singletonMap(path, counts.isEmpty() ? null : counts));
+                    }
+                });
+            }
+        };
+    }
+
+    @Override
+    public void readTagCounts(final String uid, final TagCountsCallback callback) {
+        up(new Runnable() {
+            @Override
+            public void run() {
+                reads++;
+                final Object value = snapshot(NoteTags.countsPath(uid));
+                down(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onTagCounts(NoteTags.countsFromValue(value));
+                    }
+                });
+            }
+        });
+    }
+
+    @Override
+    public void readNote(final String uid, final String noteId, final NoteCallback callback) {
+        up(new Runnable() {
+            @Override
+            public void run() {
+                reads++;
+                final Object value = snapshot("notes/" + uid + "/" + noteId);
+                down(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onNote(NoteMapper.fromValue(value));
+                    }
+                });
+            }
+        });
+    }
+
+    @Override
+    public void watchConnection(final ConnectionListener listener) {
+        up(new Runnable() {
+            @Override
+            public void run() {
+                down(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onConnectionChanged(true);
+                    }
+                });
+            }
+        });
+    }
+
+    /** Writes {@code update} at once, without events, as if it had been stored all along. */
+    void preload(Map<String, Object> update) {
+        for (Map.Entry<String, Object> entry : update.entrySet()) {
+            set(entry.getKey(), resolve(entry.getValue()));
+        }
+    }
+
+    /**
+     * Replaces the text of a stored note as another device would, with a
+     * version above the stored one. Call from a task on the loop.
+     *
+     * @return false if there is no such note
+     */
+    boolean remoteEdit(String noteId, String text) {
+        Note stored = NoteMapper.fromValue(get("notes/" + uid + "/" + noteId));
+        if (stored == null) {
+            return false;
+        }
+        Note edited = new Note(text, stored.dateCreated, stored.getColor());
+        edited.version = Math.max(stored.version + 1, System.currentTimeMillis());
+        apply(new NoteBatch(uid).save(noteId, stored, edited).toUpdate());
+        return true;
+    }
+
+    /** The stored value at {@code path}, for checks in tests. */
+    Object get(String path) {
+        Object node = root;
+        for (String segment : path.split("/")) {
+            if (!(node instanceof Map)) {
+                return null;
+            }
+            node = ((Map<?, ?>) node).get(segment);
+        }
+        return node;
+    }
+
+    int getWrites() {
+        return writes;
+    }
+
+    int getRejectedWrites() {
+        return rejectedWrites;
+    }
+
+    /** Window loads, range watches and note reads that reached the server. */
+    int getReads() {
+        return reads;
+    }
+
+    /** Rough size of everything sent down, counting strings by their length and numbers as 8. */
+    long getDownloadedBytes() {
+        return downloadedBytes;
+    }
+
+    private class Source implements NotePageSource {
+        private final String orderPath;
+        private final String notesPath;
+        private final boolean byValue;
+
+        Source(String orderPath, String notesPath, boolean byValue) {
+            this.orderPath = orderPath;
+            this.notesPath = notesPath;
+            this.byValue = byValue;
+        }
+
+        @Override
+        public Registration loadWindow(final NoteCursor before, final int limit, final WindowCallback callback) {
+            final boolean[] removed = new boolean[1];
+            up(new Runnable() {
+                @Override
+                public void run() {
+                    reads++;
+                    Ordering ordering = ordering(orderPath, byValue);
+                    NavigableMap<NoteCursor, String> head = before == null
+                            ? ordering.keys
+                            : ordering.keys.headMap(before, false);
+                    final List<NoteCursor> cursors = new ArrayList<>(limit);
+                    final List<Object> values = new ArrayList<>(limit);
+                    for (Map.Entry<NoteCursor, String> entry : head.descendingMap().entrySet()) {
+                        if (cursors.size() == limit) {
+                            break;
+                        }
+                        Object value = snapshot(notesPath + "/" + entry.getValue());
+                        if (value != null) {
+                            cursors.add(0, entry.getKey());
+                            values.add(0, value);
+                        }
+                    }
+                    down(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (removed[0]) {
+                                return;
+                            }
+                            List<NotePager.Entry> entries = new ArrayList<>(cursors.size());
+                            for (int i = 0; i < cursors.size(); i++) {
+                                entries.add(new NotePager.Entry(cursors.get(i), NoteSummaries.fromValue(values.get(i))));
+                            }
+                            callback.onWindowLoaded(entries);
+                        }
+                    });
+                }
+            });
+            return new Registration() {
+                @Override
+                public void remove() {
+                    removed[0] = true;
+                }
+            };
+        }
+
+        @Override
+        public Registration watchRange(NoteCursor from, NoteCursor before, final RangeListener listener) {
+            final Watch watch = new Watch(orderPath, notesPath, from, before, listener);
+            up(new Runnable() {
+                @Override
+                public void run() {
+                    if (watch.removed) {
+                        return;
+                    }
+                    reads++;
+                    watches.add(watch);
+                    Ordering ordering = ordering(orderPath, byValue);
+                    final List<NoteCursor> cursors = new ArrayList<>();
+                    final List<Object> values = new ArrayList<>();
+                    NavigableMap<NoteCursor, String> range = ordering.keys;
+                    if (watch.from != null) {
+                        range = range.tailMap(watch.from, true);
+                    }
+                    if (watch.before != null) {
+                        range = range.headMap(watch.before, false);
+                    }
+                    for (Map.Entry<NoteCursor, String> entry : range.entrySet()) {
+                        Object value = snapshot(notesPath + "/" + entry.getValue());
+                        if (value != null) {
+                            cursors.add(entry.getKey());
+                            values.add(value);
+                        }
+                    }
+                    down(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (watch.removed) {
+                                return;
+                            }
+                            for (int i = 0; i < cursors.size(); i++) {
+                                listener.onNoteAdded(cursors.get(i), NoteSummaries.fromValue(values.get(i)));
+                            }
+                            listener.onRangeLoaded();
+                        }
+                    });
+                }
+            });
+            return new Registration() {
+                @Override
+                public void remove() {
+                    watch.removed = true;
+                    watches.remove(watch);
+                }
+            };
+        }
+    }
+
+    /** Applies a multi-path update and tells the watches. @return the error, or null if accepted */
+    private String apply(Map<String, Object> update) {
+        for (Map.Entry<String, Object> entry : update.entrySet()) {
+            if (!allowed(entry.getKey(), entry.getValue())) {
+                rejectedWrites++;
+                return PERMISSION_DENIED;
+            }
+        }
+        writes++;
+
+        Map<String, Set<String>> dirty = new LinkedHashMap<>();
+        for (Map.Entry<String, Object> entry : update.entrySet()) {
+            set(entry.getKey(), resolve(entry.getValue()));
+            markDirty(entry.getKey(), dirty);
+        }
+
+        List<Change> changes = new ArrayList<>();
+        for (Map.Entry<String, Ordering> entry : orderings.entrySet()) {
+            Set<String> keys = dirty.get(entry.getKey());
+            if (keys == null) {
+                continue;
+            }
+            Ordering ordering = entry.getValue();
+            for (String key : keys) {
+                NoteCursor old = ordering.cursors.remove(key);
+                if (old != null) {
+                    ordering.keys.remove(old);
+                }
+                NoteCursor current = cursorOf(ordering.byValue, key, get(entry.getKey() + "/" + key));
+                if (current != null) {
+                    ordering.cursors.put(key, current);
+                    ordering.keys.put(current, key);
+                }
+                changes.add(new Change(entry.getKey(), key, old, current));
+            }
+        }
+
+        for (Watch watch : new ArrayList<>(watches)) {
+            Set<String> handled = new LinkedHashSet<>();
+            for (Change change : changes) {
+                if (change.orderPath.equals(watch.orderPath)) {
+                    handled.add(change.key);
+                    notify(watch, change.key, change.old, change.current);
+                }
+            }
+            // Notes in an index that changed while their index entry did not
+            Set<String> edited = watch.notesPath.equals(watch.orderPath) ? null : dirty.get(watch.notesPath);
+            if (edited != null) {
+                Ordering ordering = orderings.get(watch.orderPath);
+                for (String key : edited) {
+                    NoteCursor cursor = ordering.cursors.get(key);
+                    if (!handled.contains(key) && watch.contains(cursor)) {
+                        notify(watch, key, cursor, cursor);
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    private void notify(final Watch watch, String key, final NoteCursor old, final NoteCursor current) {
+        boolean wasIn = watch.contains(old);
+        boolean isIn = watch.contains(current);
+        final Object value = isIn ? snapshot(watch.notesPath + "/" + key) : null;
+        if (isIn && value == null) {
+            // Listed in an index, but the note itself is gone
+            isIn = false;
+        }
+        if (!wasIn && !isIn) {
+            return;
+        }
+        final boolean added = !wasIn;
+        final boolean removed = !isIn;
+        down(new Runnable() {
+            @Override
+            public void run() {
+                if (watch.removed) {
+                    return;
+                }
+                if (removed) {
+                    watch.listener.onNoteRemoved(old);
+                } else if (added) {
+                    watch.listener.onNoteAdded(current, NoteSummaries.fromValue(value));
+                } else {
+                    watch.listener.onNoteChanged(current, NoteSummaries.fromValue(value));
+                }
+            }
+        });
+    }
+
+    /** The version rule of database.rules.json: a note's version may only grow. */
+    private boolean allowed(String path, Object value) {
+        String[] segments = path.split("/");
+        if (segments.length != 4 || !segments[0].equals("notes") || !segments[3].equals("version")) {
+            return true;
+        }
+        Object stored = get(path);
+        return value instanceof Number
+                && (!(stored instanceof Number) || ((Number) value).longValue() > ((Number) stored).longValue());
+    }
+
+    /** Notes, for every ordering and watched notes node, which of its children {@code path} touches. */
+    private void markDirty(String path, Map<String, Set<String>> dirty) {
+        Set<String> watched = new LinkedHashSet<>(orderings.keySet());
+        for (Watch watch : watches) {
+            watched.add(watch.notesPath);
+        }
+        for (String node : watched) {
+            if (path.startsWith(node + "/")) {
+                String rest = path.substring(node.length() + 1);
+                int slash = rest.indexOf('/');
+                keys(dirty, node).add(slash < 0 ? rest : rest.substring(0, slash));
+            } else if (node.equals(path) || node.startsWith(path + "/")) {
+                // The node itself was replaced
+                Set<String> keys = keys(dirty, node);
+                Ordering ordering = orderings.get(node);
+                if (ordering != null) {
+                    keys.addAll(ordering.cursors.keySet());
+                }
+                Object value = get(node);
+                if (value instanceof Map) {
+                    for (Object key : ((Map<?, ?>) value).keySet()) {
+                        keys.add((String) key);
+                    }
+                }
+            }
+        }
+    }
+
+    private static Set<String> keys(Map<String, Set<String>> dirty, String node) {
+        Set<String> keys = dirty.get(node);
+        if (keys == null) {
+            keys = new LinkedHashSet<>();
+            dirty.put(node, keys);
+        }
+        return keys;
+    }
+
+    private Ordering ordering(String path, boolean byValue) {
+        Ordering ordering = orderings.get(path);
+        if (ordering == null) {
+            ordering = new Ordering(byValue);
+            Object node = get(path);
+            if (node instanceof Map) {
+                for (Map.Entry<?, ?> child : ((Map<?, ?>) node).entrySet()) {
+                    String key = (String) child.getKey();
+                    NoteCursor cursor = cursorOf(byValue, key, child.getValue());
+                    if (cursor != null) {
+                        ordering.cursors.put(key, cursor);
+                        ordering.keys.put(cursor, key);
+                    }
+                }
+            }
+            orderings.put(path, ordering);
+        }
+        return ordering;
+    }
+
+    /** Like orderByValue on a numeric index and orderByChild("dateCreated") on notes. */
+    private static NoteCursor cursorOf(boolean byValue, String key, Object value) {
+        if (value == null) {
+            return null;
+        }
+        if (byValue) {
+            return value instanceof Number ? new NoteCursor(((Number) value).longValue(), key) : null;
+        }
+        Object dateCreated = value instanceof Map ? ((Map<?, ?>) value).get("dateCreated") : null;
+        return new NoteCursor(dateCreated instanceof Number ? ((Number) dateCreated).longValue() : 0, key);
+    }
+
+    private void up(Runnable request) {
+        upAt = Math.max(upAt, loop.nowMicros() + delay());
+        loop.postServer(request, upAt);
+    }
+
+    private void down(Runnable event) {
+        downAt = Math.max(downAt, loop.nowMicros() + delay());
+        loop.postClient(event, downAt);
+    }
+
+    private long delay() {
+        return oneWayMicros + (long) (-Math.log(1 - random.nextDouble()) * jitterMicros);
+    }
+
+    /** A copy of the value at {@code path}, counted as downloaded. */
+    private Object snapshot(String path) {
+        Object value = copy(get(path));
+        downloadedBytes += sizeOf(value);
+        return value;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void set(String path, Object value) {
+        String[] segments = path.split("/");
+        List<Map<String, Object>> parents = new ArrayList<>(segments.length);
+        Map<String, Object> node = root;
+        for (int i = 0; i < segments.length - 1; i++) {
+            parents.add(node);
+            Object child = node.get(segments[i]);
+            if (!(child instanceof Map)) {
+                if (value == null) {
+                    return;
+                }
+                child = new HashMap<String, Object>();
+                node.put(segments[i], child);
+            }
+            node = (Map<String, Object>) child;
+        }
+        String leaf = segments[segments.length - 1];
+        if (value == null) {
+            node.remove(leaf);
+            // Like the database, nodes without children do not exist
+            for (int i = parents.size() - 1; i >= 0 && node.isEmpty(); i--) {
+                parents.get(i).remove(segments[i]);
+                node = parents.get(i);
+            }
+        } else {
+            node.put(leaf, value);
+        }
+    }
+
+    /** The value as the database would store it: server timestamps filled in, numbers as longs. */
+    private Object resolve(Object value) {
+        if (value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            if (NoteBatch.SERVER_TIMESTAMP.equals(map)) {
+                return EPOCH_MILLIS + loop.nowMicros() / 1000;
+            }
+            Map<String, Object> resolved = new HashMap<>(map.size() * 4 / 3 + 1);
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                Object child = resolve(entry.getValue());
+                if (child != null) {
+                    resolved.put((String) entry.getKey(), child);
+                }
+            }
+            return resolved.isEmpty() ? null : resolved;
+        }
+        if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return ((Number) value).longValue();
+        }
+        return value;
+    }
+
+    private static Object copy(Object value) {
+        if (!(value instanceof Map)) {
+            return value;
+        }
+        Map<?, ?> map = (Map<?, ?>) value;
+        Map<String, Object> copy = new HashMap<>(map.size() * 4 / 3 + 1);
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            copy.put((String) entry.getKey(), copy(entry.getValue()));
+        }
+        return copy;
+    }
+
+    private static long sizeOf(Object value) {
+        if (value instanceof String) {
+            return ((String) value).length();
+        }
+        if (value instanceof Map) {
+            long size = 0;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                size += ((String) entry.getKey()).length() + sizeOf(entry.getValue());
+            }
+            return size;
+        }
+        return value == null ? 0 : 8;
+    }
+}
@@ -0,0 +1,145 @@
+package io.schlosser.firekeep;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * In-memory {@link NotePageSource}. Like the database, callbacks are queued
+ * instead of delivered inline; call {@link #flush()} to deliver them.
+ */
+class FakeNotePageSource implements NotePageSource {
+
+    private final TreeMap<NoteCursor, Note> notes = new TreeMap<>();
+    private final List<Runnable> pending = new ArrayList<>();
+    private final List<Watch> watches = new ArrayList<>();
+
+    private static class Watch {
+        final NoteCursor from;
+        final NoteCursor before;
+        final RangeListener listener;
+        boolean removed;
+
+        Watch(NoteCursor from, NoteCursor before, RangeListener listener) {
+            this.from = from;
+            this.before = before;
+            this.listener = listener;
+        }
+
+        boolean contains(NoteCursor cursor) {
+            return (from == null || cursor.compareTo(from) >= 0)
+                    && (before == null || cursor.compareTo(before) < 0);
+        }
+    }
+
+    NoteCursor insert(long dateCreated, String key) {
+        final NoteCursor cursor = new NoteCursor(dateCreated, key);
+        final Note note = new Note("note " + key, dateCreated, "White");
+        notes.put(cursor, note);
+        for (final Watch watch : watches) {
+            if (watch.contains(cursor)) {
+                post(watch, new Runnable() {
+                    @Override
+                    public void run() {
+                        watch.listener.onNoteAdded(cursor, note);
+                    }
+                });
+            }
+        }
+        return cursor;
+    }
+
+    void remove(final NoteCursor cursor) {
+        notes.remove(cursor);
+        for (final Watch watch : watches) {
+            if (watch.contains(cursor)) {
+                post(watch, new Runnable() {
+                    @Override
+                    public void run() {
+                        watch.listener.onNoteRemoved(cursor);
+                    }
+                });
+            }
+        }
+    }
+
+    int liveWatches() {
+        return watches.size();
+    }
+
+    void flush() {
+        while (!pending.isEmpty()) {
+            pending.remove(0).run();
+        }
+    }
+
+    @Override
+    public Registration loadWindow(NoteCursor before, final int limit, final WindowCallback callback) {
+        final NavigableMap<NoteCursor, Note> head = before == null ? notes : notes.headMap(before, false);
+        final boolean[] removed = new boolean[1];
+        pending.add(new Runnable() {
+            @Override
+            public void run() {
+                if (removed[0]) {
+                    return;
+                }
+                List<NotePager.Entry> window = new ArrayList<>();
+                for (Map.Entry<NoteCursor, Note> entry : head.descendingMap().entrySet()) {
+                    if (window.size() == limit) {
+                        break;
+                    }
+                    window.add(0, new NotePager.Entry(entry.getKey(), entry.getValue()));
+                }
+                callback.onWindowLoaded(window);
+            }
+        });
+        return new Registration() {
+            @Override
+            public void remove() {
+                removed[0] = true;
+            }
+        };
+    }
+
+    @Override
+    public Registration watchRange(NoteCursor from, NoteCursor before, RangeListener listener) {
+        final Watch watch = new Watch(from, before, listener);
+        watches.add(watch);
+        post(watch, new Runnable() {
+            @Override
+            public void run() {
+                for (Map.Entry<NoteCursor, Note> entry : notes.entrySet()) {
+                    if (watch.contains(entry.getKey())) {
+                        watch.listener.onNoteAdded(entry.getKey(), entry.getValue());
+                    }
+                }
+                watch.listener.onRangeLoaded();
+            }
+        });
+        return new Registration() {
+            @Override
+            public void remove() {
+                watch.removed = true;
+                for (Iterator<Watch> it = watches.iterator(); it.hasNext(); ) {
+                    if (it.next() == watch) {
+                        it.remove();
+                    }
+                }
+            }
+        };
+    }
+
+    private void post(final Watch watch, final Runnable event) {
+        pending.add(new Runnable() {
+            @Override
+            public void run() {
+                if (!watch.removed) {
+                    event.run();
+                }
+            }
+        });
+    }
+}
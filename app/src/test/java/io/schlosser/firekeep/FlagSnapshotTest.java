@@ -0,0 +1,46 @@
+package io.schlosser.firekeep;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class FlagSnapshotTest {
+
+    @Test
+    public void missingValuesFallBack() throws Exception {
+        FlagSnapshot snapshot = FlagSnapshot.read(values(new HashMap<String, Boolean>()), FlagSnapshot.DEFAULTS);
+        assertEquals(FlagSnapshot.DEFAULTS, snapshot);
+    }
+
+    @Test
+    public void survivesWriteAndRead() throws Exception {
+        Map<String, Boolean> remote = new HashMap<>();
+        remote.put(FlagSnapshot.COLOR_PICKER_ENABLED, false);
+        remote.put(FlagSnapshot.COMPRESS_LONG_NOTES, true);
+        FlagSnapshot fetched = FlagSnapshot.read(values(remote), FlagSnapshot.DEFAULTS);
+        assertFalse(fetched.colorPickerEnabled);
+        assertTrue(fetched.compressLongNotes);
+        assertNotEquals(FlagSnapshot.DEFAULTS, fetched);
+
+        final Map<String, Boolean> stored = new HashMap<>();
+        fetched.write(new FlagSnapshot.Editor() {
+            @Override
+            public void putBoolean(String key, boolean value) {
+                stored.put(key, value);
+            }
+        });
+        assertEquals(fetched, FlagSnapshot.read(values(stored), FlagSnapshot.DEFAULTS));
+    }
+
+    private static FlagSnapshot.Values values(final Map<String, Boolean> map) {
+        return new FlagSnapshot.Values() {
+            @Override
+            public Boolean getBoolean(String key) {
+                return map.get(key);
+            }
+        };
+    }
+}
@@ -0,0 +1,55 @@
+package io.schlosser.firekeep;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void bucketsAreWithinAnEighth() throws Exception {
+        long[] values = {0, 1, 7, 8, 9, 15, 16, 17, 100, 1000, 12345, 999999, 1L << 39};
+        for (long value : values) {
+            int bucket = LatencyHistogram.bucketOf(value);
+            long upper = LatencyHistogram.upperBoundOf(bucket);
+            assertTrue(value + " above " + upper, value <= upper);
+            assertTrue(value + " far below " + upper, upper - value <= value / 8);
+            if (bucket > 0) {
+                assertTrue(LatencyHistogram.upperBoundOf(bucket - 1) < value);
+            }
+        }
+    }
+
+    @Test
+    public void percentiles() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram("test");
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+        LatencyHistogram.Summary summary = histogram.summarize();
+        assertEquals(1000, summary.count);
+        assertNear(500, summary.p50Micros);
+        assertNear(900, summary.p90Micros);
+        assertNear(990, summary.p99Micros);
+        assertEquals(1000, summary.maxMicros);
+    }
+
+    @Test
+    public void drainOnlyReportsNewValues() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram("test");
+        histogram.record(5000);
+        assertEquals(1, histogram.drain().count);
+
+        histogram.record(10);
+        histogram.record(12);
+        LatencyHistogram.Summary summary = histogram.drain();
+        assertEquals(2, summary.count);
+        assertTrue(summary.maxMicros < 16);
+        assertEquals(0, histogram.drain().count);
+        assertEquals(3, histogram.summarize().count);
+    }
+
+    private static void assertNear(long expected, long actual) {
+        assertTrue(actual + " not near " + expected, actual >= expected && actual - expected <= expected / 8);
+    }
+}
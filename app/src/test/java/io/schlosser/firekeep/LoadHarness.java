@@ -0,0 +1,414 @@
+package io.schlosser.firekeep;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Replays a {@link LoadScenario} through the code the screens run, the
+ * {@link NoteStore}, {@link NotePager}, {@link NoteBinder} and
+ * {@link NoteOutbox}, on a {@link FakeNoteBackend}, in virtual time. Needs no
+ * device and no network, and a session of minutes runs in seconds.
+ *
+ * Reports, in virtual time, how long the first note took to show and how long
+ * saves took to be written, and how much CPU time and memory the app code
+ * used. Rows are bound to a row that does nothing, so view work is not part of
+ * it.
+ */
+final class LoadHarness {
+
+    static final String UID = "load-user";
+    private static final long FRAME_MICROS = 16667;
+    /** Rows on screen when the list first shows. */
+    private static final int VISIBLE_ROWS = 10;
+    /** Notes near the top of the list, the ones edits pick from. */
+    private static final int RECENT_NOTES = 50;
+    /** How long one step may wait for the network before the run gives up. */
+    private static final long STEP_LIMIT_MICROS = 10 * 60 * 1000000L;
+
+    private final LoadScenario scenario;
+    private final SimulatedLoop loop = new SimulatedLoop();
+    private final FakeNoteBackend backend;
+    private final NoteStore store;
+    private final NoteOutbox outbox;
+    private final Random random;
+    private final String listPath = NoteSummaries.path(UID);
+    private final List<String> seededIds = new ArrayList<>();
+    private final LatencyHistogram saveLatency = new LatencyHistogram("harness_save");
+    private final LatencyHistogram frameTimes = new LatencyHistogram("harness_frame");
+    /** Virtual times of saves not written yet, by note. */
+    private final Map<String, List<Long>> saving = new HashMap<>();
+    private final NoteBinder.Row row = new NoteBinder.Row() {
+        @Override
+        public void setNoteId(String noteId) {
+        }
+
+        @Override
+        public void setText(String text) {
+        }
+
+        @Override
+        public void setCardColor(int color) {
+        }
+
+        @Override
+        public void setChecked(boolean checked) {
+        }
+    };
+
+    private NotePager pager;
+    private long firstNoteMicros = -1;
+    private int scrollPosition;
+    private int rowsBound;
+    private int placeholderRows;
+    private int stalledFrames;
+    private int createdNotes;
+    private int pendingActions;
+    private int rejectedSaves;
+    private boolean sessionOver;
+
+    static LoadReport run(LoadScenario scenario) {
+        return new LoadHarness(scenario).run();
+    }
+
+    private LoadHarness(LoadScenario scenario) {
+        this.scenario = scenario;
+        random = new Random(scenario.getSeed());
+        backend = new FakeNoteBackend(loop, UID, scenario.getOneWayMillis() * 1000, scenario.getJitterMillis() * 1000,
+                scenario.getSeed());
+        store = new NoteStore(loop, FireKeepApplication.PAGE_SIZE, FireKeepApplication.PREFETCH_DISTANCE,
+                FireKeepApplication.RESIDENT_PAGES);
+        outbox = new NoteOutbox(backend.batchSink(), new NoteOutbox.Store() {
+            @Override
+            public List<NoteOutbox.Entry> load() {
+                return Collections.emptyList();
+            }
+
+            @Override
+            public void save(List<NoteOutbox.Entry> entries) {
+                final Set<String> pending = new HashSet<>();
+                for (NoteOutbox.Entry entry : entries) {
+                    pending.add(entry.noteId);
+                }
+                // After the rejection listener, which runs once the outbox saved
+                loop.postClient(new Runnable() {
+                    @Override
+                    public void run() {
+                        written(pending);
+                    }
+                }, loop.nowMicros());
+            }
+        }, new LatencyHistogram("harness_send"));
+        outbox.setListener(new NoteOutbox.Listener() {
+            @Override
+            public void onRejected(String noteId, String error) {
+                rejectedSaves += saving.remove(noteId).size();
+            }
+        });
+    }
+
+    private LoadReport run() {
+        seedNotes();
+        backend.watchConnection(new NoteBackend.ConnectionListener() {
+            @Override
+            public void onConnectionChanged(boolean connected) {
+                outbox.setOnline(connected);
+            }
+        });
+        if (scenario.getRemoteEditMillis() > 0) {
+            editRemotely();
+        }
+        for (LoadScenario.Step step : scenario.getSteps()) {
+            runStep(step);
+        }
+        sessionOver = true;
+        loop.runUntil(new SimulatedLoop.Condition() {
+            @Override
+            public boolean holds() {
+                return saving.isEmpty();
+            }
+        }, loop.nowMicros() + STEP_LIMIT_MICROS);
+        return report();
+    }
+
+    /** The account as the session finds it: mostly short notes, some long enough to be chunked. */
+    private void seedNotes() {
+        int count = scenario.getNotes();
+        long newest = FakeNoteBackend.EPOCH_MILLIS - 60 * 1000;
+        for (int i = 0; i < count; i++) {
+            String noteId = NoteIds.forImport(FakeNoteBackend.EPOCH_MILLIS, scenario.getSeed(), i);
+            Note note = new Note(text(random), newest - (count - i) * 60 * 1000L, color(random));
+            note.version = 1;
+            backend.preload(new NoteBatch(UID).save(noteId, null, note).toUpdate());
+            seededIds.add(noteId);
+        }
+        backend.preload(Collections.<String, Object>singletonMap(NoteIndex.versionPath(UID),
+                (long) NoteIndex.CURRENT_VERSION));
+    }
+
+    private void runStep(LoadScenario.Step step) {
+        long start = loop.nowMicros();
+        switch (step.kind) {
+            case OPEN:
+                open();
+                break;
+            case SCROLL:
+                scroll(step.count, step.rate);
+                break;
+            case CREATE:
+                repeat(step.count, step.millis, new Runnable() {
+                    @Override
+                    public void run() {
+                        create();
+                    }
+                });
+                break;
+            case EDIT:
+                repeat(step.count, step.millis, new Runnable() {
+                    @Override
+                    public void run() {
+                        edit();
+                    }
+                });
+                break;
+            case PAUSE:
+                loop.runUntil(start + step.millis * 1000);
+                return;
+        }
+        loop.runUntil(new SimulatedLoop.Condition() {
+            @Override
+            public boolean holds() {
+                return pendingActions == 0;
+            }
+        }, start + STEP_LIMIT_MICROS);
+    }
+
+    private void open() {
+        final long start = loop.nowMicros();
+        pendingActions++;
+        loop.postClient(new Runnable() {
+            @Override
+            public void run() {
+                store.onScreenStarted();
+                pager = store.list(listPath, backend.pageSource(listPath));
+                pager.addListener(new NotePager.Listener() {
+                    @Override
+                    public void onItemRangeInserted(int position, int count) {
+                        if (firstNoteMicros < 0 && pager.size() > 0) {
+                            for (int i = 0; i < Math.min(VISIBLE_ROWS, pager.size()); i++) {
+                                bind(i);
+                            }
+                            firstNoteMicros = loop.nowMicros() - start;
+                            pendingActions--;
+                        }
+                    }
+
+                    @Override
+                    public void onItemRangeRemoved(int position, int count) {
+                    }
+
+                    @Override
+                    public void onItemRangeChanged(int position, int count) {
+                    }
+
+                    @Override
+                    public void onError(String message) {
+                        throw new AssertionError(message);
+                    }
+                });
+                pager.start();
+            }
+        }, start);
+    }
+
+    /** Binds rows frame by frame, like a fling that only moves on once the rows it needs are loaded. */
+    private void scroll(final int rows, final int rowsPerFrame) {
+        final int end = scrollPosition + rows;
+        pendingActions++;
+        loop.postClient(new Runnable() {
+            @Override
+            public void run() {
+                long frameStart = System.nanoTime();
+                for (int i = 0; i < rowsPerFrame && scrollPosition < end; i++) {
+                    if (scrollPosition >= pager.size()) {
+                        if (pager.hasMore()) {
+                            stalledFrames++;
+                        } else {
+                            scrollPosition = end;
+                        }
+                        break;
+                    }
+                    bind(scrollPosition++);
+                }
+                frameTimes.record((System.nanoTime() - frameStart) / 1000);
+                if (scrollPosition < end) {
+                    loop.postClient(this, loop.nowMicros() + FRAME_MICROS);
+                } else {
+                    pendingActions--;
+                }
+            }
+        }, loop.nowMicros());
+    }
+
+    private void bind(int position) {
+        pager.onBind(position);
+        NotePager.Entry entry = pager.get(position);
+        Note note = entry.getNote();
+        if (note == null) {
+            placeholderRows++;
+            NoteBinder.bindPlaceholder(row, entry.cursor.key, false);
+        } else {
+            NoteBinder.bind(row, entry.cursor.key, note, true, false);
+        }
+        rowsBound++;
+    }
+
+    private void repeat(final int count, final long everyMillis, final Runnable action) {
+        long start = loop.nowMicros();
+        for (int i = 0; i < count; i++) {
+            pendingActions++;
+            loop.postClient(new Runnable() {
+                @Override
+                public void run() {
+                    action.run();
+                }
+            }, start + i * everyMillis * 1000);
+        }
+    }
+
+    private void create() {
+        long now = FakeNoteBackend.EPOCH_MILLIS + loop.nowMicros() / 1000;
+        String noteId = NoteIds.forImport(now, scenario.getSeed(), createdNotes++);
+        save(noteId, null, new Note(text(random), now, color(random)));
+        pendingActions--;
+    }
+
+    /** What the edit screen does: show the listed note, read the full one, save a change. */
+    private void edit() {
+        int recent = Math.min(RECENT_NOTES, pager == null ? 0 : pager.size());
+        if (recent == 0) {
+            pendingActions--;
+            return;
+        }
+        final String noteId = pager.get(random.nextInt(recent)).cursor.key;
+        store.find(noteId);
+        backend.readNote(UID, noteId, new NoteBackend.NoteCallback() {
+            @Override
+            public void onNote(Note note) {
+                Note pending = outbox.pending(noteId);
+                Note previous = pending != null ? pending : note;
+                if (previous != null) {
+                    save(noteId, previous, new Note(previous.getText() + "\nedited " + random.nextInt(1000),
+                            previous.dateCreated, previous.getColor()));
+                }
+                pendingActions--;
+            }
+
+            @Override
+            public void onError(String message) {
+                throw new AssertionError(message);
+            }
+        });
+    }
+
+    private void save(String noteId, Note previous, Note note) {
+        List<Long> times = saving.get(noteId);
+        if (times == null) {
+            times = new ArrayList<>();
+            saving.put(noteId, times);
+        }
+        times.add(loop.nowMicros());
+        outbox.save(UID, noteId, previous, note);
+    }
+
+    private void written(Set<String> pending) {
+        long now = loop.nowMicros();
+        for (String noteId : new ArrayList<>(saving.keySet())) {
+            if (!pending.contains(noteId)) {
+                for (long savedAt : saving.remove(noteId)) {
+                    saveLatency.record(now - savedAt);
+                }
+            }
+        }
+    }
+
+    /** Another device editing one of the newest notes, over and over until the session ends. */
+    private void editRemotely() {
+        final long interval = scenario.getRemoteEditMillis() * 1000;
+        loop.postServer(new Runnable() {
+            private int edits;
+
+            @Override
+            public void run() {
+                if (sessionOver || seededIds.isEmpty()) {
+                    return;
+                }
+                int recent = Math.min(RECENT_NOTES, seededIds.size());
+                String noteId = seededIds.get(seededIds.size() - 1 - random.nextInt(recent));
+                backend.remoteEdit(noteId, "edited elsewhere " + ++edits);
+                loop.postServer(this, loop.nowMicros() + interval);
+            }
+        }, interval);
+    }
+
+    private LoadReport report() {
+        LoadReport report = new LoadReport(scenario.name);
+        LatencyHistogram.Summary saves = saveLatency.summarize();
+        LatencyHistogram.Summary frames = frameTimes.summarize();
+        double seconds = loop.nowMicros() / 1e6;
+        report.put("timeToFirstNote", firstNoteMicros / 1000.0, "ms");
+        report.put("saveP50", saves.p50Micros / 1000.0, "ms");
+        report.put("saveP90", saves.p90Micros / 1000.0, "ms");
+        report.put("saveP99", saves.p99Micros / 1000.0, "ms");
+        report.put("savesRejected", rejectedSaves, "saves");
+        report.put("savesUnwritten", countUnwritten(), "saves");
+        report.put("scrollFrameP99", frames.p99Micros / 1000.0, "ms");
+        report.put("stalledFrames", stalledFrames, "frames");
+        report.put("placeholderRows", placeholderRows, "rows");
+        report.put("cpu", loop.getClientNanos() / 1e6, "ms");
+        long bytes = loop.getClientBytes();
+        if (bytes >= 0) {
+            report.put("allocated", bytes / 1e6, "MB");
+            report.put("allocationRate", bytes / 1e6 / seconds, "MB/s");
+            report.put("allocatedPerRow", rowsBound == 0 ? 0 : bytes / (double) rowsBound, "B/row");
+        }
+        report.put("reads", backend.getReads(), "reads");
+        report.put("downloaded", backend.getDownloadedBytes() / 1000.0, "KB");
+        report.put("session", seconds, "s");
+        return report;
+    }
+
+    private int countUnwritten() {
+        int count = 0;
+        for (List<Long> times : saving.values()) {
+            count += times.size();
+        }
+        return count;
+    }
+
+    private static String text(Random random) {
+        int roll = random.nextInt(100);
+        int length = roll < 80 ? 20 + random.nextInt(300)
+                : roll < 98 ? 300 + random.nextInt(4000)
+                : NoteChunks.THRESHOLD + random.nextInt(32 * 1024);
+        StringBuilder text = new StringBuilder(length + 16);
+        while (text.length() < length) {
+            int word = 1 + random.nextInt(9);
+            for (int i = 0; i < word; i++) {
+                text.append((char) ('a' + random.nextInt(26)));
+            }
+            text.append(random.nextInt(12) == 0 ? ".\n" : " ");
+        }
+        return text.toString();
+    }
+
+    private static String color(Random random) {
+        NoteColor[] colors = NoteColor.values();
+        return colors[random.nextInt(colors.length)].name();
+    }
+}
@@ -0,0 +1,100 @@
+package io.schlosser.firekeep;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class LoadHarnessTest {
+
+    @Test
+    public void fakeBackendDeliversWritesAndEnforcesVersions() throws Exception {
+        SimulatedLoop loop = new SimulatedLoop();
+        final FakeNoteBackend backend = new FakeNoteBackend(loop, "uid", 10000, 0, 1);
+        Note stored = new Note("first", 1000, "RED");
+        stored.version = 5;
+        backend.preload(new NoteBatch("uid").save("a", null, stored).toUpdate());
+
+        NotePager pager = new NotePager(backend.pageSource(NoteSummaries.path("uid")), 10, 2, 1);
+        pager.start();
+        loop.runUntil(100000);
+        assertEquals(1, pager.size());
+        assertEquals("first", pager.get(0).getNote().getText());
+
+        loop.postServer(new Runnable() {
+            @Override
+            public void run() {
+                backend.remoteEdit("a", "from elsewhere");
+            }
+        }, loop.nowMicros());
+        loop.runUntil(loop.nowMicros() + 100000);
+        assertEquals("from elsewhere", pager.get(0).getNote().getText());
+
+        // A save based on the note before the remote edit
+        Note late = new Note("late", 1000, "RED");
+        late.version = 6;
+        final List<String> errors = new ArrayList<>();
+        backend.batchSink().updateChildren(new NoteBatch("uid").save("a", stored, late).toUpdate(),
+                new NoteBatchSink.Callback() {
+                    @Override
+                    public void onComplete(String error) {
+                        errors.add(error);
+                    }
+                });
+        loop.runUntil(loop.nowMicros() + 100000);
+        assertEquals(1, errors.size());
+        assertEquals(FakeNoteBackend.PERMISSION_DENIED, errors.get(0));
+        assertEquals(1, backend.getRejectedWrites());
+    }
+
+    @Test
+    public void smallSessionWritesEverySave() throws Exception {
+        LoadReport report = LoadHarness.run(new LoadScenario("small")
+                .notes(500)
+                .network(40, 10)
+                .open()
+                .scroll(300, 5)
+                .create(5, 500)
+                .edit(5, 500));
+
+        // The first page is a round trip away
+        assertTrue(report.toString(), report.get("timeToFirstNote").value >= 2 * 40);
+        assertEquals(0, report.get("savesUnwritten").value, 0);
+        assertEquals(0, report.get("savesRejected").value, 0);
+        assertTrue(report.toString(), report.get("saveP50").value >= 2 * 40);
+        assertTrue(report.get("reads").value > 300 / FireKeepApplication.PAGE_SIZE);
+    }
+
+    /** Heavy users, run with ./gradlew test -Pbenchmark; see LoadReport for comparing builds. */
+    @Test
+    public void heavyUsers() throws Exception {
+        Assume.assumeTrue(Boolean.getBoolean("firekeep.benchmark"));
+        List<LoadReport> reports = new ArrayList<>();
+        for (int notes : new int[]{1000, 10000, 100000}) {
+            reports.add(LoadHarness.run(heavyUser("heavy" + notes, notes)));
+        }
+        reports.add(LoadHarness.run(heavyUser("slowNetwork", 10000).network(300, 500).seed(2)));
+        for (LoadReport report : reports) {
+            System.out.println(report);
+        }
+        File dir = new File(System.getProperty("firekeep.reportDir", "build/reports/harness"));
+        LoadReport.writeJson(reports, new File(dir, "results.json"));
+    }
+
+    private static LoadScenario heavyUser(String name, int notes) {
+        return new LoadScenario(name)
+                .notes(notes)
+                .network(60, 30)
+                .remoteEdits(2000)
+                .open()
+                .scroll(2000, 20)
+                .create(20, 1000)
+                .edit(40, 500)
+                .pause(5000)
+                .scroll(1000, 40);
+    }
+}
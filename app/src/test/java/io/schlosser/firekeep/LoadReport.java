@@ -0,0 +1,82 @@
+package io.schlosser.firekeep;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * What {@link LoadHarness} measured for one scenario. Every metric is lower
+ * is better, so reports are written in the JSON format of JMH results and
+ * compared across builds with the benchmarks' compareBenchmarks task.
+ */
+final class LoadReport {
+
+    static final class Metric {
+        final double value;
+        final String unit;
+
+        Metric(double value, String unit) {
+            this.value = value;
+            this.unit = unit;
+        }
+    }
+
+    final String scenario;
+    private final Map<String, Metric> metrics = new LinkedHashMap<>();
+
+    LoadReport(String scenario) {
+        this.scenario = scenario;
+    }
+
+    void put(String name, double value, String unit) {
+        metrics.put(name, new Metric(value, unit));
+    }
+
+    Metric get(String name) {
+        return metrics.get(name);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder(scenario).append(':');
+        for (Map.Entry<String, Metric> metric : metrics.entrySet()) {
+            text.append(String.format(Locale.US, "%n  %-22s %12.2f %s",
+                    metric.getKey(), metric.getValue().value, metric.getValue().unit));
+        }
+        return text.toString();
+    }
+
+    /** One JMH style result per metric, named harness.&lt;scenario&gt;.&lt;metric&gt;. */
+    static void writeJson(List<LoadReport> reports, File file) throws IOException {
+        File dir = file.getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Could not create " + dir);
+        }
+        Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            out.write("[\n");
+            boolean first = true;
+            for (LoadReport report : reports) {
+                for (Map.Entry<String, Metric> metric : report.metrics.entrySet()) {
+                    if (!first) {
+                        out.write(",\n");
+                    }
+                    first = false;
+                    out.write(String.format(Locale.US,
+                            "  {\"benchmark\": \"harness.%s.%s\", \"mode\": \"ss\", "
+                                    + "\"primaryMetric\": {\"score\": %.4f, \"scoreError\": 0.0, \"scoreUnit\": \"%s\"}}",
+                            report.scenario, metric.getKey(), metric.getValue().value, metric.getValue().unit));
+                }
+            }
+            out.write("\n]\n");
+        } finally {
+            out.close();
+        }
+    }
+}
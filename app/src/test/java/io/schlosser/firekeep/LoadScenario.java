@@ -0,0 +1,129 @@
+package io.schlosser.firekeep;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A scripted session of one user, replayed by {@link LoadHarness}: how many
+ * notes the account has, how the network behaves, and what the user does, one
+ * step after the other. Another device can edit notes meanwhile.
+ *
+ * The same scenario always seeds the same notes and draws the same network
+ * delays, so runs of two builds can be compared.
+ */
+final class LoadScenario {
+
+    enum Kind {
+        /** Show the list and wait for the first note. */
+        OPEN,
+        /** Scroll down {@code count} rows, {@code rate} rows per frame. */
+        SCROLL,
+        /** Add {@code count} new notes, one every {@code millis}. */
+        CREATE,
+        /** Open and change {@code count} recent notes, one every {@code millis}. */
+        EDIT,
+        /** Do nothing for {@code millis}. */
+        PAUSE
+    }
+
+    static final class Step {
+        final Kind kind;
+        final int count;
+        final int rate;
+        final long millis;
+
+        Step(Kind kind, int count, int rate, long millis) {
+            this.kind = kind;
+            this.count = count;
+            this.rate = rate;
+            this.millis = millis;
+        }
+    }
+
+    final String name;
+    private int notes = 1000;
+    private long seed = 1;
+    private long oneWayMillis = 50;
+    private long jitterMillis = 20;
+    private long remoteEditMillis;
+    private final List<Step> steps = new ArrayList<>();
+
+    LoadScenario(String name) {
+        this.name = name;
+    }
+
+    /** Notes in the account before the session starts. */
+    LoadScenario notes(int count) {
+        notes = count;
+        return this;
+    }
+
+    LoadScenario seed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    /** @param jitterMillis mean of the random delay added to every message */
+    LoadScenario network(long oneWayMillis, long jitterMillis) {
+        this.oneWayMillis = oneWayMillis;
+        this.jitterMillis = jitterMillis;
+        return this;
+    }
+
+    /** Another device edits one of the newest notes every {@code millis} for the whole session. */
+    LoadScenario remoteEdits(long millis) {
+        remoteEditMillis = millis;
+        return this;
+    }
+
+    LoadScenario open() {
+        steps.add(new Step(Kind.OPEN, 0, 0, 0));
+        return this;
+    }
+
+    LoadScenario scroll(int rows, int rowsPerFrame) {
+        steps.add(new Step(Kind.SCROLL, rows, rowsPerFrame, 0));
+        return this;
+    }
+
+    LoadScenario create(int count, long everyMillis) {
+        steps.add(new Step(Kind.CREATE, count, 0, everyMillis));
+        return this;
+    }
+
+    LoadScenario edit(int count, long everyMillis) {
+        steps.add(new Step(Kind.EDIT, count, 0, everyMillis));
+        return this;
+    }
+
+    LoadScenario pause(long millis) {
+        steps.add(new Step(Kind.PAUSE, 0, 0, millis));
+        return this;
+    }
+
+    int getNotes() {
+        return notes;
+    }
+
+    long getSeed() {
+        return seed;
+    }
+
+    long getOneWayMillis() {
+        return oneWayMillis;
+    }
+
+    long getJitterMillis() {
+        return jitterMillis;
+    }
+
+    /** 0 if no other device edits. */
+    long getRemoteEditMillis() {
+        return remoteEditMillis;
+    }
+
+    List<Step> getSteps() {
+        return Collections.unmodifiableList(steps);
+    }
+}
@@ -0,0 +1,101 @@
+package io.schlosser.firekeep;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.*;
+
+public class NoteBinderTest {
+
+    private static final int WARM_UP = 50000;
+    private static final int BINDS = 200000;
+
+    /**
+     * Only NoteBinder itself, against a fake row. The rest of a row bind, the
+     * holder, NoteCardView, the NoteLayoutCache lookup and the bind metric,
+     * needs Android and is not measured here.
+     */
+    @Test
+    public void noteBinderDoesNotAllocateAfterWarmUp() throws Exception {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        Note[] notes = {
+                new Note("Groceries", 1, "Blue"),
+                new Note("Call mom", 2, "RED"),
+                new Note("Legacy", 3, " yellow "),
+                new Note("Translated", 4, "Azul"),
+                new Note("No color", 5, null),
+        };
+        String[] ids = {"1", "2", "3", "4", "5"};
+        FakeRow row = new FakeRow();
+
+        bindAll(row, notes, ids, WARM_UP);
+        long threadId = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        bindAll(row, notes, ids, BINDS);
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+        assertEquals("Bytes allocated per NoteBinder.bind", 0, allocated / BINDS);
+    }
+
+    @Test
+    public void unknownAndLegacyColorsFallBackToDefault() throws Exception {
+        assertEquals(NoteColor.BLUE, NoteColor.fromName("Blue"));
+        assertEquals(NoteColor.GRAY, NoteColor.fromName("  gray\n"));
+        assertEquals(NoteColor.DEFAULT, NoteColor.fromName("Azul"));
+        assertEquals(NoteColor.DEFAULT, NoteColor.fromName(""));
+        assertEquals(NoteColor.DEFAULT, NoteColor.fromName("   "));
+        assertEquals(NoteColor.DEFAULT, NoteColor.fromName(null));
+        assertEquals(0xFFEF5350, NoteColor.getColor("red"));
+    }
+
+    @Test
+    public void colorIsOnlyShownWhenEnabled() throws Exception {
+        FakeRow row = new FakeRow();
+        NoteBinder.bind(row, "7", new Note("text", 7, "Red"), false, false);
+        assertEquals("7", row.noteId);
+        assertEquals(NoteColor.DEFAULT.getColor(), row.color);
+
+        NoteBinder.bind(row, "7", new Note("text", 7, "Red"), true, false);
+        assertEquals(NoteColor.RED.getColor(), row.color);
+    }
+
+    private static void bindAll(FakeRow row, Note[] notes, String[] ids, int count) {
+        for (int i = 0; i < count; i++) {
+            int index = i % notes.length;
+            NoteBinder.bind(row, ids[index], notes[index], true, (i & 1) == 0);
+        }
+    }
+
+    private static class FakeRow implements NoteBinder.Row {
+        String noteId;
+        String text;
+        int color;
+        boolean checked;
+
+        @Override
+        public void setNoteId(String noteId) {
+            this.noteId = noteId;
+        }
+
+        @Override
+        public void setText(String text) {
+            this.text = text;
+        }
+
+        @Override
+        public void setCardColor(int color) {
+            this.color = color;
+        }
+
+        @Override
+        public void setChecked(boolean checked) {
+            this.checked = checked;
+        }
+    }
+}
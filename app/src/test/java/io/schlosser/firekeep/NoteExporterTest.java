@@ -0,0 +1,157 @@
+package io.schlosser.firekeep;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.Assert.*;
+
+public class NoteExporterTest {
+
+    @Test
+    public void exportsEveryNoteOnePageAtATime() throws Exception {
+        FakeSource source = new FakeSource();
+        for (int i = 0; i < 450; i++) {
+            source.put(String.format("k%04d", i), note("note " + i, 1000 + i / 3));
+        }
+        RecordingOutput output = new RecordingOutput();
+
+        NoteExporter exporter = new NoteExporter(source);
+        NoteExporter.Watermark last = exporter.run(null, Long.MAX_VALUE, output);
+
+        assertEquals(450, output.ids.size());
+        assertEquals(450, exporter.getWritten());
+        assertEquals(3, source.pagesLoaded);
+        assertEquals("k0449", last.key);
+        assertEquals(1149, last.dateModified);
+    }
+
+    @Test
+    public void incrementalExportWritesOnlyNewerNotes() throws Exception {
+        FakeSource source = new FakeSource();
+        source.put("a", note("first", 0));
+        source.put("b", note("second", 10));
+        NoteExporter.Watermark watermark = new NoteExporter(source).run(null, 100, new RecordingOutput());
+
+        // b edited, c added, and d edited after the second export started
+        source.put("b", note("second, edited", 150));
+        source.put("c", note("third", 160));
+        source.put("d", note("too new", 300));
+        RecordingOutput output = new RecordingOutput();
+        NoteExporter.Watermark next = new NoteExporter(source).run(watermark, 200, output);
+
+        assertEquals(2, output.ids.size());
+        assertEquals("b", output.ids.get(0));
+        assertEquals("c", output.ids.get(1));
+        assertEquals("c", next.key);
+
+        // Nothing changed since, which costs a single query, see NoteSyncJob
+        int pages = source.pagesLoaded;
+        RecordingOutput none = new RecordingOutput();
+        NoteExporter idle = new NoteExporter(source);
+        assertEquals("c", idle.run(next, 200, none).key);
+        assertTrue(none.ids.isEmpty());
+        assertEquals(0, idle.getWritten());
+        assertEquals(pages + 1, source.pagesLoaded);
+    }
+
+    @Test
+    public void jsonLinesEscapeText() throws Exception {
+        StringWriter out = new StringWriter();
+        Note note = note("line \"one\"\nline\ttwo\\", 5);
+        new JsonLinesNoteOutput(out).write("k1", note);
+
+        assertEquals("{\"id\":\"k1\",\"text\":\"line \\\"one\\\"\\nline\\ttwo\\\\\",\"color\":\"White\","
+                + "\"dateCreated\":1,\"dateModified\":5,\"archived\":false}\n", out.toString());
+    }
+
+    @Test
+    public void jsonLinesKeepTags() throws Exception {
+        StringWriter out = new StringWriter();
+        Note note = note("tagged", 5);
+        note.tags = new TreeSet<>(Arrays.asList("work", "to \"do\""));
+        new JsonLinesNoteOutput(out).write("k1", note);
+
+        assertTrue(out.toString(), out.toString().endsWith(",\"archived\":false,\"tags\":[\"to \\\"do\\\"\",\"work\"]}\n"));
+    }
+
+    @Test
+    public void markdownZipHoldsOneFilePerNote() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        MarkdownZipNoteOutput zip = new MarkdownZipNoteOutput(bytes);
+        zip.write("k1", note("# Title\nbody", 5));
+        Note archived = note("old", 6);
+        archived.archived = true;
+        zip.write("k2", archived);
+        zip.finish();
+
+        ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        ZipEntry entry = in.getNextEntry();
+        assertEquals("k1.md", entry.getName());
+        assertEquals("archive/k2.md", in.getNextEntry().getName());
+        assertNull(in.getNextEntry());
+    }
+
+    private static Note note(String text, long dateModified) {
+        Note note = new Note(text, 1, "White");
+        note.dateModified = dateModified;
+        return note;
+    }
+
+    /** Orders notes like the database orders them by dateModified. */
+    private static class FakeSource implements NoteExporter.Source {
+        private final Map<String, Note> notes = new LinkedHashMap<>();
+        int pagesLoaded;
+
+        void put(String key, Note note) {
+            notes.put(key, note);
+        }
+
+        @Override
+        public Map<String, Note> loadPage(NoteExporter.Watermark after, int limit) {
+            pagesLoaded++;
+            TreeMap<NoteExporter.Watermark, String> ordered = new TreeMap<>(new Comparator<NoteExporter.Watermark>() {
+                @Override
+                public int compare(NoteExporter.Watermark a, NoteExporter.Watermark b) {
+                    if (a.dateModified != b.dateModified) {
+                        return a.dateModified < b.dateModified ? -1 : 1;
+                    }
+                    return a.key.compareTo(b.key);
+                }
+            });
+            for (Map.Entry<String, Note> entry : notes.entrySet()) {
+                ordered.put(new NoteExporter.Watermark(entry.getValue().dateModified, entry.getKey()), entry.getKey());
+            }
+            Map<String, Note> page = new LinkedHashMap<>();
+            Map<NoteExporter.Watermark, String> rest = after == null ? ordered : ordered.tailMap(after, false);
+            for (String key : rest.values()) {
+                if (page.size() == limit) {
+                    break;
+                }
+                page.put(key, notes.get(key));
+            }
+            return page;
+        }
+    }
+
+    private static class RecordingOutput implements NoteExporter.Output {
+        final List<String> ids = new ArrayList<>();
+
+        @Override
+        public void write(String noteId, Note note) {
+            ids.add(noteId);
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package io.schlosser.firekeep;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class NoteImporterTest {
+
+    private final ExecutorService network = Executors.newSingleThreadExecutor();
+
+    @After
+    public void tearDown() {
+        network.shutdownNow();
+    }
+
+    @Test
+    public void pushIdsAreUniqueAndOrderedWithinAMillisecond() throws Exception {
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            ids.add(NoteIds.next(1490000000000L));
+        }
+        ids.add(NoteIds.next(1490000000001L));
+        for (int i = 1; i < ids.size(); i++) {
+            assertTrue(ids.get(i - 1).compareTo(ids.get(i)) < 0);
+        }
+        assertEquals(20, ids.get(0).length());
+
+        assertEquals(NoteIds.forImport(1, 2, 3), NoteIds.forImport(1, 2, 3));
+        assertTrue(NoteIds.forImport(1, 2, 9).compareTo(NoteIds.forImport(1, 2, 10)) < 0);
+        assertNotEquals(NoteIds.forImport(1, 2, 3), NoteIds.forImport(1, 5, 3));
+    }
+
+    @Test
+    public void textFileIsSplitOnRules() throws Exception {
+        TextNoteSource source = new TextNoteSource(new StringReader(
+                "# Groceries\nmilk\n---\n\n---\nsecond note\n  ---  \nthird\n"), 42);
+        assertEquals("# Groceries\nmilk", source.next().getText());
+        assertEquals("second note", source.next().getText());
+        Note third = source.next();
+        assertEquals("third", third.getText());
+        assertEquals(42, third.dateCreated);
+        assertNull(source.next());
+    }
+
+    @Test
+    public void importsInBoundedBatchesWithBackpressure() throws Exception {
+        AckingSink sink = new AckingSink(-1);
+        NoteImporter.Session session = new NoteImporter.Session("file", 1, 2, 0);
+        NoteImporter importer = new NoteImporter("uid", sink, session);
+
+        int count = importer.run(new CountingSource(1234));
+
+        assertEquals(1234, count);
+        assertEquals(1234, session.committed);
+        assertEquals(3, sink.batches);
+        assertEquals(1234, sink.ids.size());
+        assertTrue(sink.maxInFlight <= NoteImporter.MAX_IN_FLIGHT);
+    }
+
+    @Test
+    public void resumesAfterFailedBatchWithoutDuplicates() throws Exception {
+        AckingSink failing = new AckingSink(1);
+        NoteImporter.Session session = new NoteImporter.Session("file", 1, 2, 0);
+        try {
+            new NoteImporter("uid", failing, session).run(new CountingSource(1234));
+            fail();
+        } catch (IOException expected) {
+        }
+        assertEquals(500, session.committed);
+
+        AckingSink sink = new AckingSink(-1);
+        int count = new NoteImporter("uid", sink, session).run(new CountingSource(1234));
+
+        assertEquals(1234, count);
+        assertEquals(1234, session.committed);
+        // Only the notes after the last acknowledged batch are written again
+        assertEquals(734, sink.ids.size());
+        assertFalse(sink.ids.contains(session.noteId(499)));
+        assertTrue(sink.ids.contains(session.noteId(500)));
+        assertTrue(failing.ids.contains(session.noteId(500)));
+    }
+
+    @Test
+    public void tagsAreCountedOnceWritten() throws Exception {
+        AckingSink sink = new AckingSink(-1);
+        NoteImporter importer = new NoteImporter("uid", sink, new NoteImporter.Session("file", 1, 2, 0));
+
+        importer.run(new CountingSource(600) {
+            @Override
+            public Note next() {
+                Note note = super.next();
+                if (note != null) {
+                    note.tags = new TreeSet<>(Collections.singleton(note.getText().endsWith("0") ? "round" : "other"));
+                }
+                return note;
+            }
+        });
+
+        assertEquals(60L, (long) sink.counts.get("round"));
+        assertEquals(540L, (long) sink.counts.get("other"));
+    }
+
+    private static class CountingSource implements NoteImporter.Source {
+        private final int size;
+        private int next;
+
+        CountingSource(int size) {
+            this.size = size;
+        }
+
+        @Override
+        public Note next() {
+            return next < size ? new Note("note " + next++, 1, "White") : null;
+        }
+    }
+
+    /** Acknowledges writes in order on another thread, like the database does. */
+    private class AckingSink implements NoteBatchSink {
+        private final int failBatch;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        final Set<String> ids = new HashSet<>();
+        final Map<String, Long> counts = new HashMap<>();
+        volatile int batches;
+        volatile int maxInFlight;
+
+        AckingSink(int failBatch) {
+            this.failBatch = failBatch;
+        }
+
+        @Override
+        public void updateChildren(Map<String, Object> update, final Callback callback) {
+            final int batch = batches++;
+            maxInFlight = Math.max(maxInFlight, inFlight.incrementAndGet());
+            for (String path : update.keySet()) {
+                if (path.startsWith("notes/")) {
+                    ids.add(path.split("/")[2]);
+                }
+            }
+            network.execute(new Runnable() {
+                @Override
+                public void run() {
+                    inFlight.decrementAndGet();
+                    callback.onComplete(batch == failBatch ? "permission denied" : null);
+                }
+            });
+        }
+
+        @Override
+        public synchronized void addToCounts(String path, Map<String, Long> changes) {
+            NoteTags.addTo(counts, changes);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package io.schlosser.firekeep;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class NoteIndexBackfillTest {
+
+    private final List<Map<String, Object>> updates = new ArrayList<>();
+    private String failWith;
+
+    private final NoteBatchSink sink = new NoteBatchSink() {
+        @Override
+        public void updateChildren(Map<String, Object> update, Callback callback) {
+            updates.add(update);
+            callback.onComplete(failWith);
+        }
+
+        @Override
+        public void addToCounts(String path, Map<String, Long> changes) {
+        }
+    };
+
+    @Test
+    public void indexesEveryNoteThenMarksTheVersion() throws Exception {
+        int count = new NoteIndexBackfill("uid", sink).run(notes(1200));
+
+        assertEquals(1200, count);
+        // Three batches of index entries and summaries, then the marker
+        assertEquals(4, updates.size());
+        assertEquals(1199L, updates.get(2).get("noteIndex/uid/color/WHITE/n1199"));
+        assertEquals("note 1199", updates.get(2).get("noteSummaries/uid/n1199/preview"));
+        assertEquals(NoteIndex.CURRENT_VERSION, updates.get(3).get("noteIndex/uid/version"));
+        for (Map<String, Object> update : updates) {
+            for (String path : update.keySet()) {
+                assertFalse(path, path.startsWith("notes/"));
+            }
+        }
+    }
+
+    @Test
+    public void failedBatchLeavesVersionUnset() throws Exception {
+        failWith = "Permission denied";
+        try {
+            new NoteIndexBackfill("uid", sink).run(notes(10));
+            fail();
+        } catch (IOException expected) {
+        }
+        assertEquals(1, updates.size());
+        assertFalse(updates.get(0).containsKey("noteIndex/uid/version"));
+    }
+
+    /** Notes n0000 onwards, none edited since they were added. */
+    private static NoteExporter.Source notes(final int count) {
+        return new NoteExporter.Source() {
+            @Override
+            public Map<String, Note> loadPage(NoteExporter.Watermark after, int limit) {
+                int start = after == null ? 0 : Integer.parseInt(after.key.substring(1)) + 1;
+                Map<String, Note> page = new LinkedHashMap<>();
+                for (int i = start; i < count && page.size() < limit; i++) {
+                    page.put(String.format("n%04d", i), new Note("note " + i, i, null));
+                }
+                return page;
+            }
+        };
+    }
+}
@@ -0,0 +1,271 @@
+package io.schlosser.firekeep;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.TreeSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+public class NoteOutboxTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private FakeBatchSink sink;
+    private MemoryStore store;
+    private NoteOutbox outbox;
+    private final List<String> rejected = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        sink = new FakeBatchSink();
+        store = new MemoryStore();
+        outbox = create(store);
+    }
+
+    private NoteOutbox create(NoteOutbox.Store store) {
+        NoteOutbox outbox = new NoteOutbox(sink, store, new LatencyHistogram("test"));
+        outbox.setListener(new NoteOutbox.Listener() {
+            @Override
+            public void onRejected(String noteId, String error) {
+                rejected.add(noteId);
+            }
+        });
+        return outbox;
+    }
+
+    @Test
+    public void offlineEditsAreSentOnceAsOneBatchOnReconnect() throws Exception {
+        outbox.setOnline(false);
+        Note first = new Note("one", 1, "White");
+        outbox.save("uid", "n1", null, first);
+        outbox.save("uid", "n1", first, new Note("two", 1, "White"));
+        Note last = new Note("three", 1, "Red");
+        outbox.save("uid", "n1", null, last);
+        outbox.save("uid", "n2", null, new Note("other", 2, "White"));
+        assertTrue(sink.updates.isEmpty());
+        assertEquals(2, store.entries.size());
+
+        outbox.setOnline(true);
+        assertEquals(1, sink.updates.size());
+        Map<String, Object> update = sink.updates.get(0);
+        // Written as a new note, with only the last text
+        assertEquals("three", update.get("notes/uid/n1/text"));
+        assertEquals("Red", update.get("notes/uid/n1/color"));
+        assertEquals(1L, update.get("notes/uid/n1/dateCreated"));
+        assertEquals(last.version, update.get("notes/uid/n1/version"));
+        assertTrue(last.version > first.version);
+        assertEquals("other", update.get("notes/uid/n2/text"));
+
+        // Reconnecting again while the batch is unanswered sends nothing more
+        outbox.setOnline(false);
+        outbox.setOnline(true);
+        assertEquals(1, sink.updates.size());
+
+        sink.complete(0, null);
+        assertEquals(0, outbox.size());
+        assertTrue(store.entries.isEmpty());
+        assertTrue(rejected.isEmpty());
+    }
+
+    @Test
+    public void staleSaveIsDroppedAndTheRestWritten() throws Exception {
+        outbox.setOnline(false);
+        outbox.save("uid", "n1", null, new Note("mine", 1, "White"));
+        outbox.save("uid", "n2", null, new Note("also mine", 2, "White"));
+        outbox.setOnline(true);
+
+        // The rules refuse the batch as n2 has a newer version from another device
+        sink.complete(0, "Permission denied");
+        assertEquals(3, sink.updates.size());
+        assertEquals("mine", sink.updates.get(1).get("notes/uid/n1/text"));
+        assertEquals("also mine", sink.updates.get(2).get("notes/uid/n2/text"));
+        sink.complete(1, null);
+        sink.complete(2, "Permission denied");
+
+        assertEquals(Collections.singletonList("n2"), rejected);
+        assertEquals(0, outbox.size());
+        assertEquals(3, sink.updates.size());
+    }
+
+    @Test
+    public void saveDuringSendGoesOutAfterAsAnEdit() throws Exception {
+        outbox.setOnline(true);
+        Note first = new Note("one", 1, "White");
+        outbox.save("uid", "n1", null, first);
+        Note second = new Note("two", 1, "White");
+        outbox.save("uid", "n1", first, second);
+        assertEquals(1, sink.updates.size());
+
+        sink.complete(0, null);
+        assertEquals(2, sink.updates.size());
+        Map<String, Object> edit = sink.updates.get(1);
+        assertEquals("two", edit.get("notes/uid/n1/text"));
+        assertEquals(second.version, edit.get("notes/uid/n1/version"));
+        assertFalse(edit.containsKey("notes/uid/n1/dateCreated"));
+        assertFalse(edit.containsKey("notes/uid/n1/color"));
+        assertEquals(second, outbox.pending("n1"));
+
+        sink.complete(1, null);
+        assertNull(outbox.pending("n1"));
+    }
+
+    @Test
+    public void longNoteSavedDuringSendOnlyUploadsChangedChunks() throws Exception {
+        outbox.setOnline(true);
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; text.length() < 4 * NoteChunks.THRESHOLD; i++) {
+            text.append("line ").append(i).append(i % 7 == 0 ? '\n' : ' ');
+        }
+        Note first = new Note(text.toString(), 1, "White");
+        outbox.save("uid", "n1", null, first);
+        Note second = new Note(text + " and one more line", 1, "White");
+        outbox.save("uid", "n1", first, second);
+        List<String> firstChunks = chunkKeys(sink.updates.get(0));
+        assertTrue(firstChunks.size() > 2);
+
+        sink.complete(0, null);
+        Map<String, Object> edit = sink.updates.get(1);
+        List<String> uploaded = chunkKeys(edit);
+        // Only the last chunk changed; the one it replaced is removed
+        assertEquals(2, uploaded.size());
+        String last = NoteChunks.parseOrder(first.chunkOrder).get(NoteChunks.parseOrder(first.chunkOrder).size() - 1);
+        assertTrue(edit.containsKey("notes/uid/n1/chunks/" + last));
+        assertNull(edit.get("notes/uid/n1/chunks/" + last));
+        assertFalse(edit.containsKey("notes/uid/n1/text"));
+        assertNotNull(edit.get("notes/uid/n1/chunkOrder"));
+
+        sink.complete(1, null);
+        assertNull(outbox.pending("n1"));
+        // What the next save starts from
+        assertEquals(text + " and one more line", NoteChunks.assemble(second.chunkOrder, second.chunks));
+    }
+
+    private static List<String> chunkKeys(Map<String, Object> update) {
+        List<String> keys = new ArrayList<>();
+        for (String path : update.keySet()) {
+            if (path.startsWith("notes/uid/n1/chunks/")) {
+                keys.add(path);
+            }
+        }
+        return keys;
+    }
+
+    @Test
+    public void versionIsAboveTheOneReadEvenWithALateClock() throws Exception {
+        Note stored = new Note("text", 1, "White");
+        stored.version = System.currentTimeMillis() + 60 * 60 * 1000;
+        Note edited = new Note("edited", 1, "White");
+        outbox.save("uid", "n1", stored, edited);
+        assertEquals(stored.version + 1, edited.version);
+    }
+
+    @Test
+    public void queueSurvivesTheProcess() throws Exception {
+        Executor direct = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        };
+        File file = new File(folder.getRoot(), "outbox");
+        NoteOutbox before = create(new NoteOutboxFile(file, direct));
+        Note base = new Note("base", 1, "White");
+        base.textHash = NoteChunks.hash("base");
+        Note edited = new Note("edited \u00e9", 1, "Blue");
+        edited.tags = Collections.singleton("to do");
+        before.save("uid", "n1", base, edited);
+
+        NoteOutbox after = create(new NoteOutboxFile(file, direct));
+        Note pending = after.pending("n1");
+        assertEquals("edited \u00e9", pending.getText());
+        assertEquals("Blue", pending.getColor());
+        assertEquals(edited.version, pending.version);
+        assertEquals(edited.tags, pending.getTags());
+
+        after.setOnline(true);
+        Map<String, Object> update = sink.updates.get(0);
+        assertEquals("edited \u00e9", update.get("notes/uid/n1/text"));
+        // Diffed against the stored base, so it goes out as an edit
+        assertFalse(update.containsKey("notes/uid/n1/dateCreated"));
+
+        sink.complete(0, null);
+        assertFalse(file.exists());
+        assertEquals(0, create(new NoteOutboxFile(file, direct)).size());
+    }
+
+    @Test
+    public void tagsAreCountedOnceWritten() throws Exception {
+        outbox.setOnline(true);
+        Note first = new Note("one", 1, "White");
+        first.tags = new TreeSet<>(Arrays.asList("home", "work"));
+        outbox.save("uid", "n1", null, first);
+        Note second = new Note("two", 2, "White");
+        second.tags = Collections.singleton("work");
+        outbox.save("uid", "n2", null, second);
+        assertTrue(sink.counts.isEmpty());
+
+        sink.complete(0, null);
+        sink.complete(1, null);
+        assertEquals(1L, (long) sink.counts.get("home"));
+        assertEquals(2L, (long) sink.counts.get("work"));
+
+        // Untagged, then rejected: only the written change counts
+        Note untagged = new Note("one", 1, "White");
+        outbox.save("uid", "n1", first, untagged);
+        sink.complete(2, null);
+        assertNull(sink.counts.get("home"));
+        Note retagged = new Note("two", 2, "White");
+        retagged.tags = Collections.singleton("home");
+        outbox.save("uid", "n2", second, retagged);
+        sink.complete(3, "Permission denied");
+        assertNull(sink.counts.get("home"));
+        assertEquals(1L, (long) sink.counts.get("work"));
+    }
+
+    private static class MemoryStore implements NoteOutbox.Store {
+        List<NoteOutbox.Entry> entries = new ArrayList<>();
+
+        @Override
+        public List<NoteOutbox.Entry> load() {
+            return entries;
+        }
+
+        @Override
+        public void save(List<NoteOutbox.Entry> entries) {
+            this.entries = entries;
+        }
+    }
+
+    private static class FakeBatchSink implements NoteBatchSink {
+        final List<Map<String, Object>> updates = new ArrayList<>();
+        final List<Callback> callbacks = new ArrayList<>();
+        final Map<String, Long> counts = new HashMap<>();
+
+        @Override
+        public void updateChildren(Map<String, Object> update, Callback callback) {
+            updates.add(update);
+            callbacks.add(callback);
+        }
+
+        @Override
+        public void addToCounts(String path, Map<String, Long> changes) {
+            NoteTags.addTo(counts, changes);
+        }
+
+        void complete(int index, String error) {
+            callbacks.get(index).onComplete(error);
+        }
+    }
+}
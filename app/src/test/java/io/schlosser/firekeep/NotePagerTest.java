@@ -0,0 +1,206 @@
+package io.schlosser.firekeep;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class NotePagerTest {
+
+    private static final int PAGE_SIZE = 10;
+
+    private FakeNotePageSource source;
+    private NotePager pager;
+    private MirrorListener mirror;
+
+    @Before
+    public void setUp() {
+        source = new FakeNotePageSource();
+        for (int i = 0; i < 35; i++) {
+            source.insert(1000 + i * 10, "n" + i);
+        }
+        pager = new NotePager(source, PAGE_SIZE, 2, 1);
+        mirror = new MirrorListener(pager);
+        pager.addListener(mirror);
+    }
+
+    @Test
+    public void firstPageHasNewestNotes() throws Exception {
+        pager.start();
+        source.flush();
+
+        assertEquals(PAGE_SIZE, pager.size());
+        assertEquals("n34", pager.get(0).cursor.key);
+        assertEquals("n25", pager.get(PAGE_SIZE - 1).cursor.key);
+        assertConsistent();
+    }
+
+    @Test
+    public void scrollingLoadsEveryNoteExactlyOnce() throws Exception {
+        scrollToEnd();
+
+        assertEquals(35, pager.size());
+        assertEquals(4, pager.getPageCount());
+        assertFalse(pager.hasMore());
+        assertConsistent();
+    }
+
+    @Test
+    public void insertsLandInsideTheirPage() throws Exception {
+        pager.start();
+        source.flush();
+        pager.onBind(PAGE_SIZE - 1);
+        source.flush();
+        assertEquals(2 * PAGE_SIZE, pager.size());
+        NoteCursor lastOfFirstPage = pager.get(PAGE_SIZE - 1).cursor;
+
+        // Newer than everything, inside the second page, and in the unloaded tail
+        source.insert(5000, "newest");
+        source.insert(1205, "middle");
+        source.insert(1001, "oldest");
+        source.flush();
+
+        assertEquals("newest", pager.get(0).cursor.key);
+        assertEquals(lastOfFirstPage, pager.get(PAGE_SIZE).cursor);
+        assertEquals(2 * PAGE_SIZE + 2, pager.size());
+        assertConsistent();
+
+        scrollToEnd();
+        assertEquals(38, pager.size());
+        assertEquals("n0", pager.get(pager.size() - 1).cursor.key);
+        assertEquals("oldest", pager.get(pager.size() - 2).cursor.key);
+        assertConsistent();
+    }
+
+    @Test
+    public void insertWithSameTimestampAsBoundaryIsKept() throws Exception {
+        pager.start();
+        source.flush();
+        NoteCursor boundary = pager.get(PAGE_SIZE - 1).cursor;
+
+        // Sorts just after the boundary key, inside the first page
+        source.insert(boundary.dateCreated, boundary.key + "a");
+        // Sorts just before it, outside every loaded page
+        source.insert(boundary.dateCreated, "a");
+        source.flush();
+        assertEquals(PAGE_SIZE + 1, pager.size());
+
+        scrollToEnd();
+        assertEquals(37, pager.size());
+        assertConsistent();
+    }
+
+    @Test
+    public void farPagesAreEvictedAndReattached() throws Exception {
+        scrollToEnd();
+        assertFalse(pager.isPageResident(0));
+        assertNull(pager.get(0).getNote());
+        assertEquals(2, source.liveWatches());
+
+        NoteCursor removed = pager.get(1).cursor;
+        source.remove(removed);
+        source.flush();
+        // Nobody is listening to the first page, so the removal is not seen yet
+        assertEquals(removed, pager.get(1).cursor);
+
+        pager.onBind(0);
+        source.flush();
+        assertTrue(pager.isPageResident(0));
+        assertNotNull(pager.get(0).getNote());
+        assertEquals(34, pager.size());
+        assertConsistent();
+    }
+
+    @Test
+    public void stopRemovesEveryListener() throws Exception {
+        scrollToEnd();
+        pager.stop();
+        assertEquals(0, source.liveWatches());
+    }
+
+    @Test
+    public void stoppedPagerKeepsItsNotesAndCatchesUpOnStart() throws Exception {
+        pager.start();
+        source.flush();
+        pager.stop();
+        assertEquals(0, source.liveWatches());
+        assertNotNull(pager.get(0).getNote());
+
+        NoteCursor removed = pager.get(3).cursor;
+        source.remove(removed);
+        source.insert(5000, "newest");
+        source.flush();
+        assertEquals(removed, pager.get(3).cursor);
+
+        pager.start();
+        source.flush();
+        assertEquals(1, source.liveWatches());
+        assertEquals("newest", pager.get(0).cursor.key);
+        assertEquals(PAGE_SIZE, pager.size());
+        assertConsistent();
+    }
+
+    private void scrollToEnd() {
+        pager.start();
+        source.flush();
+        for (int position = 0; position < pager.size(); position++) {
+            pager.onBind(position);
+            source.flush();
+        }
+    }
+
+    /** The pager is sorted newest first, has no duplicates and matches what was notified. */
+    private void assertConsistent() {
+        Set<NoteCursor> seen = new HashSet<>();
+        for (int i = 0; i < pager.size(); i++) {
+            NoteCursor cursor = pager.get(i).cursor;
+            assertTrue("Duplicate " + cursor, seen.add(cursor));
+            if (i > 0) {
+                assertTrue("Out of order at " + i, pager.get(i - 1).cursor.compareTo(cursor) > 0);
+            }
+            assertEquals(cursor, mirror.items.get(i));
+        }
+        assertEquals(pager.size(), mirror.items.size());
+    }
+
+    /** Replays notifications onto a plain list, like RecyclerView does. */
+    private static class MirrorListener implements NotePager.Listener {
+        final List<NoteCursor> items = new ArrayList<>();
+        private final NotePager pager;
+
+        MirrorListener(NotePager pager) {
+            this.pager = pager;
+        }
+
+        @Override
+        public void onItemRangeInserted(int position, int count) {
+            for (int i = 0; i < count; i++) {
+                items.add(position + i, pager.get(position + i).cursor);
+            }
+        }
+
+        @Override
+        public void onItemRangeRemoved(int position, int count) {
+            for (int i = 0; i < count; i++) {
+                items.remove(position);
+            }
+        }
+
+        @Override
+        public void onItemRangeChanged(int position, int count) {
+            for (int i = 0; i < count; i++) {
+                assertEquals(items.get(position + i), pager.get(position + i).cursor);
+            }
+        }
+
+        @Override
+        public void onError(String message) {
+            fail(message);
+        }
+    }
+}
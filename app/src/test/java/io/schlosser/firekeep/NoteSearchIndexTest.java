@@ -0,0 +1,168 @@
+package io.schlosser.firekeep;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class NoteSearchIndexTest {
+
+    @Test
+    public void matchesAllWordsWithLastAsPrefix() throws Exception {
+        NoteSearchIndex index = new NoteSearchIndex();
+        index.put("1", 1L, "Buy milk and eggs");
+        index.put("2", 2L, "Milkshake recipe");
+        index.put("3", 3L, "Call the plumber about the sink");
+
+        assertEquals(new HashSet<>(Arrays.asList("1", "2")), index.search("mil"));
+        assertEquals(Collections.singleton("1"), index.search("MILK e"));
+        assertEquals(Collections.singleton("3"), index.search("  plumb"));
+        assertTrue(index.search("milk plumber").isEmpty());
+        assertTrue(index.search("").isEmpty());
+        assertTrue(index.search("!!").isEmpty());
+    }
+
+    @Test
+    public void updatesAndRemovalsAreIncremental() throws Exception {
+        NoteSearchIndex index = new NoteSearchIndex();
+        index.put("1", 1L, "old words");
+        index.put("1", 1L, "new words");
+        assertTrue(index.search("old").isEmpty());
+        assertEquals(Collections.singleton("1"), index.search("new"));
+
+        index.remove("1");
+        assertTrue(index.search("words").isEmpty());
+        assertEquals(0, index.size());
+    }
+
+    @Test
+    public void notesNoLongerStoredArePruned() throws Exception {
+        NoteSearchIndex index = new NoteSearchIndex();
+        index.put("1", 1L, "kept note");
+        index.put("2", 2L, "deleted note");
+        index.put("3", 3L, "another kept note");
+
+        index.retainAll(new HashSet<>(Arrays.asList("1", "3", "4")));
+        assertEquals(2, index.size());
+        assertEquals(new HashSet<>(Arrays.asList("1", "3")), index.search("note"));
+        assertTrue(index.search("deleted").isEmpty());
+    }
+
+    @Test
+    public void survivesRoundTripWithoutReindexing() throws Exception {
+        NoteSearchIndex index = new NoteSearchIndex();
+        index.put("1", 1L, "Meeting notes for Tuesday");
+        index.put("2", 2L, "Tuesday groceries");
+        assertTrue(index.isDirty());
+
+        NoteSearchIndex loaded = roundTrip(index);
+        assertFalse(index.isDirty());
+        assertEquals(2, loaded.size());
+        assertEquals(new HashSet<>(Arrays.asList("1", "2")), loaded.search("tues"));
+
+        // Same text again is a no-op, so the index stays clean
+        loaded.put("1", 1L, "Meeting notes for Tuesday");
+        assertFalse(loaded.isDirty());
+        loaded.put("1", 1L, "Meeting moved to Wednesday");
+        assertTrue(loaded.isDirty());
+        assertEquals(Collections.singleton("2"), loaded.search("tuesday"));
+    }
+
+    @Test
+    public void newestNotesAreListedFirstWhateverTheirIds() throws Exception {
+        NoteSearchIndex index = new NoteSearchIndex();
+        // A legacy id is its dateCreated, later notes have push ids
+        index.put("1480000000000", 1480000000000L, "groceries");
+        index.put("-KfNewer", 1490000000000L, "more groceries");
+        index.put("-KeOlder", 1470000000000L, "old groceries");
+
+        assertEquals(Arrays.asList("-KfNewer", "1480000000000", "-KeOlder"), index.searchNewestFirst("groc"));
+        assertTrue(index.searchNewestFirst("nothing").isEmpty());
+        assertEquals(Arrays.asList("-KfNewer", "1480000000000", "-KeOlder"),
+                roundTrip(index).searchNewestFirst("groceries"));
+    }
+
+    /** Run with ./gradlew test -Pbenchmark */
+    @Test
+    public void benchmark() throws Exception {
+        Assume.assumeTrue(Boolean.getBoolean("firekeep.benchmark"));
+        runBenchmark(10000);
+        runBenchmark(100000);
+    }
+
+    private static void runBenchmark(int noteCount) throws Exception {
+        Random random = new Random(42);
+        String[] vocabulary = new String[20000];
+        for (int i = 0; i < vocabulary.length; i++) {
+            vocabulary[i] = randomWord(random);
+        }
+
+        String[] texts = new String[noteCount];
+        for (int i = 0; i < noteCount; i++) {
+            StringBuilder text = new StringBuilder();
+            int words = 5 + random.nextInt(80);
+            for (int j = 0; j < words; j++) {
+                // Skewed towards common words, like real notes
+                int rank = (int) (vocabulary.length * Math.pow(random.nextDouble(), 3));
+                text.append(vocabulary[rank]).append(j % 12 == 11 ? ". " : " ");
+            }
+            texts[i] = text.toString();
+        }
+
+        long start = System.nanoTime();
+        NoteSearchIndex index = new NoteSearchIndex();
+        for (int i = 0; i < noteCount; i++) {
+            index.put(String.valueOf(1480000000000L + i), 1480000000000L + i, texts[i]);
+        }
+        long buildMs = (System.nanoTime() - start) / 1000000;
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        index.writeTo(new DataOutputStream(bytes));
+        start = System.nanoTime();
+        NoteSearchIndex loaded = new NoteSearchIndex();
+        loaded.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        long loadMs = (System.nanoTime() - start) / 1000000;
+
+        int queries = 2000;
+        long hits = 0;
+        start = System.nanoTime();
+        for (int i = 0; i < queries; i++) {
+            String word = vocabulary[random.nextInt(vocabulary.length)];
+            String query = i % 2 == 0
+                    ? word.substring(0, Math.min(3, word.length()))
+                    : vocabulary[random.nextInt(200)] + " " + word.substring(0, 2);
+            hits += loaded.search(query).size();
+        }
+        long queryMicros = (System.nanoTime() - start) / 1000 / queries;
+
+        System.out.println(String.format(
+                "search index, %d notes: build %d ms, %d KB on disk, load %d ms, query %d us avg (%d hits)",
+                noteCount, buildMs, bytes.size() / 1024, loadMs, queryMicros, hits / queries));
+        assertEquals(noteCount, loaded.size());
+    }
+
+    private static String randomWord(Random random) {
+        char[] word = new char[3 + random.nextInt(8)];
+        for (int i = 0; i < word.length; i++) {
+            word[i] = (char) ('a' + random.nextInt(26));
+        }
+        return new String(word);
+    }
+
+    private static NoteSearchIndex roundTrip(NoteSearchIndex index) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        index.writeTo(new DataOutputStream(bytes));
+        NoteSearchIndex loaded = new NoteSearchIndex();
+        loaded.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        return loaded;
+    }
+}
@@ -0,0 +1,107 @@
+package io.schlosser.firekeep;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class NoteStoreTest {
+
+    private FakeNotePageSource source;
+    private FakeScheduler scheduler;
+    private NoteStore store;
+
+    @Before
+    public void setUp() {
+        source = new FakeNotePageSource();
+        for (int i = 0; i < 25; i++) {
+            source.insert(1000 + i * 10, "n" + i);
+        }
+        scheduler = new FakeScheduler();
+        store = new NoteStore(scheduler, 10, 2, 1);
+    }
+
+    @Test
+    public void screensShareOneList() throws Exception {
+        NotePager first = store.list("notes/uid", source);
+        first.start();
+        source.flush();
+        FakeNotePageSource other = new FakeNotePageSource();
+        assertSame(first, store.list("notes/uid", other));
+        assertEquals(1, source.liveWatches());
+
+        // Another list replaces it
+        NotePager filtered = store.list("noteIndex/uid/color/RED notes/uid", other);
+        assertNotSame(first, filtered);
+        assertEquals(0, source.liveWatches());
+    }
+
+    @Test
+    public void listenersAreReleasedOnlyAfterTheGracePeriod() throws Exception {
+        NotePager pager = store.list("notes/uid", source);
+        store.onScreenStarted();
+        pager.start();
+        source.flush();
+
+        // Going from the list to the editor keeps a screen started
+        store.onScreenStarted();
+        store.onScreenStopped();
+        assertNull(scheduler.task);
+
+        store.onScreenStopped();
+        assertEquals(NoteStore.RELEASE_DELAY_MS, scheduler.delay);
+        assertEquals(1, source.liveWatches());
+        scheduler.run();
+        assertEquals(0, source.liveWatches());
+        assertEquals("note n24", store.find("n24").getText());
+
+        store.onScreenStarted();
+        source.flush();
+        assertEquals(1, source.liveWatches());
+    }
+
+    @Test
+    public void startingAgainCancelsTheRelease() throws Exception {
+        store.list("notes/uid", source).start();
+        source.flush();
+        store.onScreenStarted();
+        store.onScreenStopped();
+        store.onScreenStarted();
+        assertNull(scheduler.task);
+        assertEquals(1, source.liveWatches());
+    }
+
+    @Test
+    public void findLooksOnlyAtLoadedNotes() throws Exception {
+        assertNull(store.find("n24"));
+        store.list("notes/uid", source).start();
+        source.flush();
+        assertEquals("note n24", store.find("n24").getText());
+        // Older than the first page
+        assertNull(store.find("n0"));
+    }
+
+    private static class FakeScheduler implements NoteStore.Scheduler {
+        Runnable task;
+        long delay;
+
+        @Override
+        public void postDelayed(Runnable task, long delayMillis) {
+            this.task = task;
+            this.delay = delayMillis;
+        }
+
+        @Override
+        public void cancel(Runnable task) {
+            if (this.task == task) {
+                this.task = null;
+            }
+        }
+
+        void run() {
+            Runnable task = this.task;
+            this.task = null;
+            task.run();
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package io.schlosser.firekeep;
+
+import java.lang.reflect.Method;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+
+/**
+ * Single threaded event loop on a virtual clock, standing in for both the
+ * main thread and the network. Tasks run in time order, ties in the order they
+ * were posted, so the same scenario runs the same way every time.
+ *
+ * The clock moves to each task's time, and for client tasks, the app's own
+ * work, also by the CPU time the task really took: slow app code delays
+ * everything after it, the fake server's work does not. Client tasks are
+ * measured for CPU time and, where the JVM can tell, allocated bytes.
+ */
+final class SimulatedLoop implements NoteStore.Scheduler {
+
+    private static final class Task implements Comparable<Task> {
+        final long at;
+        final long sequence;
+        final Runnable runnable;
+        final boolean client;
+
+        Task(long at, long sequence, Runnable runnable, boolean client) {
+            this.at = at;
+            this.sequence = sequence;
+            this.runnable = runnable;
+            this.client = client;
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            if (at != other.at) {
+                return at < other.at ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1 : sequence == other.sequence ? 0 : 1;
+        }
+    }
+
+    private final PriorityQueue<Task> tasks = new PriorityQueue<>();
+    private final Allocations allocations = new Allocations();
+    private long nowMicros;
+    private long sequence;
+    /** System.nanoTime() when the running client task started, 0 outside of one. */
+    private long clientStartNanos;
+    private long clientNanos;
+    private long clientBytes;
+    private long clientTasks;
+
+    /** Virtual time, including the CPU time of the client task running now. */
+    long nowMicros() {
+        if (clientStartNanos == 0) {
+            return nowMicros;
+        }
+        return nowMicros + (System.nanoTime() - clientStartNanos) / 1000;
+    }
+
+    /** Runs {@code task} as app code at {@code atMicros}, or now if that has passed. */
+    void postClient(Runnable task, long atMicros) {
+        tasks.add(new Task(Math.max(atMicros, nowMicros), sequence++, task, true));
+    }
+
+    /** Runs {@code task} as fake server work at {@code atMicros}, or now if that has passed. */
+    void postServer(Runnable task, long atMicros) {
+        tasks.add(new Task(Math.max(atMicros, nowMicros), sequence++, task, false));
+    }
+
+    @Override
+    public void postDelayed(Runnable task, long delayMillis) {
+        postClient(task, nowMicros() + delayMillis * 1000);
+    }
+
+    @Override
+    public void cancel(Runnable task) {
+        for (Iterator<Task> it = tasks.iterator(); it.hasNext(); ) {
+            if (it.next().runnable == task) {
+                it.remove();
+            }
+        }
+    }
+
+    /** Runs tasks until none is due before {@code untilMicros}, then moves the clock there. */
+    void runUntil(long untilMicros) {
+        while (!tasks.isEmpty() && tasks.peek().at < untilMicros) {
+            runNext();
+        }
+        nowMicros = Math.max(nowMicros, untilMicros);
+    }
+
+    /** Runs tasks until {@code condition} holds or {@code limitMicros} is reached. @return whether it holds */
+    boolean runUntil(Condition condition, long limitMicros) {
+        while (!condition.holds()) {
+            if (tasks.isEmpty() || tasks.peek().at >= limitMicros) {
+                nowMicros = Math.max(nowMicros, limitMicros);
+                return false;
+            }
+            runNext();
+        }
+        return true;
+    }
+
+    interface Condition {
+        boolean holds();
+    }
+
+    long getClientNanos() {
+        return clientNanos;
+    }
+
+    /** -1 if this JVM cannot count allocations. */
+    long getClientBytes() {
+        return allocations.supported() ? clientBytes : -1;
+    }
+
+    long getClientTasks() {
+        return clientTasks;
+    }
+
+    private void runNext() {
+        Task task = tasks.poll();
+        nowMicros = Math.max(nowMicros, task.at);
+        if (!task.client) {
+            task.runnable.run();
+            return;
+        }
+        long bytes = allocations.current();
+        clientStartNanos = System.nanoTime();
+        try {
+            task.runnable.run();
+        } finally {
+            long nanos = System.nanoTime() - clientStartNanos;
+            clientStartNanos = 0;
+            clientBytes += allocations.since(bytes);
+            clientNanos += nanos;
+            clientTasks++;
+            nowMicros += nanos / 1000;
+        }
+    }
+
+    /**
+     * Bytes allocated by the current thread, through the HotSpot extension of
+     * ThreadMXBean. Looked up reflectively, as unit tests compile against the
+     * Android API, which has no java.lang.management.
+     */
+    private static final class Allocations {
+        private Object bean;
+        private Method allocatedBytes;
+        private long overhead;
+
+        Allocations() {
+            try {
+                bean = Class.forName("java.lang.management.ManagementFactory")
+                        .getMethod("getThreadMXBean").invoke(null);
+                allocatedBytes = Class.forName("com.sun.management.ThreadMXBean")
+                        .getMethod("getThreadAllocatedBytes", long.class);
+                // What measuring allocates itself, the boxed argument and result
+                long first = current();
+                overhead = current() - first;
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                allocatedBytes = null;
+            }
+        }
+
+        boolean supported() {
+            return allocatedBytes != null;
+        }
+
+        long current() {
+            if (allocatedBytes == null) {
+                return 0;
+            }
+            try {
+                return (Long) allocatedBytes.invoke(bean, Thread.currentThread().getId());
+            } catch (ReflectiveOperationException e) {
+                allocatedBytes = null;
+                return 0;
+            }
+        }
+
+        long since(long start) {
+            return allocatedBytes == null ? 0 : Math.max(0, current() - start - overhead);
+        }
+    }
+}
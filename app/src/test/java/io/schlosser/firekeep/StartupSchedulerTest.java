@@ -0,0 +1,118 @@
+package io.schlosser.firekeep;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+public class StartupSchedulerTest {
+
+    private QueueExecutor main;
+    private QueueExecutor background;
+    private StartupScheduler scheduler;
+    private final List<String> ran = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        main = new QueueExecutor();
+        background = new QueueExecutor();
+        scheduler = new StartupScheduler(main, background);
+    }
+
+    @Test
+    public void deferredWorkWaitsForMilestone() throws Exception {
+        scheduler.addMilestone("first_draw")
+                .add("defaults", false, StartupScheduler.PRIORITY_HIGH, record("defaults"))
+                .add("colors", true, StartupScheduler.PRIORITY_HIGH, record("colors"), "defaults")
+                .add("fetch", false, StartupScheduler.PRIORITY_NORMAL, record("fetch"), "defaults", "first_draw");
+        scheduler.start();
+
+        background.runAll();
+        main.runAll();
+        assertEquals(Arrays.asList("defaults", "colors"), ran);
+        assertFalse(scheduler.isDone("fetch"));
+
+        scheduler.reach("first_draw");
+        background.runAll();
+        assertEquals(Arrays.asList("defaults", "colors", "fetch"), ran);
+        assertEquals(4, scheduler.getTimings().size());
+    }
+
+    @Test
+    public void readyTasksRunByPriority() throws Exception {
+        scheduler.add("low", true, StartupScheduler.PRIORITY_LOW, record("low"))
+                .add("high", true, StartupScheduler.PRIORITY_HIGH, record("high"))
+                .add("normal", true, StartupScheduler.PRIORITY_NORMAL, record("normal"));
+        scheduler.start();
+
+        // One task per message, so a frame can come in between
+        assertEquals(3, main.queue.size());
+        main.runNext();
+        assertEquals(Arrays.asList("high"), ran);
+        main.runAll();
+        assertEquals(Arrays.asList("high", "normal", "low"), ran);
+    }
+
+    @Test
+    public void milestoneReachedBeforeStartCounts() throws Exception {
+        scheduler.addMilestone("first_draw")
+                .add("properties", false, StartupScheduler.PRIORITY_LOW, record("properties"), "first_draw");
+        scheduler.reach("first_draw");
+        scheduler.start();
+        background.runAll();
+        assertEquals(Arrays.asList("properties"), ran);
+    }
+
+    @Test
+    public void timesCountFromTheGivenStart() throws Exception {
+        // As if onCreate began two seconds before the scheduler was made
+        scheduler = new StartupScheduler(main, background, System.nanoTime() - 2000000000L);
+        scheduler.addMilestone("first_note");
+        scheduler.start();
+        scheduler.reach("first_note");
+
+        StartupScheduler.Timing timing = scheduler.getTimings().get(0);
+        assertEquals("first_note", timing.name);
+        assertTrue(timing.endMs >= 2000);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void cyclesAreRejected() throws Exception {
+        scheduler.add("a", true, 0, record("a"), "b")
+                .add("b", true, 0, record("b"), "a");
+        scheduler.start();
+    }
+
+    private Runnable record(final String name) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                ran.add(name);
+            }
+        };
+    }
+
+    private static class QueueExecutor implements Executor {
+        final List<Runnable> queue = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable command) {
+            queue.add(command);
+        }
+
+        void runNext() {
+            queue.remove(0).run();
+        }
+
+        void runAll() {
+            while (!queue.isEmpty()) {
+                runNext();
+            }
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package io.schlosser.firekeep;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/** Color lookup as done for every bound row. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class NoteColorBenchmark {
+
+    /** Stored values as they occur: canonical, edited by hand, legacy and missing. */
+    private final String[] colors = {"BLUE", "Yellow", " gray\n", "Azul", null, "WHITE", "red", "DEFAULT"};
+    private int next;
+
+    @Benchmark
+    public int getColor() {
+        next = (next + 1) & 7;
+        return NoteColor.getColor(colors[next]);
+    }
+}
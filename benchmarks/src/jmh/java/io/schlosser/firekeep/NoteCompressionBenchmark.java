@@ -0,0 +1,90 @@
+package io.schlosser.firekeep;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What {@link NoteCompression} costs against what it saves. Run with
+ * encoding "none" for the plain baseline; the stored size of every setup is
+ * printed at the end of its trial, next to the scores.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class NoteCompressionBenchmark {
+
+    @Param({"words", "log"})
+    public String corpus;
+
+    @Param({"20000", "200000"})
+    public int length;
+
+    @Param({"none", NoteCompression.DEFLATE})
+    public String encoding;
+
+    private Note note;
+    private Note stored;
+    private long storedChars;
+
+    @Setup
+    public void setUp() {
+        String text = corpus.equals("log") ? Texts.log(length, 1) : Texts.words(length, 1);
+        note = new Note(text, 1490000000000L, "BLUE");
+        note.encoding = encoding.equals("none") ? null : encoding;
+
+        stored = new Note();
+        storedChars = 0;
+        for (Map.Entry<String, Object> field : new NoteBatch("uid").save("id", null, note).toUpdate().entrySet()) {
+            if (!field.getKey().startsWith("notes/")) {
+                continue;
+            }
+            String name = field.getKey().substring("notes/uid/id/".length());
+            if (name.equals("chunkOrder")) {
+                stored.chunkOrder = (String) field.getValue();
+            } else if (name.equals("encoding")) {
+                stored.encoding = (String) field.getValue();
+            } else if (name.startsWith("chunks/")) {
+                if (stored.chunks == null) {
+                    stored.chunks = new HashMap<>();
+                }
+                String chunk = (String) field.getValue();
+                stored.chunks.put(name.substring("chunks/".length()), chunk);
+                storedChars += chunk.length();
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void report() {
+        System.out.printf("%n%s %d chars, %s: %d chars stored (%.0f%%)%n",
+                corpus, length, encoding, storedChars, 100.0 * storedChars / length);
+    }
+
+    /** Splitting, hashing and, if enabled, compressing every chunk of a new note. */
+    @Benchmark
+    public Map<String, Object> saveNew() {
+        return new NoteBatch("uid").save("id", null, note).toUpdate();
+    }
+
+    /** The first getText of a note as it arrives from the database. */
+    @Benchmark
+    public String read() {
+        Note copy = new Note();
+        copy.chunks = stored.chunks;
+        copy.chunkOrder = stored.chunkOrder;
+        copy.encoding = stored.encoding;
+        return copy.getText();
+    }
+}
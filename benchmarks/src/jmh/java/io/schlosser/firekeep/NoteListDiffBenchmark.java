@@ -0,0 +1,77 @@
+package io.schlosser.firekeep;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/** Diffing list snapshots where about 1% of the notes were added, removed or edited. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class NoteListDiffBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int notes;
+
+    private List<Row> before;
+    private List<Row> after;
+
+    private static final class Row implements NoteListDiff.Row {
+        final NoteCursor cursor;
+        final Note note;
+
+        Row(NoteCursor cursor, Note note) {
+            this.cursor = cursor;
+            this.note = note;
+        }
+
+        @Override
+        public NoteCursor getCursor() {
+            return cursor;
+        }
+
+        @Override
+        public Note getNote() {
+            return note;
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(1);
+        before = new ArrayList<>(notes);
+        after = new ArrayList<>(notes);
+        long time = 1490000000000L + notes * 1000L;
+        for (int i = 0; i < notes; i++) {
+            time -= 1 + random.nextInt(1000);
+            NoteCursor cursor = new NoteCursor(time, NoteIds.forImport(0, 0, i));
+            Note note = new Note(Texts.words(80, i), time, "WHITE");
+            before.add(new Row(cursor, note));
+
+            int change = random.nextInt(300);
+            if (change == 0) {
+                continue;
+            } else if (change == 1) {
+                after.add(new Row(new NoteCursor(time, cursor.key + "a"), note));
+            } else if (change == 2) {
+                note = new Note(note.text + " edited", time, "WHITE");
+            }
+            after.add(new Row(cursor, note));
+        }
+    }
+
+    @Benchmark
+    public NoteListDiff diff() {
+        return NoteListDiff.calculate(before, after);
+    }
+}
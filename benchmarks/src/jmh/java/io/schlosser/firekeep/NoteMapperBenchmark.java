@@ -0,0 +1,53 @@
+package io.schlosser.firekeep;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/** Decoding and encoding one note, by {@link NoteMapper} and through reflection. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class NoteMapperBenchmark {
+
+    private final ReflectiveNoteMapper reflective = new ReflectiveNoteMapper();
+    private Note note;
+    private Map<String, Object> value;
+
+    @Setup
+    public void setUp() {
+        note = new Note(Texts.words(200, 1), 1490000000000L, "BLUE");
+        note.dateModified = 1490000001234L;
+        note.textHash = NoteChunks.hash(note.text);
+        value = NoteMapper.toMap(note);
+        // Written by a newer version of the app
+        value.put("pinned", true);
+    }
+
+    @Benchmark
+    public Note decode() {
+        return NoteMapper.fromMap(value);
+    }
+
+    @Benchmark
+    public Note decodeReflective() throws ReflectiveOperationException {
+        return reflective.fromMap(value);
+    }
+
+    @Benchmark
+    public Map<String, Object> encode() {
+        return NoteMapper.toMap(note);
+    }
+
+    @Benchmark
+    public Map<String, Object> encodeReflective() throws ReflectiveOperationException {
+        return reflective.toMap(note);
+    }
+}
@@ -0,0 +1,78 @@
+package io.schlosser.firekeep;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Turning notes into database updates and back into text. Lengths above
+ * {@link NoteChunks#THRESHOLD} take the chunked path.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class NoteSerializationBenchmark {
+
+    @Param({"200", "20000", "200000"})
+    public int length;
+
+    private Note note;
+    private Note edited;
+    private Note stored;
+
+    @Setup
+    public void setUp() {
+        String text = Texts.words(length, 1);
+        note = new Note(text, 1490000000000L, "BLUE");
+        // One word changed in the middle
+        int middle = text.length() / 2;
+        edited = new Note(text.substring(0, middle) + "changed" + text.substring(middle + 7), note.dateCreated, "BLUE");
+
+        stored = new Note();
+        for (Map.Entry<String, Object> field : new NoteBatch("uid").save("id", null, note).toUpdate().entrySet()) {
+            if (!field.getKey().startsWith("notes/")) {
+                continue;
+            }
+            String name = field.getKey().substring("notes/uid/id/".length());
+            if (name.equals("text")) {
+                stored.text = (String) field.getValue();
+            } else if (name.equals("chunkOrder")) {
+                stored.chunkOrder = (String) field.getValue();
+            } else if (name.startsWith("chunks/")) {
+                if (stored.chunks == null) {
+                    stored.chunks = new HashMap<>();
+                }
+                stored.chunks.put(name.substring("chunks/".length()), (String) field.getValue());
+            }
+        }
+    }
+
+    @Benchmark
+    public Map<String, Object> saveNew() {
+        return new NoteBatch("uid").save("id", null, note).toUpdate();
+    }
+
+    @Benchmark
+    public Map<String, Object> saveEdit() {
+        return new NoteBatch("uid").save("id", note, edited).toUpdate();
+    }
+
+    /** Reading the text of a note as it arrives from the database. */
+    @Benchmark
+    public String read() {
+        Note copy = new Note();
+        copy.text = stored.text;
+        copy.chunks = stored.chunks;
+        copy.chunkOrder = stored.chunkOrder;
+        return copy.getText();
+    }
+}
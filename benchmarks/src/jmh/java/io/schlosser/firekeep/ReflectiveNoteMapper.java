@@ -0,0 +1,62 @@
+package io.schlosser.firekeep;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Stand-in for the database client's bean mapper, which is only shipped for
+ * Android: public fields looked up once per class, then set through
+ * reflection with the same conversions for every property of every note.
+ */
+final class ReflectiveNoteMapper {
+
+    private final Map<String, Field> fields = new HashMap<>();
+
+    ReflectiveNoteMapper() {
+        for (Field field : Note.class.getFields()) {
+            if (!Modifier.isStatic(field.getModifiers())) {
+                fields.put(field.getName(), field);
+            }
+        }
+    }
+
+    Note fromMap(Map<String, Object> map) throws ReflectiveOperationException {
+        Note note = Note.class.newInstance();
+        for (Map.Entry<String, Object> entry : map.entrySet()) {
+            Field field = fields.get(entry.getKey());
+            if (field != null) {
+                field.set(note, convert(entry.getValue(), field.getType()));
+            }
+        }
+        return note;
+    }
+
+    Map<String, Object> toMap(Note note) throws ReflectiveOperationException {
+        Map<String, Object> map = new HashMap<>();
+        for (Field field : fields.values()) {
+            Object value = field.get(note);
+            if (value instanceof Map) {
+                value = new HashMap<>((Map<?, ?>) value);
+            }
+            map.put(field.getName(), value);
+        }
+        return map;
+    }
+
+    private static Object convert(Object value, Class<?> type) {
+        if (type == long.class) {
+            return ((Number) value).longValue();
+        } else if (type == boolean.class) {
+            return (Boolean) value;
+        } else if (type == Map.class) {
+            Map<String, Object> copy = new HashMap<>();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                copy.put((String) entry.getKey(), convert(entry.getValue(), String.class));
+            }
+            return copy;
+        }
+        return type.cast(value);
+    }
+}
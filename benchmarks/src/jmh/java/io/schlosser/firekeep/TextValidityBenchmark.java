@@ -0,0 +1,50 @@
+package io.schlosser.firekeep;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/** Checking note text when a note is loaded and on each keystroke. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TextValidityBenchmark {
+
+    @Param({"100", "10000", "100000"})
+    public int length;
+
+    private StringBuilder text;
+    private final TextValidity validity = new TextValidity();
+
+    @Setup
+    public void setUp() {
+        text = new StringBuilder(Texts.words(length, 1));
+        validity.reset(text);
+    }
+
+    @Benchmark
+    public boolean load() {
+        validity.reset(text);
+        return validity.isValid();
+    }
+
+    /** Types a character in the middle, then deletes it again. */
+    @Benchmark
+    public boolean keystroke() {
+        int middle = text.length() / 2;
+        validity.beforeChange(text, middle, 0);
+        text.insert(middle, 'x');
+        validity.afterChange(text, middle, 1);
+        validity.beforeChange(text, middle, 1);
+        text.deleteCharAt(middle);
+        validity.afterChange(text, middle, 0);
+        return validity.isValid();
+    }
+}
@@ -0,0 +1,52 @@
+package io.schlosser.firekeep;
+
+import java.util.Locale;
+import java.util.Random;
+
+/** Generated note text for the benchmarks. */
+final class Texts {
+
+    private static final String[] WORDS = {
+            "milk", "call", "the", "dentist", "on", "Tuesday", "buy", "eggs", "and", "bread",
+            "remember", "to", "water", "plants", "meeting", "notes", "project", "ideas", "\n", "- "
+    };
+
+    private static final String[] TAGS = {"ActivityManager", "NetworkController", "FirebaseDatabase", "art", "WindowManager"};
+    private static final String[] LEVELS = {"D", "I", "I", "W", "E"};
+    private static final String[] MESSAGES = {
+            "Start proc for activity io.schlosser.firekeep/.MainActivity: pid=",
+            "Connection lost, retrying in ms=",
+            "Background concurrent copying GC freed objects, paused us=",
+            "Displayed io.schlosser.firekeep/.NewNoteActivity: +ms=",
+            "Unable to resolve host, no address associated with hostname, attempt="
+    };
+
+    private Texts() {
+    }
+
+    static String words(int length, long seed) {
+        Random random = new Random(seed);
+        StringBuilder text = new StringBuilder(length + 16);
+        while (text.length() < length) {
+            text.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+        }
+        text.setLength(length);
+        return text.toString();
+    }
+
+    /** Pasted logcat output, which is what the longest notes tend to be. */
+    static String log(int length, long seed) {
+        Random random = new Random(seed);
+        StringBuilder text = new StringBuilder(length + 128);
+        long time = 1490000000000L;
+        while (text.length() < length) {
+            time += random.nextInt(2000);
+            int message = random.nextInt(MESSAGES.length);
+            text.append(String.format(Locale.US, "%tF %<tT.%<tL %s/%s(%5d): %s%d\n", time,
+                    LEVELS[random.nextInt(LEVELS.length)], TAGS[message], 1000 + random.nextInt(9000),
+                    MESSAGES[message], random.nextInt(100000)));
+        }
+        text.setLength(length);
+        return text.toString();
+    }
+}
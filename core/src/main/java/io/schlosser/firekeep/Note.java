@@ -0,0 +1,83 @@
+package io.schlosser.firekeep;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Created by danrs on 2/21/17.
+ */
+
+public class Note {
+    public String text;
+    public long dateCreated;
+    public String color;
+    public boolean archived;
+    /** Server time of the last edit, 0 for notes not edited since it was added. */
+    public long dateModified;
+    /**
+     * Device time of the last save, increasing with every save of the note.
+     * The database rejects a save whose version is not above the stored one,
+     * so the later of two conflicting edits wins, see NoteOutbox.
+     */
+    public long version;
+
+    /** Long notes are stored as chunks instead of text, see {@link NoteChunks}. */
+    public Map<String, String> chunks;
+    public String chunkOrder;
+    /** {@link NoteChunks#hash} of the full text, to skip writes that change nothing. */
+    public String textHash;
+    /**
+     * How the chunks are stored, see {@link NoteCompression}. Null for plain
+     * text. Chunks are only decoded when {@link #getText} is first called.
+     */
+    public String encoding;
+    /** See {@link NoteTags}, null or empty for none. */
+    public Set<String> tags;
+
+    private String assembledText;
+    private Boolean textIntact;
+
+    public Note() {
+
+    }
+
+    public Note(String text, long dateCreated, String color) {
+        this.text = text;
+        this.dateCreated = dateCreated;
+        this.color = color;
+    }
+
+    public String getText() {
+        if (this.text == null && this.chunkOrder != null) {
+            if (this.assembledText == null) {
+                this.assembledText = NoteChunks.assemble(this.chunkOrder, this.chunks, this.encoding);
+            }
+            return this.assembledText;
+        }
+        return this.text;
+    }
+
+    /**
+     * False when the text put together from chunks does not match
+     * {@link #textHash}, e.g. with chunks missing. Such text is only part of
+     * the note and must not be saved over it.
+     */
+    public boolean isTextIntact() {
+        if (this.text != null || this.chunkOrder == null || this.textHash == null) {
+            return true;
+        }
+        if (this.textIntact == null) {
+            this.textIntact = this.textHash.equals(NoteChunks.hash(getText()));
+        }
+        return this.textIntact;
+    }
+
+    public String getColor() {
+        return this.color;
+    }
+
+    public Set<String> getTags() {
+        return this.tags == null ? Collections.<String>emptySet() : this.tags;
+    }
+}
@@ -0,0 +1,373 @@
+package io.schlosser.firekeep;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Edits to several notes that are sent together as one multi-path
+ * updateChildren call on the database root, so they succeed or fail together.
+ * Every edited note gets a new dateModified from the server clock, so
+ * incremental exports can find it, and its {@link NoteIndex} and
+ * {@link NoteTags} entries and {@link NoteSummaries summary} are written
+ * alongside.
+ */
+public class NoteBatch {
+
+    /** The value ServerValue.TIMESTAMP stands for, spelled out to keep this class free of Firebase. */
+    static final Map<String, String> SERVER_TIMESTAMP = Collections.singletonMap(".sv", "timestamp");
+
+    private static final class Edit {
+        boolean deleted;
+        /** Values by path relative to the note, null removes the child. */
+        final Map<String, Object> fields = new LinkedHashMap<>();
+        /** Entries by index path relative to noteIndex/uid, null removes the note from it. */
+        final Map<String, Object> index = new LinkedHashMap<>();
+        /** Summary fields that changed. */
+        final Map<String, Object> summary = new LinkedHashMap<>();
+        /** Tags the note got, with its dateCreated, or lost, with null. */
+        final Map<String, Object> tags = new LinkedHashMap<>();
+    }
+
+    private final String uid;
+    private final Map<String, Edit> edits = new LinkedHashMap<>();
+
+    public NoteBatch(String uid) {
+        this.uid = uid;
+    }
+
+    /**
+     * @param note the note as stored or listed, for its tags, which must be
+     *             known so their indices and counts are updated
+     */
+    public NoteBatch delete(NoteCursor cursor, Note note) {
+        if (note == null) {
+            throw new IllegalArgumentException("Tags of note " + cursor.key + " are not known");
+        }
+        Edit edit = edit(cursor.key);
+        edit.deleted = true;
+        edit.fields.clear();
+        edit.summary.clear();
+        edit.index.clear();
+        edit.tags.clear();
+        // The old color is not known here, so the note is taken out of every color
+        for (NoteColor color : NoteColor.values()) {
+            edit.index.put(NoteIndex.COLOR + "/" + color.name(), null);
+        }
+        edit.index.put(NoteIndex.MONTH + "/" + NoteIndex.monthKey(cursor.dateCreated), null);
+        for (String tag : note.getTags()) {
+            edit.tags.put(tag, null);
+        }
+        return this;
+    }
+
+    public NoteBatch setColor(Collection<NoteCursor> notes, String color) {
+        String colorKey = NoteIndex.colorKey(color);
+        for (NoteCursor cursor : notes) {
+            Edit edit = edit(cursor.key);
+            if (!edit.deleted) {
+                edit.fields.put("color", color);
+                edit.summary.put("color", color);
+                for (NoteColor other : NoteColor.values()) {
+                    edit.index.put(NoteIndex.COLOR + "/" + other.name(), null);
+                }
+                edit.index.put(NoteIndex.COLOR + "/" + colorKey, cursor.dateCreated);
+            }
+        }
+        return this;
+    }
+
+    public NoteBatch setArchived(Collection<String> noteIds, boolean archived) {
+        for (String noteId : noteIds) {
+            Edit edit = edit(noteId);
+            if (!edit.deleted) {
+                edit.fields.put("archived", archived);
+                edit.summary.put("archived", archived);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Writes a new or edited note, sending only what differs from the
+     * previous version. Long text goes out as chunks, see {@link NoteChunks},
+     * and only chunks the previous version did not have are uploaded. If the
+     * note has an {@link Note#encoding}, new chunks are stored with it, unless
+     * that would not make them smaller. Adds nothing if neither text, color
+     * nor tags changed. The note's version, if set, is written with the change.
+     *
+     * Fills in the note's textHash, chunks, chunkOrder and encoding as they
+     * are stored once this batch is written, so it can be the previous
+     * version of a later save.
+     *
+     * @param previous the note as last read, or null for a new note
+     */
+    public NoteBatch save(String noteId, Note previous, Note note) {
+        Edit edit = edit(noteId);
+        if (edit.deleted) {
+            return this;
+        }
+        String text = note.getText() == null ? "" : note.getText();
+        String hash = NoteChunks.hash(text);
+        if (previous == null) {
+            edit.fields.put("dateCreated", note.dateCreated);
+            edit.summary.putAll(NoteSummaries.of(note));
+        }
+        if (previous == null || !equal(previous.getColor(), note.getColor())) {
+            edit.fields.put("color", note.getColor());
+            edit.summary.put("color", note.getColor());
+            String colorKey = NoteIndex.colorKey(note.getColor());
+            if (previous == null) {
+                edit.index.put(NoteIndex.MONTH + "/" + NoteIndex.monthKey(note.dateCreated), note.dateCreated);
+            } else if (!colorKey.equals(NoteIndex.colorKey(previous.getColor()))) {
+                edit.index.put(NoteIndex.COLOR + "/" + NoteIndex.colorKey(previous.getColor()), null);
+            }
+            edit.index.put(NoteIndex.COLOR + "/" + colorKey, note.dateCreated);
+        }
+        if (previous == null || !hash.equals(textHash(previous))) {
+            putText(edit, previous, note, text, hash);
+            edit.summary.put("preview", NoteSummaries.preview(text));
+            edit.summary.put("length", text.length());
+        } else {
+            // Stored as before
+            note.chunks = previous.chunks;
+            note.chunkOrder = previous.chunkOrder;
+            note.encoding = previous.encoding;
+        }
+        note.textHash = hash;
+        Set<String> oldTags = previous == null ? Collections.<String>emptySet() : previous.getTags();
+        if (!oldTags.equals(note.getTags())) {
+            edit.fields.put("tags", NoteTags.toValue(note.getTags()));
+            edit.summary.put("tags", NoteTags.toValue(note.getTags()));
+            for (String tag : oldTags) {
+                if (!note.getTags().contains(tag)) {
+                    edit.tags.put(tag, null);
+                }
+            }
+            for (String tag : note.getTags()) {
+                if (!oldTags.contains(tag)) {
+                    edit.tags.put(tag, note.dateCreated);
+                }
+            }
+        }
+        if (!edit.fields.isEmpty() && note.version != 0) {
+            edit.fields.put("version", note.version);
+        }
+        if (edit.fields.isEmpty() && edit.index.isEmpty()) {
+            edits.remove(noteId);
+        }
+        return this;
+    }
+
+    /**
+     * Adds a stored note to its indices and writes its summary without
+     * editing it, for notes saved before {@link NoteIndex} existed.
+     */
+    public NoteBatch reindex(String noteId, Note note) {
+        Edit edit = edit(noteId);
+        if (!edit.deleted) {
+            edit.summary.putAll(NoteSummaries.of(note));
+            edit.index.put(NoteIndex.COLOR + "/" + NoteIndex.colorKey(note.getColor()), note.dateCreated);
+            edit.index.put(NoteIndex.MONTH + "/" + NoteIndex.monthKey(note.dateCreated), note.dateCreated);
+        }
+        return this;
+    }
+
+    public String getUid() {
+        return uid;
+    }
+
+    public int size() {
+        return edits.size();
+    }
+
+    /** How many notes each tag gains or loses with this batch, to add to {@link NoteTags#countsPath}. */
+    public Map<String, Long> tagCountChanges() {
+        Map<String, Long> changes = new LinkedHashMap<>();
+        for (Edit edit : edits.values()) {
+            for (Map.Entry<String, Object> tag : edit.tags.entrySet()) {
+                Long change = changes.get(tag.getKey());
+                changes.put(tag.getKey(), (change == null ? 0 : change) + (tag.getValue() == null ? -1 : 1));
+            }
+        }
+        for (Iterator<Long> it = changes.values().iterator(); it.hasNext(); ) {
+            if (it.next() == 0) {
+                it.remove();
+            }
+        }
+        return changes;
+    }
+
+    public boolean isEmpty() {
+        return edits.isEmpty();
+    }
+
+    public boolean contains(String noteId) {
+        return edits.containsKey(noteId);
+    }
+
+    /** True if, after this batch, the note no longer belongs in the main list. */
+    public boolean hides(String noteId) {
+        Edit edit = edits.get(noteId);
+        return edit != null && (edit.deleted || Boolean.TRUE.equals(edit.fields.get("archived")));
+    }
+
+    /** The note as it will look once this batch is written. */
+    public Note apply(String noteId, Note note) {
+        Edit edit = edits.get(noteId);
+        if (edit == null || note == null || !edit.fields.containsKey("color")) {
+            return note;
+        }
+        Note edited = new Note(note.getText(), note.dateCreated, (String) edit.fields.get("color"));
+        edited.archived = note.archived;
+        edited.tags = note.tags;
+        return edited;
+    }
+
+    /** Paths relative to the database root, for DatabaseReference.updateChildren. */
+    public Map<String, Object> toUpdate() {
+        Map<String, Object> update = new HashMap<>();
+        String indexPath = NoteIndex.ROOT + "/" + uid + "/";
+        String summariesPath = NoteSummaries.path(uid) + "/";
+        for (Map.Entry<String, Edit> entry : edits.entrySet()) {
+            String noteId = entry.getKey();
+            String notePath = "notes/" + uid + "/" + noteId;
+            Edit edit = entry.getValue();
+            for (Map.Entry<String, Object> index : edit.index.entrySet()) {
+                update.put(indexPath + index.getKey() + "/" + noteId, index.getValue());
+            }
+            for (Map.Entry<String, Object> tag : edit.tags.entrySet()) {
+                update.put(NoteTags.indexPath(uid, tag.getKey()) + "/" + noteId, tag.getValue());
+            }
+            if (edit.deleted) {
+                update.put(notePath, null);
+                update.put(summariesPath + noteId, null);
+                continue;
+            }
+            for (Map.Entry<String, Object> field : edit.summary.entrySet()) {
+                update.put(summariesPath + noteId + "/" + field.getKey(), field.getValue());
+            }
+            for (Map.Entry<String, Object> field : edit.fields.entrySet()) {
+                update.put(notePath + "/" + field.getKey(), field.getValue());
+            }
+            if (!edit.fields.isEmpty()) {
+                update.put(notePath + "/dateModified", SERVER_TIMESTAMP);
+            }
+        }
+        return update;
+    }
+
+    private Edit edit(String noteId) {
+        Edit edit = edits.get(noteId);
+        if (edit == null) {
+            edit = new Edit();
+            edits.put(noteId, edit);
+        }
+        return edit;
+    }
+
+    /** Writes the text and fills in how {@code note} stores it. */
+    private static void putText(Edit edit, Note previous, Note note, String text, String hash) {
+        String encoding = note.encoding;
+        String oldEncoding = previous == null ? null : previous.encoding;
+        edit.fields.put("textHash", hash);
+        if (text.length() < NoteChunks.THRESHOLD) {
+            edit.fields.put("text", text);
+            if (previous != null && previous.chunkOrder != null) {
+                edit.fields.put("chunks", null);
+                edit.fields.put("chunkOrder", null);
+            }
+            if (oldEncoding != null) {
+                edit.fields.put("encoding", null);
+            }
+            note.chunks = null;
+            note.chunkOrder = null;
+            note.encoding = null;
+            return;
+        }
+
+        List<String> parts = NoteChunks.split(text);
+        List<String> stored = parts;
+        if (encoding != null && !encoding.equals(oldEncoding)) {
+            // Every chunk is uploaded anyway, so see whether encoding pays off
+            stored = encode(encoding, parts);
+            if (length(stored) >= text.length()) {
+                encoding = null;
+                stored = parts;
+            }
+        }
+        Set<String> oldChunks = previous == null || previous.chunks == null
+                ? Collections.<String>emptySet()
+                : previous.chunks.keySet();
+        // Chunks stored with another encoding are uploaded again
+        Set<String> reused = equal(oldEncoding, encoding) ? oldChunks : Collections.<String>emptySet();
+        List<String> order = new ArrayList<>(parts.size());
+        Map<String, String> chunks = new HashMap<>();
+        for (int i = 0; i < parts.size(); i++) {
+            String part = parts.get(i);
+            String chunkHash = NoteChunks.hash(part);
+            order.add(chunkHash);
+            if (chunks.containsKey(chunkHash)) {
+                continue;
+            }
+            if (reused.contains(chunkHash)) {
+                chunks.put(chunkHash, previous.chunks.get(chunkHash));
+            } else {
+                String value = stored == parts ? NoteCompression.encode(encoding, part) : stored.get(i);
+                chunks.put(chunkHash, value);
+                edit.fields.put("chunks/" + chunkHash, value);
+            }
+        }
+        Set<String> kept = chunks.keySet();
+        for (String chunkHash : oldChunks) {
+            if (!kept.contains(chunkHash)) {
+                edit.fields.put("chunks/" + chunkHash, null);
+            }
+        }
+        edit.fields.put("chunkOrder", NoteChunks.joinOrder(order));
+        if (encoding != null || oldEncoding != null) {
+            edit.fields.put("encoding", encoding);
+        }
+        // A note filled in by an earlier save has both, but only chunks are stored
+        if (previous != null && previous.text != null && previous.chunkOrder == null) {
+            edit.fields.put("text", null);
+        }
+        note.chunks = chunks;
+        note.chunkOrder = NoteChunks.joinOrder(order);
+        note.encoding = encoding;
+    }
+
+    private static List<String> encode(String encoding, List<String> parts) {
+        List<String> encoded = new ArrayList<>(parts.size());
+        for (String part : parts) {
+            encoded.add(NoteCompression.encode(encoding, part));
+        }
+        return encoded;
+    }
+
+    private static int length(List<String> parts) {
+        int length = 0;
+        for (String part : parts) {
+            length += part.length();
+        }
+        return length;
+    }
+
+    /** Notes written before textHash existed are hashed here. */
+    private static String textHash(Note note) {
+        if (note.textHash != null) {
+            return note.textHash;
+        }
+        return NoteChunks.hash(note.getText() == null ? "" : note.getText());
+    }
+
+    private static boolean equal(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
@@ -0,0 +1,135 @@
+package io.schlosser.firekeep;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Splits long note text into content-addressed chunks.
+ *
+ * Chunk boundaries are picked by a rolling hash over the text itself, not at
+ * fixed offsets, so an edit only changes the chunks around it and the rest of
+ * the note keeps the same chunk hashes. Every client must split the same way,
+ * so the hash table and sizes below must never change.
+ */
+public final class NoteChunks {
+
+    /** Notes shorter than this many chars are stored as plain text. */
+    public static final int THRESHOLD = 8 * 1024;
+
+    private static final int MIN_CHUNK = 1024;
+    private static final int MAX_CHUNK = 8 * 1024;
+    /** A boundary every 2^11 chars on average, after the minimum. */
+    private static final int BOUNDARY_MASK = (1 << 11) - 1;
+    private static final int[] GEAR = new int[256];
+
+    static {
+        // Fixed seed, so the table is the same on every device and version
+        long seed = 0x5DEECE66DL;
+        for (int i = 0; i < GEAR.length; i++) {
+            seed = seed * 6364136223846793005L + 1442695040888963407L;
+            GEAR[i] = (int) (seed >>> 32);
+        }
+    }
+
+    private NoteChunks() {
+    }
+
+    public static List<String> split(String text) {
+        List<String> chunks = new ArrayList<>();
+        int start = 0;
+        int hash = 0;
+        for (int i = 0; i < text.length(); i++) {
+            hash = (hash << 1) + GEAR[text.charAt(i) & 0xFF];
+            int length = i - start + 1;
+            if ((length >= MIN_CHUNK && (hash & BOUNDARY_MASK) == 0) || length >= MAX_CHUNK) {
+                chunks.add(text.substring(start, i + 1));
+                start = i + 1;
+                hash = 0;
+            }
+        }
+        if (start < text.length()) {
+            chunks.add(text.substring(start));
+        }
+        return chunks;
+    }
+
+    /** First 64 bits of the SHA-1 of the UTF-8 text, as hex. Safe to use as a database key. */
+    public static String hash(String text) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] sha = digest.digest(text.getBytes("UTF-8"));
+            char[] hex = new char[16];
+            for (int i = 0; i < 8; i++) {
+                hex[i * 2] = Character.forDigit((sha[i] >> 4) & 0xF, 16);
+                hex[i * 2 + 1] = Character.forDigit(sha[i] & 0xF, 16);
+            }
+            return new String(hex);
+        } catch (NoSuchAlgorithmException | UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** Chunk order as stored on the note, comma separated hashes. */
+    public static String joinOrder(List<String> hashes) {
+        StringBuilder order = new StringBuilder(hashes.size() * 17);
+        for (String hash : hashes) {
+            if (order.length() > 0) {
+                order.append(',');
+            }
+            order.append(hash);
+        }
+        return order.toString();
+    }
+
+    public static List<String> parseOrder(String order) {
+        if (order == null || order.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<String> hashes = new ArrayList<>();
+        int start = 0;
+        int comma;
+        while ((comma = order.indexOf(',', start)) >= 0) {
+            hashes.add(order.substring(start, comma));
+            start = comma + 1;
+        }
+        hashes.add(order.substring(start));
+        return hashes;
+    }
+
+    /**
+     * Puts the text back together. Chunks that have not arrived yet are left
+     * out, see {@link Note#isTextIntact}.
+     */
+    public static String assemble(String order, Map<String, String> chunks) {
+        return assemble(order, chunks, null);
+    }
+
+    /**
+     * Puts the text back together from chunks stored with {@code encoding},
+     * see {@link NoteCompression}. Chunks that have not arrived yet are left
+     * out, and chunks that cannot be decoded are kept as stored. Either way the
+     * text no longer matches its hash, see {@link Note#isTextIntact}.
+     */
+    public static String assemble(String order, Map<String, String> chunks, String encoding) {
+        StringBuilder text = new StringBuilder();
+        for (String hash : parseOrder(order)) {
+            String chunk = chunks == null ? null : chunks.get(hash);
+            if (chunk == null) {
+                continue;
+            }
+            try {
+                text.append(NoteCompression.decode(encoding, chunk));
+            } catch (IllegalArgumentException e) {
+                // Partly written by a client that did not know the encoding, so
+                // likely plain text. Dropping it would lose it with the next save
+                text.append(chunk);
+            }
+        }
+        return text.toString();
+    }
+}
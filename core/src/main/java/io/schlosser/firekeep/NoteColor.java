@@ -0,0 +1,61 @@
+package io.schlosser.firekeep;
+
+/**
+ * Colors a note can be given. Each color is resolved to an ARGB int once, so
+ * looking one up while binding rows is a table scan without allocation.
+ */
+public enum NoteColor {
+    BLUE("BLUE", "#03A9F4"),
+    ORANGE("ORANGE", "#FFC107"),
+    GREEN("GREEN", "#CDDC39"),
+    WHITE("WHITE", "#FFFFFF"),
+    DEFAULT("DEFAULT", "#FFFFFF"),
+    RED("RED", "#EF5350"),
+    GRAY("GRAY", "#E0E0E0"),
+    YELLOW("YELLOW", "#FFEB3B");
+
+    private static final NoteColor[] VALUES = values();
+
+    private final String name;
+    private final int color;
+
+    NoteColor(String name, String hex) {
+        this.name = name;
+        this.color = 0xFF000000 | Integer.parseInt(hex.substring(1), 16);
+    }
+
+    public int getColor() {
+        return color;
+    }
+
+    public static int getColor(String color) {
+        return fromName(color).color;
+    }
+
+    /**
+     * Case insensitive lookup that ignores surrounding whitespace. Unknown and
+     * legacy values, such as colors saved with a translated name, map to DEFAULT.
+     */
+    public static NoteColor fromName(String color) {
+        if (color == null) {
+            return DEFAULT;
+        }
+
+        int start = 0;
+        int end = color.length();
+        while (start < end && color.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && color.charAt(end - 1) <= ' ') {
+            end--;
+        }
+
+        int length = end - start;
+        for (NoteColor value : VALUES) {
+            if (value.name.length() == length && value.name.regionMatches(true, 0, color, start, length)) {
+                return value;
+            }
+        }
+        return DEFAULT;
+    }
+}
@@ -0,0 +1,157 @@
+package io.schlosser.firekeep;
+
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Storage encodings for the chunks of long notes, named by a note's
+ * {@code encoding} field. With {@link #DEFLATE} every chunk is stored as the
+ * zlib deflate of its UTF-8 bytes, in base64 since database values are
+ * strings. Chunk hashes are always of the plain text, so an edit still only
+ * uploads the chunks it changed.
+ *
+ * A note without an encoding is plain text, which is what notes written
+ * before this existed have and what clients that predate it can read.
+ */
+public final class NoteCompression {
+
+    public static final String DEFLATE = "deflate";
+
+    private static final String CHARSET = "UTF-8";
+    private static final char[] BASE64 =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+    private static final int[] BASE64_VALUES = new int[128];
+
+    static {
+        for (int i = 0; i < BASE64_VALUES.length; i++) {
+            BASE64_VALUES[i] = -1;
+        }
+        for (int i = 0; i < BASE64.length; i++) {
+            BASE64_VALUES[BASE64[i]] = i;
+        }
+    }
+
+    private NoteCompression() {
+    }
+
+    /** @param encoding null for plain text */
+    public static boolean isKnown(String encoding) {
+        return encoding == null || DEFLATE.equals(encoding);
+    }
+
+    /** {@code text} as stored with {@code encoding}, which must be {@link #isKnown known}. */
+    public static String encode(String encoding, String text) {
+        if (encoding == null) {
+            return text;
+        }
+        return base64(deflate(utf8(text)));
+    }
+
+    /**
+     * Reverses {@link #encode}.
+     *
+     * @throws IllegalArgumentException if {@code stored} is not valid for the
+     *                                  encoding, or the encoding is unknown
+     */
+    public static String decode(String encoding, String stored) {
+        if (encoding == null) {
+            return stored;
+        }
+        if (!DEFLATE.equals(encoding)) {
+            throw new IllegalArgumentException("Unknown encoding " + encoding);
+        }
+        try {
+            return new String(inflate(unbase64(stored)), CHARSET);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] utf8(String text) {
+        try {
+            return text.getBytes(CHARSET);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] deflate(byte[] bytes) {
+        Deflater deflater = new Deflater();
+        try {
+            deflater.setInput(bytes);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 4 + 64);
+            byte[] buffer = new byte[4096];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] bytes) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(bytes);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length * 4);
+            byte[] buffer = new byte[4096];
+            while (!inflater.finished()) {
+                int inflated = inflater.inflate(buffer);
+                if (inflated == 0 && !inflater.finished() && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalArgumentException("Truncated deflate data");
+                }
+                out.write(buffer, 0, inflated);
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException(e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static String base64(byte[] bytes) {
+        char[] out = new char[(bytes.length + 2) / 3 * 4];
+        int o = 0;
+        for (int i = 0; i < bytes.length; i += 3) {
+            int b0 = bytes[i] & 0xFF;
+            int b1 = i + 1 < bytes.length ? bytes[i + 1] & 0xFF : 0;
+            int b2 = i + 2 < bytes.length ? bytes[i + 2] & 0xFF : 0;
+            out[o++] = BASE64[b0 >> 2];
+            out[o++] = BASE64[((b0 & 0x3) << 4) | (b1 >> 4)];
+            out[o++] = i + 1 < bytes.length ? BASE64[((b1 & 0xF) << 2) | (b2 >> 6)] : '=';
+            out[o++] = i + 2 < bytes.length ? BASE64[b2 & 0x3F] : '=';
+        }
+        return new String(out);
+    }
+
+    private static byte[] unbase64(String text) {
+        int length = text.length();
+        if (length % 4 != 0) {
+            throw new IllegalArgumentException("Not base64");
+        }
+        int padding = length == 0 ? 0 : text.charAt(length - 1) != '=' ? 0 : text.charAt(length - 2) != '=' ? 1 : 2;
+        byte[] out = new byte[length / 4 * 3 - padding];
+        int o = 0;
+        for (int i = 0; i < length; i += 4) {
+            int bits = 0;
+            for (int j = 0; j < 4; j++) {
+                char c = text.charAt(i + j);
+                int value = c == '=' && i + j >= length - padding ? 0 : c < 128 ? BASE64_VALUES[c] : -1;
+                if (value < 0) {
+                    throw new IllegalArgumentException("Not base64");
+                }
+                bits = (bits << 6) | value;
+            }
+            for (int j = 0; j < 3 && o < out.length; j++) {
+                out[o++] = (byte) (bits >> (16 - 8 * j));
+            }
+        }
+        return out;
+    }
+}
@@ -0,0 +1,45 @@
+package io.schlosser.firekeep;
+
+/**
+ * A position in the notes list, ordered the same way the database orders
+ * children by dateCreated: by value first, then by key to break ties.
+ */
+public final class NoteCursor implements Comparable<NoteCursor> {
+    public final long dateCreated;
+    public final String key;
+
+    public NoteCursor(long dateCreated, String key) {
+        this.dateCreated = dateCreated;
+        this.key = key;
+    }
+
+    @Override
+    public int compareTo(NoteCursor other) {
+        if (dateCreated != other.dateCreated) {
+            return dateCreated < other.dateCreated ? -1 : 1;
+        }
+        return key.compareTo(other.key);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof NoteCursor)) {
+            return false;
+        }
+        NoteCursor other = (NoteCursor) o;
+        return dateCreated == other.dateCreated && key.equals(other.key);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (int) (dateCreated ^ (dateCreated >>> 32)) + key.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return dateCreated + "/" + key;
+    }
+}
@@ -0,0 +1,74 @@
+package io.schlosser.firekeep;
+
+import java.security.SecureRandom;
+
+/**
+ * Note keys in the style of DatabaseReference.push(): 8 chars of creation time
+ * followed by 12 random chars, in an alphabet that sorts the same as the
+ * numbers it encodes. Keys sort by creation time, and keys made in the same
+ * millisecond still differ and keep their order.
+ */
+public final class NoteIds {
+
+    private static final String PUSH_CHARS =
+            "-0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ_abcdefghijklmnopqrstuvwxyz";
+    private static final SecureRandom random = new SecureRandom();
+    private static long lastTime;
+    private static final int[] lastRandom = new int[12];
+
+    private NoteIds() {
+    }
+
+    public static String next() {
+        return next(System.currentTimeMillis());
+    }
+
+    static synchronized String next(long now) {
+        if (now == lastTime) {
+            // Same millisecond, count up from the last key so the order holds
+            int i = lastRandom.length - 1;
+            while (i >= 0 && lastRandom[i] == 63) {
+                lastRandom[i--] = 0;
+            }
+            if (i >= 0) {
+                lastRandom[i]++;
+            }
+        } else {
+            lastTime = now;
+            for (int i = 0; i < lastRandom.length; i++) {
+                lastRandom[i] = random.nextInt(64);
+            }
+        }
+
+        char[] id = new char[20];
+        encode(now, id, 0, 8);
+        for (int i = 0; i < lastRandom.length; i++) {
+            id[8 + i] = PUSH_CHARS.charAt(lastRandom[i]);
+        }
+        return new String(id);
+    }
+
+    /**
+     * Key of the index-th note of an import. The same session and index always
+     * give the same key, so an import that is resumed overwrites the notes it
+     * already wrote instead of adding them twice.
+     *
+     * @param startedAt when the import started
+     * @param seed random per import, so two imports never share keys
+     */
+    public static String forImport(long startedAt, long seed, int index) {
+        char[] id = new char[20];
+        encode(startedAt, id, 0, 8);
+        encode(seed, id, 8, 6);
+        encode(index, id, 14, 6);
+        return new String(id);
+    }
+
+    /** Writes the low 6 * length bits of value, most significant first. */
+    private static void encode(long value, char[] id, int offset, int length) {
+        for (int i = offset + length - 1; i >= offset; i--) {
+            id[i] = PUSH_CHARS.charAt((int) (value & 63));
+            value >>>= 6;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package io.schlosser.firekeep;
+
+import java.util.Calendar;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Secondary indices over a user's notes, so a filtered list reads only the
+ * notes it shows:
+ *
+ * <pre>
+ * noteIndex/&lt;uid&gt;/color/&lt;COLOR&gt;/&lt;noteId&gt; = dateCreated
+ * noteIndex/&lt;uid&gt;/month/&lt;yyyy-MM&gt;/&lt;noteId&gt; = dateCreated
+ * </pre>
+ *
+ * Entries are written by {@link NoteBatch} in the same update as the note.
+ * The value is the note's dateCreated, so an index node can be paged newest
+ * first by value exactly like the notes node.
+ */
+public final class NoteIndex {
+
+    public static final String ROOT = "noteIndex";
+    static final String COLOR = "color";
+    static final String MONTH = "month";
+    /**
+     * Set once a user's notes written before the index existed were added to
+     * it. Version 2 also wrote {@link NoteSummaries}.
+     */
+    public static final String VERSION = "version";
+    public static final int CURRENT_VERSION = 2;
+
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+    private NoteIndex() {
+    }
+
+    /** Index key of a stored color. Notes without a known color look white, and are listed as white. */
+    public static String colorKey(String color) {
+        NoteColor known = NoteColor.fromName(color);
+        return known == NoteColor.DEFAULT ? NoteColor.WHITE.name() : known.name();
+    }
+
+    /** Index key of the month a note was created in, in UTC so it does not depend on the device. */
+    public static String monthKey(long dateCreated) {
+        Calendar calendar = Calendar.getInstance(UTC, Locale.US);
+        calendar.setTimeInMillis(dateCreated);
+        return monthKey(calendar.get(Calendar.YEAR), calendar.get(Calendar.MONTH));
+    }
+
+    /** @param month zero based, like {@link Calendar#MONTH} */
+    public static String monthKey(int year, int month) {
+        return String.format(Locale.US, "%04d-%02d", year, month + 1);
+    }
+
+    public static String colorPath(String uid, String colorKey) {
+        return ROOT + "/" + uid + "/" + COLOR + "/" + colorKey;
+    }
+
+    public static String monthPath(String uid, String monthKey) {
+        return ROOT + "/" + uid + "/" + MONTH + "/" + monthKey;
+    }
+
+    public static String versionPath(String uid) {
+        return ROOT + "/" + uid + "/" + VERSION;
+    }
+}
@@ -0,0 +1,127 @@
+package io.schlosser.firekeep;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The row changes between two snapshots of the notes list.
+ *
+ * Both snapshots are ordered by {@link NoteCursor}, newest first, so a note
+ * never moves and the lists can be merged in one pass instead of running a
+ * general diff: a cursor found in only one list is a removal or an insertion,
+ * one found in both is a change if its text or color differ. Adjacent changes
+ * of the same kind are reported as one range.
+ */
+public final class NoteListDiff {
+
+    public interface Row {
+        NoteCursor getCursor();
+
+        /** @return null while the note is not loaded */
+        Note getNote();
+    }
+
+    /** Same contract as RecyclerView's notifyItemRange* calls. */
+    public interface Callback {
+        void onInserted(int position, int count);
+
+        void onRemoved(int position, int count);
+
+        void onChanged(int position, int count);
+    }
+
+    private static final int INSERTED = 0;
+    private static final int REMOVED = 1;
+    private static final int CHANGED = 2;
+
+    /** Triples of kind, position and count. */
+    private int[] ops = new int[3 * 8];
+    private int size;
+
+    private NoteListDiff() {
+    }
+
+    public static NoteListDiff calculate(List<? extends Row> oldRows, List<? extends Row> newRows) {
+        NoteListDiff diff = new NoteListDiff();
+        int oldIndex = 0;
+        int newIndex = 0;
+        // Position in the list as it is after the updates so far, which is
+        // the number of new rows already passed
+        while (oldIndex < oldRows.size() || newIndex < newRows.size()) {
+            int cmp;
+            if (oldIndex == oldRows.size()) {
+                cmp = 1;
+            } else if (newIndex == newRows.size()) {
+                cmp = -1;
+            } else {
+                // Newest first, so the larger cursor comes first
+                cmp = newRows.get(newIndex).getCursor().compareTo(oldRows.get(oldIndex).getCursor());
+            }
+
+            if (cmp < 0) {
+                diff.add(REMOVED, newIndex);
+                oldIndex++;
+            } else if (cmp > 0) {
+                diff.add(INSERTED, newIndex);
+                newIndex++;
+            } else {
+                if (!sameContents(oldRows.get(oldIndex).getNote(), newRows.get(newIndex).getNote())) {
+                    diff.add(CHANGED, newIndex);
+                }
+                oldIndex++;
+                newIndex++;
+            }
+        }
+        return diff;
+    }
+
+    /** Whether a row showing {@code a} looks the same showing {@code b}. */
+    public static boolean sameContents(Note a, Note b) {
+        if (a == null || b == null) {
+            return a == b;
+        }
+        return equal(a.getText(), b.getText()) && equal(a.getColor(), b.getColor());
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void dispatchUpdatesTo(Callback callback) {
+        for (int i = 0; i < size; i += 3) {
+            switch (ops[i]) {
+                case INSERTED:
+                    callback.onInserted(ops[i + 1], ops[i + 2]);
+                    break;
+                case REMOVED:
+                    callback.onRemoved(ops[i + 1], ops[i + 2]);
+                    break;
+                default:
+                    callback.onChanged(ops[i + 1], ops[i + 2]);
+                    break;
+            }
+        }
+    }
+
+    private void add(int kind, int position) {
+        if (size > 0 && ops[size - 3] == kind) {
+            int start = ops[size - 2];
+            int count = ops[size - 1];
+            // Removals all happen at the same position, the rest follow each other
+            if (kind == REMOVED ? start == position : start + count == position) {
+                ops[size - 1]++;
+                return;
+            }
+        }
+        if (size == ops.length) {
+            ops = Arrays.copyOf(ops, size * 2);
+        }
+        ops[size++] = kind;
+        ops[size++] = position;
+        ops[size++] = 1;
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
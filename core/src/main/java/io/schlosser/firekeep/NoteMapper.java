@@ -0,0 +1,127 @@
+package io.schlosser.firekeep;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Converts notes to and from the plain values the database client hands out
+ * ({@code DataSnapshot.getValue()} with no class): maps, strings, booleans and
+ * numbers. Used instead of {@code getValue(Note.class)}, which looks up every
+ * property through reflection for each note read.
+ *
+ * Like {@code @IgnoreExtraProperties}, children a note does not know are
+ * skipped. Values of an unexpected type are skipped too, instead of failing
+ * the whole read.
+ *
+ * When adding a field to {@link Note}, add it to both methods.
+ */
+public final class NoteMapper {
+
+    private NoteMapper() {
+    }
+
+    /** @return null if {@code value} is not a note, e.g. when the note was deleted */
+    @SuppressWarnings("unchecked")
+    public static Note fromValue(Object value) {
+        if (!(value instanceof Map)) {
+            return null;
+        }
+        return fromMap((Map<String, Object>) value);
+    }
+
+    public static Note fromMap(Map<String, Object> map) {
+        Note note = new Note();
+        for (Map.Entry<String, Object> entry : map.entrySet()) {
+            Object value = entry.getValue();
+            switch (entry.getKey()) {
+                case "text":
+                    note.text = string(value);
+                    break;
+                case "dateCreated":
+                    note.dateCreated = number(value);
+                    break;
+                case "color":
+                    note.color = string(value);
+                    break;
+                case "archived":
+                    note.archived = Boolean.TRUE.equals(value);
+                    break;
+                case "dateModified":
+                    note.dateModified = number(value);
+                    break;
+                case "version":
+                    note.version = number(value);
+                    break;
+                case "chunks":
+                    note.chunks = strings(value);
+                    break;
+                case "chunkOrder":
+                    note.chunkOrder = string(value);
+                    break;
+                case "textHash":
+                    note.textHash = string(value);
+                    break;
+                case "encoding":
+                    note.encoding = string(value);
+                    break;
+                case "tags":
+                    note.tags = NoteTags.fromValue(value);
+                    break;
+                default:
+                    break;
+            }
+        }
+        return note;
+    }
+
+    /** The note as it is stored, leaving out fields without a value. */
+    public static Map<String, Object> toMap(Note note) {
+        Map<String, Object> map = new HashMap<>();
+        putIfSet(map, "text", note.text);
+        map.put("dateCreated", note.dateCreated);
+        putIfSet(map, "color", note.color);
+        map.put("archived", note.archived);
+        map.put("dateModified", note.dateModified);
+        if (note.version != 0) {
+            map.put("version", note.version);
+        }
+        if (note.chunks != null) {
+            map.put("chunks", new HashMap<>(note.chunks));
+        }
+        putIfSet(map, "chunkOrder", note.chunkOrder);
+        putIfSet(map, "textHash", note.textHash);
+        putIfSet(map, "encoding", note.encoding);
+        if (!note.getTags().isEmpty()) {
+            map.put("tags", NoteTags.toValue(note.tags));
+        }
+        return map;
+    }
+
+    private static void putIfSet(Map<String, Object> map, String key, String value) {
+        if (value != null) {
+            map.put(key, value);
+        }
+    }
+
+    private static String string(Object value) {
+        return value instanceof String ? (String) value : null;
+    }
+
+    private static long number(Object value) {
+        return value instanceof Number ? ((Number) value).longValue() : 0;
+    }
+
+    private static Map<String, String> strings(Object value) {
+        if (!(value instanceof Map)) {
+            return null;
+        }
+        Map<?, ?> map = (Map<?, ?>) value;
+        Map<String, String> strings = new HashMap<>(map.size() * 4 / 3 + 1);
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            if (entry.getValue() instanceof String) {
+                strings.put(String.valueOf(entry.getKey()), (String) entry.getValue());
+            }
+        }
+        return strings;
+    }
+}
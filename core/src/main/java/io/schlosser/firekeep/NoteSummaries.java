@@ -0,0 +1,109 @@
+package io.schlosser.firekeep;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * What the notes list needs of a note, kept next to the notes so the list
+ * never reads full bodies:
+ *
+ * <pre>
+ * noteSummaries/&lt;uid&gt;/&lt;noteId&gt; = {preview, length, color, dateCreated, archived, tags}
+ * </pre>
+ *
+ * The preview is the start of the text, at most {@link #PREVIEW_LENGTH}
+ * characters, and length is the length of the full text. Summaries are
+ * written by {@link NoteBatch} in the same update as the note. The list reads
+ * them as {@link Note}s whose text is the preview; the full note is only read
+ * when it is opened.
+ */
+public final class NoteSummaries {
+
+    public static final String ROOT = "noteSummaries";
+    /** About what a row shows before it is cut off. */
+    public static final int PREVIEW_LENGTH = 300;
+    /** Lines of a preview a list row shows at most. */
+    public static final int ROW_LINES = 8;
+    /** The {@link NoteIndex#VERSION} from which every note of the user has a summary. */
+    public static final int SINCE_VERSION = 2;
+
+    private NoteSummaries() {
+    }
+
+    public static String preview(String text) {
+        if (text == null) {
+            return "";
+        }
+        if (text.length() <= PREVIEW_LENGTH) {
+            return text;
+        }
+        int end = PREVIEW_LENGTH;
+        // Do not cut a surrogate pair in half
+        if (Character.isHighSurrogate(text.charAt(end - 1))) {
+            end--;
+        }
+        return text.substring(0, end);
+    }
+
+    /**
+     * What a list row shows of {@code text}: the preview, cut after
+     * {@link #ROW_LINES} lines so a note of many short lines stays a short row.
+     */
+    public static String rowText(String text) {
+        String preview = preview(text);
+        int end = -1;
+        for (int line = 0; line < ROW_LINES; line++) {
+            end = preview.indexOf('\n', end + 1);
+            if (end < 0) {
+                return preview;
+            }
+        }
+        return preview.substring(0, end);
+    }
+
+    /** Every field of the summary of {@code note}. */
+    public static Map<String, Object> of(Note note) {
+        String text = note.getText();
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("preview", preview(text));
+        summary.put("length", text == null ? 0 : text.length());
+        summary.put("color", note.getColor());
+        summary.put("dateCreated", note.dateCreated);
+        summary.put("archived", note.archived);
+        if (!note.getTags().isEmpty()) {
+            summary.put("tags", NoteTags.toValue(note.tags));
+        }
+        return summary;
+    }
+
+    /**
+     * Reads a list row: a summary, or a full note for lists that still read
+     * the notes node. The returned note's text is the preview.
+     *
+     * @return null if {@code value} is neither, e.g. when the note was deleted
+     */
+    @SuppressWarnings("unchecked")
+    public static Note fromValue(Object value) {
+        if (!(value instanceof Map)) {
+            return null;
+        }
+        Map<String, Object> map = (Map<String, Object>) value;
+        if (!map.containsKey("preview")) {
+            return NoteMapper.fromMap(map);
+        }
+        Note note = new Note();
+        Object preview = map.get("preview");
+        note.text = preview instanceof String ? (String) preview : "";
+        Object color = map.get("color");
+        note.color = color instanceof String ? (String) color : null;
+        Object dateCreated = map.get("dateCreated");
+        note.dateCreated = dateCreated instanceof Number ? ((Number) dateCreated).longValue() : 0;
+        note.archived = Boolean.TRUE.equals(map.get("archived"));
+        note.tags = NoteTags.fromValue(map.get("tags"));
+        return note;
+    }
+
+    public static String path(String uid) {
+        return ROOT + "/" + uid;
+    }
+}
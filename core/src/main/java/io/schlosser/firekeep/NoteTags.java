@@ -0,0 +1,128 @@
+package io.schlosser.firekeep;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Labels on notes, with an index per tag so a list filtered by one reads
+ * only the notes that have it:
+ *
+ * <pre>
+ * notes/&lt;uid&gt;/&lt;noteId&gt;/tags/&lt;tag&gt; = true
+ * tagIndex/&lt;uid&gt;/&lt;tag&gt;/&lt;noteId&gt; = dateCreated
+ * tagCounts/&lt;uid&gt;/&lt;tag&gt; = notes with the tag
+ * </pre>
+ *
+ * The tags of a note and its index entries are written by {@link NoteBatch}
+ * in the same update, and are in its summary too. Counts are changed by
+ * {@link NoteBatch#tagCountChanges} in a transaction once that update was
+ * accepted, so concurrent edits add up; a count can be off if the app dies
+ * in between. Tags whose count drops to 0 are removed.
+ */
+public final class NoteTags {
+
+    public static final String INDEX_ROOT = "tagIndex";
+    public static final String COUNTS_ROOT = "tagCounts";
+    public static final int MAX_LENGTH = 32;
+
+    private NoteTags() {
+    }
+
+    /**
+     * The tag for a label as typed: lower case, trimmed, with runs of
+     * whitespace as one space and without characters a database key cannot
+     * have.
+     *
+     * @return null if nothing is left
+     */
+    public static String key(String label) {
+        if (label == null) {
+            return null;
+        }
+        StringBuilder key = new StringBuilder(label.length());
+        boolean space = false;
+        for (int i = 0; i < label.length(); i++) {
+            char c = label.charAt(i);
+            if (Character.isWhitespace(c) || Character.isSpaceChar(c)) {
+                space = key.length() > 0;
+            } else if (c >= 0x20 && c != 0x7f && ".$#[]/".indexOf(c) < 0) {
+                if (space) {
+                    key.append(' ');
+                    space = false;
+                }
+                key.append(c);
+            }
+        }
+        int end = Math.min(key.length(), MAX_LENGTH);
+        // Do not cut a surrogate pair in half
+        if (end < key.length() && Character.isHighSurrogate(key.charAt(end - 1))) {
+            end--;
+        }
+        String tag = key.substring(0, end).trim().toLowerCase(Locale.US);
+        return tag.isEmpty() ? null : tag;
+    }
+
+    public static String indexPath(String uid, String tag) {
+        return INDEX_ROOT + "/" + uid + "/" + tag;
+    }
+
+    public static String countsPath(String uid) {
+        return COUNTS_ROOT + "/" + uid;
+    }
+
+    /** Tags as stored, a map of tag to true, sorted. Never null. */
+    public static Set<String> fromValue(Object value) {
+        if (!(value instanceof Map)) {
+            return Collections.emptySet();
+        }
+        Set<String> tags = new TreeSet<>();
+        for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+            if (Boolean.TRUE.equals(entry.getValue())) {
+                tags.add(String.valueOf(entry.getKey()));
+            }
+        }
+        return tags;
+    }
+
+    /** Tags as they are stored, or null for none, which removes the child. */
+    public static Map<String, Object> toValue(Set<String> tags) {
+        if (tags == null || tags.isEmpty()) {
+            return null;
+        }
+        Map<String, Object> value = new LinkedHashMap<>();
+        for (String tag : tags) {
+            value.put(tag, true);
+        }
+        return value;
+    }
+
+    /** Counts as stored, skipping anything that is not a number. */
+    public static Map<String, Long> countsFromValue(Object value) {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        if (value instanceof Map) {
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                if (entry.getValue() instanceof Number) {
+                    counts.put(String.valueOf(entry.getKey()), ((Number) entry.getValue()).longValue());
+                }
+            }
+        }
+        return counts;
+    }
+
+    /** Adds {@code changes} to {@code counts}, removing tags that drop to 0 or below. */
+    public static void addTo(Map<String, Long> counts, Map<String, Long> changes) {
+        for (Map.Entry<String, Long> change : changes.entrySet()) {
+            Long count = counts.get(change.getKey());
+            long sum = (count == null ? 0 : count) + change.getValue();
+            if (sum > 0) {
+                counts.put(change.getKey(), sum);
+            } else {
+                counts.remove(change.getKey());
+            }
+        }
+    }
+}
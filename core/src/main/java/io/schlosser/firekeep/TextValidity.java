@@ -0,0 +1,43 @@
+package io.schlosser.firekeep;
+
+/**
+ * Keeps track of whether note text is valid (has at least one non-whitespace
+ * character) while it is being edited. Only the edited region is looked at, so
+ * the cost of a keystroke does not depend on the length of the note.
+ *
+ * Feed it the same arguments as a TextWatcher's beforeTextChanged and
+ * onTextChanged.
+ */
+public class TextValidity {
+
+    private int visibleChars;
+
+    /** Starts over from the full text, e.g. when a note or draft is loaded. */
+    public void reset(CharSequence text) {
+        visibleChars = countVisible(text, 0, text.length());
+    }
+
+    /** {@code count} characters starting at {@code start} are about to be replaced. */
+    public void beforeChange(CharSequence text, int start, int count) {
+        visibleChars -= countVisible(text, start, start + count);
+    }
+
+    /** {@code count} characters starting at {@code start} have just been inserted. */
+    public void afterChange(CharSequence text, int start, int count) {
+        visibleChars += countVisible(text, start, start + count);
+    }
+
+    public boolean isValid() {
+        return visibleChars > 0;
+    }
+
+    private static int countVisible(CharSequence text, int start, int end) {
+        int count = 0;
+        for (int i = start; i < end; i++) {
+            if (!Character.isWhitespace(text.charAt(i))) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,247 @@
+package io.schlosser.firekeep;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class NoteChunksTest {
+
+    @Test
+    public void chunksReassembleToTheText() throws Exception {
+        String text = randomText(50 * 1024, 1);
+        List<String> parts = NoteChunks.split(text);
+        assertTrue(parts.size() > 5);
+
+        StringBuilder joined = new StringBuilder();
+        for (String part : parts) {
+            assertTrue(part.length() <= 8 * 1024);
+            joined.append(part);
+        }
+        assertEquals(text, joined.toString());
+    }
+
+    @Test
+    public void smallEditInLongNoteSendsOnlyChangedChunks() throws Exception {
+        String text = randomText(50 * 1024, 2);
+        Note saved = stored(new NoteBatch("uid").save("1", null, new Note(text, 1, "White")).toUpdate());
+        assertEquals(text, saved.getText());
+
+        // Typo fixed in the middle of the note
+        String edited = text.substring(0, 25000) + "x" + text.substring(25001);
+        Map<String, Object> update = new NoteBatch("uid").save("1", saved, new Note(edited, 1, "White")).toUpdate();
+
+        int chunkWrites = 0;
+        int bytes = 0;
+        for (Map.Entry<String, Object> entry : update.entrySet()) {
+            if (entry.getKey().startsWith("notes/uid/1/chunks/")) {
+                chunkWrites++;
+                bytes += entry.getValue() == null ? 0 : ((String) entry.getValue()).length();
+            }
+        }
+        // One chunk added and the one it replaces removed, sometimes a neighbour too
+        assertTrue("chunk writes " + chunkWrites, chunkWrites <= 4);
+        assertTrue("chunk bytes " + bytes, bytes < 16 * 1024);
+        assertFalse(update.containsKey("notes/uid/1/text"));
+
+        Note merged = merge(saved, update);
+        assertEquals(edited, merged.getText());
+    }
+
+    @Test
+    public void unchangedNoteWritesNothing() throws Exception {
+        String text = randomText(20 * 1024, 3);
+        Note saved = stored(new NoteBatch("uid").save("1", null, new Note(text, 1, "White")).toUpdate());
+        assertTrue(new NoteBatch("uid").save("1", saved, new Note(text, 1, "White")).isEmpty());
+
+        Note shortNote = stored(new NoteBatch("uid").save("2", null, new Note("short", 2, "Red")).toUpdate());
+        assertEquals("short", shortNote.text);
+        assertTrue(new NoteBatch("uid").save("2", shortNote, new Note("short", 2, "Red")).isEmpty());
+
+        // Notes from before textHash existed are hashed on the fly
+        Note legacy = new Note("old note", 3, "Red");
+        assertTrue(new NoteBatch("uid").save("3", legacy, new Note("old note", 3, "Red")).isEmpty());
+        Map<String, Object> recolor = new NoteBatch("uid").save("3", legacy, new Note("old note", 3, "Blue")).toUpdate();
+        assertEquals(5, recolor.size());
+        assertEquals("Blue", recolor.get("notes/uid/3/color"));
+        assertEquals(3L, recolor.get("noteIndex/uid/color/BLUE/3"));
+        assertTrue(recolor.containsKey("noteIndex/uid/color/RED/3"));
+    }
+
+    @Test
+    public void missingChunkIsReported() throws Exception {
+        String text = randomText(30 * 1024, 8);
+        Note saved = stored(new NoteBatch("uid").save("1", null, new Note(text, 1, "White")).toUpdate());
+        assertTrue(saved.isTextIntact());
+
+        Note partial = stored(new NoteBatch("uid").save("1", null, new Note(text, 1, "White")).toUpdate());
+        partial.chunks.remove(NoteChunks.parseOrder(partial.chunkOrder).get(1));
+        assertTrue(partial.getText().length() < text.length());
+        assertFalse(partial.isTextIntact());
+
+        // Short notes and notes from before textHash existed have nothing to check
+        assertTrue(new Note("short", 1, "White").isTextIntact());
+        Note legacy = stored(new NoteBatch("uid").save("1", null, new Note(text, 1, "White")).toUpdate());
+        legacy.textHash = null;
+        legacy.chunks.remove(NoteChunks.parseOrder(legacy.chunkOrder).get(1));
+        assertTrue(legacy.isTextIntact());
+    }
+
+    @Test
+    public void shrinkingBelowThresholdDropsChunks() throws Exception {
+        Note saved = stored(new NoteBatch("uid").save("1", null, new Note(randomText(20 * 1024, 4), 1, "White")).toUpdate());
+        Map<String, Object> update = new NoteBatch("uid").save("1", saved, new Note("now short", 1, "White")).toUpdate();
+
+        assertEquals("now short", update.get("notes/uid/1/text"));
+        assertTrue(update.containsKey("notes/uid/1/chunks"));
+        assertNull(update.get("notes/uid/1/chunks"));
+        assertEquals("now short", merge(saved, update).getText());
+    }
+
+    @Test
+    public void compressedChunksReadBackAndEditIncrementally() throws Exception {
+        String text = randomText(50 * 1024, 5);
+        Note note = new Note(text, 1, "White");
+        note.encoding = NoteCompression.DEFLATE;
+        Map<String, Object> update = new NoteBatch("uid").save("1", null, note).toUpdate();
+        assertEquals(NoteCompression.DEFLATE, update.get("notes/uid/1/encoding"));
+        assertTrue("stored " + chunkChars(update), chunkChars(update) < text.length());
+        // The hash is of the text, not of what is stored
+        assertEquals(NoteChunks.hash(text), update.get("notes/uid/1/textHash"));
+
+        Note saved = stored(update);
+        assertNull(saved.text);
+        assertEquals(text, saved.getText());
+
+        String edited = text.substring(0, 25000) + "x" + text.substring(25001);
+        Note edit = new Note(edited, 1, "White");
+        edit.encoding = NoteCompression.DEFLATE;
+        Map<String, Object> editUpdate = new NoteBatch("uid").save("1", saved, edit).toUpdate();
+        assertTrue("chunk bytes " + chunkChars(editUpdate), chunkChars(editUpdate) < 16 * 1024);
+        assertEquals(edited, merge(saved, editUpdate).getText());
+    }
+
+    @Test
+    public void changingEncodingRewritesEveryChunk() throws Exception {
+        String text = randomText(30 * 1024, 6);
+        Note saved = stored(new NoteBatch("uid").save("1", null, new Note(text, 1, "White")).toUpdate());
+        int chunks = saved.chunks.size();
+
+        // Same text, edited at the end, now compressed
+        Note compressed = new Note(text + "x", 1, "White");
+        compressed.encoding = NoteCompression.DEFLATE;
+        Map<String, Object> update = new NoteBatch("uid").save("1", saved, compressed).toUpdate();
+        assertTrue(chunkWrites(update) >= chunks);
+        Note merged = merge(saved, update);
+        assertEquals(NoteCompression.DEFLATE, merged.encoding);
+        assertEquals(text + "x", merged.getText());
+
+        // And back to plain, below the threshold
+        Map<String, Object> shrunk = new NoteBatch("uid").save("1", merged, new Note("short", 1, "White")).toUpdate();
+        assertTrue(shrunk.containsKey("notes/uid/1/encoding"));
+        assertNull(merge(merged, shrunk).encoding);
+        assertEquals("short", merge(merged, shrunk).getText());
+    }
+
+    @Test
+    public void textThatDoesNotCompressStaysPlain() throws Exception {
+        Random random = new Random(7);
+        StringBuilder text = new StringBuilder();
+        while (text.length() < 20 * 1024) {
+            text.append((char) (' ' + random.nextInt(95)));
+        }
+        Note note = new Note(text.toString(), 1, "White");
+        note.encoding = NoteCompression.DEFLATE;
+        Map<String, Object> update = new NoteBatch("uid").save("1", null, note).toUpdate();
+
+        assertFalse(update.containsKey("notes/uid/1/encoding"));
+        assertEquals(text.length(), chunkChars(update));
+        assertEquals(text.toString(), stored(update).getText());
+    }
+
+    private static int chunkWrites(Map<String, Object> update) {
+        int writes = 0;
+        for (String key : update.keySet()) {
+            if (key.startsWith("notes/uid/1/chunks/")) {
+                writes++;
+            }
+        }
+        return writes;
+    }
+
+    private static int chunkChars(Map<String, Object> update) {
+        int chars = 0;
+        for (Map.Entry<String, Object> entry : update.entrySet()) {
+            if (entry.getKey().startsWith("notes/uid/1/chunks/") && entry.getValue() != null) {
+                chars += ((String) entry.getValue()).length();
+            }
+        }
+        return chars;
+    }
+
+    /** What a reader would decode after the update was applied to an empty note. */
+    private static Note stored(Map<String, Object> update) {
+        return merge(new Note(), update);
+    }
+
+    private static Note merge(Note base, Map<String, Object> update) {
+        Note note = new Note();
+        note.text = base.text;
+        note.dateCreated = base.dateCreated;
+        note.color = base.color;
+        note.chunkOrder = base.chunkOrder;
+        note.textHash = base.textHash;
+        note.encoding = base.encoding;
+        note.chunks = base.chunks == null ? null : new HashMap<>(base.chunks);
+        for (Map.Entry<String, Object> entry : update.entrySet()) {
+            if (!entry.getKey().startsWith("notes/")) {
+                continue;
+            }
+            String[] path = entry.getKey().split("/", 5);
+            String field = path[3];
+            Object value = entry.getValue();
+            if (field.equals("text")) {
+                note.text = (String) value;
+            } else if (field.equals("dateCreated")) {
+                note.dateCreated = (Long) value;
+            } else if (field.equals("color")) {
+                note.color = (String) value;
+            } else if (field.equals("chunkOrder")) {
+                note.chunkOrder = (String) value;
+            } else if (field.equals("textHash")) {
+                note.textHash = (String) value;
+            } else if (field.equals("encoding")) {
+                note.encoding = (String) value;
+            } else if (field.equals("chunks") && path.length == 4) {
+                note.chunks = null;
+            } else if (field.equals("chunks")) {
+                if (note.chunks == null) {
+                    note.chunks = new HashMap<>();
+                }
+                if (value == null) {
+                    note.chunks.remove(path[4]);
+                } else {
+                    note.chunks.put(path[4], (String) value);
+                }
+            }
+        }
+        return note;
+    }
+
+    private static String randomText(int length, long seed) {
+        Random random = new Random(seed);
+        StringBuilder text = new StringBuilder(length);
+        while (text.length() < length) {
+            int word = 1 + random.nextInt(9);
+            for (int i = 0; i < word; i++) {
+                text.append((char) ('a' + random.nextInt(26)));
+            }
+            text.append(random.nextInt(15) == 0 ? ".\n" : " ");
+        }
+        return text.toString();
+    }
+}
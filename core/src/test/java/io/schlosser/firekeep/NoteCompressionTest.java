@@ -0,0 +1,50 @@
+package io.schlosser.firekeep;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class NoteCompressionTest {
+
+    @Test
+    public void survivesRoundTrip() throws Exception {
+        StringBuilder log = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            log.append("2017-03-14 10:22:").append(i % 60).append(" W/FirebaseDatabase: connection lost\n");
+        }
+        String[] texts = {"", "a", "ab", "abc", "caf\u00e9 \uD83D\uDE00", log.toString()};
+        for (String text : texts) {
+            String stored = NoteCompression.encode(NoteCompression.DEFLATE, text);
+            assertTrue(stored.matches("[A-Za-z0-9+/]*=*"));
+            assertEquals(text, NoteCompression.decode(NoteCompression.DEFLATE, stored));
+        }
+        assertTrue(NoteCompression.encode(NoteCompression.DEFLATE, log.toString()).length() < log.length() / 5);
+        assertEquals("plain", NoteCompression.decode(null, NoteCompression.encode(null, "plain")));
+    }
+
+    @Test
+    public void undecodableChunksAreKeptAsStored() throws Exception {
+        Map<String, String> chunks = new HashMap<>();
+        chunks.put("a", NoteCompression.encode(NoteCompression.DEFLATE, "first "));
+        chunks.put("b", "not base64!");
+        chunks.put("c", "QUJD");
+        chunks.put("d", NoteCompression.encode(NoteCompression.DEFLATE, "last"));
+
+        assertEquals("first not base64!QUJDlast", NoteChunks.assemble("a,b,c,d,e", chunks, NoteCompression.DEFLATE));
+
+        Note note = new Note();
+        note.chunkOrder = "a,b,c,d,e";
+        note.chunks = chunks;
+        note.encoding = NoteCompression.DEFLATE;
+        note.textHash = NoteChunks.hash("first plain last");
+        assertFalse(note.isTextIntact());
+        try {
+            NoteCompression.decode("brotli", "QUJD");
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
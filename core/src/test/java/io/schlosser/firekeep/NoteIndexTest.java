@@ -0,0 +1,50 @@
+package io.schlosser.firekeep;
+
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class NoteIndexTest {
+
+    // 2017-03-01T00:00:00Z, and a millisecond before it
+    private static final long MARCH = 1488326400000L;
+
+    @Test
+    public void keys() throws Exception {
+        assertEquals("2017-03", NoteIndex.monthKey(MARCH));
+        assertEquals("2017-02", NoteIndex.monthKey(MARCH - 1));
+        assertEquals("2017-12", NoteIndex.monthKey(2017, 11));
+        assertEquals("RED", NoteIndex.colorKey(" red"));
+        assertEquals("WHITE", NoteIndex.colorKey(null));
+        assertEquals("WHITE", NoteIndex.colorKey("Blanco"));
+    }
+
+    @Test
+    public void newNoteIsIndexedInTheSameUpdate() throws Exception {
+        Map<String, Object> update = new NoteBatch("uid").save("n1", null, new Note("text", MARCH, "Red")).toUpdate();
+        assertEquals(MARCH, update.get("noteIndex/uid/color/RED/n1"));
+        assertEquals(MARCH, update.get("noteIndex/uid/month/2017-03/n1"));
+        assertEquals("Red", update.get("notes/uid/n1/color"));
+    }
+
+    @Test
+    public void editingTextLeavesIndicesAlone() throws Exception {
+        Note saved = new Note("text", MARCH, "Red");
+        Map<String, Object> update = new NoteBatch("uid").save("n1", saved, new Note("edited", MARCH, "Red")).toUpdate();
+        for (String path : update.keySet()) {
+            assertFalse(path, path.startsWith("noteIndex/"));
+        }
+    }
+
+    @Test
+    public void reindexDoesNotTouchTheNote() throws Exception {
+        Map<String, Object> update = new NoteBatch("uid").reindex("n1", new Note("text", MARCH, null)).toUpdate();
+        for (String path : update.keySet()) {
+            assertFalse(path, path.startsWith("notes/"));
+        }
+        assertEquals(MARCH, update.get("noteIndex/uid/color/WHITE/n1"));
+        assertEquals(MARCH, update.get("noteIndex/uid/month/2017-03/n1"));
+    }
+}
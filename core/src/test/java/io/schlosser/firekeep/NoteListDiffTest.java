@@ -0,0 +1,101 @@
+package io.schlosser.firekeep;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class NoteListDiffTest {
+
+    private static final class Row implements NoteListDiff.Row {
+        final NoteCursor cursor;
+        final Note note;
+
+        Row(long dateCreated, String text) {
+            cursor = new NoteCursor(dateCreated, "k" + dateCreated);
+            note = new Note(text, dateCreated, "WHITE");
+        }
+
+        @Override
+        public NoteCursor getCursor() {
+            return cursor;
+        }
+
+        @Override
+        public Note getNote() {
+            return note;
+        }
+    }
+
+    @Test
+    public void updatesTurnOldListIntoNew() throws Exception {
+        List<Row> before = Arrays.asList(row(9), row(8), row(7), row(5), row(4), row(2));
+        List<Row> after = Arrays.asList(row(10), row(9), new Row(7, "edited"), row(6), row(3), row(2), row(1));
+
+        final List<String> shown = new ArrayList<>();
+        for (Row row : before) {
+            shown.add(row.note.text);
+        }
+        final List<Row> target = after;
+        NoteListDiff.calculate(before, after).dispatchUpdatesTo(new NoteListDiff.Callback() {
+            @Override
+            public void onInserted(int position, int count) {
+                for (int i = 0; i < count; i++) {
+                    shown.add(position + i, target.get(position + i).note.text);
+                }
+            }
+
+            @Override
+            public void onRemoved(int position, int count) {
+                shown.subList(position, position + count).clear();
+            }
+
+            @Override
+            public void onChanged(int position, int count) {
+                for (int i = 0; i < count; i++) {
+                    shown.set(position + i, target.get(position + i).note.text);
+                }
+            }
+        });
+
+        List<String> expected = new ArrayList<>();
+        for (Row row : after) {
+            expected.add(row.note.text);
+        }
+        assertEquals(expected, shown);
+    }
+
+    @Test
+    public void coalescesRanges() throws Exception {
+        List<Row> before = Arrays.asList(row(5), row(4), row(3), row(2), row(1));
+        List<Row> after = Arrays.asList(row(7), row(6), row(5), row(1));
+
+        final List<String> calls = new ArrayList<>();
+        NoteListDiff diff = NoteListDiff.calculate(before, after);
+        diff.dispatchUpdatesTo(new NoteListDiff.Callback() {
+            @Override
+            public void onInserted(int position, int count) {
+                calls.add("insert " + position + "+" + count);
+            }
+
+            @Override
+            public void onRemoved(int position, int count) {
+                calls.add("remove " + position + "+" + count);
+            }
+
+            @Override
+            public void onChanged(int position, int count) {
+                calls.add("change " + position + "+" + count);
+            }
+        });
+        assertEquals(Arrays.asList("insert 0+2", "remove 3+3"), calls);
+        assertTrue(NoteListDiff.calculate(before, before).isEmpty());
+    }
+
+    private static Row row(long dateCreated) {
+        return new Row(dateCreated, "note " + dateCreated);
+    }
+}
@@ -0,0 +1,59 @@
+package io.schlosser.firekeep;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+import static org.junit.Assert.*;
+
+public class NoteMapperTest {
+
+    @Test
+    public void survivesRoundTrip() throws Exception {
+        Note note = new Note("buy milk", 1490000000000L, "BLUE");
+        note.archived = true;
+        note.dateModified = 1490000001234L;
+        note.chunks = Collections.singletonMap("abc", "milk");
+        note.chunkOrder = "abc";
+        note.textHash = "0011223344556677";
+        note.encoding = NoteCompression.DEFLATE;
+        note.tags = new TreeSet<>(Arrays.asList("home", "to do"));
+
+        Note read = NoteMapper.fromMap(NoteMapper.toMap(note));
+        assertEquals(note.text, read.text);
+        assertEquals(note.dateCreated, read.dateCreated);
+        assertEquals(note.color, read.color);
+        assertTrue(read.archived);
+        assertEquals(note.dateModified, read.dateModified);
+        assertEquals(note.chunks, read.chunks);
+        assertEquals(note.chunkOrder, read.chunkOrder);
+        assertEquals(note.textHash, read.textHash);
+        assertEquals(note.encoding, read.encoding);
+        assertEquals(note.tags, read.tags);
+    }
+
+    @Test
+    public void skipsUnknownAndMistypedValues() throws Exception {
+        Map<String, Object> value = new HashMap<>();
+        value.put("text", "hello");
+        value.put("dateCreated", 1490000000000.0);
+        value.put("color", 5L);
+        value.put("pinned", true);
+        value.put("chunks", "not a map");
+
+        Note note = NoteMapper.fromValue(value);
+        assertEquals("hello", note.getText());
+        assertEquals(1490000000000L, note.dateCreated);
+        assertNull(note.color);
+        assertNull(note.chunks);
+        assertFalse(note.archived);
+        assertFalse(NoteMapper.toMap(note).containsKey("color"));
+
+        assertNull(NoteMapper.fromValue(null));
+        assertNull(NoteMapper.fromValue("deleted"));
+    }
+}
@@ -0,0 +1,75 @@
+package io.schlosser.firekeep;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class NoteSummariesTest {
+
+    @Test
+    public void longNoteIsSummarizedByItsStart() throws Exception {
+        StringBuilder text = new StringBuilder();
+        while (text.length() < 50000) {
+            text.append("a line of a long note\n");
+        }
+        Map<String, Object> update = new NoteBatch("uid").save("n1", null, new Note(text.toString(), 7, "Red")).toUpdate();
+
+        Map<String, Object> summary = new HashMap<>();
+        for (Map.Entry<String, Object> entry : update.entrySet()) {
+            if (entry.getKey().startsWith("noteSummaries/uid/n1/")) {
+                summary.put(entry.getKey().substring("noteSummaries/uid/n1/".length()), entry.getValue());
+            }
+        }
+        assertEquals(text.substring(0, NoteSummaries.PREVIEW_LENGTH), summary.get("preview"));
+        assertEquals(text.length(), summary.get("length"));
+
+        Note row = NoteSummaries.fromValue(summary);
+        assertEquals(summary.get("preview"), row.getText());
+        assertEquals("Red", row.getColor());
+        assertEquals(7, row.dateCreated);
+        assertFalse(row.archived);
+    }
+
+    @Test
+    public void editsOnlySendWhatChanged() throws Exception {
+        Map<String, Object> archive = new NoteBatch("uid").setArchived(Collections.singletonList("n1"), true).toUpdate();
+        assertEquals(true, archive.get("noteSummaries/uid/n1/archived"));
+
+        Note saved = new Note("short", 7, "Red");
+        Map<String, Object> recolor = new NoteBatch("uid").save("n1", saved, new Note("short", 7, "Blue")).toUpdate();
+        assertEquals("Blue", recolor.get("noteSummaries/uid/n1/color"));
+        assertFalse(recolor.containsKey("noteSummaries/uid/n1/preview"));
+    }
+
+    @Test
+    public void previewKeepsSurrogatePairsWhole() throws Exception {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < NoteSummaries.PREVIEW_LENGTH - 1; i++) {
+            text.append('x');
+        }
+        text.append("\uD83D\uDE00 and more");
+        assertEquals(NoteSummaries.PREVIEW_LENGTH - 1, NoteSummaries.preview(text.toString()).length());
+    }
+
+    @Test
+    public void rowTextIsCutAfterItsLines() throws Exception {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            text.append(i).append('\n');
+        }
+        assertEquals("0\n1\n2\n3\n4\n5\n6\n7", NoteSummaries.rowText(text.toString()));
+        assertEquals("one\ntwo", NoteSummaries.rowText("one\ntwo"));
+        assertEquals("", NoteSummaries.rowText(null));
+
+        String line = "a line of a long note ";
+        StringBuilder longLine = new StringBuilder();
+        while (longLine.length() < 1000) {
+            longLine.append(line);
+        }
+        assertEquals(NoteSummaries.PREVIEW_LENGTH, NoteSummaries.rowText(longLine.toString()).length());
+    }
+}
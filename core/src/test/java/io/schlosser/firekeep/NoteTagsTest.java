@@ -0,0 +1,102 @@
+package io.schlosser.firekeep;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+import static org.junit.Assert.*;
+
+public class NoteTagsTest {
+
+    @Test
+    public void labelsBecomeKeys() throws Exception {
+        assertEquals("to do", NoteTags.key("  To \t Do "));
+        assertEquals("work", NoteTags.key("w.o/r#k$[]"));
+        assertEquals("caf\u00e9", NoteTags.key("Caf\u00c9"));
+        assertNull(NoteTags.key(" ./ "));
+        assertNull(NoteTags.key(null));
+        assertEquals(NoteTags.MAX_LENGTH, NoteTags.key("a very long label that goes on and on").length());
+    }
+
+    @Test
+    public void tagsAreIndexedWithTheNote() throws Exception {
+        Note note = tagged(new Note("text", 7, "Red"), "home", "work");
+        NoteBatch batch = new NoteBatch("uid").save("n1", null, note);
+        Map<String, Object> update = batch.toUpdate();
+
+        assertEquals(7L, update.get("tagIndex/uid/home/n1"));
+        assertEquals(7L, update.get("tagIndex/uid/work/n1"));
+        assertEquals(NoteTags.toValue(note.tags), update.get("notes/uid/n1/tags"));
+        assertEquals(NoteTags.toValue(note.tags), update.get("noteSummaries/uid/n1/tags"));
+        assertEquals(note.tags, NoteSummaries.fromValue(summary(update, "n1")).getTags());
+
+        Map<String, Long> expected = new HashMap<>();
+        expected.put("home", 1L);
+        expected.put("work", 1L);
+        assertEquals(expected, batch.tagCountChanges());
+    }
+
+    @Test
+    public void onlyChangedTagsAreWritten() throws Exception {
+        Note saved = tagged(new Note("text", 7, "Red"), "home", "work");
+        Note edited = tagged(new Note("text", 7, "Red"), "work", "later");
+        NoteBatch batch = new NoteBatch("uid").save("n1", saved, edited);
+        Map<String, Object> update = batch.toUpdate();
+
+        assertTrue(update.containsKey("tagIndex/uid/home/n1"));
+        assertNull(update.get("tagIndex/uid/home/n1"));
+        assertEquals(7L, update.get("tagIndex/uid/later/n1"));
+        assertFalse(update.containsKey("tagIndex/uid/work/n1"));
+
+        Map<String, Long> expected = new HashMap<>();
+        expected.put("home", -1L);
+        expected.put("later", 1L);
+        assertEquals(expected, batch.tagCountChanges());
+
+        NoteBatch unchanged = new NoteBatch("uid").save("n1", saved, tagged(new Note("text", 7, "Red"), "work", "home"));
+        assertTrue(unchanged.isEmpty());
+    }
+
+    @Test
+    public void deletedNotesLeaveTheirTags() throws Exception {
+        NoteCursor first = new NoteCursor(7, "n1");
+        NoteCursor second = new NoteCursor(8, "n2");
+        NoteBatch batch = new NoteBatch("uid")
+                .delete(first, tagged(new Note("a", 7, "Red"), "home"))
+                .delete(second, tagged(new Note("b", 8, "Red"), "home", "work"));
+        Map<String, Object> update = batch.toUpdate();
+
+        assertTrue(update.containsKey("tagIndex/uid/home/n1"));
+        assertTrue(update.containsKey("tagIndex/uid/work/n2"));
+        Map<String, Long> expected = new HashMap<>();
+        expected.put("home", -2L);
+        expected.put("work", -1L);
+        assertEquals(expected, batch.tagCountChanges());
+
+        Map<String, Long> counts = new HashMap<>();
+        counts.put("home", 2L);
+        counts.put("work", 5L);
+        NoteTags.addTo(counts, batch.tagCountChanges());
+        assertEquals(Collections.singletonMap("work", 4L), counts);
+    }
+
+    private static Note tagged(Note note, String... tags) {
+        note.tags = new TreeSet<>(Arrays.asList(tags));
+        return note;
+    }
+
+    private static Map<String, Object> summary(Map<String, Object> update, String noteId) {
+        String prefix = "noteSummaries/uid/" + noteId + "/";
+        Map<String, Object> summary = new HashMap<>();
+        for (Map.Entry<String, Object> entry : update.entrySet()) {
+            if (entry.getKey().startsWith(prefix)) {
+                summary.put(entry.getKey().substring(prefix.length()), entry.getValue());
+            }
+        }
+        return summary;
+    }
+}
@@ -0,0 +1,93 @@
+package io.schlosser.firekeep;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TextValidityTest {
+
+    private final TextValidity validity = new TextValidity();
+    private StringBuilder text;
+
+    @Before
+    public void setUp() throws Exception {
+        text = new StringBuilder();
+        validity.reset(text);
+    }
+
+    @Test
+    public void emptyTextIsNotValid() throws Exception {
+        assertFalse(validity.isValid());
+    }
+
+    @Test
+    public void typingMakesItValid() throws Exception {
+        replace(0, 0, "a");
+        assertTrue(validity.isValid());
+        replace(1, 1, "b");
+        replace(0, 0, "c");
+        assertEquals("cab", text.toString());
+        assertTrue(validity.isValid());
+    }
+
+    @Test
+    public void deletingTheLastVisibleCharacterMakesItInvalid() throws Exception {
+        reset("a b");
+        replace(2, 3, "");
+        assertTrue(validity.isValid());
+        replace(0, 1, "");
+        assertEquals(" ", text.toString());
+        assertFalse(validity.isValid());
+    }
+
+    @Test
+    public void replacingCountsBothSides() throws Exception {
+        reset("  word  ");
+        replace(2, 6, " \t\n");
+        assertFalse(validity.isValid());
+        replace(1, 3, "x");
+        assertTrue(validity.isValid());
+        replace(0, text.length(), "   ");
+        assertFalse(validity.isValid());
+    }
+
+    @Test
+    public void whitespaceOnlyIsNotValid() throws Exception {
+        replace(0, 0, " ");
+        replace(1, 1, "\n");
+        replace(2, 2, "\t");
+        replace(1, 1, "\u2003");
+        assertFalse(validity.isValid());
+    }
+
+    @Test
+    public void pasteInTheMiddle() throws Exception {
+        reset("   ");
+        replace(1, 1, "\n pasted text \n");
+        assertTrue(validity.isValid());
+        replace(1, 16, "");
+        assertEquals("   ", text.toString());
+        assertFalse(validity.isValid());
+    }
+
+    @Test
+    public void resetStartsOver() throws Exception {
+        reset("text");
+        assertTrue(validity.isValid());
+        reset(" \n ");
+        assertFalse(validity.isValid());
+    }
+
+    private void reset(String value) {
+        text = new StringBuilder(value);
+        validity.reset(text);
+    }
+
+    /** Replaces {@code start..end} with {@code value}, telling validity the way a TextWatcher would. */
+    private void replace(int start, int end, String value) {
+        validity.beforeChange(text, start, end - start);
+        text.replace(start, end, value);
+        validity.afterChange(text, start, value.length());
+    }
+}